@@ -10,6 +10,13 @@ create table beast_adaptors_xmlrpc (
   timeout integer
 );
 
+create table beast_adaptors_xmlrpc_pool (
+  adaptor_id integer REFERENCES beast_adaptors(adaptor_id),
+  uri text not null,
+  timeout integer,
+  PRIMARY KEY (adaptor_id, uri)
+);
+
 create table beast_filters (
   filter_id serial primary key,
   type text not null
@@ -231,6 +238,21 @@ create table beast_wrwp_sources (
   source text
 );
 
+create table beast_timeout_journal (
+  rule_id INTEGER NOT NULL,
+  nominal_time VARCHAR(14) NOT NULL,
+  source TEXT NOT NULL DEFAULT '',
+  deadline BIGINT NOT NULL,
+  PRIMARY KEY (rule_id, nominal_time, source)
+);
+
+create table beast_trigger_journal (
+  rule_id INTEGER NOT NULL,
+  nominal_time VARCHAR(14) NOT NULL,
+  triggered BIGINT NOT NULL,
+  PRIMARY KEY (rule_id, nominal_time)
+);
+
 CREATE TABLE beast_authorization
 (
     nodename VARCHAR(128) UNIQUE NOT NULL,
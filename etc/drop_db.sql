@@ -1,6 +1,9 @@
+drop table if exists beast_timeout_journal;
+drop table if exists beast_trigger_journal;
 drop table if exists beast_host_filter;
 drop table if exists beast_scheduled_jobs;
 drop table if exists beast_router_dest;
+drop table if exists beast_adaptors_xmlrpc_pool;
 drop table if exists beast_adaptors_xmlrpc;
 drop table if exists beast_adaptors; 
 drop table if exists beast_composite_detectors;
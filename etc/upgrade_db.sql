@@ -506,6 +506,44 @@ END;
 $$ LANGUAGE plpgsql;
 
 
+CREATE OR REPLACE FUNCTION create_beast_timeout_journal() RETURNS VOID AS $$
+BEGIN
+  PERFORM true FROM information_schema.tables WHERE table_name = 'beast_timeout_journal';
+  IF NOT FOUND THEN
+    create table beast_timeout_journal (
+      rule_id INTEGER NOT NULL,
+      nominal_time VARCHAR(14) NOT NULL,
+      source TEXT NOT NULL DEFAULT '',
+      deadline BIGINT NOT NULL,
+      PRIMARY KEY (rule_id, nominal_time, source)
+    );
+  END IF;
+  PERFORM true FROM information_schema.tables WHERE table_name = 'beast_trigger_journal';
+  IF NOT FOUND THEN
+    create table beast_trigger_journal (
+      rule_id INTEGER NOT NULL,
+      nominal_time VARCHAR(14) NOT NULL,
+      triggered BIGINT NOT NULL,
+      PRIMARY KEY (rule_id, nominal_time)
+    );
+  END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION create_beast_adaptors_xmlrpc_pool() RETURNS VOID AS $$
+BEGIN
+  PERFORM true FROM information_schema.tables WHERE table_name = 'beast_adaptors_xmlrpc_pool';
+  IF NOT FOUND THEN
+    create table beast_adaptors_xmlrpc_pool (
+      adaptor_id integer REFERENCES beast_adaptors(adaptor_id),
+      uri text not null,
+      timeout integer,
+      PRIMARY KEY (adaptor_id, uri)
+    );
+  END IF;
+END;
+$$ LANGUAGE plpgsql;
+
 select create_beast_gmap_rules();
 select create_beast_host_filter();
 select create_beast_acrr_rules();
@@ -539,6 +577,8 @@ select update_beast_gmap_rules_with_use_area_in_path();
 select update_beast_site2d_rules_with_options();
 select update_beast_acrr_rules_with_options();
 select update_beast_gra_rules_with_options();
+select create_beast_timeout_journal();
+select create_beast_adaptors_xmlrpc_pool();
 
 drop function create_beast_gmap_rules();
 drop function create_beast_host_filter();
@@ -573,3 +613,5 @@ drop function update_beast_gmap_rules_with_use_area_in_path();
 drop function update_beast_site2d_rules_with_options();
 drop function update_beast_acrr_rules_with_options();
 drop function update_beast_gra_rules_with_options();
+drop function create_beast_timeout_journal();
+drop function create_beast_adaptors_xmlrpc_pool();
@@ -26,17 +26,23 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcAdaptor;
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcPoolAdaptor;
 import eu.baltrad.beast.log.ISystemReporter;
 import eu.baltrad.beast.log.NullReporter;
+import eu.baltrad.beast.manager.VirtualThreadSupport;
 import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.router.IMultiRoutedMessage;
 import eu.baltrad.beast.router.IRoutedMessage;
@@ -45,7 +51,7 @@ import eu.baltrad.beast.router.IRoutedMessage;
  * @author Anders Henja
  *
  */
-public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
+public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean, DisposableBean {
   /**
    * The available types with their corresponding managers
    */
@@ -61,6 +67,22 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
    */
   private Map<String, IAdaptor> adaptors = null;
   
+  /**
+   * If set, the destinations of a multi routed message are handled concurrently by
+   * this executor instead of one after the other in the calling thread.
+   */
+  private volatile ExecutorService dispatchExecutor = null;
+  
+  /**
+   * If a virtual thread per adaptor dispatch should be used. Requires java 21 or later.
+   */
+  private boolean useVirtualThreads = false;
+  
+  /**
+   * If set, duplicate generate requests are dropped before reaching the adaptors
+   */
+  private GenerateRequestDeduplicator deduplicator = null;
+  
   /**
    * The beast reporter for reporting important system messages
    */
@@ -119,6 +141,42 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
     }
   }
   
+  /**
+   * @param executor the executor to use for dispatching to adaptors, if null dispatching
+   * is performed in the calling thread
+   */
+  public void setDispatchExecutor(ExecutorService executor) {
+    this.dispatchExecutor = executor;
+  }
+  
+  /**
+   * @return the executor used for dispatching to adaptors
+   */
+  public ExecutorService getDispatchExecutor() {
+    return this.dispatchExecutor;
+  }
+  
+  /**
+   * @param useVirtualThreads if each adaptor dispatch should be performed in its own virtual thread
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+  
+  /**
+   * @param deduplicator drops duplicate generate requests, if null all requests are forwarded
+   */
+  public void setDeduplicator(GenerateRequestDeduplicator deduplicator) {
+    this.deduplicator = deduplicator;
+  }
+  
+  /**
+   * @return the deduplicator
+   */
+  public GenerateRequestDeduplicator getDeduplicator() {
+    return this.deduplicator;
+  }
+  
   /**
    * @return the type registry
    */
@@ -325,13 +383,18 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
     if (msg != null) {
       Iterator<String> i = message.getDestinations().iterator();
     
+      ExecutorService executor = dispatchExecutor;
       while (i.hasNext()) {
         String key = i.next();
         try {
           IAdaptor adaptor = adaptors.get(key);
-          if (adaptor != null) {
+          if (adaptor != null && isAccepted(msg, key)) {
             logger.debug("handle(IMultiRoutedMessage): Forwarding to " + key);
-            adaptor.handle(msg);
+            if (executor != null) {
+              dispatch(executor, adaptor, msg, key);
+            } else {
+              forward(adaptor, msg, key);
+            }
           }
         } catch (RuntimeException t) {
           t.printStackTrace();
@@ -340,6 +403,115 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
     }
   }
 
+  /**
+   * @param msg the message
+   * @param destination the destination
+   * @return false if the message is a duplicate that should be dropped
+   */
+  protected boolean isAccepted(IBltMessage msg, String destination) {
+    GenerateRequestDeduplicator d = deduplicator;
+    return d == null || d.accept(msg, destination);
+  }
+  
+  /**
+   * Forgets a message that was accepted but that the adaptor failed to handle so that
+   * it isn't treated as a duplicate when retried.
+   * @param msg the message
+   * @param destination the destination
+   */
+  protected void forget(IBltMessage msg, String destination) {
+    GenerateRequestDeduplicator d = deduplicator;
+    if (d != null) {
+      d.forget(msg, destination);
+    }
+  }
+  
+  /**
+   * Passes an accepted message on to the adaptor. The message is forgotten by the deduplicator
+   * if the adaptor throws. The xmlrpc adaptors may also report a timeout or error through their
+   * callback after handle has returned (asynchronous mode), so when deduplicating they are given
+   * a callback that forgets the message on timeout or error before the adaptor's own callback is called.
+   * @param adaptor the adaptor
+   * @param msg the message
+   * @param destination the destination
+   */
+  protected void forward(IAdaptor adaptor, IBltMessage msg, String destination) {
+    try {
+      if (deduplicator != null && adaptor instanceof XmlRpcAdaptor) {
+        adaptor.handle(msg, new ForgettingCallback(destination, ((XmlRpcAdaptor)adaptor).getCallback()));
+      } else if (deduplicator != null && adaptor instanceof XmlRpcPoolAdaptor) {
+        adaptor.handle(msg, new ForgettingCallback(destination, ((XmlRpcPoolAdaptor)adaptor).getCallback()));
+      } else {
+        adaptor.handle(msg);
+      }
+    } catch (RuntimeException t) {
+      forget(msg, destination);
+      throw t;
+    }
+  }
+  
+  /**
+   * Forgets the message when it times out or fails and then passes the outcome on
+   */
+  private class ForgettingCallback implements IAdaptorCallback {
+    private final String destination;
+    private final IAdaptorCallback delegate;
+    
+    ForgettingCallback(String destination, IAdaptorCallback delegate) {
+      this.destination = destination;
+      this.delegate = delegate;
+    }
+    
+    @Override
+    public void success(IBltMessage message, Object result) {
+      if (delegate != null) {
+        delegate.success(message, result);
+      }
+    }
+    
+    @Override
+    public void timeout(IBltMessage message) {
+      forget(message, destination);
+      if (delegate != null) {
+        delegate.timeout(message);
+      }
+    }
+    
+    @Override
+    public void error(IBltMessage message, Throwable t) {
+      forget(message, destination);
+      if (delegate != null) {
+        delegate.error(message, t);
+      }
+    }
+  }
+  
+  /**
+   * Lets the executor pass the message on to the adaptor. If the executor rejects
+   * the task, the adaptor is called in the current thread instead.
+   * @param executor the executor
+   * @param adaptor the adaptor
+   * @param msg the message
+   * @param destination the name the adaptor is registered as
+   */
+  protected void dispatch(ExecutorService executor, final IAdaptor adaptor, final IBltMessage msg, final String destination) {
+    Runnable r = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          forward(adaptor, msg, destination);
+        } catch (RuntimeException t) {
+          logger.error("Failed to forward message to " + destination, t);
+        }
+      }
+    };
+    try {
+      executor.execute(r);
+    } catch (RejectedExecutionException e) {
+      r.run();
+    }
+  }
+  
   @Override
   public void handle(IRoutedMessage message) {
     String destination = message.getDestination();
@@ -348,13 +520,14 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
       throw new AdaptorException("No adaptor able to handle the route");
     }
     IBltMessage msg = message.getMessage();
-    if (msg != null) {
+    if (msg != null && isAccepted(msg, destination)) {
       logger.debug("handle(IRoutedMessage) Forwarding to " + destination);
-      adaptor.handle(msg);
+      forward(adaptor, msg, destination);
     }
   }
   
   /**
+   * Messages passed with a callback are never deduplicated since the caller expects a response.
    * @see eu.baltrad.beast.adaptor.IBltAdaptorManager#handle(IRoutedMessage, IAdaptorCallback)
    */
   @Override
@@ -378,6 +551,13 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
   public void afterPropertiesSet() throws Exception {
     adaptors = new HashMap<String, IAdaptor>();
     
+    if (dispatchExecutor == null && useVirtualThreads) {
+      dispatchExecutor = VirtualThreadSupport.newVirtualThreadPerTaskExecutor();
+      if (dispatchExecutor == null) {
+        logger.warn("Virtual threads not supported by runtime, dispatching to adaptors in calling thread");
+      }
+    }
+    
     List<IAdaptor> l = template.query("select adaptor_id, name, type from beast_adaptors",
         getAdaptorMapper(),
         (Object[])null);
@@ -389,6 +569,19 @@ public class BltAdaptorManager implements IBltAdaptorManager, InitializingBean {
     }
   }
   
+  /**
+   * Shuts down the dispatch executor if there is one.
+   * @see org.springframework.beans.factory.DisposableBean#destroy()
+   */
+  @Override
+  public void destroy() throws Exception {
+    ExecutorService executor = dispatchExecutor;
+    dispatchExecutor = null;
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+  
   /**
    * Creates a ParameterizedRowMapper instance for fetching the data from the
    * database tables.
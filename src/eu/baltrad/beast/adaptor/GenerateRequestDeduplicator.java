@@ -0,0 +1,293 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltGenerateMessage;
+
+/**
+ * Drops generate requests that are identical to a request that already has been
+ * forwarded to the same destination within a time window. Two requests are identical if
+ * they have the same algorithm, the same files (in any order) and the same arguments.
+ * This happens when the same files are reprocessed or injected again, e.g. after a
+ * restart. A compositing rule that times out is not triggered again for the same
+ * nominal time, and requests with different sets of files are never considered identical.
+ *
+ * Messages that are not generate requests are never dropped.
+ *
+ * The deduplication is disabled by default since a request is remembered when it is
+ * forwarded and not when it has been processed. A request that fails after it has been
+ * forwarded without the failure being reported back through {@link #forget(IBltMessage, String)}
+ * will cause an identical retry within the window to be dropped.
+ * @author Anders Henja
+ */
+public class GenerateRequestDeduplicator {
+  /**
+   * Number of dropped requests and files for one algorithm
+   */
+  public static class Statistics {
+    private long forwarded = 0;
+    private long dropped = 0;
+    private long droppedFiles = 0;
+    
+    /**
+     * @return number of forwarded requests
+     */
+    public synchronized long getForwarded() {
+      return forwarded;
+    }
+    
+    /**
+     * @return number of dropped requests
+     */
+    public synchronized long getDropped() {
+      return dropped;
+    }
+    
+    /**
+     * @return total number of files in the dropped requests
+     */
+    public synchronized long getDroppedFiles() {
+      return droppedFiles;
+    }
+    
+    synchronized void forwarded() {
+      forwarded++;
+    }
+    
+    synchronized void dropped(int files) {
+      dropped++;
+      droppedFiles += files;
+    }
+  }
+  
+  /**
+   * Time in ms a forwarded request is remembered, 0 or less disables the deduplication
+   */
+  private long window = 0;
+  
+  /**
+   * Max number of remembered requests
+   */
+  private int maxSize = 10000;
+  
+  /**
+   * The forwarded requests, key -> time when forwarded. Oldest first.
+   */
+  private final LinkedHashMap<String, Long> forwarded = new LinkedHashMap<String, Long>();
+  
+  /**
+   * The statistics, algorithm -> statistics
+   */
+  private final Map<String, Statistics> statistics = new HashMap<String, Statistics>();
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(GenerateRequestDeduplicator.class);
+  
+  /**
+   * Checks if the message should be forwarded to the destination. If it should, the
+   * message is remembered so that an identical message within the window is dropped.
+   * @param message the message
+   * @param destination the destination (adaptor name)
+   * @return true if the message should be forwarded, false if it is a duplicate
+   */
+  public boolean accept(IBltMessage message, String destination) {
+    if (window <= 0 || !(message instanceof BltGenerateMessage)) {
+      return true;
+    }
+    BltGenerateMessage gmsg = (BltGenerateMessage)message;
+    String key = createKey(gmsg, destination);
+    long now = currentTimeMillis();
+    boolean result = true;
+    synchronized (forwarded) {
+      purge(now);
+      if (forwarded.containsKey(key)) {
+        result = false;
+      } else {
+        forwarded.put(key, now);
+        if (forwarded.size() > maxSize) {
+          Iterator<Long> it = forwarded.values().iterator();
+          it.next();
+          it.remove();
+        }
+      }
+    }
+    
+    Statistics s = getStatistics(gmsg.getAlgorithm());
+    if (result) {
+      s.forwarded();
+    } else {
+      int files = gmsg.getFiles() != null ? gmsg.getFiles().length : 0;
+      s.dropped(files);
+      logger.info("Dropped duplicate " + gmsg.getAlgorithm() + " request with " + files + " files to " + destination);
+    }
+    return result;
+  }
+  
+  /**
+   * Forgets a forwarded message so that an identical message can be forwarded again
+   * within the window. Should be called when the destination failed to process the message.
+   * @param message the message
+   * @param destination the destination (adaptor name)
+   */
+  public void forget(IBltMessage message, String destination) {
+    if (!(message instanceof BltGenerateMessage)) {
+      return;
+    }
+    String key = createKey((BltGenerateMessage)message, destination);
+    synchronized (forwarded) {
+      forwarded.remove(key);
+    }
+  }
+  
+  /**
+   * Returns the statistics for an algorithm
+   * @param algorithm the algorithm
+   * @return the statistics
+   */
+  public Statistics getStatistics(String algorithm) {
+    synchronized (statistics) {
+      Statistics result = statistics.get(algorithm);
+      if (result == null) {
+        result = new Statistics();
+        statistics.put(algorithm, result);
+      }
+      return result;
+    }
+  }
+  
+  /**
+   * @return the statistics for all algorithms, algorithm -> statistics
+   */
+  public Map<String, Statistics> getStatistics() {
+    synchronized (statistics) {
+      return new HashMap<String, Statistics>(statistics);
+    }
+  }
+  
+  /**
+   * @return total number of dropped requests
+   */
+  public long getDropped() {
+    long result = 0;
+    for (Statistics s : getStatistics().values()) {
+      result += s.getDropped();
+    }
+    return result;
+  }
+  
+  /**
+   * @return total number of files in the dropped requests
+   */
+  public long getDroppedFiles() {
+    long result = 0;
+    for (Statistics s : getStatistics().values()) {
+      result += s.getDroppedFiles();
+    }
+    return result;
+  }
+  
+  /**
+   * @return number of remembered requests
+   */
+  public int size() {
+    synchronized (forwarded) {
+      purge(currentTimeMillis());
+      return forwarded.size();
+    }
+  }
+  
+  /**
+   * Creates the key identifying the request. The files are sorted since their
+   * order doesn't affect the product.
+   * @param message the message
+   * @param destination the destination
+   * @return the key
+   */
+  protected String createKey(BltGenerateMessage message, String destination) {
+    String[] files = message.getFiles() != null ? message.getFiles().clone() : new String[0];
+    Arrays.sort(files);
+    StringBuffer buf = new StringBuffer();
+    buf.append(destination).append('\n');
+    buf.append(message.getAlgorithm()).append('\n');
+    buf.append(Arrays.toString(files)).append('\n');
+    buf.append(Arrays.toString(message.getArguments()));
+    return buf.toString();
+  }
+  
+  /**
+   * Forgets all requests forwarded before the window
+   * @param now the current time
+   */
+  private void purge(long now) {
+    Iterator<Long> it = forwarded.values().iterator();
+    while (it.hasNext()) {
+      if (now - it.next() < window) {
+        break;
+      }
+      it.remove();
+    }
+  }
+  
+  /**
+   * @param window time in ms a forwarded request is remembered, 0 or less disables the deduplication
+   */
+  public void setWindow(long window) {
+    this.window = window;
+  }
+  
+  /**
+   * @return time in ms a forwarded request is remembered
+   */
+  public long getWindow() {
+    return window;
+  }
+  
+  /**
+   * @param maxSize max number of remembered requests
+   */
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+  
+  /**
+   * @return max number of remembered requests
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+  
+  /**
+   * @return current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+}
@@ -21,10 +21,19 @@ package eu.baltrad.beast.adaptor.xmlrpc;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.AsyncCallback;
 import org.apache.xmlrpc.client.TimingOutCallback;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
@@ -38,10 +47,141 @@ import eu.baltrad.beast.log.NullReporter;
 import eu.baltrad.beast.message.IBltMessage;
 
 /**
- * The XMLRPC adaptor
+ * The XMLRPC adaptor.
+ * 
+ * By default {@link #handle(IBltMessage, IAdaptorCallback)} waits for the response before returning.
+ * When asynchronous is set, handle returns as soon as the request has been sent and the callback is
+ * called from the xmlrpc client thread when the response arrives (or from a timer thread on timeout).
+ * At most maxOutstanding requests are sent at the same time, further requests are queued and sent when
+ * a response arrives. When maxQueued requests are queued, handle blocks until there is room.
+ * A request that has timed out keeps its slot until the client has given up on it, the client
+ * is configured with the same timeout for connecting and for waiting for the reply.
  * @author Anders Henja
  */
 public class XmlRpcAdaptor implements IAdaptor {
+  /**
+   * A request sent (or to be sent) asynchronously
+   */
+  private class AsyncRequest implements AsyncCallback, Runnable {
+    private final IBltMessage message;
+    private final XmlRpcCommand command;
+    private final IAdaptorCallback cb;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private volatile ScheduledFuture<?> timeoutTask = null;
+    
+    AsyncRequest(IBltMessage message, XmlRpcCommand command, IAdaptorCallback cb) {
+      this.message = message;
+      this.command = command;
+      this.cb = cb;
+    }
+    
+    /**
+     * Sends the request. If the request couldn't be sent the callback is notified
+     * with an error and the request is released like any other failed request.
+     */
+    void execute() {
+      logger.debug("handle: executeAsync(" + command.getMethod() + " - " + Arrays.toString(command.getObjects()) + 
+          " to " + url + ")");
+      try {
+        timeoutTask = getTimer().schedule(this, timeout, TimeUnit.MILLISECONDS);
+        client.executeAsync(command.getMethod(), command.getObjects(), this);
+      } catch (Throwable t) {
+        logger.debug("executeAsync Failed to execute command: ", t);
+        failed(t);
+        finished();
+      }
+    }
+    
+    /**
+     * Called when the client is done with the request. Releases the slot so that the next
+     * queued request can be sent.
+     */
+    private void finished() {
+      if (finished.compareAndSet(false, true)) {
+        release();
+      }
+    }
+    
+    /**
+     * @return true if this is the first time the request is completed
+     */
+    private boolean complete() {
+      if (done.compareAndSet(false, true)) {
+        ScheduledFuture<?> task = timeoutTask;
+        if (task != null) {
+          task.cancel(false);
+        }
+        return true;
+      }
+      return false;
+    }
+    
+    @Override
+    public void handleResult(XmlRpcRequest request, Object result) {
+      if (complete()) {
+        try {
+          logger.debug("executeAsync SUCCESS");
+          if (cb != null) {
+            cb.success(message, result);
+          }
+        } catch (Throwable t) {
+          logger.error("Callback failed", t);
+        }
+      }
+      finished();
+    }
+    
+    @Override
+    public void handleError(XmlRpcRequest request, Throwable t) {
+      failed(t);
+      finished();
+    }
+    
+    /**
+     * Called when the request failed. Notifies the callback unless the request already
+     * has been completed.
+     * @param t the reason
+     */
+    void failed(Throwable t) {
+      if (complete()) {
+        try {
+          logger.debug("executeAsync FAILED");
+          reporter.error("00202", "XMLRPC communication with '%s' FAILED", url);
+          if (cb != null) {
+            cb.error(message, t);
+          }
+        } catch (Throwable e) {
+          logger.error("Callback failed", e);
+        }
+      }
+    }
+    
+    /**
+     * Called by the timer when the request has timed out. The slot is kept since the client
+     * still is waiting for the response.
+     */
+    @Override
+    public void run() {
+      if (complete()) {
+        try {
+          logger.debug("executeAsync TIMEOUT");
+          reporter.warn("00201", "XMLRPC communication with '%s' TIMEOUT", url);
+          if (cb != null) {
+            cb.timeout(message);
+          }
+        } catch (Throwable t) {
+          logger.error("Callback failed", t);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Timer used for timing out asynchronous requests, shared by all adaptors
+   */
+  private static ScheduledExecutorService timer = null;
+  
   /**
    * The xml rpc client.
    */
@@ -77,6 +217,31 @@ public class XmlRpcAdaptor implements IAdaptor {
    */
   private ISystemReporter reporter = null;
   
+  /**
+   * If handle should return without waiting for the response
+   */
+  private boolean asynchronous = false;
+  
+  /**
+   * Max number of asynchronous requests waiting for a response
+   */
+  private int maxOutstanding = 10;
+  
+  /**
+   * Max number of asynchronous requests queued before handle blocks
+   */
+  private int maxQueued = 1000;
+  
+  /**
+   * Number of asynchronous requests waiting for a response
+   */
+  private int outstanding = 0;
+  
+  /**
+   * The queued asynchronous requests
+   */
+  private final LinkedList<AsyncRequest> queue = new LinkedList<AsyncRequest>();
+  
   /**
    * The logger
    */
@@ -131,6 +296,20 @@ public class XmlRpcAdaptor implements IAdaptor {
    */
   public void setTimeout(long timeout) {
     this.timeout = timeout;
+    if (client.getClientConfig() instanceof XmlRpcClientConfigImpl) {
+      setClientTimeouts((XmlRpcClientConfigImpl)client.getClientConfig());
+    }
+  }
+  
+  /**
+   * Lets the client give up on a request after the timeout so that a timed out
+   * request doesn't keep its slot forever.
+   * @param config the client config
+   */
+  private void setClientTimeouts(XmlRpcClientConfigImpl config) {
+    int t = (int)Math.min(timeout, Integer.MAX_VALUE);
+    config.setConnectionTimeout(t);
+    config.setReplyTimeout(t);
   }
   
   /**
@@ -141,6 +320,69 @@ public class XmlRpcAdaptor implements IAdaptor {
     return this.timeout;
   }
   
+  /**
+   * @param asynchronous if handle should return without waiting for the response
+   */
+  public void setAsynchronous(boolean asynchronous) {
+    this.asynchronous = asynchronous;
+  }
+  
+  /**
+   * @return if handle returns without waiting for the response
+   */
+  public boolean isAsynchronous() {
+    return this.asynchronous;
+  }
+  
+  /**
+   * @param maxOutstanding max number of asynchronous requests waiting for a response
+   */
+  public void setMaxOutstanding(int maxOutstanding) {
+    if (maxOutstanding < 1) {
+      throw new IllegalArgumentException("maxOutstanding must be at least 1");
+    }
+    this.maxOutstanding = maxOutstanding;
+  }
+  
+  /**
+   * @return max number of asynchronous requests waiting for a response
+   */
+  public int getMaxOutstanding() {
+    return this.maxOutstanding;
+  }
+  
+  /**
+   * @param maxQueued max number of asynchronous requests queued before handle blocks
+   */
+  public void setMaxQueued(int maxQueued) {
+    this.maxQueued = maxQueued;
+  }
+  
+  /**
+   * @return max number of asynchronous requests queued before handle blocks
+   */
+  public int getMaxQueued() {
+    return this.maxQueued;
+  }
+  
+  /**
+   * @return number of asynchronous requests waiting for a response
+   */
+  public int getOutstanding() {
+    synchronized (queue) {
+      return outstanding;
+    }
+  }
+  
+  /**
+   * @return number of queued asynchronous requests
+   */
+  public int getQueued() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+  
   /**
    * Sets the callback to use
    * @param cb the callback
@@ -149,6 +391,13 @@ public class XmlRpcAdaptor implements IAdaptor {
     this.callback = cb;
   }
   
+  /**
+   * @return the callback used when no callback is passed to handle, may be null
+   */
+  public IAdaptorCallback getCallback() {
+    return this.callback;
+  }
+  
   /**
    * The destination url for the rpc server.
    * @param url - the url
@@ -157,6 +406,7 @@ public class XmlRpcAdaptor implements IAdaptor {
     try {
       XmlRpcClientConfigImpl config = createConfig();
       config.setServerURL(createUrl(url));
+      setClientTimeouts(config);
       client.setConfig(config);
       this.url = url;
     } catch (RuntimeException t) {
@@ -207,6 +457,10 @@ public class XmlRpcAdaptor implements IAdaptor {
    */
   @Override
   public void handle(IBltMessage message, IAdaptorCallback cb) {
+    if (asynchronous) {
+      handleAsync(message, cb);
+      return;
+    }
     try {
       XmlRpcCommand command = generator.generate(message);
       TimingOutCallback tcb = createTimeout(timeout);
@@ -241,6 +495,77 @@ public class XmlRpcAdaptor implements IAdaptor {
     }
   }
   
+  /**
+   * Sends the message without waiting for the response. If there already are maxOutstanding requests
+   * waiting for a response the request is queued.
+   * @param message the message
+   * @param cb the callback, may be null. If the request couldn't be sent, the callback is notified with an error.
+   * @throws AdaptorException if the command couldn't be created
+   */
+  protected void handleAsync(IBltMessage message, IAdaptorCallback cb) {
+    AsyncRequest request = null;
+    try {
+      request = new AsyncRequest(message, generator.generate(message), cb);
+    } catch (RuntimeException t) {
+      logger.debug("executeAsync Failed to execute command: ", t);
+      throw new AdaptorException("Failed to execute command", t);
+    }
+    
+    synchronized (queue) {
+      try {
+        while (outstanding >= maxOutstanding && queue.size() >= maxQueued) {
+          queue.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AdaptorException("Interrupted while waiting for queue", e);
+      }
+      if (outstanding >= maxOutstanding) {
+        queue.add(request);
+        return;
+      }
+      outstanding++;
+    }
+    
+    request.execute();
+  }
+  
+  /**
+   * Called when an asynchronous request has been completed. Sends the next queued request if any.
+   */
+  private void release() {
+    AsyncRequest next = null;
+    synchronized (queue) {
+      next = queue.poll();
+      if (next == null) {
+        outstanding--;
+      }
+      queue.notifyAll();
+    }
+    if (next != null) {
+      next.execute();
+    }
+  }
+  
+  /**
+   * @return the timer used for timing out asynchronous requests
+   */
+  protected ScheduledExecutorService getTimer() {
+    synchronized (XmlRpcAdaptor.class) {
+      if (timer == null) {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "xmlrpc-adaptor-timeout");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+      return timer;
+    }
+  }
+  
   /**
    * Creates a new instance of the XmlRpcClientConfig
    * @return the xml rpc config
@@ -43,6 +43,16 @@ public class XmlRpcConfigurationManager implements IAdaptorConfigurationManager
    */
   private IXmlRpcCommandGenerator generator = null;
   
+  /**
+   * If the created adaptors should return without waiting for the response
+   */
+  private boolean asynchronous = false;
+  
+  /**
+   * Max number of asynchronous requests waiting for a response in each adaptor
+   */
+  private int maxOutstanding = 10;
+  
   /**
    * Default constructor
    */
@@ -65,6 +75,20 @@ public class XmlRpcConfigurationManager implements IAdaptorConfigurationManager
     this.generator = generator;
   }
   
+  /**
+   * @param asynchronous if the created adaptors should return without waiting for the response
+   */
+  public void setAsynchronous(boolean asynchronous) {
+    this.asynchronous = asynchronous;
+  }
+  
+  /**
+   * @param maxOutstanding max number of asynchronous requests waiting for a response in each adaptor
+   */
+  public void setMaxOutstanding(int maxOutstanding) {
+    this.maxOutstanding = maxOutstanding;
+  }
+  
   /**
    * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#createConfiguration(java.lang.String)
    */
@@ -98,6 +122,8 @@ public class XmlRpcConfigurationManager implements IAdaptorConfigurationManager
       result.setUrl(url);
       result.setTimeout(timeout);
       result.setGenerator(this.generator);
+      result.setAsynchronous(this.asynchronous);
+      result.setMaxOutstanding(this.maxOutstanding);
       
       template.update("insert into beast_adaptors_xmlrpc (adaptor_id, uri, timeout) values (?,?,?)",
           new Object[]{id, url, timeout});
@@ -122,6 +148,8 @@ public class XmlRpcConfigurationManager implements IAdaptorConfigurationManager
       result.setUrl(url);
       result.setTimeout(timeout);
       result.setGenerator(this.generator);
+      result.setAsynchronous(this.asynchronous);
+      result.setMaxOutstanding(this.maxOutstanding);
 
       template.update("update beast_adaptors_xmlrpc set uri=?, timeout=? where adaptor_id=?",
           new Object[]{url, timeout, id});
@@ -157,6 +185,8 @@ public class XmlRpcConfigurationManager implements IAdaptorConfigurationManager
       result.setTimeout((Integer)found.get("timeout"));
       result.setUrl((String)found.get("uri"));
       result.setGenerator(this.generator);
+      result.setAsynchronous(this.asynchronous);
+      result.setMaxOutstanding(this.maxOutstanding);
       return result;
     } catch (DataAccessException t) {
       t.printStackTrace();
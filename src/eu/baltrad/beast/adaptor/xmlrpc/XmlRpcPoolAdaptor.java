@@ -0,0 +1,495 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor.xmlrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+
+import eu.baltrad.beast.adaptor.AdaptorAddressException;
+import eu.baltrad.beast.adaptor.AdaptorException;
+import eu.baltrad.beast.adaptor.IAdaptor;
+import eu.baltrad.beast.adaptor.IAdaptorCallback;
+import eu.baltrad.beast.message.IBltMessage;
+
+/**
+ * Adaptor that distributes the messages over several identical endpoints, typically
+ * one {@link XmlRpcAdaptor} for each product generator.
+ * <ul>
+ * <li>The endpoint with the lowest (outstanding requests + 1) * average latency is chosen, so a fast
+ * endpoint will get more requests than a slow one.</li>
+ * <li>An endpoint that has failed failureThreshold times in a row is not used for retryInterval ms.
+ * After that it will get a new request and if that succeeds it is used as usual again.</li>
+ * <li>A request that times out or fails to reach the endpoint is retried on another endpoint, at most
+ * maxRetries times.</li>
+ * <li>Only timeouts and transport failures (see {@link #isTransportFailure(Throwable)}) count against the
+ * health of an endpoint. Any other error is caused by the message itself, e.g. a fault returned by the
+ * server or a message that couldn't be converted to a command, and is passed on to the caller without
+ * retrying since another endpoint would fail in the same way.</li>
+ * </ul>
+ * @author Anders Henja
+ */
+public class XmlRpcPoolAdaptor implements IAdaptor {
+  /**
+   * One endpoint and its statistics
+   */
+  public static class Endpoint {
+    private final IAdaptor adaptor;
+    private int outstanding = 0;
+    private double averageLatency = 0.0;
+    private int consecutiveFailures = 0;
+    private long unhealthyUntil = 0;
+    private long requests = 0;
+    private long failures = 0;
+    
+    Endpoint(IAdaptor adaptor) {
+      this.adaptor = adaptor;
+    }
+    
+    /**
+     * @return the adaptor
+     */
+    public IAdaptor getAdaptor() {
+      return adaptor;
+    }
+    
+    /**
+     * @return number of requests waiting for a response
+     */
+    public synchronized int getOutstanding() {
+      return outstanding;
+    }
+    
+    /**
+     * @return the average (ewma) time in ms for a successful request
+     */
+    public synchronized double getAverageLatency() {
+      return averageLatency;
+    }
+    
+    /**
+     * @return total number of requests
+     */
+    public synchronized long getRequests() {
+      return requests;
+    }
+    
+    /**
+     * @return total number of failed requests (including timeouts)
+     */
+    public synchronized long getFailures() {
+      return failures;
+    }
+    
+    synchronized boolean isHealthy(long now, int failureThreshold) {
+      return consecutiveFailures < failureThreshold || now >= unhealthyUntil;
+    }
+    
+    synchronized double getScore() {
+      return (outstanding + 1) * Math.max(averageLatency, 1.0);
+    }
+    
+    synchronized long getUnhealthyUntil() {
+      return unhealthyUntil;
+    }
+    
+    synchronized void started() {
+      outstanding++;
+      requests++;
+    }
+    
+    synchronized void succeeded(long latency) {
+      outstanding--;
+      consecutiveFailures = 0;
+      averageLatency = (averageLatency == 0.0) ? latency : 0.8 * averageLatency + 0.2 * latency;
+    }
+    
+    synchronized void released() {
+      outstanding--;
+    }
+    
+    synchronized boolean failed(long now, int failureThreshold, long retryInterval) {
+      outstanding--;
+      failures++;
+      consecutiveFailures++;
+      if (consecutiveFailures >= failureThreshold) {
+        unhealthyUntil = now + retryInterval;
+        return true;
+      }
+      return false;
+    }
+  }
+  
+  /**
+   * A message and the endpoints it has been sent to
+   */
+  private static class Request {
+    final IBltMessage message;
+    final IAdaptorCallback cb;
+    final Set<Endpoint> tried = new HashSet<Endpoint>();
+    int retries = 0;
+    
+    Request(IBltMessage message, IAdaptorCallback cb) {
+      this.message = message;
+      this.cb = cb;
+    }
+  }
+  
+  /**
+   * Receives the outcome of a request sent to an endpoint
+   */
+  private class Dispatch implements IAdaptorCallback {
+    private final Request request;
+    private final Endpoint endpoint;
+    private final long started;
+    private boolean done = false;
+    
+    Dispatch(Request request, Endpoint endpoint) {
+      this.request = request;
+      this.endpoint = endpoint;
+      this.started = currentTimeMillis();
+    }
+    
+    /**
+     * @return true the first time it is called
+     */
+    synchronized boolean finish() {
+      if (done) {
+        return false;
+      }
+      done = true;
+      return true;
+    }
+    
+    @Override
+    public void success(IBltMessage message, Object result) {
+      if (finish()) {
+        endpoint.succeeded(currentTimeMillis() - started);
+        if (request.cb != null) {
+          request.cb.success(request.message, result);
+        }
+      }
+    }
+    
+    @Override
+    public void timeout(IBltMessage message) {
+      if (finish()) {
+        failed(endpoint);
+        if (!retry(request)) {
+          if (request.cb != null) {
+            request.cb.timeout(request.message);
+          }
+        }
+      }
+    }
+    
+    @Override
+    public void error(IBltMessage message, Throwable t) {
+      if (finish()) {
+        if (!isTransportFailure(t)) {
+          endpoint.released();
+          if (request.cb != null) {
+            request.cb.error(request.message, t);
+          }
+          return;
+        }
+        failed(endpoint);
+        if (!retry(request)) {
+          if (request.cb != null) {
+            request.cb.error(request.message, t);
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * The name of this adaptor
+   */
+  private String name = null;
+  
+  /**
+   * The endpoints
+   */
+  private List<Endpoint> endpoints = new ArrayList<Endpoint>();
+  
+  /**
+   * The default callback
+   */
+  private IAdaptorCallback callback = null;
+  
+  /**
+   * Max number of times a request is retried on another endpoint
+   */
+  private int maxRetries = 1;
+  
+  /**
+   * Number of consecutive failures before an endpoint is considered unhealthy
+   */
+  private int failureThreshold = 3;
+  
+  /**
+   * Time in ms an unhealthy endpoint is left alone
+   */
+  private long retryInterval = 30000;
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(XmlRpcPoolAdaptor.class);
+  
+  /**
+   * @see IAdaptor#getName()
+   */
+  @Override
+  public String getName() {
+    return this.name;
+  }
+  
+  /**
+   * @param name the name of this adaptor
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+  
+  /**
+   * @see IAdaptor#getType()
+   */
+  @Override
+  public String getType() {
+    return XmlRpcPoolAdaptorConfiguration.TYPE;
+  }
+  
+  /**
+   * @param adaptors the adaptors for each endpoint
+   */
+  public synchronized void setAdaptors(List<? extends IAdaptor> adaptors) {
+    List<Endpoint> result = new ArrayList<Endpoint>();
+    for (IAdaptor adaptor : adaptors) {
+      result.add(new Endpoint(adaptor));
+    }
+    this.endpoints = result;
+  }
+  
+  /**
+   * @return the endpoints
+   */
+  public synchronized List<Endpoint> getEndpoints() {
+    return new ArrayList<Endpoint>(endpoints);
+  }
+  
+  /**
+   * @param cb the default callback
+   */
+  public void setCallback(IAdaptorCallback cb) {
+    this.callback = cb;
+  }
+  
+  /**
+   * @return the default callback, may be null
+   */
+  public IAdaptorCallback getCallback() {
+    return this.callback;
+  }
+  
+  /**
+   * @param maxRetries max number of times a request is retried on another endpoint
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+  
+  /**
+   * @return max number of times a request is retried on another endpoint
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+  
+  /**
+   * @param failureThreshold number of consecutive failures before an endpoint is considered unhealthy
+   */
+  public void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+  
+  /**
+   * @return number of consecutive failures before an endpoint is considered unhealthy
+   */
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+  
+  /**
+   * @param retryInterval time in ms an unhealthy endpoint is left alone
+   */
+  public void setRetryInterval(long retryInterval) {
+    this.retryInterval = retryInterval;
+  }
+  
+  /**
+   * @return time in ms an unhealthy endpoint is left alone
+   */
+  public long getRetryInterval() {
+    return retryInterval;
+  }
+  
+  /**
+   * @see IAdaptor#handle(IBltMessage)
+   */
+  @Override
+  public void handle(IBltMessage msg) {
+    handle(msg, this.callback);
+  }
+  
+  /**
+   * @see IAdaptor#handle(IBltMessage, IAdaptorCallback)
+   */
+  @Override
+  public void handle(IBltMessage msg, IAdaptorCallback cb) {
+    dispatch(new Request(msg, cb));
+  }
+  
+  /**
+   * Sends the request to the best endpoint that hasn't been tried. If the endpoint can't be
+   * reached, the next one is tried.
+   * @param request the request
+   * @throws AdaptorException if there are no more endpoints to try or if the message couldn't be handled
+   */
+  private void dispatch(Request request) {
+    while (true) {
+      Endpoint endpoint = select(request.tried);
+      if (endpoint == null) {
+        throw new AdaptorException("No endpoint available in " + name);
+      }
+      request.tried.add(endpoint);
+      endpoint.started();
+      Dispatch dispatch = new Dispatch(request, endpoint);
+      try {
+        endpoint.getAdaptor().handle(request.message, dispatch);
+        return;
+      } catch (RuntimeException e) {
+        if (!dispatch.finish()) {
+          // outcome already delivered through the callback
+          logger.info("Adaptor " + endpoint.getAdaptor().getName() + " failed after handling message: " + e.getMessage());
+          return;
+        }
+        if (!isTransportFailure(e)) {
+          endpoint.released();
+          throw (e instanceof AdaptorException) ? (AdaptorException)e : new AdaptorException("Failed to handle message", e);
+        }
+        failed(endpoint);
+        if (request.retries >= maxRetries) {
+          throw (e instanceof AdaptorException) ? (AdaptorException)e : new AdaptorException("Failed to handle message", e);
+        }
+        logger.info("Adaptor " + endpoint.getAdaptor().getName() + " failed to handle message, trying next: " + e.getMessage());
+        request.retries++;
+      }
+    }
+  }
+  
+  /**
+   * Retries the request on another endpoint if allowed
+   * @param request the request
+   * @return true if the request was sent again
+   */
+  private boolean retry(Request request) {
+    if (request.retries >= maxRetries) {
+      return false;
+    }
+    request.retries++;
+    try {
+      dispatch(request);
+      return true;
+    } catch (AdaptorException e) {
+      logger.info("Could not retry message in " + name + ": " + e.getMessage());
+      return false;
+    }
+  }
+  
+  /**
+   * Returns if the error means that the endpoint couldn't be reached, i.e. an I/O error, a HTTP error
+   * status or a bad address somewhere in the chain of causes. Errors returned by the server and errors
+   * in the message itself are not transport failures.
+   * @param t the error
+   * @return true if the error is a transport failure
+   */
+  protected boolean isTransportFailure(Throwable t) {
+    int depth = 0;
+    while (t != null && depth++ < 10) {
+      if (t instanceof IOException || t instanceof XmlRpcHttpTransportException || t instanceof AdaptorAddressException) {
+        return true;
+      }
+      t = t.getCause();
+    }
+    return false;
+  }
+  
+  /**
+   * Registers a failure for the endpoint
+   * @param endpoint the endpoint
+   */
+  private void failed(Endpoint endpoint) {
+    if (endpoint.failed(currentTimeMillis(), failureThreshold, retryInterval)) {
+      logger.warn("Adaptor " + endpoint.getAdaptor().getName() + " in " + name + " is unhealthy, not used for " + retryInterval + " ms");
+    }
+  }
+  
+  /**
+   * Selects the healthy endpoint with the lowest score that hasn't been tried. If there are no
+   * healthy endpoints, the one that will become healthy first is used.
+   * @param tried the endpoints that already has been tried
+   * @return the endpoint or null if all endpoints has been tried
+   */
+  protected synchronized Endpoint select(Set<Endpoint> tried) {
+    long now = currentTimeMillis();
+    Endpoint best = null;
+    double bestScore = 0.0;
+    Endpoint fallback = null;
+    for (Endpoint e : endpoints) {
+      if (tried.contains(e)) {
+        continue;
+      }
+      if (e.isHealthy(now, failureThreshold)) {
+        double score = e.getScore();
+        if (best == null || score < bestScore) {
+          best = e;
+          bestScore = score;
+        }
+      } else if (fallback == null || e.getUnhealthyUntil() < fallback.getUnhealthyUntil()) {
+        fallback = e;
+      }
+    }
+    return best != null ? best : fallback;
+  }
+  
+  /**
+   * @return current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,127 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor.xmlrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.baltrad.beast.adaptor.IAdaptorConfiguration;
+
+/**
+ * Configuration of an adaptor that distributes the messages over several identical
+ * xmlrpc servers.
+ * @author Anders Henja
+ */
+public class XmlRpcPoolAdaptorConfiguration implements IAdaptorConfiguration {
+  public final static String TYPE = "XMLRPC_POOL";
+  
+  /**
+   * The name of the adaptor
+   */
+  private String name = null;
+  
+  /**
+   * The urls of the rpc servers
+   */
+  private List<String> urls = new ArrayList<String>();
+  
+  /**
+   * The timeout before assuming that an xmlrpc request has gone wrong
+   */
+  private long timeout = 5000;
+  
+  /**
+   * Default constructor
+   */
+  public XmlRpcPoolAdaptorConfiguration() {
+    this(null);
+  }
+  
+  /**
+   * Constructor
+   * @param name the name of the adaptor
+   */
+  public XmlRpcPoolAdaptorConfiguration(String name) {
+    this.name = name;
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfiguration#getName()
+   */
+  @Override
+  public String getName() {
+    return this.name;
+  }
+  
+  /**
+   * Sets the name for the adaptor
+   * @param name the name of the adaptor
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+  
+  /**
+   * Sets the urls of the rpc servers
+   * @param urls the urls
+   */
+  public void setURLs(List<String> urls) {
+    this.urls = new ArrayList<String>(urls);
+  }
+  
+  /**
+   * Adds the url of a rpc server
+   * @param url the url
+   */
+  public void addURL(String url) {
+    this.urls.add(url);
+  }
+  
+  /**
+   * Returns the urls of the rpc servers
+   * @return the urls
+   */
+  public List<String> getURLs() {
+    return this.urls;
+  }
+  
+  /**
+   * Sets the timeout (before the adaptor should assume that the request has gone wrong)
+   * @param timeout the timeout
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+  
+  /**
+   * Returns the timeout
+   * @return the timeout
+   */
+  public long getTimeout() {
+    return this.timeout;
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfiguration#getType()
+   */
+  @Override
+  public String getType() {
+    return TYPE;
+  }
+}
@@ -0,0 +1,218 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor.xmlrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import eu.baltrad.beast.adaptor.AdaptorException;
+import eu.baltrad.beast.adaptor.IAdaptor;
+import eu.baltrad.beast.adaptor.IAdaptorConfiguration;
+import eu.baltrad.beast.adaptor.IAdaptorConfigurationManager;
+
+/**
+ * Manages the configuration of {@link XmlRpcPoolAdaptor}s. Each url is stored as a row
+ * in beast_adaptors_xmlrpc_pool.
+ * @author Anders Henja
+ */
+public class XmlRpcPoolConfigurationManager implements IAdaptorConfigurationManager {
+  /**
+   * The jdbc template
+   */
+  private JdbcOperations template = null;
+  
+  /**
+   * The xmlrpc command generator, will be set in all created adaptors
+   */
+  private IXmlRpcCommandGenerator generator = null;
+  
+  /**
+   * If the endpoint adaptors should return without waiting for the response
+   */
+  private boolean asynchronous = false;
+  
+  /**
+   * Max number of times a request is retried on another endpoint
+   */
+  private int maxRetries = 1;
+  
+  /**
+   * Default constructor
+   */
+  public XmlRpcPoolConfigurationManager() {
+  }
+  
+  /**
+   * Sets the jdbc template, used for testing.
+   * @param template the template to set
+   */
+  public void setJdbcTemplate(JdbcOperations template) {
+    this.template = template;
+  }
+  
+  /**
+   * The command generator to be added to the adaptors;
+   * @param generator
+   */
+  public void setGenerator(IXmlRpcCommandGenerator generator) {
+    this.generator = generator;
+  }
+  
+  /**
+   * @param asynchronous if the endpoint adaptors should return without waiting for the response
+   */
+  public void setAsynchronous(boolean asynchronous) {
+    this.asynchronous = asynchronous;
+  }
+  
+  /**
+   * @param maxRetries max number of times a request is retried on another endpoint
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#getType()
+   */
+  @Override
+  public String getType() {
+    return XmlRpcPoolAdaptorConfiguration.TYPE;
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#createConfiguration(java.lang.String)
+   */
+  @Override
+  public IAdaptorConfiguration createConfiguration(String name) {
+    return new XmlRpcPoolAdaptorConfiguration(name);
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#store(int, eu.baltrad.beast.adaptor.IAdaptorConfiguration)
+   */
+  @Override
+  public IAdaptor store(int id, IAdaptorConfiguration configuration) {
+    XmlRpcPoolAdaptorConfiguration config = (XmlRpcPoolAdaptorConfiguration)configuration;
+    // Create the adaptor first to verify the urls before storing anything
+    IAdaptor result = createAdaptor(config.getName(), config.getURLs(), config.getTimeout());
+    try {
+      insertUrls(id, config);
+    } catch (DataAccessException t) {
+      throw new AdaptorException("Could not store XMLRPC pool adaptor: " + config.getName(), t);
+    }
+    return result;
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#update(int, eu.baltrad.beast.adaptor.IAdaptorConfiguration)
+   */
+  @Override
+  public IAdaptor update(int id, IAdaptorConfiguration configuration) {
+    XmlRpcPoolAdaptorConfiguration config = (XmlRpcPoolAdaptorConfiguration)configuration;
+    IAdaptor result = createAdaptor(config.getName(), config.getURLs(), config.getTimeout());
+    try {
+      template.update("delete from beast_adaptors_xmlrpc_pool where adaptor_id=?", new Object[]{id});
+      insertUrls(id, config);
+    } catch (DataAccessException t) {
+      throw new AdaptorException("Could not update XMLRPC pool adaptor: " + config.getName(), t);
+    }
+    return result;
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#remove(int)
+   */
+  @Override
+  public void remove(int id) {
+    try {
+      template.update("delete from beast_adaptors_xmlrpc_pool where adaptor_id=?", new Object[]{id});
+    } catch (DataAccessException t) {
+      throw new AdaptorException("Could not remove adaptor", t);
+    }
+  }
+  
+  /**
+   * @see eu.baltrad.beast.adaptor.IAdaptorConfigurationManager#read(int, String)
+   */
+  @Override
+  public IAdaptor read(int id, String name) {
+    List<Map<String, Object>> found = null;
+    try {
+      found = template.queryForList("select uri, timeout from beast_adaptors_xmlrpc_pool where adaptor_id=? order by uri",
+          new Object[]{id});
+    } catch (DataAccessException t) {
+      throw new AdaptorException("Could not read XMLRPC pool adaptor: " + name, t);
+    }
+    List<String> urls = new ArrayList<String>();
+    long timeout = 5000;
+    for (Map<String, Object> row : found) {
+      urls.add((String)row.get("uri"));
+      if (row.get("timeout") != null) {
+        timeout = ((Number)row.get("timeout")).longValue();
+      }
+    }
+    return createAdaptor(name, urls, timeout);
+  }
+  
+  /**
+   * Stores the urls
+   * @param id the adaptor id
+   * @param config the configuration
+   */
+  protected void insertUrls(int id, XmlRpcPoolAdaptorConfiguration config) {
+    for (String url : config.getURLs()) {
+      template.update("insert into beast_adaptors_xmlrpc_pool (adaptor_id, uri, timeout) values (?,?,?)",
+          new Object[]{id, url, config.getTimeout()});
+    }
+  }
+  
+  /**
+   * Creates the adaptor with one xmlrpc adaptor for each url
+   * @param name the name of the adaptor
+   * @param urls the urls
+   * @param timeout the timeout
+   * @return the adaptor
+   * @throws AdaptorException if there are no urls or an url is bad
+   */
+  protected XmlRpcPoolAdaptor createAdaptor(String name, List<String> urls, long timeout) {
+    if (urls == null || urls.isEmpty()) {
+      throw new AdaptorException("XMLRPC pool adaptor " + name + " must have at least one url");
+    }
+    List<XmlRpcAdaptor> adaptors = new ArrayList<XmlRpcAdaptor>();
+    for (String url : urls) {
+      XmlRpcAdaptor adaptor = new XmlRpcAdaptor();
+      adaptor.setName(name + "[" + url + "]");
+      adaptor.setUrl(url);
+      adaptor.setTimeout(timeout);
+      adaptor.setGenerator(this.generator);
+      adaptor.setAsynchronous(this.asynchronous);
+      adaptors.add(adaptor);
+    }
+    XmlRpcPoolAdaptor result = new XmlRpcPoolAdaptor();
+    result.setName(name);
+    result.setAdaptors(adaptors);
+    result.setMaxRetries(this.maxRetries);
+    return result;
+  }
+}
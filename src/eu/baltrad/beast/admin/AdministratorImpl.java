@@ -28,8 +28,10 @@ import org.codehaus.jackson.map.SerializationConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import eu.baltrad.beast.adaptor.IAdaptor;
+import eu.baltrad.beast.adaptor.IAdaptorConfiguration;
 import eu.baltrad.beast.adaptor.IBltAdaptorManager;
 import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcAdaptorConfiguration;
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcPoolAdaptorConfiguration;
 import eu.baltrad.beast.admin.command.AdaptorCommand;
 import eu.baltrad.beast.admin.command.AnomalyDetectorCommand;
 import eu.baltrad.beast.admin.command.HelpCommand;
@@ -153,15 +155,29 @@ public class AdministratorImpl implements Administrator {
    */
   protected void addOrUpdateAdaptor(Adaptor adaptorToHandle) {
     IAdaptor adaptor = getAdaptorManager().getAdaptor(adaptorToHandle.getName());
-    XmlRpcAdaptorConfiguration conf = (XmlRpcAdaptorConfiguration)getAdaptorManager().createConfiguration(adaptorToHandle.getType(), adaptorToHandle.getName());
-    conf.setURL(adaptorToHandle.getUri());
-    conf.setTimeout(adaptorToHandle.getTimeout());
+    IAdaptorConfiguration conf = getAdaptorManager().createConfiguration(adaptorToHandle.getType(), adaptorToHandle.getName());
+    String uri = adaptorToHandle.getUri();
+    if (conf instanceof XmlRpcPoolAdaptorConfiguration) {
+      XmlRpcPoolAdaptorConfiguration poolConf = (XmlRpcPoolAdaptorConfiguration)conf;
+      List<String> uris = new ArrayList<String>(adaptorToHandle.getUris());
+      if (uris.isEmpty() && uri != null) {
+        uris.add(uri);
+      }
+      poolConf.setURLs(uris);
+      poolConf.setTimeout(adaptorToHandle.getTimeout());
+      uri = uris.toString();
+    } else if (conf instanceof XmlRpcAdaptorConfiguration) {
+      ((XmlRpcAdaptorConfiguration)conf).setURL(uri);
+      ((XmlRpcAdaptorConfiguration)conf).setTimeout(adaptorToHandle.getTimeout());
+    } else {
+      throw new AdministratorException("Unsupported adaptor type: " + adaptorToHandle.getType());
+    }
     
     if (adaptor == null) {
-      logger.info("Registering adaptor: " + adaptorToHandle.getName() + ", URI: '" + adaptorToHandle.getUri() + "'");
+      logger.info("Registering adaptor: " + adaptorToHandle.getName() + ", URI: '" + uri + "'");
       getAdaptorManager().register(conf);
     } else {
-      logger.info("Reregistering adaptor: " + adaptorToHandle.getName() + ", URI: " + adaptorToHandle.getUri());
+      logger.info("Reregistering adaptor: " + adaptorToHandle.getName() + ", URI: " + uri);
       getAdaptorManager().reregister(conf);
     }
   }
@@ -677,6 +677,10 @@ public class JsonCommandParserImpl implements JsonCommandParser {
     } else if (method.equals(AdaptorCommand.ADD)) {
       buffer.append("Adds an adaptor to the system. Format is:\n");
       buffer.append(createFullCommand(method, new Adaptor("RAVE","XMLRPC","http://localhost:8085/RAVE",5000)));
+      buffer.append("\n\nAn adaptor of type XMLRPC_POOL takes a list of uris instead of uri, like this\n");
+      Adaptor pool = new Adaptor("RAVE","XMLRPC_POOL",null,5000);
+      pool.setUris(Arrays.asList("http://host1:8085/RAVE","http://host2:8085/RAVE"));
+      buffer.append(createFullCommand(method, pool));
     } else if (method.equals(AdaptorCommand.UPDATE)) {
       buffer.append("Updates an adaptor in the system. Format of full command is\n");
       buffer.append(createFullCommand(method, new Adaptor("RAVE","XMLRPC","http://localhost:8085/RAVE",5000)));
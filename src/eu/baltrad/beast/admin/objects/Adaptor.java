@@ -18,10 +18,16 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 ------------------------------------------------------------------------*/
 package eu.baltrad.beast.admin.objects;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.codehaus.jackson.map.annotate.JsonRootName;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 
 import eu.baltrad.beast.adaptor.IAdaptor;
 import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcAdaptor;
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcPoolAdaptor;
 
 /**
  * Adaptor container used by the adaptor command
@@ -32,6 +38,7 @@ public class Adaptor {
   private String name = null;
   private String type = "XMLRPC";
   private String uri = null;
+  private List<String> uris = new ArrayList<String>();
   private long timeout = 5000;
   
   /**
@@ -126,6 +133,21 @@ public class Adaptor {
     this.uri = uri;
   }
 
+  /**
+   * @return the uris of the endpoints when type is XMLRPC_POOL
+   */
+  @JsonSerialize(include=Inclusion.NON_EMPTY)
+  public List<String> getUris() {
+    return uris;
+  }
+
+  /**
+   * @param uris the uris of the endpoints when type is XMLRPC_POOL
+   */
+  public void setUris(List<String> uris) {
+    this.uris = (uris != null) ? new ArrayList<String>(uris) : new ArrayList<String>();
+  }
+
   /**
    * @return the timeout
    */
@@ -151,6 +173,19 @@ public class Adaptor {
       this.setTimeout(xra.getTimeout());
       this.setType(xra.getType());
       this.setUri(xra.getUrl());
+    } else if (adaptor instanceof XmlRpcPoolAdaptor) {
+      XmlRpcPoolAdaptor xpa = (XmlRpcPoolAdaptor)adaptor;
+      List<String> urls = new ArrayList<String>();
+      this.setName(xpa.getName());
+      this.setType(xpa.getType());
+      for (XmlRpcPoolAdaptor.Endpoint endpoint : xpa.getEndpoints()) {
+        if (endpoint.getAdaptor() instanceof XmlRpcAdaptor) {
+          XmlRpcAdaptor xra = (XmlRpcAdaptor)endpoint.getAdaptor();
+          urls.add(xra.getUrl());
+          this.setTimeout(xra.getTimeout());
+        }
+      }
+      this.setUris(urls);
     }
   }
 }
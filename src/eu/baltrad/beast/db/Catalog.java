@@ -21,6 +21,7 @@ package eu.baltrad.beast.db;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
 
 import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.InitializingBean;
@@ -39,6 +40,21 @@ public class Catalog implements InitializingBean {
    * The file catalog
    */
   private FileCatalog fc = null;
+  
+  /**
+   * Limits the number of concurrent queries towards the database. Null if there is no limit.
+   */
+  private Semaphore querySemaphore = null;
+  
+  /**
+   * The max number of concurrent queries, 0 if there is no limit
+   */
+  private int maxConcurrentQueries = 0;
+  
+  /**
+   * Cache of recently stored files, null if no cache should be used
+   */
+  private CatalogCache cache = null;
 
   /**
    * @param fc the catalog to set
@@ -55,29 +71,85 @@ public class Catalog implements InitializingBean {
   }
   
   /**
-   * Returns a list of entries by applying the provided filter.
+   * Sets the maximum number of concurrent fetch queries. Should be set to a value that the
+   * database connection pool can manage when many threads are routing messages at the same time.
+   * @param maxConcurrentQueries the max number of concurrent queries, 0 or less means no limit
+   */
+  public void setMaxConcurrentQueries(int maxConcurrentQueries) {
+    if (maxConcurrentQueries > 0) {
+      this.querySemaphore = new Semaphore(maxConcurrentQueries, true);
+      this.maxConcurrentQueries = maxConcurrentQueries;
+    } else {
+      this.querySemaphore = null;
+      this.maxConcurrentQueries = 0;
+    }
+  }
+  
+  /**
+   * @return the max number of concurrent fetch queries, 0 if there is no limit
+   */
+  public int getMaxConcurrentQueries() {
+    return maxConcurrentQueries;
+  }
+  
+  /**
+   * @param cache the cache used for serving cacheable filters, null to always query the database
+   */
+  public void setCache(CatalogCache cache) {
+    this.cache = cache;
+  }
+  
+  /**
+   * @return the cache
+   */
+  public CatalogCache getCache() {
+    return this.cache;
+  }
+  
+  /**
+   * Returns a list of entries by applying the provided filter. If a cache
+   * has been set and the filter is a {@link ICacheableCatalogFilter} the cache
+   * is used when it is able to serve the query.
    * @param filter the filter to use
    * @return a list of entries
    */
   public List<CatalogEntry> fetch(ICatalogFilter filter) {
+    CatalogCache c = cache;
+    if (c != null && filter instanceof ICacheableCatalogFilter) {
+      List<CatalogEntry> cached = c.fetch((ICacheableCatalogFilter)filter);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    
     List<CatalogEntry> result = new ArrayList<CatalogEntry>();
     FileQuery q = new FileQuery();
     
     filter.apply(q);
     
-    FileResult set = fc.getDatabase().execute(q);
+    Semaphore semaphore = querySemaphore;
+    if (semaphore != null) {
+      semaphore.acquireUninterruptibly();
+    }
     try {
-      while (set.next()) {
-        FileEntry fEntry = set.getFileEntry();
-        CatalogEntry cEntry = new CatalogEntry();
-        cEntry.setFileEntry(fEntry);
-        result.add(cEntry);
+      FileResult set = fc.getDatabase().execute(q);
+      try {
+        while (set.next()) {
+          FileEntry fEntry = set.getFileEntry();
+          CatalogEntry cEntry = new CatalogEntry();
+          cEntry.setFileEntry(fEntry);
+          result.add(cEntry);
+        }
+      } catch (RuntimeException t) {
+        t.printStackTrace();
+      } finally {
+        if (set != null) {
+          set.close();
+        }
       }
-    } catch (RuntimeException t) {
-      t.printStackTrace();
     } finally {
-      if (set != null) {
-        set.close();
+      if (semaphore != null) {
+        semaphore.release();
       }
     }
     return result;
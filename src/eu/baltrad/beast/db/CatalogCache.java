@@ -0,0 +1,325 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.db;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.bdb.util.Date;
+import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.bdb.util.Time;
+
+/**
+ * In memory cache of recently stored files that can serve
+ * {@link ICacheableCatalogFilter}s without querying the database.
+ * <p>
+ * The cache is fed with the files of the incoming data messages and indexes
+ * them on object type and nominal (what/date + what/time) time. Since only
+ * files that have passed through the cache are known, a query is only served
+ * when its time window starts after the point in time from which the cache
+ * is known to be complete, i.e. when the cache was created or the nominal
+ * time of the newest evicted file, whichever is latest. Files are evicted
+ * when they are older than the retention period or when the cache grows
+ * beyond the maximum number of files.
+ * @author Anders Henja
+ */
+public class CatalogCache {
+  /**
+   * Default max number of files in the cache
+   */
+  public static final int DEFAULT_MAX_SIZE = 20000;
+  
+  /**
+   * Default retention in seconds
+   */
+  public static final long DEFAULT_RETENTION = 3L * 60L * 60L;
+  
+  /**
+   * object type -> nominal time (ms since epoch) -> entries
+   */
+  private Map<String, NavigableMap<Long, List<CatalogEntry>>> index = new HashMap<String, NavigableMap<Long, List<CatalogEntry>>>();
+  
+  /**
+   * The uuids of the cached files
+   */
+  private Set<String> uuids = new HashSet<String>();
+  
+  /**
+   * Nominal times from this time (ms since epoch) and onward are completely known by the cache
+   */
+  private long coverageStart = 0;
+  
+  /**
+   * Max number of files
+   */
+  private int maxSize = DEFAULT_MAX_SIZE;
+  
+  /**
+   * Retention in seconds
+   */
+  private long retention = DEFAULT_RETENTION;
+  
+  /**
+   * Metrics
+   */
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  
+  /**
+   * Default constructor
+   */
+  public CatalogCache() {
+    coverageStart = currentTimeMillis();
+  }
+  
+  /**
+   * @param maxSize the max number of files to keep in the cache
+   */
+  public synchronized void setMaxSize(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+  }
+  
+  /**
+   * @return the max number of files to keep in the cache
+   */
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+  
+  /**
+   * @param retention how long (in seconds) files should be kept, counted on the nominal time
+   */
+  public synchronized void setRetention(long retention) {
+    if (retention <= 0) {
+      throw new IllegalArgumentException("retention must be positive");
+    }
+    this.retention = retention;
+  }
+  
+  /**
+   * @return the retention in seconds
+   */
+  public synchronized long getRetention() {
+    return retention;
+  }
+  
+  /**
+   * Adds a newly stored file to the cache
+   * @param file the file
+   */
+  public void add(FileEntry file) {
+    CatalogEntry entry = createEntry(file);
+    String object = entry.getObject();
+    DateTime dt = entry.getDateTime();
+    if (object == null || dt == null) {
+      return;
+    }
+    long t = toMillis(dt.getDate(), dt.getTime());
+    String uuid = entry.getUuid();
+    
+    synchronized (this) {
+      if (t < coverageStart || uuids.contains(uuid)) {
+        return;
+      }
+      NavigableMap<Long, List<CatalogEntry>> times = index.get(object);
+      if (times == null) {
+        times = new TreeMap<Long, List<CatalogEntry>>();
+        index.put(object, times);
+      }
+      List<CatalogEntry> entries = times.get(t);
+      if (entries == null) {
+        entries = new ArrayList<CatalogEntry>();
+        times.put(t, entries);
+      }
+      entries.add(entry);
+      uuids.add(uuid);
+      evict();
+    }
+  }
+  
+  /**
+   * Returns the entries matching the filter if the cache can serve it.
+   * @param filter the filter
+   * @return the entries or null if the cache can not serve the filter
+   */
+  public List<CatalogEntry> fetch(ICacheableCatalogFilter filter) {
+    DateTime start = filter.getStartDateTime();
+    if (start == null || filter.getObject() == null) {
+      synchronized (this) {
+        misses++;
+      }
+      return null;
+    }
+    long from = toMillis(start.getDate(), start.getTime());
+    DateTime stop = filter.getStopDateTime();
+    
+    List<CatalogEntry> candidates = new ArrayList<CatalogEntry>();
+    synchronized (this) {
+      evict();
+      if (from < coverageStart) {
+        misses++;
+        return null;
+      }
+      NavigableMap<Long, List<CatalogEntry>> times = index.get(filter.getObject());
+      if (times != null) {
+        NavigableMap<Long, List<CatalogEntry>> window = (stop == null) ? 
+            times.tailMap(from, true) : times.subMap(from, true, toMillis(stop.getDate(), stop.getTime()), false);
+        for (List<CatalogEntry> entries : window.values()) {
+          candidates.addAll(entries);
+        }
+      }
+      hits++;
+    }
+    
+    List<CatalogEntry> result = new ArrayList<CatalogEntry>();
+    for (CatalogEntry entry : candidates) {
+      if (filter.matches(entry.getFileEntry())) {
+        result.add(entry);
+      }
+    }
+    return filter.order(result);
+  }
+  
+  /**
+   * Removes all files from the cache. Since the cache no longer knows about
+   * previously stored files, only queries from now on can be served.
+   */
+  public synchronized void clear() {
+    index.clear();
+    uuids.clear();
+    coverageStart = Math.max(coverageStart, currentTimeMillis());
+  }
+  
+  /**
+   * @return the number of files in the cache
+   */
+  public synchronized int size() {
+    return uuids.size();
+  }
+  
+  /**
+   * @return the number of queries served by the cache
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+  
+  /**
+   * @return the number of queries that could not be served by the cache
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * @return the number of evicted files
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+  
+  /**
+   * Checks if a date time is within the window start (inclusive) and stop (exclusive)
+   * @param dt the date time
+   * @param start the start, null if no start
+   * @param stop the stop, null if no stop
+   * @return true if within the window
+   */
+  public static boolean isWithin(DateTime dt, DateTime start, DateTime stop) {
+    return (start == null || !start.isAfter(dt)) && (stop == null || stop.isAfter(dt));
+  }
+  
+  /**
+   * @param file the file
+   * @return the catalog entry for the file
+   */
+  protected CatalogEntry createEntry(FileEntry file) {
+    return new CatalogEntry(file);
+  }
+  
+  /**
+   * @return the current time in ms since epoch
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+  
+  /**
+   * Evicts files older than the retention and the oldest files while
+   * the cache is larger than max size. Must be called while synchronized.
+   */
+  private void evict() {
+    long limit = currentTimeMillis() - retention * 1000L;
+    if (limit > coverageStart) {
+      coverageStart = limit;
+    }
+    while (true) {
+      String oldestObject = null;
+      Long oldest = null;
+      for (Map.Entry<String, NavigableMap<Long, List<CatalogEntry>>> e : index.entrySet()) {
+        if (!e.getValue().isEmpty()) {
+          Long k = e.getValue().firstKey();
+          if (oldest == null || k < oldest) {
+            oldest = k;
+            oldestObject = e.getKey();
+          }
+        }
+      }
+      if (oldest == null || (oldest >= coverageStart && uuids.size() <= maxSize)) {
+        break;
+      }
+      List<CatalogEntry> removed = index.get(oldestObject).remove(oldest);
+      for (CatalogEntry entry : removed) {
+        uuids.remove(entry.getUuid());
+        evictions++;
+      }
+      if (oldest >= coverageStart) {
+        // Evicted due to size, files with this nominal time are no longer known
+        coverageStart = oldest + 1;
+      }
+    }
+  }
+  
+  /**
+   * Converts a date and time (UTC) into ms since epoch
+   * @param d the date
+   * @param t the time
+   * @return ms since epoch
+   */
+  protected static long toMillis(Date d, Time t) {
+    Calendar c = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    c.clear();
+    c.set(d.year(), d.month() - 1, d.day(), t.hour(), t.minute(), t.second());
+    return c.getTimeInMillis();
+  }
+}
@@ -0,0 +1,60 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.db;
+
+import java.util.List;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * A catalog filter that also can be evaluated in memory so that it can be
+ * served by the {@link CatalogCache} without querying the database.
+ * @author Anders Henja
+ */
+public interface ICacheableCatalogFilter extends ICatalogFilter {
+  /**
+   * @return the object type (what/object) the filter selects
+   */
+  public String getObject();
+  
+  /**
+   * @return the start (inclusive) of the time window, if null the filter can not be served by the cache
+   */
+  public DateTime getStartDateTime();
+  
+  /**
+   * @return the stop (exclusive) of the time window, null means open ended
+   */
+  public DateTime getStopDateTime();
+  
+  /**
+   * Evaluates the same criterias as {@link #apply(eu.baltrad.bdb.db.FileQuery)} on a file
+   * @param file the file
+   * @return true if the file would have been returned by the query
+   */
+  public boolean matches(FileEntry file);
+  
+  /**
+   * Orders and limits the matching entries the same way as the query does
+   * @param entries the matching entries, may be modified
+   * @return the ordered entries
+   */
+  public List<CatalogEntry> order(List<CatalogEntry> entries);
+}
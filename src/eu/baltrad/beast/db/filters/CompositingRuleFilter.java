@@ -19,6 +19,8 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.db.filters;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import eu.baltrad.bdb.db.FileEntry;
@@ -28,7 +30,9 @@ import eu.baltrad.bdb.expr.ExpressionFactory;
 import eu.baltrad.bdb.oh5.MetadataMatcher;
 import eu.baltrad.bdb.util.DateTime;
 
-import eu.baltrad.beast.db.ICatalogFilter;
+import eu.baltrad.beast.db.CatalogCache;
+import eu.baltrad.beast.db.CatalogEntry;
+import eu.baltrad.beast.db.ICacheableCatalogFilter;
 import eu.baltrad.beast.db.IFilter;
 
 /**
@@ -63,10 +67,12 @@ import eu.baltrad.beast.db.IFilter;
  * stop date/time but if you ignore both you probably want to use
  * a different filter.
  * 
+ * When a start date/time is specified the query can also be served by the
+ * {@link CatalogCache}, see {@link #matches(FileEntry)} and {@link #order(List)}.
  * 
  * @author Mats Vernersson
  */
-public class CompositingRuleFilter implements ICatalogFilter {
+public class CompositingRuleFilter implements ICacheableCatalogFilter {
   /**
    * The object type
    */
@@ -172,7 +178,80 @@ public class CompositingRuleFilter implements ICatalogFilter {
     return matcher.match(file.getMetadata(), filterExpression);
   }
   
+  /**
+   * Checks if the file would have been returned when applying this filter
+   * to a query, i.e. same as {@link #fileMatches(FileEntry)} but without the
+   * additional filter and with the start - stop period.
+   * @see eu.baltrad.beast.db.ICacheableCatalogFilter#matches(eu.baltrad.bdb.db.FileEntry)
+   */
+  @Override
+  public boolean matches(FileEntry file) {
+    DateTime dt = new DateTime(file.getMetadata().getWhatDate(), file.getMetadata().getWhatTime());
+    if (!CatalogCache.isWithin(dt, startDateTime, stopDateTime)) {
+      return false;
+    }
+    return matcher.match(file.getMetadata(), getFilterExpression(false, false));
+  }
+  
+  /**
+   * Orders the entries like the query, lowest elevation angle first if scan based and
+   * then oldest file first.
+   * @see eu.baltrad.beast.db.ICacheableCatalogFilter#order(java.util.List)
+   */
+  @Override
+  public List<CatalogEntry> order(List<CatalogEntry> entries) {
+    Collections.sort(entries, new Comparator<CatalogEntry>() {
+      @Override
+      public int compare(CatalogEntry o1, CatalogEntry o2) {
+        if (scanBased) {
+          int result = compareElevationAngle(o1, o2);
+          if (result != 0) {
+            return result;
+          }
+        }
+        DateTime dt1 = o1.getDateTime();
+        DateTime dt2 = o2.getDateTime();
+        if (dt1.isAfter(dt2)) {
+          return 1;
+        } else if (dt2.isAfter(dt1)) {
+          return -1;
+        }
+        return 0;
+      }
+    });
+    return entries;
+  }
+  
+  /**
+   * Compares the /dataset1/where/elangle of two entries, entries without angle are placed last
+   * @param o1 the first entry
+   * @param o2 the second entry
+   * @return the comparison result
+   */
+  protected int compareElevationAngle(CatalogEntry o1, CatalogEntry o2) {
+    Object a1 = o1.getAttribute("/dataset1/where/elangle");
+    Object a2 = o2.getAttribute("/dataset1/where/elangle");
+    if (a1 instanceof Number && a2 instanceof Number) {
+      return Double.compare(((Number)a1).doubleValue(), ((Number)a2).doubleValue());
+    } else if (a1 instanceof Number) {
+      return -1;
+    } else if (a2 instanceof Number) {
+      return 1;
+    }
+    return 0;
+  }
+  
   protected Expression getFilterExpression(boolean dbQuery) {
+    return getFilterExpression(dbQuery, !dbQuery);
+  }
+  
+  /**
+   * Creates the filter expression
+   * @param includePeriod if the start - stop period should be part of the expression
+   * @param includeAdditional if the additional file filter should be part of the expression
+   * @return the expression
+   */
+  protected Expression getFilterExpression(boolean includePeriod, boolean includeAdditional) {
     Expression datetimeAttr = getDateTimeAttribute();
 
     List<Expression> filters = new ArrayList<Expression>();
@@ -186,14 +265,15 @@ public class CompositingRuleFilter implements ICatalogFilter {
       filters.add(xprFactory.in(getSourceAttribute(), xprFactory.list(sourceList)));
     }
 
-    if (dbQuery) {
+    if (includePeriod) {
       if (startDateTime != null) {
         filters.add(xprFactory.ge(datetimeAttr, xprFactory.literal(startDateTime)));
       }
       if (stopDateTime != null) {
         filters.add(xprFactory.lt(datetimeAttr, xprFactory.literal(stopDateTime)));
       }
-    } else {    
+    }
+    if (includeAdditional) {
       if (additionalFileFilter != null) {
         filters.add(additionalFileFilter.getExpression());
       }
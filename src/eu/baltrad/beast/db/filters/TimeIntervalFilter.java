@@ -19,14 +19,21 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.db.filters;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
+import eu.baltrad.bdb.db.FileEntry;
 import eu.baltrad.bdb.db.FileQuery;
 import eu.baltrad.bdb.expr.Expression;
 import eu.baltrad.bdb.expr.ExpressionFactory;
+import eu.baltrad.bdb.oh5.Metadata;
+import eu.baltrad.bdb.oh5.MetadataMatcher;
 import eu.baltrad.bdb.util.DateTime;
 
-import eu.baltrad.beast.db.ICatalogFilter;
+import eu.baltrad.beast.db.CatalogCache;
+import eu.baltrad.beast.db.CatalogEntry;
+import eu.baltrad.beast.db.ICacheableCatalogFilter;
 
 /**
  * Fetches all objects that are within a specified start - stop
@@ -44,9 +51,12 @@ import eu.baltrad.beast.db.ICatalogFilter;
  * by descending date/time which means that if you specify limit 1 it will
  * be the most recent time within the time interval.
  * 
+ * When a start date/time is specified the query can also be served by the
+ * {@link CatalogCache}.
+ * 
  * @author Anders Henja
  */
-public class TimeIntervalFilter implements ICatalogFilter {
+public class TimeIntervalFilter implements ICacheableCatalogFilter {
   /**
    * The object type
    */
@@ -112,6 +122,57 @@ public class TimeIntervalFilter implements ICatalogFilter {
     }
   }
   
+  /**
+   * @see eu.baltrad.beast.db.ICacheableCatalogFilter#matches(eu.baltrad.bdb.db.FileEntry)
+   */
+  @Override
+  public boolean matches(FileEntry file) {
+    Metadata metadata = file.getMetadata();
+    if (object == null || !object.equals(metadata.getWhatObject())) {
+      return false;
+    }
+    if (source != null && !source.equals(file.getSource().getName())) {
+      return false;
+    }
+    DateTime dt = new DateTime(metadata.getWhatDate(), metadata.getWhatTime());
+    if (!CatalogCache.isWithin(dt, startDT, stopDT)) {
+      return false;
+    }
+    if (quantity != null) {
+      ExpressionFactory xpr = new ExpressionFactory();
+      return new MetadataMatcher().match(metadata, xpr.eq(xpr.attribute("what/quantity"), xpr.literal(quantity)));
+    }
+    return true;
+  }
+  
+  /**
+   * If a limit has been specified, the entries are ordered with the most recent first and
+   * limited, otherwise the entries are returned as is.
+   * @see eu.baltrad.beast.db.ICacheableCatalogFilter#order(java.util.List)
+   */
+  @Override
+  public List<CatalogEntry> order(List<CatalogEntry> entries) {
+    if (this.limit > 0) {
+      Collections.sort(entries, new Comparator<CatalogEntry>() {
+        @Override
+        public int compare(CatalogEntry o1, CatalogEntry o2) {
+          DateTime dt1 = o1.getDateTime();
+          DateTime dt2 = o2.getDateTime();
+          if (dt1.isAfter(dt2)) {
+            return -1;
+          } else if (dt2.isAfter(dt1)) {
+            return 1;
+          }
+          return 0;
+        }
+      });
+      if (entries.size() > this.limit) {
+        return new ArrayList<CatalogEntry>(entries.subList(0, this.limit));
+      }
+    }
+    return entries;
+  }
+  
   /**
    * Sets the start date time
    * @param dt the date time to set
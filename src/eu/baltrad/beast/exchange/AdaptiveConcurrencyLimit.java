@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package eu.baltrad.beast.exchange;
+
+/**
+ * Limits the number of concurrent requests to a node and adjusts the limit using
+ * additive increase / multiplicative decrease (AIMD). Each successful request increases
+ * the limit with 1/limit, i.e. about one step per round of requests, while a failed or
+ * slow request halves it. A request is considered slow when it takes more than slowFactor
+ * times the average latency.
+ * @author anders
+ */
+public class AdaptiveConcurrencyLimit {
+  /**
+   * Min limit
+   */
+  private final int minLimit;
+  
+  /**
+   * Max limit
+   */
+  private final int maxLimit;
+  
+  /**
+   * Current limit
+   */
+  private double limit;
+  
+  /**
+   * Number of ongoing requests
+   */
+  private int inFlight = 0;
+  
+  /**
+   * Exponentially weighted moving average of the latency in ms, negative until first measurement
+   */
+  private double averageLatency = -1.0;
+  
+  /**
+   * A request taking longer than this factor times the average latency is considered slow
+   */
+  private double slowFactor = 2.0;
+  
+  /**
+   * Requests faster than this (ms) are never considered slow
+   */
+  private long minSlowLatency = 1000;
+  
+  /**
+   * Constructor
+   * @param minLimit the min (and initial) limit
+   * @param maxLimit the max limit
+   */
+  public AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = this.minLimit;
+  }
+  
+  /**
+   * Waits until a request can be performed within the limit
+   * @param timeout max time to wait in ms
+   * @return true if the request may be performed, then {@link #release()} must be called afterwards
+   * @throws InterruptedException if interrupted
+   */
+  public synchronized boolean acquire(long timeout) throws InterruptedException {
+    long end = System.currentTimeMillis() + timeout;
+    while (inFlight >= getLimit()) {
+      long remaining = end - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    inFlight++;
+    return true;
+  }
+  
+  /**
+   * Releases a request acquired with {@link #acquire(long)}
+   */
+  public synchronized void release() {
+    inFlight--;
+    notifyAll();
+  }
+  
+  /**
+   * Reports a successful request
+   * @param latency the time the request took in ms
+   */
+  public synchronized void onSuccess(long latency) {
+    boolean slow = averageLatency >= 0 && latency > minSlowLatency && latency > slowFactor * averageLatency;
+    averageLatency = (averageLatency < 0) ? latency : 0.8 * averageLatency + 0.2 * latency;
+    if (slow) {
+      decrease();
+    } else {
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+    notifyAll();
+  }
+  
+  /**
+   * Reports a failed request
+   */
+  public synchronized void onFailure() {
+    decrease();
+  }
+  
+  private void decrease() {
+    limit = Math.max(minLimit, limit / 2.0);
+  }
+  
+  /**
+   * @return the current limit
+   */
+  public synchronized int getLimit() {
+    return (int)limit;
+  }
+  
+  /**
+   * @return number of ongoing requests
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+  
+  /**
+   * @return the average latency in ms, 0 if nothing has been measured
+   */
+  public synchronized long getAverageLatency() {
+    return averageLatency < 0 ? 0 : (long)averageLatency;
+  }
+  
+  /**
+   * @param slowFactor a request taking longer than this factor times the average latency is considered slow
+   */
+  public synchronized void setSlowFactor(double slowFactor) {
+    this.slowFactor = slowFactor;
+  }
+  
+  /**
+   * @param minSlowLatency requests faster than this (ms) are never considered slow
+   */
+  public synchronized void setMinSlowLatency(long minSlowLatency) {
+    this.minSlowLatency = minSlowLatency;
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * 
+ */
+package eu.baltrad.beast.exchange;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Circuit breaker that stops sending to a node that keeps failing. After a number of
+ * consecutive failures the circuit is opened and no requests are allowed. When the open
+ * timeout has passed the circuit becomes half open and one probe request is allowed. If the
+ * probe succeeds the circuit is closed again, otherwise it is reopened with twice the timeout
+ * (up to a max). The probe is owned by the thread that was allowed to send it, so the outcome and
+ * release of the probe must be reported from that thread. Outcomes reported by other threads,
+ * e.g. from requests allowed before the circuit opened, can't end the probe.
+ * @author anders
+ */
+public class CircuitBreaker {
+  /**
+   * The states
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+  
+  /**
+   * Name used when logging
+   */
+  private final String name;
+  
+  /**
+   * Number of consecutive failures that opens the circuit
+   */
+  private int failureThreshold = 5;
+  
+  /**
+   * Initial time in ms that the circuit is kept open
+   */
+  private long openTimeout = 30000;
+  
+  /**
+   * Max time in ms that the circuit is kept open
+   */
+  private long maxOpenTimeout = 10 * 60 * 1000;
+  
+  /**
+   * Current state
+   */
+  private State state = State.CLOSED;
+  
+  /**
+   * Number of consecutive failures
+   */
+  private int failures = 0;
+  
+  /**
+   * When the circuit was opened
+   */
+  private long openedAt = 0;
+  
+  /**
+   * Current time the circuit is kept open
+   */
+  private long currentOpenTimeout = openTimeout;
+  
+  /**
+   * The thread sending the ongoing probe request, null if no probe is ongoing
+   */
+  private Thread probeOwner = null;
+  
+  /**
+   * The logger
+   */
+  private final static Logger logger = LogManager.getLogger(CircuitBreaker.class);
+  
+  /**
+   * Constructor
+   * @param name the name used when logging
+   */
+  public CircuitBreaker(String name) {
+    this.name = name;
+  }
+  
+  /**
+   * Checks if a request is allowed. If allowed, the outcome should be reported with {@link #onSuccess()}
+   * or {@link #onFailure()} and then {@link #release()} should be called.
+   * @return true if the request is allowed
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN) {
+      if (currentTimeMillis() - openedAt < currentOpenTimeout) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+    }
+    if (state == State.HALF_OPEN) {
+      if (probeOwner != null) {
+        return false;
+      }
+      probeOwner = Thread.currentThread();
+    }
+    return true;
+  }
+  
+  /**
+   * Releases an allowed request. If it was a probe that didn't report any outcome, another probe is allowed.
+   */
+  public synchronized void release() {
+    endProbe();
+  }
+  
+  /**
+   * Reports a successful request
+   */
+  public synchronized void onSuccess() {
+    failures = 0;
+    endProbe();
+    if (state != State.CLOSED) {
+      logger.info("Circuit for " + name + " closed");
+      state = State.CLOSED;
+      currentOpenTimeout = openTimeout;
+    }
+  }
+  
+  /**
+   * Reports a failed request
+   */
+  public synchronized void onFailure() {
+    failures++;
+    boolean probe = endProbe();
+    if (state == State.HALF_OPEN) {
+      if (!probe) {
+        // a request that was allowed before the circuit opened, wait for the probe
+        return;
+      }
+      currentOpenTimeout = Math.min(maxOpenTimeout, currentOpenTimeout * 2);
+      open();
+    } else if (state == State.CLOSED && failures >= failureThreshold) {
+      currentOpenTimeout = openTimeout;
+      open();
+    }
+  }
+  
+  /**
+   * Ends the probe if it is owned by the current thread
+   * @return true if the current thread owned the probe
+   */
+  private boolean endProbe() {
+    if (probeOwner == Thread.currentThread()) {
+      probeOwner = null;
+      return true;
+    }
+    return false;
+  }
+  
+  private void open() {
+    logger.warn("Circuit for " + name + " opened for " + currentOpenTimeout + " ms after " + failures + " consecutive failures");
+    state = State.OPEN;
+    openedAt = currentTimeMillis();
+  }
+  
+  /**
+   * @return the state
+   */
+  public synchronized State getState() {
+    if (state == State.OPEN && currentTimeMillis() - openedAt >= currentOpenTimeout) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+  
+  /**
+   * @return time in ms until a probe will be allowed, 0 if not open
+   */
+  public synchronized long getRemainingOpenTime() {
+    if (state != State.OPEN) {
+      return 0;
+    }
+    return Math.max(0, currentOpenTimeout - (currentTimeMillis() - openedAt));
+  }
+  
+  /**
+   * @return number of consecutive failures
+   */
+  public synchronized int getConsecutiveFailures() {
+    return failures;
+  }
+  
+  /**
+   * @param failureThreshold number of consecutive failures that opens the circuit
+   */
+  public synchronized void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+  
+  /**
+   * @param openTimeout initial time in ms that the circuit is kept open
+   */
+  public synchronized void setOpenTimeout(long openTimeout) {
+    this.openTimeout = openTimeout;
+    this.currentOpenTimeout = openTimeout;
+  }
+  
+  /**
+   * @param maxOpenTimeout max time in ms that the circuit is kept open
+   */
+  public synchronized void setMaxOpenTimeout(long maxOpenTimeout) {
+    this.maxOpenTimeout = maxOpenTimeout;
+  }
+  
+  /**
+   * @return the current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+}
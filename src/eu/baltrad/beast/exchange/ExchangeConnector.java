@@ -44,6 +44,13 @@ public interface ExchangeConnector {
    */
   public ExchangeResponse send(SendFileRequest request);
   
+  /**
+   * Prepares the parts of a file request that are independent of the receiver, like the
+   * content digest, so that they can be reused when the same file is sent to several nodes.
+   * @param request the request
+   */
+  public void prepare(SendFileRequest request);
+  
   /**
    * Parses an input stream (most likely formatted as a json object) and translates it into an object within the exchange message
    * @param json the input stream
@@ -3,6 +3,7 @@
  */
 package eu.baltrad.beast.exchange;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.HashMap;
@@ -12,9 +13,13 @@ import org.apache.http.HttpStatus;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.bouncycastle.util.Arrays;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import eu.baltrad.beast.security.Authorization;
 import eu.baltrad.beast.security.AuthorizationException;
@@ -27,7 +32,7 @@ import eu.baltrad.beast.security.ISecurityManager;
  * @author anders
  *
  */
-public class ExchangeManager implements IExchangeManager {
+public class ExchangeManager implements IExchangeManager, InitializingBean, DisposableBean {
   /**
    * The authorization manager
    */
@@ -59,17 +64,35 @@ public class ExchangeManager implements IExchangeManager {
   private Map<String, IPooledFileRequestPublisher> pooledPublishers = new HashMap<String, IPooledFileRequestPublisher>();
   
   /**
-   * Number of available slots that can be published before they are beeing rejected
+   * Default number of queued files per node when the queues are persisted
    */
-  private int queueSize = 100;
+  public static final int DEFAULT_PERSISTENT_QUEUE_SIZE = 1000;
   
   /**
-   * Number of idling threads (1 is usually a good idea)
+   * Default number of queued files per node when the queues only are kept in memory
+   */
+  public static final int DEFAULT_MEMORY_QUEUE_SIZE = 100;
+  
+  /**
+   * Number of queued files per node before the oldest are moved to the dead letters,
+   * 0 or less means that the default for the queue type is used
+   */
+  private int queueSize = 0;
+  
+  /**
+   * Directory where the outbound queues are persisted, null if they only should be kept in memory.
+   * Defaults to null which means that the queues are not durable, files that haven't been sent
+   * are lost when the node is restarted.
+   */
+  private String queueDirectory = null;
+  
+  /**
+   * Min (and initial) number of concurrent requests per node
    */
   private int corePoolSize = 1;
   
   /**
-   * Max number of threads that will be created during high load
+   * Max number of concurrent requests per node, the actual number is adapted to how well the node responds
    */
   private int maxPoolSize = 5;
   
@@ -120,6 +143,8 @@ public class ExchangeManager implements IExchangeManager {
     newrequest.setAddress(address);
     newrequest.setContentType(request.getContentType());
     newrequest.setData(request.getData());
+    newrequest.setFile(request.getFile());
+    newrequest.setContentMD5(request.getContentMD5());
     newrequest.setDate(request.getDate());
     newrequest.setMetadata(request.getMetadata());
     newrequest.setNodeName(request.getNodeName());
@@ -184,14 +209,69 @@ public class ExchangeManager implements IExchangeManager {
   }
   
   public void sendAsync(SendFileRequest request, SendFileRequestCallback callback) {
-    if (!pooledPublishers.containsKey(request.getNodeName())) {
-      synchronized (pooledPublishers) {
-        if (!pooledPublishers.containsKey(request.getNodeName())) {
-          pooledPublishers.put(request.getNodeName(), createPooledFileRequestPublisher());
-        }
+    getPublisher(request.getNodeName()).publish(request, callback);
+  }
+  
+  /**
+   * Returns the publisher for the specified node, the publisher is created if it doesn't exist
+   * @param nodeName the node name
+   * @return the publisher
+   */
+  protected IPooledFileRequestPublisher getPublisher(String nodeName) {
+    synchronized (pooledPublishers) {
+      IPooledFileRequestPublisher publisher = pooledPublishers.get(nodeName);
+      if (publisher == null) {
+        publisher = createPooledFileRequestPublisher(nodeName);
+        pooledPublishers.put(nodeName, publisher);
       }
+      return publisher;
     }
-    pooledPublishers.get(request.getNodeName()).publish(request, callback);
+  }
+  
+  /**
+   * Resumes publishing to the nodes that have files left in the persistent queues
+   * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+   */
+  @Override
+  public void afterPropertiesSet() {
+    if (queueDirectory != null) {
+      for (String nodeName : OutboundQueue.list(new File(queueDirectory))) {
+        getPublisher(nodeName);
+      }
+    }
+  }
+  
+  /**
+   * Stops all publishers
+   * @see org.springframework.beans.factory.DisposableBean#destroy()
+   */
+  @Override
+  public void destroy() {
+    synchronized (pooledPublishers) {
+      for (IPooledFileRequestPublisher publisher : pooledPublishers.values()) {
+        publisher.shutdown();
+      }
+      pooledPublishers.clear();
+    }
+  }
+  
+  /**
+   * @see IExchangeManager#sendAsync(SendFileRequest, Map, SendFileRequestCallback)
+   */
+  @Override
+  public FanOutResult sendAsync(SendFileRequest request, Map<String, String> subscribers, SendFileRequestCallback callback) {
+    if (request.getDate() == null) {
+      request.setDate(new Date());
+    }
+    connector.prepare(request);
+    
+    FanOutResult result = new FanOutResult(subscribers.size());
+    for (Map.Entry<String, String> subscriber : subscribers.entrySet()) {
+      SendFileRequest newrequest = createNewRequest(request, subscriber.getValue());
+      newrequest.setNodeName(subscriber.getKey());
+      sendAsync(newrequest, result.createCallback(callback));
+    }
+    return result;
   }
   
   /**
@@ -278,6 +358,25 @@ public class ExchangeManager implements IExchangeManager {
     return request;
   }
   
+  /**
+   * Invalidates the cached security information about a node once the current transaction
+   * has been committed so that no concurrent reader can cache the old state again. If there
+   * is no active transaction the information is invalidated immediately.
+   * @param nodeName the node name
+   */
+  protected void invalidateAfterCommit(final String nodeName) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          securityManager.invalidate(nodeName);
+        }
+      });
+    } else {
+      securityManager.invalidate(nodeName);
+    }
+  }
+  
   /**
    * @see IExchangeManager#approve(AuthorizationRequest)
    * @param request the authorization request to approve 
@@ -301,6 +400,7 @@ public class ExchangeManager implements IExchangeManager {
       } else {
         authorizationManager.add(authorization);
       }
+      invalidateAfterCommit(request.getNodeName());
       authorizationRequestManager.remove(request.getRequestUUID());
       if (outgoingRequest == null && request.isAutorequest()) {
         outgoingRequest = authorizationManager.createAuthorizationRequest("Autogenerated request for approval of key.");
@@ -343,6 +443,7 @@ public class ExchangeManager implements IExchangeManager {
       authorization.setAuthorized(false);
       if (current != null) {
         authorizationManager.updateByNodeName(authorization);
+        invalidateAfterCommit(request.getNodeName());
       }
       authorizationRequestManager.remove(request.getRequestUUID());
     } else {
@@ -361,10 +462,15 @@ public class ExchangeManager implements IExchangeManager {
 
   /**
    * Creates a pooled file request publisher
+   * @param nodeName the node the publisher should publish to
    * @return the publisher
    */
-  protected IPooledFileRequestPublisher createPooledFileRequestPublisher() {
-    PooledFileRequestPublisher publisher = new PooledFileRequestPublisher(queueSize, corePoolSize, maxPoolSize);
+  protected IPooledFileRequestPublisher createPooledFileRequestPublisher(String nodeName) {
+    PooledFileRequestPublisher publisher = new PooledFileRequestPublisher(getQueueSize(), corePoolSize, maxPoolSize);
+    publisher.setNodeName(nodeName);
+    if (queueDirectory != null) {
+      publisher.setQueueDirectory(new File(queueDirectory));
+    }
     publisher.setExchangeManager(this);
     publisher.afterPropertiesSet();
     return publisher;
@@ -414,14 +520,34 @@ public class ExchangeManager implements IExchangeManager {
     this.pooledPublishers = pooledPublishers;
   }
   /**
-   * @return the max number of entries in the queue
+   * @return the directory where the outbound queues are persisted
+   */
+  public String getQueueDirectory() {
+    return queueDirectory;
+  }
+
+  /**
+   * @param queueDirectory the directory where the outbound queues are persisted, null (default) if they only should be
+   * kept in memory in which case queued files are lost on restart
+   */
+  public void setQueueDirectory(String queueDirectory) {
+    this.queueDirectory = queueDirectory;
+  }
+
+  /**
+   * @return the max number of entries in the queue. Unless set, {@link #DEFAULT_PERSISTENT_QUEUE_SIZE}
+   * if the queues are persisted otherwise {@link #DEFAULT_MEMORY_QUEUE_SIZE} since the payloads then
+   * are kept in memory.
    */
   public int getQueueSize() {
-    return queueSize;
+    if (queueSize > 0) {
+      return queueSize;
+    }
+    return (queueDirectory != null) ? DEFAULT_PERSISTENT_QUEUE_SIZE : DEFAULT_MEMORY_QUEUE_SIZE;
   }
 
   /**
-   * @param queueSize the max number of entries in the queue
+   * @param queueSize the max number of entries in the queue, 0 or less to use the default
    */
   public void setQueueSize(int queueSize) {
     this.queueSize = queueSize;
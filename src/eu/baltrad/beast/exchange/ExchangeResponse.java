@@ -30,6 +30,11 @@ public class ExchangeResponse {
    */
   private String redirectAddress;
   
+  /**
+   * The content encodings the targeted host accepts, as advertised in the Accept-Encoding header
+   */
+  private String acceptEncoding;
+  
   /**
    * The exchange response
    * @param statusCode the status code
@@ -96,4 +101,18 @@ public class ExchangeResponse {
   public void setRedirectAddress(String redirectAddress) {
     this.redirectAddress = redirectAddress;
   }
+
+  /**
+   * @return the content encodings the targeted host accepts, null if not advertised
+   */
+  public String getAcceptEncoding() {
+    return acceptEncoding;
+  }
+
+  /**
+   * @param acceptEncoding the content encodings the targeted host accepts
+   */
+  public void setAcceptEncoding(String acceptEncoding) {
+    this.acceptEncoding = acceptEncoding;
+  }
 }
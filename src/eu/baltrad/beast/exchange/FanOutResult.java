@@ -0,0 +1,160 @@
+/**
+ * 
+ */
+package eu.baltrad.beast.exchange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The aggregated result when publishing one file to several nodes. Each node is
+ * reported as either published or failed when the corresponding request has been
+ * processed.
+ * @author anders
+ */
+public class FanOutResult {
+  /**
+   * Number of nodes the file is published to
+   */
+  private final int total;
+  
+  /**
+   * Counted down each time a node has been processed
+   */
+  private final CountDownLatch latch;
+  
+  /**
+   * The nodes that the file has been published to
+   */
+  private final List<String> published = new ArrayList<String>();
+  
+  /**
+   * The nodes that the file could not be published to
+   */
+  private final List<String> failed = new ArrayList<String>();
+  
+  /**
+   * The logger
+   */
+  private final static Logger logger = LogManager.getLogger(FanOutResult.class);
+  
+  /**
+   * Constructor
+   * @param total number of nodes the file is published to
+   */
+  public FanOutResult(int total) {
+    this.total = total;
+    this.latch = new CountDownLatch(total);
+  }
+  
+  /**
+   * Creates the callback to use for one of the requests.
+   * @param delegate the callback that also should be notified, may be null
+   * @return the callback
+   */
+  public SendFileRequestErrorCallback createCallback(final SendFileRequestCallback delegate) {
+    return new SendFileRequestErrorCallback() {
+      private final AtomicBoolean done = new AtomicBoolean(false);
+      
+      @Override
+      public void filePublished(SendFileRequest request) {
+        completed(request, true);
+        if (delegate != null) {
+          delegate.filePublished(request);
+        }
+      }
+
+      @Override
+      public void filePublished(SendFileRequest request, String redirectAddress, int statusCode) {
+        completed(request, true);
+        if (delegate != null) {
+          delegate.filePublished(request, redirectAddress, statusCode);
+        }
+      }
+
+      @Override
+      public void filePublicationFailed(SendFileRequest request, ExchangeResponse response) {
+        completed(request, false);
+        if (delegate != null) {
+          delegate.filePublicationFailed(request, response);
+        }
+      }
+
+      @Override
+      public void filePublicationError(SendFileRequest request, Exception cause) {
+        completed(request, false);
+        if (delegate instanceof SendFileRequestErrorCallback) {
+          ((SendFileRequestErrorCallback)delegate).filePublicationError(request, cause);
+        }
+      }
+      
+      private void completed(SendFileRequest request, boolean success) {
+        if (done.compareAndSet(false, true)) {
+          synchronized (FanOutResult.this) {
+            if (success) {
+              published.add(request.getNodeName());
+            } else {
+              failed.add(request.getNodeName());
+            }
+          }
+          latch.countDown();
+          if (latch.getCount() == 0) {
+            logger.info("File published to " + getPublished().size() + " of " + total + " nodes");
+          }
+        }
+      }
+    };
+  }
+  
+  /**
+   * Waits for all nodes to be processed
+   * @param timeout max time to wait
+   * @param unit the unit of timeout
+   * @return true if all nodes have been processed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return latch.await(timeout, unit);
+  }
+  
+  /**
+   * @return true if all nodes have been processed
+   */
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+  
+  /**
+   * @return number of nodes the file is published to
+   */
+  public int getTotal() {
+    return total;
+  }
+  
+  /**
+   * @return number of nodes that not have been processed yet
+   */
+  public int getPending() {
+    return (int)latch.getCount();
+  }
+  
+  /**
+   * @return the node names that the file has been published to
+   */
+  public synchronized List<String> getPublished() {
+    return new ArrayList<String>(published);
+  }
+  
+  /**
+   * @return the node names that the file could not be published to
+   */
+  public synchronized List<String> getFailed() {
+    return new ArrayList<String>(failed);
+  }
+}
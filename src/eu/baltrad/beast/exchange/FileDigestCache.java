@@ -0,0 +1,117 @@
+package eu.baltrad.beast.exchange;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Keeps track of the md5 digests of recently sent files so that a file that
+ * is sent to several nodes only is read once for calculating the digest. The
+ * digest is calculated in one streaming pass and an entry is only reused as
+ * long as the file has the same length and modification time.
+ * @author anders
+ */
+public class FileDigestCache {
+  /**
+   * Default number of files to keep digests for
+   */
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  /**
+   * A cached digest
+   */
+  private static class Entry {
+    long length;
+    long lastModified;
+    String md5;
+  }
+
+  /**
+   * Max number of cached digests
+   */
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  /**
+   * The cached digests, path -> entry. Least recently used first.
+   */
+  private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > maxSize;
+    }
+  };
+
+  /**
+   * Returns the md5 hex digest for the file
+   * @param file the file
+   * @return the md5 hex digest
+   * @throws IOException if file could not be read
+   */
+  public String md5Hex(File file) throws IOException {
+    String path = file.getAbsolutePath();
+    long length = file.length();
+    long lastModified = file.lastModified();
+    synchronized (entries) {
+      Entry e = entries.get(path);
+      if (e != null && e.length == length && e.lastModified == lastModified) {
+        return e.md5;
+      }
+    }
+
+    Entry e = new Entry();
+    e.length = length;
+    e.lastModified = lastModified;
+    e.md5 = calculateMd5Hex(file);
+    synchronized (entries) {
+      entries.put(path, e);
+    }
+    return e.md5;
+  }
+
+  /**
+   * @param maxSize max number of files to keep digests for
+   */
+  public void setMaxSize(int maxSize) {
+    synchronized (entries) {
+      this.maxSize = maxSize;
+    }
+  }
+
+  /**
+   * @return max number of files to keep digests for
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return number of cached digests
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Calculates the md5 hex digest by reading the file
+   * @param file the file
+   * @return the md5 hex digest
+   * @throws IOException if file could not be read
+   */
+  protected String calculateMd5Hex(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+    try {
+      return DigestUtils.md5Hex(in);
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -4,6 +4,7 @@
 package eu.baltrad.beast.exchange;
 
 import java.io.InputStream;
+import java.util.Map;
 
 import eu.baltrad.beast.security.AuthorizationRequest;
 
@@ -33,6 +34,17 @@ public interface IExchangeManager {
    */
   public void sendAsync(SendFileRequest request, SendFileRequestCallback callback);
   
+  /**
+   * Publishes one file to several nodes asynchronously. The receiver independent parts of
+   * the request (date and content digest) are prepared once and shared by all nodes which
+   * then are sent to in parallel.
+   * @param request the request, address and node name are ignored
+   * @param subscribers the nodes to send to, node name -> address
+   * @param callback the callback that is notified for each of the nodes, may be null
+   * @return the aggregated result
+   */
+  public FanOutResult sendAsync(SendFileRequest request, Map<String, String> subscribers, SendFileRequestCallback callback);
+  
   /**
    * Parses incomming data stream and tries to termine what type of message that is arriving
    * @param stream
@@ -13,4 +13,44 @@ public interface IPooledFileRequestPublisher {
    * @param callback the callback that should be updated with progress information
    */
   public void publish(SendFileRequest request, SendFileRequestCallback callback);
+  
+  /**
+   * Stops publishing, requests that not have been sent are kept in the persistent queue
+   */
+  public void shutdown();
+  
+  /**
+   * @return number of queued requests
+   */
+  public int getQueueDepth();
+  
+  /**
+   * @return age in ms of the oldest queued request
+   */
+  public long getOldestAge();
+  
+  /**
+   * @return total number of retries
+   */
+  public long getRetryCount();
+  
+  /**
+   * @return total number of requests that have been given up and moved to the dead letters
+   */
+  public long getDeadLetterCount();
+  
+  /**
+   * @return current number of allowed concurrent requests
+   */
+  public int getConcurrency();
+  
+  /**
+   * @return average latency in ms of successful requests
+   */
+  public long getAverageLatency();
+  
+  /**
+   * @return the state of the circuit breaker
+   */
+  public CircuitBreaker.State getCircuitState();
 }
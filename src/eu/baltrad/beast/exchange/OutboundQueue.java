@@ -0,0 +1,860 @@
+/**
+ *
+ */
+package eu.baltrad.beast.exchange;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * A persistent queue of file requests that should be sent to one node.
+ * <p>
+ * Each queued request is appended to a journal file (&lt;directory&gt;/&lt;node&gt;.journal)
+ * together with records for retries and removals. The journal is synced to disk in batches,
+ * either when a number of records have been written or when a time interval has passed, so
+ * that a burst of files doesn't cost one fsync each. Spooling and syncing are done without holding
+ * the queue lock, so the senders waiting for entries aren't stalled by the disk. Requests that carry their data as a byte
+ * array are spooled into &lt;directory&gt;/&lt;node&gt;/&lt;id&gt;.dat while file based requests
+ * only reference the file. When the queue is opened the journal is replayed so that requests that
+ * weren't sent before a restart are resumed.
+ * <p>
+ * Requests that can't be delivered are moved to the dead letter area (&lt;directory&gt;/deadletter)
+ * where the request information is stored as a properties file together with the spooled data.
+ * <p>
+ * If no directory is given, the queue only is kept in memory.
+ * @author anders
+ */
+public class OutboundQueue {
+  /**
+   * Suffix of the journal files
+   */
+  public static final String JOURNAL_SUFFIX = ".journal";
+
+  /**
+   * Name of the dead letter directory
+   */
+  public static final String DEAD_LETTER_DIRECTORY = "deadletter";
+
+  /**
+   * A queued request
+   */
+  public static class Entry {
+    private final long id;
+    private final SendFileRequest request;
+    private final SendFileRequest payload;
+    private final SendFileRequestCallback callback;
+    private final long enqueued;
+    private int attempts = 0;
+    private long nextAttempt = 0;
+    private boolean inProgress = false;
+
+    Entry(long id, SendFileRequest request, SendFileRequest payload, SendFileRequestCallback callback, long enqueued) {
+      this.id = id;
+      this.request = request;
+      this.payload = payload;
+      this.callback = callback;
+      this.enqueued = enqueued;
+    }
+
+    /**
+     * @return the id of the entry
+     */
+    public long getId() {
+      return id;
+    }
+
+    /**
+     * @return the request that should be used when notifying the callback
+     */
+    public SendFileRequest getRequest() {
+      return request;
+    }
+
+    /**
+     * @return the request that should be sent
+     */
+    public SendFileRequest getPayload() {
+      return payload;
+    }
+
+    /**
+     * @return the callback, null if there is none (e.g. after a restart)
+     */
+    public SendFileRequestCallback getCallback() {
+      return callback;
+    }
+
+    /**
+     * @return when the request was queued (ms since epoch)
+     */
+    public long getEnqueued() {
+      return enqueued;
+    }
+
+    /**
+     * @return number of failed attempts
+     */
+    public synchronized int getAttempts() {
+      return attempts;
+    }
+  }
+
+  /**
+   * The directory, null if the queue only should be kept in memory
+   */
+  private final File directory;
+
+  /**
+   * The node name
+   */
+  private final String nodeName;
+
+  /**
+   * The queued entries, ordered by id
+   */
+  private final TreeMap<Long, Entry> entries = new TreeMap<Long, Entry>();
+
+  /**
+   * Next id to use
+   */
+  private long nextId = 1;
+
+  /**
+   * The journal
+   */
+  private FileChannel journal = null;
+
+  /**
+   * Number of records in the journal
+   */
+  private long journalRecords = 0;
+
+  /**
+   * Serializes the syncs, never acquired while holding the queue lock
+   */
+  private final Object syncLock = new Object();
+
+  /**
+   * Number of records written since last sync
+   */
+  private int unsynced = 0;
+
+  /**
+   * Spooled files written since last sync
+   */
+  private List<File> unsyncedFiles = new ArrayList<File>();
+
+  /**
+   * When last sync was performed
+   */
+  private long lastSync = 0;
+
+  /**
+   * Number of records that will trigger a sync
+   */
+  private int syncBatchSize = 32;
+
+  /**
+   * Number of journal records before the journal is considered for compaction
+   */
+  private long compactThreshold = 1000;
+
+  /**
+   * Records appended while the journal is being compacted, null when not compacting
+   */
+  private List<String> compactBacklog = null;
+
+  /**
+   * Max time in ms before written records are synced
+   */
+  private long syncInterval = 200;
+
+  /**
+   * Total number of retries
+   */
+  private long retries = 0;
+
+  /**
+   * Total number of dead letters
+   */
+  private long deadLetters = 0;
+
+  /**
+   * If the queue has been closed
+   */
+  private boolean closed = false;
+
+  /**
+   * The logger
+   */
+  private final static Logger logger = LogManager.getLogger(OutboundQueue.class);
+
+  /**
+   * Constructor
+   * @param directory the queue directory, null if only kept in memory
+   * @param nodeName the node name
+   */
+  public OutboundQueue(File directory, String nodeName) {
+    this.directory = directory;
+    this.nodeName = nodeName;
+  }
+
+  /**
+   * Lists the node names that have a queue in the directory
+   * @param directory the directory
+   * @return the node names
+   */
+  public static List<String> list(File directory) {
+    List<String> result = new ArrayList<String>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        String name = f.getName();
+        if (f.isFile() && name.endsWith(JOURNAL_SUFFIX)) {
+          result.add(decode(name.substring(0, name.length() - JOURNAL_SUFFIX.length())));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Opens the queue and replays the journal if there is one
+   * @throws IOException on failure
+   */
+  public synchronized void open() throws IOException {
+    if (directory == null) {
+      return;
+    }
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Could not create queue directory " + directory);
+    }
+    File f = getJournalFile();
+    if (f.exists()) {
+      replay(f);
+    }
+    rewriteJournal();
+    if (entries.size() > 0) {
+      logger.info("Resumed " + entries.size() + " queued files for " + nodeName);
+    }
+  }
+
+  /**
+   * Adds a request to the queue
+   * @param request the request
+   * @param callback the callback
+   * @return the entry
+   */
+  public Entry add(SendFileRequest request, SendFileRequestCallback callback) {
+    long id = 0;
+    synchronized (this) {
+      id = nextId++;
+    }
+    long now = currentTimeMillis();
+    SendFileRequest payload = copy(request);
+    SendFileRequest notified = request;
+    File spool = null;
+    if (directory != null && payload.getFile() == null && payload.getData() != null) {
+      try {
+        spool = getSpoolFile(id);
+        writeSpool(spool, payload.getData());
+        payload.setFile(spool);
+        payload.setData(null);
+        notified = copy(request);
+        notified.setData(null);
+      } catch (IOException e) {
+        logger.error("Failed to spool data for " + nodeName + ", keeping it in memory", e);
+        spool = null;
+      }
+    }
+    Entry entry = new Entry(id, notified, payload, callback, now);
+    synchronized (this) {
+      if (spool != null) {
+        unsyncedFiles.add(spool);
+      }
+      if (directory != null && payload.getFile() != null) {
+        append("A\t" + id + "\t" + now + "\t" + format(payload));
+      }
+      entries.put(id, entry);
+      notifyAll();
+    }
+    syncIfNeeded();
+    return entry;
+  }
+
+  /**
+   * Waits for the next entry that is ready to be sent. The entry is marked as in progress
+   * until it is completed, retried or dead lettered.
+   * @param timeout max time to wait in ms
+   * @return the entry or null if no entry became ready in time
+   * @throws InterruptedException if interrupted
+   */
+  public Entry take(long timeout) throws InterruptedException {
+    long end = currentTimeMillis() + timeout;
+    while (true) {
+      syncIfNeeded();
+      synchronized (this) {
+        if (closed) {
+          return null;
+        }
+        long now = currentTimeMillis();
+        long nextReady = Long.MAX_VALUE;
+        for (Entry e : entries.values()) {
+          if (!e.inProgress) {
+            if (e.nextAttempt <= now) {
+              e.inProgress = true;
+              return e;
+            }
+            nextReady = Math.min(nextReady, e.nextAttempt);
+          }
+        }
+        long wait = Math.min(end - now, nextReady - now);
+        if (unsynced > 0) {
+          wait = Math.min(wait, syncInterval - (now - lastSync));
+        }
+        if (end - now <= 0) {
+          return null;
+        }
+        wait(Math.max(1, wait));
+      }
+    }
+  }
+
+  /**
+   * Removes an entry that has been sent
+   * @param entry the entry
+   */
+  public void completed(Entry entry) {
+    synchronized (this) {
+      if (entries.remove(entry.getId()) != null) {
+        if (entry.getPayload().getFile() != null && directory != null) {
+          append("R\t" + entry.getId());
+        }
+        deleteSpool(entry);
+      }
+    }
+    syncIfNeeded();
+  }
+
+  /**
+   * Schedules a new attempt for an entry
+   * @param entry the entry
+   * @param delay delay in ms until next attempt
+   */
+  public void retry(Entry entry, long delay) {
+    synchronized (this) {
+      synchronized (entry) {
+        entry.attempts++;
+      }
+      entry.nextAttempt = currentTimeMillis() + delay;
+      entry.inProgress = false;
+      retries++;
+      if (entry.getPayload().getFile() != null && directory != null) {
+        append("T\t" + entry.getId() + "\t" + entry.getAttempts());
+      }
+      notifyAll();
+    }
+    syncIfNeeded();
+  }
+
+  /**
+   * Removes the oldest entry that isn't in progress, used when the queue is full.
+   * @return the entry or null if there is none
+   */
+  public synchronized Entry removeOldest() {
+    for (Entry e : entries.values()) {
+      if (!e.inProgress) {
+        e.inProgress = true;
+        return e;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Moves an entry to the dead letter area. The files are moved and written without holding
+   * the queue lock.
+   * @param entry the entry
+   */
+  public void deadLetter(Entry entry) {
+    SendFileRequest payload = entry.getPayload();
+    File spool = null;
+    synchronized (this) {
+      if (entries.remove(entry.getId()) == null) {
+        return;
+      }
+      deadLetters++;
+      if (directory == null) {
+        return;
+      }
+      spool = getSpoolFile(entry.getId());
+      unsyncedFiles.remove(spool);
+    }
+    try {
+      File dir = new File(directory, DEAD_LETTER_DIRECTORY);
+      if (!dir.exists() && !dir.mkdirs()) {
+        throw new IOException("Could not create " + dir);
+      }
+      String prefix = encode(nodeName) + "-" + entry.getEnqueued() + "-" + entry.getId();
+      if (spool.equals(payload.getFile())) {
+        File dest = new File(dir, prefix + ".dat");
+        if (!spool.renameTo(dest)) {
+          throw new IOException("Could not move " + spool + " to " + dest);
+        }
+        payload.setFile(dest);
+      }
+      Properties props = new Properties();
+      props.setProperty("node", nodeName);
+      props.setProperty("address", str(payload.getAddress()));
+      props.setProperty("contentType", str(payload.getContentType()));
+      props.setProperty("contentMD5", str(payload.getContentMD5()));
+      props.setProperty("file", payload.getFile() != null ? payload.getFile().getAbsolutePath() : "");
+      props.setProperty("enqueued", new Date(entry.getEnqueued()).toString());
+      props.setProperty("attempts", Integer.toString(entry.getAttempts()));
+      Writer writer = new FileWriter(new File(dir, prefix + ".properties"));
+      try {
+        props.store(writer, "Dead letter");
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      logger.error("Failed to store dead letter for " + nodeName, e);
+    }
+    if (payload.getFile() != null) {
+      synchronized (this) {
+        append("R\t" + entry.getId());
+      }
+    }
+    syncIfNeeded();
+  }
+
+  /**
+   * Syncs the journal and spooled files to disk
+   */
+  public void sync() {
+    synchronized (syncLock) {
+      FileChannel channel = null;
+      List<File> files = null;
+      synchronized (this) {
+        if (journal == null || unsynced == 0) {
+          return;
+        }
+        channel = journal;
+        files = unsyncedFiles;
+        unsyncedFiles = new ArrayList<File>();
+        unsynced = 0;
+        lastSync = currentTimeMillis();
+      }
+      forceSpoolFiles(files);
+      try {
+        channel.force(false);
+      } catch (ClosedChannelException e) {
+        // the journal has been closed
+      } catch (IOException e) {
+        logger.error("Failed to sync queue for " + nodeName, e);
+      }
+      compactIfNeeded();
+    }
+  }
+
+  /**
+   * Forces spooled files to disk
+   * @param files the files
+   */
+  private void forceSpoolFiles(List<File> files) {
+    for (File f : files) {
+      try {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+          raf.getChannel().force(true);
+        } finally {
+          raf.close();
+        }
+      } catch (FileNotFoundException e) {
+        // sent and removed already
+      } catch (IOException e) {
+        logger.error("Failed to sync " + f + " for " + nodeName, e);
+      }
+    }
+  }
+
+  /**
+   * Syncs if enough records have been written or if the sync interval has passed. Must not be
+   * called while holding the queue lock.
+   */
+  private void syncIfNeeded() {
+    boolean needed = false;
+    synchronized (this) {
+      needed = unsynced > 0 && (unsynced >= syncBatchSize || currentTimeMillis() - lastSync >= syncInterval);
+    }
+    if (needed) {
+      sync();
+    }
+  }
+
+  /**
+   * Syncs and closes the queue
+   */
+  public void close() {
+    sync();
+    synchronized (this) {
+      closeJournal();
+    }
+  }
+
+  private void closeJournal() {
+    closed = true;
+    if (journal != null) {
+      try {
+        if (unsynced > 0) {
+          forceSpoolFiles(unsyncedFiles);
+          journal.force(false);
+        }
+        journal.close();
+      } catch (IOException e) {
+        logger.warn("Failed to close journal for " + nodeName, e);
+      }
+      journal = null;
+    }
+    notifyAll();
+  }
+
+  /**
+   * @return number of queued entries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return age in ms of the oldest queued entry, 0 if empty
+   */
+  public synchronized long getOldestAge() {
+    if (entries.isEmpty()) {
+      return 0;
+    }
+    return currentTimeMillis() - entries.firstEntry().getValue().getEnqueued();
+  }
+
+  /**
+   * @return total number of retries
+   */
+  public synchronized long getRetryCount() {
+    return retries;
+  }
+
+  /**
+   * @return total number of dead letters
+   */
+  public synchronized long getDeadLetterCount() {
+    return deadLetters;
+  }
+
+  /**
+   * @param syncBatchSize number of journal records that triggers a sync
+   */
+  public synchronized void setSyncBatchSize(int syncBatchSize) {
+    this.syncBatchSize = syncBatchSize;
+  }
+
+  /**
+   * @param syncInterval max time in ms before written journal records are synced
+   */
+  public synchronized void setSyncInterval(long syncInterval) {
+    this.syncInterval = syncInterval;
+  }
+
+  /**
+   * @param compactThreshold number of journal records before the journal is considered for compaction
+   */
+  public synchronized void setCompactThreshold(long compactThreshold) {
+    this.compactThreshold = compactThreshold;
+  }
+
+  /**
+   * @return number of records in the current journal
+   */
+  public synchronized long getJournalRecords() {
+    return journalRecords;
+  }
+
+  /**
+   * @return the current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private File getJournalFile() {
+    return new File(directory, encode(nodeName) + JOURNAL_SUFFIX);
+  }
+
+  private File getSpoolFile(long id) {
+    return new File(new File(directory, encode(nodeName)), id + ".dat");
+  }
+
+  private void writeSpool(File spool, byte[] data) throws IOException {
+    File dir = spool.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Could not create spool directory " + dir);
+    }
+    FileOutputStream out = new FileOutputStream(spool);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void deleteSpool(Entry entry) {
+    if (directory != null && getSpoolFile(entry.getId()).equals(entry.getPayload().getFile())) {
+      unsyncedFiles.remove(entry.getPayload().getFile());
+      entry.getPayload().getFile().delete();
+    }
+  }
+
+  private void append(String record) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.write(ByteBuffer.wrap((record + "\n").getBytes("UTF-8")));
+      journalRecords++;
+      unsynced++;
+      if (compactBacklog != null) {
+        compactBacklog.add(record);
+      }
+    } catch (IOException e) {
+      logger.error("Failed to write to journal for " + nodeName, e);
+    }
+  }
+
+  /**
+   * Rewrites the journal when it mostly contains records about entries that have been removed.
+   * Called from {@link #sync()} while holding the sync lock but not the queue lock. The new
+   * journal is written and forced without holding the queue lock, records appended meanwhile
+   * are copied to the new journal before it replaces the old one and are synced by the next sync.
+   */
+  private void compactIfNeeded() {
+    StringBuilder b = new StringBuilder();
+    long records = 0;
+    synchronized (this) {
+      if (journal == null || compactBacklog != null || journalRecords <= compactThreshold || journalRecords <= 4 * entries.size()) {
+        return;
+      }
+      records = formatEntries(b);
+      compactBacklog = new ArrayList<String>();
+    }
+    File f = getJournalFile();
+    File tmp = new File(directory, f.getName() + ".tmp");
+    FileChannel channel = null;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+      channel = raf.getChannel();
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(b.toString().getBytes("UTF-8")));
+      channel.force(false);
+      synchronized (this) {
+        if (journal == null) {
+          throw new ClosedChannelException();
+        }
+        for (String record : compactBacklog) {
+          channel.write(ByteBuffer.wrap((record + "\n").getBytes("UTF-8")));
+        }
+        if (!tmp.renameTo(f)) {
+          throw new IOException("Could not replace journal " + f);
+        }
+        FileChannel old = journal;
+        journal = channel;
+        journalRecords = records + compactBacklog.size();
+        compactBacklog = null;
+        channel = null;
+        try {
+          old.close();
+        } catch (IOException e) {
+          logger.warn("Failed to close old journal for " + nodeName, e);
+        }
+      }
+    } catch (ClosedChannelException e) {
+      // the queue has been closed
+    } catch (IOException e) {
+      logger.error("Failed to compact journal for " + nodeName, e);
+    } finally {
+      if (channel != null) {
+        synchronized (this) {
+          compactBacklog = null;
+        }
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // ignore
+        }
+        tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * Formats the records describing the current entries. Must be called when synchronized.
+   * @param b the buffer to append the records to
+   * @return the number of records
+   */
+  private long formatEntries(StringBuilder b) {
+    long records = 0;
+    for (Entry e : entries.values()) {
+      if (e.getPayload().getFile() != null) {
+        b.append("A\t" + e.getId() + "\t" + e.getEnqueued() + "\t" + format(e.getPayload()) + "\n");
+        records++;
+        if (e.getAttempts() > 0) {
+          b.append("T\t" + e.getId() + "\t" + e.getAttempts() + "\n");
+          records++;
+        }
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Writes a new journal containing the current entries, only used when opening the queue
+   * @throws IOException on failure
+   */
+  private void rewriteJournal() throws IOException {
+    File f = getJournalFile();
+    File tmp = new File(directory, f.getName() + ".tmp");
+    StringBuilder b = new StringBuilder();
+    long records = formatEntries(b);
+    FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      out.write(b.toString().getBytes("UTF-8"));
+      out.getChannel().force(true);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(f)) {
+      f.delete();
+      if (!tmp.renameTo(f)) {
+        throw new IOException("Could not replace journal " + f);
+      }
+    }
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    journal = raf.getChannel();
+    journal.position(journal.size());
+    journalRecords = records;
+  }
+
+  /**
+   * Replays a journal
+   * @param f the journal file
+   * @throws IOException on failure
+   */
+  private void replay(File f) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+    try {
+      String line = null;
+      while ((line = reader.readLine()) != null) {
+        String[] tokens = line.split("\t", -1);
+        try {
+          if (tokens[0].equals("A") && tokens.length == 8) {
+            long id = Long.parseLong(tokens[1]);
+            SendFileRequest request = new SendFileRequest();
+            request.setAddress(decode(tokens[3]));
+            request.setNodeName(nodeName);
+            request.setContentType(decode(tokens[4]));
+            request.setDate(tokens[5].length() > 0 ? new Date(Long.parseLong(tokens[5])) : null);
+            request.setContentMD5(decode(tokens[6]));
+            request.setFile(new File(decode(tokens[7])));
+            entries.put(id, new Entry(id, request, request, null, Long.parseLong(tokens[2])));
+            nextId = Math.max(nextId, id + 1);
+          } else if (tokens[0].equals("T") && tokens.length == 3) {
+            Entry e = entries.get(Long.parseLong(tokens[1]));
+            if (e != null) {
+              e.attempts = Integer.parseInt(tokens[2]);
+            }
+          } else if (tokens[0].equals("R") && tokens.length == 2) {
+            entries.remove(Long.parseLong(tokens[1]));
+          } else {
+            logger.warn("Ignoring unknown journal record for " + nodeName + ": " + line);
+          }
+        } catch (NumberFormatException e) {
+          logger.warn("Ignoring corrupt journal record for " + nodeName + ": " + line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    for (Map.Entry<Long, Entry> e : entries.entrySet()) {
+      File file = e.getValue().getPayload().getFile();
+      if (!file.exists()) {
+        logger.warn("Queued file " + file + " for " + nodeName + " no longer exists");
+      }
+    }
+  }
+
+  private static SendFileRequest copy(SendFileRequest request) {
+    SendFileRequest result = new SendFileRequest();
+    result.setAddress(request.getAddress());
+    result.setNodeName(request.getNodeName());
+    result.setContentType(request.getContentType());
+    result.setData(request.getData());
+    result.setFile(request.getFile());
+    result.setContentMD5(request.getContentMD5());
+    result.setDate(request.getDate());
+    result.setMetadata(request.getMetadata());
+    return result;
+  }
+
+  private static String format(SendFileRequest request) {
+    return encode(request.getAddress()) + "\t" + encode(request.getContentType()) + "\t" +
+        (request.getDate() != null ? Long.toString(request.getDate().getTime()) : "") + "\t" +
+        encode(request.getContentMD5()) + "\t" + encode(request.getFile().getAbsolutePath());
+  }
+
+  private static String str(String s) {
+    return s != null ? s : "";
+  }
+
+  private static String encode(String s) {
+    if (s == null) {
+      return "";
+    }
+    try {
+      return URLEncoder.encode(s, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String decode(String s) {
+    if (s.length() == 0) {
+      return null;
+    }
+    try {
+      return URLDecoder.decode(s, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/**
+ *
+ */
+package eu.baltrad.beast.exchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Negotiated compression of file payloads sent to other nodes. A node that is able to decode
+ * compressed payloads advertises it by returning an Accept-Encoding header containing
+ * {@link #ENCODING} in its responses. Until a node has advertised it, payloads are sent
+ * uncompressed. If a node rejects a compressed payload with 415 (Unsupported Media Type),
+ * compression is turned off for that node.
+ *
+ * The payload is compressed while it is streamed and sent with Content-Encoding set. Content-MD5
+ * and the signature are always calculated over the uncompressed bytes, so the receiving side should
+ * decode the content with {@link #decode(String, InputStream)} before verifying it.
+ *
+ * The compression ratio and the cpu time spent compressing is kept for each node.
+ * @author anders
+ */
+public class PayloadCompression {
+  /**
+   * The content coding used when compressing (zlib format)
+   */
+  public static final String ENCODING = "deflate";
+
+  /**
+   * The value a receiving node should return in the Accept-Encoding header
+   */
+  public static final String ACCEPT_ENCODING = "deflate, gzip";
+
+  /**
+   * Compression state and statistics for a node
+   */
+  public static class Statistics {
+    private Boolean supported = null;
+    private long count = 0;
+    private long uncompressedBytes = 0;
+    private long compressedBytes = 0;
+    private long cpuTime = 0;
+
+    /**
+     * @return if the node supports compression, null if not known
+     */
+    public synchronized Boolean isSupported() {
+      return supported;
+    }
+
+    /**
+     * @return number of compressed payloads
+     */
+    public synchronized long getCount() {
+      return count;
+    }
+
+    /**
+     * @return total number of bytes before compression
+     */
+    public synchronized long getUncompressedBytes() {
+      return uncompressedBytes;
+    }
+
+    /**
+     * @return total number of bytes after compression
+     */
+    public synchronized long getCompressedBytes() {
+      return compressedBytes;
+    }
+
+    /**
+     * @return the compression ratio (uncompressed / compressed), 0 if nothing has been compressed
+     */
+    public synchronized double getRatio() {
+      return compressedBytes > 0 ? (double)uncompressedBytes / (double)compressedBytes : 0.0;
+    }
+
+    /**
+     * @return total cpu time in ms spent compressing
+     */
+    public synchronized long getCpuTime() {
+      return cpuTime / 1000000;
+    }
+
+    synchronized void setSupported(Boolean supported) {
+      this.supported = supported;
+    }
+
+    synchronized void add(long uncompressed, long compressed, long cpuNanos) {
+      count++;
+      uncompressedBytes += uncompressed;
+      compressedBytes += compressed;
+      cpuTime += cpuNanos;
+    }
+  }
+
+  /**
+   * Compresses the underlying stream while it is read and adds the outcome to the statistics when closed
+   */
+  private class CompressingInputStream extends DeflaterInputStream {
+    private final CountingInputStream raw;
+    private final Statistics statistics;
+    private long compressed = 0;
+    private long cpuNanos = 0;
+    private boolean closed = false;
+
+    CompressingInputStream(CountingInputStream raw, Statistics statistics) {
+      super(raw, new Deflater(level), 65536);
+      this.raw = raw;
+      this.statistics = statistics;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long st = cpuTime();
+      int n = super.read(b, off, len);
+      cpuNanos += cpuTime() - st;
+      if (n > 0) {
+        compressed += n;
+      }
+      return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n > 0 ? (b[0] & 0xff) : -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        try {
+          super.close();
+        } finally {
+          def.end();
+          statistics.add(raw.getByteCount(), compressed, cpuNanos);
+        }
+      }
+    }
+  }
+
+  /**
+   * If compression should be used at all
+   */
+  private boolean enabled = true;
+
+  /**
+   * The deflate level (1-9)
+   */
+  private int level = Deflater.BEST_SPEED;
+
+  /**
+   * Payloads smaller than this are never compressed
+   */
+  private long minSize = 4096;
+
+  /**
+   * The statistics, node name -> statistics
+   */
+  private Map<String, Statistics> statistics = new HashMap<String, Statistics>();
+
+  /**
+   * Used for measuring cpu time
+   */
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+  /**
+   * Returns if the payload to the node should be compressed
+   * @param nodeName the node name
+   * @param length the payload length
+   * @return true if it should be compressed
+   */
+  public boolean shouldCompress(String nodeName, long length) {
+    if (!enabled || length < minSize) {
+      return false;
+    }
+    return Boolean.TRUE.equals(getStatistics(nodeName).isSupported());
+  }
+
+  /**
+   * Updates the knowledge about the node from the response
+   * @param nodeName the node name
+   * @param response the response
+   * @param compressed if the payload was compressed
+   */
+  public void negotiate(String nodeName, ExchangeResponse response, boolean compressed) {
+    Statistics s = getStatistics(nodeName);
+    if (compressed && response.statusCode() == 415) {
+      s.setSupported(Boolean.FALSE);
+    } else if (isAccepted(response.getAcceptEncoding())) {
+      s.setSupported(Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Returns a stream that compresses the content while read. The stream must be closed
+   * for the statistics to be updated.
+   * @param nodeName the node the content is sent to
+   * @param content the uncompressed content
+   * @return the compressing stream
+   */
+  public InputStream compress(String nodeName, InputStream content) {
+    return new CompressingInputStream(new CountingInputStream(content), getStatistics(nodeName));
+  }
+
+  /**
+   * Returns a stream that decodes the content according to the content encoding. Used by the
+   * receiving side.
+   * @param contentEncoding the value of the Content-Encoding header, may be null
+   * @param content the received content
+   * @return the decoded stream
+   * @throws IOException if the encoding is not supported
+   */
+  public static InputStream decode(String contentEncoding, InputStream content) throws IOException {
+    if (contentEncoding == null || contentEncoding.trim().equals("") || contentEncoding.trim().equalsIgnoreCase("identity")) {
+      return content;
+    } else if (contentEncoding.trim().equalsIgnoreCase("deflate")) {
+      return new InflaterInputStream(content);
+    } else if (contentEncoding.trim().equalsIgnoreCase("gzip")) {
+      return new GZIPInputStream(content);
+    }
+    throw new IOException("Unsupported content encoding: " + contentEncoding);
+  }
+
+  /**
+   * Returns the statistics for a node
+   * @param nodeName the node name
+   * @return the statistics
+   */
+  public Statistics getStatistics(String nodeName) {
+    synchronized (statistics) {
+      Statistics result = statistics.get(nodeName);
+      if (result == null) {
+        result = new Statistics();
+        statistics.put(nodeName, result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * @param acceptEncoding the value of an Accept-Encoding header
+   * @return if the value contains our encoding (with a non zero quality)
+   */
+  protected boolean isAccepted(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String token : acceptEncoding.split(",")) {
+      String[] parts = token.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase(ENCODING)) {
+        return !(parts.length > 1 && parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?"));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return cpu time of current thread in ns
+   */
+  private static long cpuTime() {
+    return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+  /**
+   * @param enabled if compression should be used at all
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * @return if compression is used
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param level the deflate level (1-9)
+   */
+  public void setLevel(int level) {
+    this.level = level;
+  }
+
+  /**
+   * @return the deflate level
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * @param minSize payloads smaller than this are never compressed
+   */
+  public void setMinSize(long minSize) {
+    this.minSize = minSize;
+  }
+
+  /**
+   * @return payloads smaller than this are never compressed
+   */
+  public long getMinSize() {
+    return minSize;
+  }
+}
@@ -3,27 +3,53 @@
  */
 package eu.baltrad.beast.exchange;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpStatus;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.InitializingBean;
 
 /**
  * The publisher (manager) that keeps track of publishing file requests to different nodes. There is one
- * thread pool executor / node so that a slowly responding node doesn't lock everything for the other
+ * publisher / node so that a slowly responding node doesn't lock everything for the other
  * nodes.
+ * 
+ * The requests are placed in an {@link OutboundQueue} which is persisted in the queue directory (if specified)
+ * so that queued files survive a restart. Failed requests are retried with exponential backoff and jitter until
+ * they are older than max age, after which they are moved to the dead letter area. The same happens to the oldest
+ * request if the queue becomes full.
+ * 
+ * The number of concurrent requests to the node is adjusted between corePoolSize and maxPoolSize depending on
+ * the measured latency and failures, see {@link AdaptiveConcurrencyLimit}. A node that keeps failing is not sent
+ * to at all while its {@link CircuitBreaker} is open, apart from a probe now and then.
  * @author anders
  */
 public class PooledFileRequestPublisher implements IPooledFileRequestPublisher, InitializingBean {
   /**
-   * The keep alive time of threads that are idling
+   * Default delay before first retry in ms
+   */
+  public static final long DEFAULT_INITIAL_BACKOFF = 5000;
+  
+  /**
+   * Default max delay between retries in ms
+   */
+  public static final long DEFAULT_MAX_BACKOFF = 5 * 60 * 1000;
+  
+  /**
+   * Default max age of a queued request in ms
+   */
+  public static final long DEFAULT_MAX_AGE = 60 * 60 * 1000;
+  
+  /**
+   * How long a worker waits for a request before checking if it should stop
    */
-  private static final int DEFAULT_KEEP_ALIVE_TIME = 60;
+  private static final long POLL_TIMEOUT = 1000;
 
   /**
    * Logger
@@ -31,40 +57,105 @@ public class PooledFileRequestPublisher implements IPooledFileRequestPublisher,
   private final static Logger logger = LogManager.getLogger(PooledFileRequestPublisher.class);
       
   /**
-   * The thread executor
+   * The worker threads
    */
-  private ThreadPoolExecutor executor;
+  private ExecutorService executor;
   
   /**
-   * Number of available slots that can be published before they are beeing rejected
+   * The queue
+   */
+  private OutboundQueue queue;
+  
+  /**
+   * Max number of queued requests before the oldest is moved to the dead letters
    */
   private int queueSize;
   
   /**
-   * Number of idling threads (1 is usually a good idea)
+   * Min number of concurrent requests
    */
   private int corePoolSize;
   
   /**
-   * Max number of threads that will be created during high load
+   * Max number of concurrent requests (and number of worker threads)
    */
   private int maxPoolSize;
   
+  /**
+   * Limits the number of concurrent requests
+   */
+  private AdaptiveConcurrencyLimit concurrencyLimit;
+  
+  /**
+   * Stops sending to a failing node
+   */
+  private CircuitBreaker circuitBreaker;
+  
+  /**
+   * The node that this publisher sends to
+   */
+  private String nodeName = null;
+  
+  /**
+   * Directory where the queue is persisted, null if only kept in memory
+   */
+  private File queueDirectory = null;
+  
+  /**
+   * Delay before first retry in ms
+   */
+  private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+  
+  /**
+   * Max delay between retries in ms
+   */
+  private long maxBackoff = DEFAULT_MAX_BACKOFF;
+  
+  /**
+   * Max age of a queued request in ms
+   */
+  private long maxAge = DEFAULT_MAX_AGE;
+  
+  /**
+   * If the workers should continue running
+   */
+  private volatile boolean running = false;
+  
+  /**
+   * Used for jitter
+   */
+  private final Random random = new Random();
+  
   /**
    * Exchange manager
    */
   private IExchangeManager exchangeManager = null;
   
   /**
-   * When a job is rejected (switched out). This handler will be incoked with that job
+   * Keeps track of the outcome of one attempt
    */
-  protected class RejectedExecutionHandler extends ThreadPoolExecutor.DiscardOldestPolicy {
+  protected static class Attempt implements SendFileRequestErrorCallback {
+    private String redirectAddress = null;
+    private int redirectStatusCode = 0;
+    private ExchangeResponse failedResponse = null;
+    
+    @Override
+    public void filePublished(SendFileRequest request) {
+    }
+    
+    @Override
+    public void filePublished(SendFileRequest request, String redirectAddress, int statusCode) {
+      this.redirectAddress = redirectAddress;
+      this.redirectStatusCode = statusCode;
+    }
+    
     @Override
-    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
-      super.rejectedExecution(runnable, executor);
-      logger.error("Discarded PostFile-task due to full work queue for thread pool. " + 
-                   "Data will not be sent to subscriber. No of queued tasks: " + executor.getQueue().size() + 
-                   ". No of active threads: " + executor.getActiveCount());   
+    public void filePublicationFailed(SendFileRequest request, ExchangeResponse response) {
+      this.failedResponse = response;
+    }
+    
+    @Override
+    public void filePublicationError(SendFileRequest request, Exception cause) {
     }
   }
   
@@ -88,49 +179,376 @@ public class PooledFileRequestPublisher implements IPooledFileRequestPublisher,
   }
   
   /**
-   * Creates the actual executor. Can be overriden by subclasses or tests.
+   * Opens the queue and starts the workers.
    */
   public void afterPropertiesSet() {
-    logger.info("Creating FramePublisher - queueSize: " + queueSize + ", corePoolSize: " + corePoolSize + ", maxPoolSize: " + maxPoolSize);
-    ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueSize);
+    logger.info("Creating FramePublisher - node: " + nodeName + ", queueSize: " + queueSize + ", corePoolSize: " + corePoolSize + ", maxPoolSize: " + maxPoolSize);
     if (exchangeManager == null) {
       throw new RuntimeException("ExchangeManager must be set before calling afterPropertiesSet");
     }
-    final ThreadFactory threadFactory = Executors.defaultThreadFactory();
-    executor = new ThreadPoolExecutor(corePoolSize, maxPoolSize, DEFAULT_KEEP_ALIVE_TIME, TimeUnit.SECONDS, queue);
-    executor.setThreadFactory(
-        new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                //Thread t = threadFactory.newThread(r);
-                Thread t = Executors.defaultThreadFactory().newThread(r);
-                t.setDaemon(true);
-                return t;
-            }
-        });
-    executor.setRejectedExecutionHandler(new RejectedExecutionHandler());
-    executor.prestartCoreThread();    
+    queue = createQueue();
+    try {
+      queue.open();
+    } catch (IOException e) {
+      logger.error("Failed to open persistent queue for " + nodeName + ", queued files will only be kept in memory", e);
+      queue = new OutboundQueue(null, nodeName);
+    }
+    concurrencyLimit = new AdaptiveConcurrencyLimit(corePoolSize, maxPoolSize);
+    circuitBreaker = new CircuitBreaker(nodeName);
+    int workers = Math.max(1, Math.max(corePoolSize, maxPoolSize));
+    running = true;
+    executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = Executors.defaultThreadFactory().newThread(r);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    for (int i = 0; i < workers; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          work();
+        }
+      });
+    }
+  }
+  
+  /**
+   * Stops the workers and closes the queue. Queued requests are kept in the persistent queue.
+   */
+  @Override
+  public void shutdown() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (queue != null) {
+      queue.close();
+    }
   }
   
   /**
-   * Publishes a send file request on the thread pool
+   * Places a send file request in the queue
    * @param request the request
    * @param callback the callback that should be updated with progress information
    */
   @Override
   public void publish(SendFileRequest request, SendFileRequestCallback callback) {
-    executor.execute(createRunnable(request, callback));
+    queue.add(request, callback);
+    while (queue.size() > queueSize) {
+      OutboundQueue.Entry oldest = queue.removeOldest();
+      if (oldest == null) {
+        break;
+      }
+      logger.error("Queue for " + nodeName + " is full (" + queueSize + "), moving oldest file to dead letters");
+      deadLetter(oldest, null, null);
+    }
+  }
+  
+  /**
+   * Worker loop that sends the queued requests
+   */
+  protected void work() {
+    while (running) {
+      try {
+        if (!circuitBreaker.allowRequest()) {
+          Thread.sleep(Math.max(1, Math.min(POLL_TIMEOUT, circuitBreaker.getRemainingOpenTime())));
+          continue;
+        }
+        try {
+          if (concurrencyLimit.acquire(POLL_TIMEOUT)) {
+            try {
+              OutboundQueue.Entry entry = queue.take(POLL_TIMEOUT);
+              if (entry != null) {
+                process(entry);
+              }
+            } finally {
+              concurrencyLimit.release();
+            }
+          }
+        } finally {
+          circuitBreaker.release();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        logger.error("Unexpected error when publishing to " + nodeName, e);
+      }
+    }
+  }
+  
+  /**
+   * Sends one queued request and decides if it is completed, should be retried or is dead.
+   * @param entry the entry
+   */
+  protected void process(OutboundQueue.Entry entry) {
+    if (System.currentTimeMillis() - entry.getEnqueued() > maxAge) {
+      deadLetter(entry, null, null);
+      return;
+    }
+    Attempt attempt = new Attempt();
+    PooledFileRequestTask task = createTask(entry.getPayload(), attempt);
+    long start = System.currentTimeMillis();
+    task.run();
+    long latency = System.currentTimeMillis() - start;
+    ExchangeResponse response = task.getResponse();
+    
+    if (response != null && response.statusCode() == HttpStatus.SC_OK) {
+      concurrencyLimit.onSuccess(latency);
+      circuitBreaker.onSuccess();
+      queue.completed(entry);
+      notifyPublished(entry, attempt);
+    } else if (isRetryable(response)) {
+      concurrencyLimit.onFailure();
+      circuitBreaker.onFailure();
+      long delay = getBackoff(entry.getAttempts() + 1);
+      if (System.currentTimeMillis() + delay - entry.getEnqueued() > maxAge) {
+        deadLetter(entry, attempt.failedResponse != null ? attempt.failedResponse : response, task.getError());
+      } else {
+        logger.info("Failed to send file to " + nodeName + ", retrying in " + delay + " ms");
+        queue.retry(entry, delay);
+      }
+    } else {
+      // The node is responding, it just doesn't accept this request
+      circuitBreaker.onSuccess();
+      deadLetter(entry, attempt.failedResponse != null ? attempt.failedResponse : response, task.getError());
+    }
   }
   
   /**
-   * Creates the runnable instance that should be placed in the executor queue
+   * Creates the task that sends the request once
    * @param request the request
    * @param callback the callback that will get updates
-   * @return the runnable
+   * @return the task
+   */
+  protected PooledFileRequestTask createTask(SendFileRequest request, SendFileRequestCallback callback) {
+    return new PooledFileRequestTask(request, callback, exchangeManager);
+  }
+  
+  /**
+   * Checks if a failed attempt should be retried. Requests failing due to an exception, server errors,
+   * timeouts and throttling are retried. Other client errors (e.g. unauthorized) and unhandled redirects are not.
+   * @param response the response, null if the attempt failed with an exception
+   * @return true if it should be retried
+   */
+  protected boolean isRetryable(ExchangeResponse response) {
+    if (response == null) {
+      return true;
+    }
+    int code = response.statusCode();
+    return code >= 500 || code == HttpStatus.SC_REQUEST_TIMEOUT || code == 429 || code < 200;
+  }
+  
+  /**
+   * Returns the delay before next attempt. Exponential backoff with jitter, the delay is
+   * a random value between half and the full backoff.
+   * @param attempt the attempt number (1 = first retry)
+   * @return the delay in ms
+   */
+  protected long getBackoff(int attempt) {
+    long backoff = initialBackoff;
+    for (int i = 1; i < attempt && backoff < maxBackoff; i++) {
+      backoff *= 2;
+    }
+    backoff = Math.min(backoff, maxBackoff);
+    long half = backoff / 2;
+    synchronized (random) {
+      return half + (long)(random.nextDouble() * (backoff - half));
+    }
+  }
+  
+  /**
+   * Moves an entry to the dead letters and notifies the callback
+   * @param entry the entry
+   * @param response the last response if any
+   * @param cause the last exception if any
+   */
+  protected void deadLetter(OutboundQueue.Entry entry, ExchangeResponse response, Exception cause) {
+    logger.error("Giving up sending file to " + nodeName + " after " + entry.getAttempts() + " retries, moved to dead letters");
+    queue.deadLetter(entry);
+    SendFileRequestCallback callback = entry.getCallback();
+    if (callback != null) {
+      try {
+        if (response != null) {
+          callback.filePublicationFailed(entry.getRequest(), response);
+        } else if (callback instanceof SendFileRequestErrorCallback) {
+          ((SendFileRequestErrorCallback)callback).filePublicationError(entry.getRequest(), cause);
+        }
+      } catch (Exception e) {
+        logger.error(e);
+      }
+    }
+  }
+  
+  /**
+   * Notifies the callback that the request has been published
+   * @param entry the entry
+   * @param attempt the successful attempt
+   */
+  protected void notifyPublished(OutboundQueue.Entry entry, Attempt attempt) {
+    SendFileRequestCallback callback = entry.getCallback();
+    if (callback != null) {
+      try {
+        if (attempt.redirectAddress != null) {
+          callback.filePublished(entry.getRequest(), attempt.redirectAddress, attempt.redirectStatusCode);
+        } else {
+          callback.filePublished(entry.getRequest());
+        }
+      } catch (Exception e) {
+        logger.debug(e);
+      }
+    }
+  }
+  
+  /**
+   * Creates the queue
+   * @return the queue
+   */
+  protected OutboundQueue createQueue() {
+    return new OutboundQueue(queueDirectory, nodeName);
+  }
+  
+  /**
+   * @return the queue
+   */
+  protected OutboundQueue getQueue() {
+    return queue;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getConcurrency()
+   */
+  @Override
+  public int getConcurrency() {
+    return concurrencyLimit != null ? concurrencyLimit.getLimit() : 0;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getAverageLatency()
+   */
+  @Override
+  public long getAverageLatency() {
+    return concurrencyLimit != null ? concurrencyLimit.getAverageLatency() : 0;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getCircuitState()
+   */
+  @Override
+  public CircuitBreaker.State getCircuitState() {
+    return circuitBreaker != null ? circuitBreaker.getState() : CircuitBreaker.State.CLOSED;
+  }
+  
+  /**
+   * @return the circuit breaker
+   */
+  protected CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getQueueDepth()
+   */
+  @Override
+  public int getQueueDepth() {
+    return queue != null ? queue.size() : 0;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getOldestAge()
+   */
+  @Override
+  public long getOldestAge() {
+    return queue != null ? queue.getOldestAge() : 0;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getRetryCount()
+   */
+  @Override
+  public long getRetryCount() {
+    return queue != null ? queue.getRetryCount() : 0;
+  }
+  
+  /**
+   * @see IPooledFileRequestPublisher#getDeadLetterCount()
+   */
+  @Override
+  public long getDeadLetterCount() {
+    return queue != null ? queue.getDeadLetterCount() : 0;
+  }
+  
+  /**
+   * @return the node name
+   */
+  public String getNodeName() {
+    return nodeName;
+  }
+  
+  /**
+   * @param nodeName the node that this publisher sends to
+   */
+  public void setNodeName(String nodeName) {
+    this.nodeName = nodeName;
+  }
+  
+  /**
+   * @return the queue directory
+   */
+  public File getQueueDirectory() {
+    return queueDirectory;
+  }
+  
+  /**
+   * @param queueDirectory directory where the queue is persisted, null if it only should be kept in memory
+   */
+  public void setQueueDirectory(File queueDirectory) {
+    this.queueDirectory = queueDirectory;
+  }
+  
+  /**
+   * @param initialBackoff delay before first retry in ms
+   */
+  public void setInitialBackoff(long initialBackoff) {
+    this.initialBackoff = initialBackoff;
+  }
+  
+  /**
+   * @return delay before first retry in ms
+   */
+  public long getInitialBackoff() {
+    return initialBackoff;
+  }
+  
+  /**
+   * @param maxBackoff max delay between retries in ms
+   */
+  public void setMaxBackoff(long maxBackoff) {
+    this.maxBackoff = maxBackoff;
+  }
+  
+  /**
+   * @return max delay between retries in ms
+   */
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+  
+  /**
+   * @param maxAge max age in ms of a queued request before it is moved to the dead letters
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+  
+  /**
+   * @return max age in ms of a queued request
    */
-  protected Runnable createRunnable(SendFileRequest request, SendFileRequestCallback callback) {
-    PooledFileRequestTask task = new PooledFileRequestTask(request, callback, exchangeManager);
-    return task;
+  public long getMaxAge() {
+    return maxAge;
   }
   
   /**
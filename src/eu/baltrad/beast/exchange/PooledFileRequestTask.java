@@ -14,6 +14,8 @@ public class PooledFileRequestTask implements Runnable {
   private SendFileRequest request;
   private SendFileRequestCallback callback;
   private IExchangeManager exchangeManager;
+  private ExchangeResponse response;
+  private Exception error;
   
   private final static Logger logger = LogManager.getLogger(PooledFileRequestTask.class);
   
@@ -34,11 +36,43 @@ public class PooledFileRequestTask implements Runnable {
   @Override
   public void run() {
     try {
-      exchangeManager.send(request, callback);
+      response = exchangeManager.send(request, callback);
     } catch (ExchangeStatusException e) {
       logger.warn("ExchangeStatusException " + Thread.currentThread().getName(), e);
+      error = e;
+      notifyError(e);
     } catch (Exception e) {
       logger.error("Exception " + Thread.currentThread().getName(), e);
+      error = e;
+      notifyError(e);
+    }
+  }
+  
+  /**
+   * @return the response after the task has been run, null if it failed with an exception
+   */
+  public ExchangeResponse getResponse() {
+    return response;
+  }
+  
+  /**
+   * @return the exception if the task failed with an exception
+   */
+  public Exception getError() {
+    return error;
+  }
+  
+  /**
+   * Notifies the callback about the error if it is a {@link SendFileRequestErrorCallback}
+   * @param e the exception
+   */
+  protected void notifyError(Exception e) {
+    if (callback instanceof SendFileRequestErrorCallback) {
+      try {
+        ((SendFileRequestErrorCallback)callback).filePublicationError(request, e);
+      } catch (Exception t) {
+        logger.error(t);
+      }
     }
   }
 
@@ -3,11 +3,21 @@
  */
 package eu.baltrad.beast.exchange;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 
 /**
  * The file request used for posting / sending files to a remote node.
  * Required information when posting a request is 
+ * 
+ * The payload is either provided as a byte array (data) or as a reference to
+ * a file (file). When a file is used, the content is streamed from the file
+ * when sent so that it never has to be kept in memory.
  * @author anders
  */
 public class SendFileRequest {
@@ -31,6 +41,16 @@ public class SendFileRequest {
    */
   private byte[] data;
   
+  /**
+   * The file containing the data, used instead of data if set
+   */
+  private File file;
+  
+  /**
+   * The md5 hex digest of the content if known
+   */
+  private String contentMD5;
+  
   /**
    * Date when posting the request
    */
@@ -97,6 +117,58 @@ public class SendFileRequest {
     this.data = data;
   }
   
+  /**
+   * @return the file containing the data or null if data is provided as a byte array
+   */
+  public File getFile() {
+    return file;
+  }
+  
+  /**
+   * @param file the file containing the data, will be used instead of data
+   */
+  public void setFile(File file) {
+    this.file = file;
+  }
+  
+  /**
+   * @return the md5 hex digest of the content or null if not calculated yet
+   */
+  public String getContentMD5() {
+    return contentMD5;
+  }
+  
+  /**
+   * @param contentMD5 the md5 hex digest of the content
+   */
+  public void setContentMD5(String contentMD5) {
+    this.contentMD5 = contentMD5;
+  }
+  
+  /**
+   * @return the length of the content
+   */
+  public long getContentLength() {
+    if (file != null) {
+      return file.length();
+    } else if (data != null) {
+      return data.length;
+    }
+    return 0;
+  }
+  
+  /**
+   * Opens a stream to the content, i.e. either the file or the data
+   * @return the stream, must be closed by the caller
+   * @throws IOException if the file could not be opened
+   */
+  public InputStream openContent() throws IOException {
+    if (file != null) {
+      return new BufferedInputStream(new FileInputStream(file), 65536);
+    }
+    return new ByteArrayInputStream(data != null ? data : new byte[0]);
+  }
+  
   /**
    * @return date of sending
    */
@@ -0,0 +1,18 @@
+/**
+ * 
+ */
+package eu.baltrad.beast.exchange;
+
+/**
+ * Callback that also wants to know when a request never got a response, i.e. when
+ * sending it failed with an exception or when it was discarded from the publishing queue.
+ * @author anders
+ */
+public interface SendFileRequestErrorCallback extends SendFileRequestCallback {
+  /**
+   * Called when the request could not be sent
+   * @param request the request
+   * @param cause the exception, null if the request was discarded
+   */
+  public void filePublicationError(SendFileRequest request, Exception cause);
+}
@@ -0,0 +1,91 @@
+package eu.baltrad.beast.exchange.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import eu.baltrad.beast.exchange.PayloadCompression;
+import eu.baltrad.beast.exchange.SendFileRequest;
+
+/**
+ * Entity that compresses the content of a file request while it is written. The content is
+ * opened first when written so nothing is left open if the request never is sent. Since the
+ * compressed length is not known in advance the entity is sent chunked.
+ * @author anders
+ */
+public class CompressingEntity extends AbstractHttpEntity {
+  /**
+   * The request providing the content
+   */
+  private final SendFileRequest request;
+  
+  /**
+   * The compression
+   */
+  private final PayloadCompression compression;
+  
+  /**
+   * Constructor
+   * @param request the request providing the content
+   * @param compression the compression
+   */
+  public CompressingEntity(SendFileRequest request, PayloadCompression compression) {
+    this.request = request;
+    this.compression = compression;
+    setContentType(request.getContentType());
+    setContentEncoding(PayloadCompression.ENCODING);
+    setChunked(true);
+  }
+  
+  /**
+   * @see org.apache.http.HttpEntity#isRepeatable()
+   */
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+  
+  /**
+   * @see org.apache.http.HttpEntity#getContentLength()
+   */
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+  
+  /**
+   * @see org.apache.http.HttpEntity#getContent()
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    return compression.compress(request.getNodeName(), request.openContent());
+  }
+  
+  /**
+   * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+   */
+  @Override
+  public void writeTo(OutputStream outstream) throws IOException {
+    InputStream in = getContent();
+    try {
+      byte[] buffer = new byte[65536];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        outstream.write(buffer, 0, n);
+      }
+      outstream.flush();
+    } finally {
+      in.close();
+    }
+  }
+  
+  /**
+   * @see org.apache.http.HttpEntity#isStreaming()
+   */
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+}
@@ -0,0 +1,393 @@
+package eu.baltrad.beast.exchange.json;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import eu.baltrad.beast.exchange.ExchangeResponse;
+import eu.baltrad.beast.exchange.PayloadCompression;
+import eu.baltrad.beast.exchange.SendFileRequest;
+
+/**
+ * Sends file requests using the JDK http client with HTTP/2 preferred. With HTTP/2 all concurrent
+ * posts to the same peer are multiplexed over one connection instead of each of them occupying a
+ * connection of its own. If the peer doesn't support HTTP/2 the client falls back to HTTP/1.1.
+ *
+ * The headers are copied as is from an already signed request so that the signature is the same
+ * regardless of transport. Redirects are not followed but reported in the response like in
+ * {@link HttpExchangeConnector}. The signed Date header is a restricted header in the Java 11
+ * client so the transport requires Java 12 or later.
+ *
+ * Unlike the HTTP/1.1 connector the JDK client always verifies that the peer certificate matches
+ * the host name. It can only be turned off for the whole JVM with the system property
+ * jdk.internal.httpclient.disableHostnameVerification, so peers whose certificates don't match
+ * the address they are reached on should be sent to over HTTP/1.1 instead.
+ * @author anders
+ */
+public class Http2FileTransport {
+  /**
+   * Headers that are managed by the client itself and may not be set
+   */
+  private static final String[] RESTRICTED_HEADERS = {"Connection", "Content-Length", "Expect", "Host", "Upgrade"};
+
+  /**
+   * How often in ms the timeouts are checked while waiting for the response
+   */
+  private static final long CHECK_INTERVAL = 100;
+
+  /**
+   * The client, created on first use
+   */
+  private volatile HttpClient httpClient = null;
+
+  /**
+   * Connection timeout in ms
+   */
+  private long connectionTimeout = 60000;
+
+  /**
+   * Max time in ms without progress while the body is sent
+   */
+  private long writeTimeout = 60000;
+
+  /**
+   * Max time in ms to wait for the response once the body has been sent
+   */
+  private long requestTimeout = 60000;
+
+  /**
+   * Number of responses received over HTTP/2
+   */
+  private final AtomicLong http2Responses = new AtomicLong();
+
+  /**
+   * Number of responses received over HTTP/1.1
+   */
+  private final AtomicLong http1Responses = new AtomicLong();
+
+  /**
+   * Sends the request.
+   * @param signed the request containing the (signed) headers and the uri
+   * @param request the file request providing the content
+   * @param compression if not null, the content is compressed with this compression while sent
+   * @return the response
+   * @throws IOException on communication error or timeout
+   * @throws InterruptedException if interrupted while waiting for the response
+   */
+  public ExchangeResponse send(HttpUriRequest signed, SendFileRequest request, PayloadCompression compression) throws IOException, InterruptedException {
+    MonitoredBody body = new MonitoredBody(createBody(request, compression));
+    HttpResponse<Void> response = await(getClient().sendAsync(createRequest(signed, body), HttpResponse.BodyHandlers.discarding()), body);
+    if (response.version() == HttpClient.Version.HTTP_2) {
+      http2Responses.incrementAndGet();
+    } else {
+      http1Responses.incrementAndGet();
+    }
+    return createResponse(response);
+  }
+
+  /**
+   * Waits for the response. The upload may take any time as long as it progresses, the write
+   * timeout only applies to the time without progress. The request timeout starts when the
+   * whole body has been sent. The exchange is cancelled if either of them expires.
+   * @param future the pending response
+   * @param body the body being sent
+   * @return the response
+   * @throws IOException on communication error or timeout
+   * @throws InterruptedException if interrupted while waiting for the response
+   */
+  protected <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> future, MonitoredBody body) throws IOException, InterruptedException {
+    try {
+      while (true) {
+        long remaining = body.getDeadline(writeTimeout, requestTimeout) - System.currentTimeMillis();
+        if (remaining <= 0) {
+          future.cancel(true);
+          throw new HttpTimeoutException(body.isSent() ? "No response within " + requestTimeout + " ms" : "No upload progress within " + writeTimeout + " ms");
+        }
+        try {
+          return future.get(Math.min(remaining, CHECK_INTERVAL), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          // The deadline moves when the upload progresses, check again
+        }
+      }
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Creates the request to be sent
+   * @param signed the request containing the (signed) headers and the uri
+   * @param body the body
+   * @return the request
+   */
+  protected HttpRequest createRequest(HttpUriRequest signed, HttpRequest.BodyPublisher body) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(signed.getURI().toString()))
+        .version(HttpClient.Version.HTTP_2);
+    for (Header header : signed.getAllHeaders()) {
+      if (!isRestricted(header.getName())) {
+        builder.header(header.getName(), header.getValue());
+      }
+    }
+    return builder.POST(body).build();
+  }
+
+  /**
+   * Creates the body to be sent
+   * @param request the file request providing the content
+   * @param compression if not null, the content is compressed with this compression while sent
+   * @return the body
+   * @throws FileNotFoundException if the file in the request doesn't exist
+   */
+  protected HttpRequest.BodyPublisher createBody(final SendFileRequest request, final PayloadCompression compression) throws FileNotFoundException {
+    if (compression != null) {
+      return HttpRequest.BodyPublishers.ofInputStream(new Supplier<InputStream>() {
+        @Override
+        public InputStream get() {
+          try {
+            return compression.compress(request.getNodeName(), request.openContent());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+    } else if (request.getFile() != null) {
+      return HttpRequest.BodyPublishers.ofFile(request.getFile().toPath());
+    }
+    return HttpRequest.BodyPublishers.ofByteArray(request.getData());
+  }
+
+  /**
+   * Creates an exchange response from the http response
+   * @param response the response
+   * @return the exchange response
+   */
+  protected ExchangeResponse createResponse(HttpResponse<?> response) {
+    int statusCode = response.statusCode();
+    ExchangeResponse result = new ExchangeResponse(statusCode);
+    if (statusCode == HttpStatus.SC_MOVED_TEMPORARILY || statusCode == HttpStatus.SC_MOVED_PERMANENTLY) {
+      String location = response.headers().firstValue("location").orElse(null);
+      if (location != null) {
+        result.setRedirected(true);
+        result.setRedirectAddress(location);
+      }
+    }
+    result.setAcceptEncoding(response.headers().firstValue("Accept-Encoding").orElse(null));
+    return result;
+  }
+
+  /**
+   * @return the client, created on first use
+   */
+  protected HttpClient getClient() {
+    HttpClient result = httpClient;
+    if (result == null) {
+      synchronized (this) {
+        if (httpClient == null) {
+          httpClient = createClient();
+        }
+        result = httpClient;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Creates the client. Like the HTTP/1.1 connector the peer certificates are trusted without
+   * verification, but the host name is still verified by the JDK client.
+   * @return the client
+   */
+  protected HttpClient createClient() {
+    SSLContext sslContext = HttpExchangeConnector.createTrustAllSSLContext();
+    return HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .connectTimeout(Duration.ofMillis(connectionTimeout))
+        .sslContext(sslContext)
+        .build();
+  }
+
+  /**
+   * Releases the client. The connections are closed when the client is garbage collected.
+   */
+  public synchronized void shutdown() {
+    httpClient = null;
+  }
+
+  private static boolean isRestricted(String name) {
+    for (String h : RESTRICTED_HEADERS) {
+      if (h.equalsIgnoreCase(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param connectionTimeout the connection timeout in ms
+   */
+  public void setConnectionTimeout(long connectionTimeout) {
+    this.connectionTimeout = connectionTimeout;
+  }
+
+  /**
+   * @return the connection timeout in ms
+   */
+  public long getConnectionTimeout() {
+    return connectionTimeout;
+  }
+
+  /**
+   * @param writeTimeout max time in ms without progress while the body is sent
+   */
+  public void setWriteTimeout(long writeTimeout) {
+    this.writeTimeout = writeTimeout;
+  }
+
+  /**
+   * @return max time in ms without progress while the body is sent
+   */
+  public long getWriteTimeout() {
+    return writeTimeout;
+  }
+
+  /**
+   * @param requestTimeout max time in ms to wait for the response once the body has been sent
+   */
+  public void setRequestTimeout(long requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  /**
+   * @return max time in ms to wait for the response once the body has been sent
+   */
+  public long getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  /**
+   * @return number of responses received over HTTP/2
+   */
+  public long getHttp2Responses() {
+    return http2Responses.get();
+  }
+
+  /**
+   * @return number of responses received over HTTP/1.1
+   */
+  public long getHttp1Responses() {
+    return http1Responses.get();
+  }
+
+  /**
+   * Keeps track of the progress of a body while it is sent.
+   */
+  protected static class MonitoredBody implements HttpRequest.BodyPublisher {
+    private final HttpRequest.BodyPublisher publisher;
+    private volatile long lastProgress = System.currentTimeMillis();
+    private volatile long sentAt = 0;
+    private volatile long sentBytes = 0;
+
+    /**
+     * Constructor
+     * @param publisher the body to monitor
+     */
+    public MonitoredBody(HttpRequest.BodyPublisher publisher) {
+      this.publisher = publisher;
+    }
+
+    @Override
+    public long contentLength() {
+      return publisher.contentLength();
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+      // The client subscribes again if the request has to be resent
+      lastProgress = System.currentTimeMillis();
+      sentAt = 0;
+      sentBytes = 0;
+      publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+          subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+          // With a known length the client doesn't necessarily request more once it has got it all
+          lastProgress = System.currentTimeMillis();
+          sentBytes += item.remaining();
+          long length = publisher.contentLength();
+          if (length >= 0 && sentBytes >= length) {
+            sentAt = lastProgress;
+          }
+          subscriber.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+          subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+          if (sentAt == 0) {
+            sentAt = System.currentTimeMillis();
+          }
+          subscriber.onComplete();
+        }
+      });
+    }
+
+    /**
+     * @return if the whole body has been sent
+     */
+    public boolean isSent() {
+      return sentAt != 0;
+    }
+
+    /**
+     * @param writeTimeout max time in ms without progress while the body is sent
+     * @param requestTimeout max time in ms to wait for the response once the body has been sent
+     * @return the time in ms when the exchange times out unless there is progress
+     */
+    public long getDeadline(long writeTimeout, long requestTimeout) {
+      long sent = sentAt;
+      if (sent != 0) {
+        return sent + requestTimeout;
+      }
+      return lastProgress + writeTimeout;
+    }
+  }
+}
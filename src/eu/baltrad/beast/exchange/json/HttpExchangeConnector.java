@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -23,40 +24,54 @@ import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import eu.baltrad.beast.exchange.ExchangeConnector;
 import eu.baltrad.beast.exchange.ExchangeMessage;
+import eu.baltrad.beast.exchange.FileDigestCache;
+import eu.baltrad.beast.exchange.PayloadCompression;
 import eu.baltrad.beast.exchange.SendFileRequest;
 import eu.baltrad.beast.exchange.ExchangeResponse;
 import eu.baltrad.beast.security.AuthorizationRequest;
 import eu.baltrad.beast.security.ISecurityManager;
 import eu.baltrad.beast.security.SecurityManager;
 
-public class HttpExchangeConnector implements ExchangeConnector {
+/**
+ * Exchange connector communicating over http. All requests are sent using one long-lived
+ * client with a connection pool so that connections (and TLS sessions) to the peers are
+ * kept alive and reused between requests.
+ * @author anders
+ */
+public class HttpExchangeConnector implements ExchangeConnector, DisposableBean {
   /**
    * Request mapper
    */
@@ -87,6 +102,71 @@ public class HttpExchangeConnector implements ExchangeConnector {
    */
   static final String[] SIGNING_HEADERS = {"Content-Type", "Content-MD5", "Date"};
   
+  /**
+   * Digests of recently sent files
+   */
+  private FileDigestCache digestCache = new FileDigestCache();
+  
+  /**
+   * The shared http client, created on first use
+   */
+  private volatile HttpClient httpClient = null;
+  
+  /**
+   * The connection manager of the shared http client
+   */
+  private volatile PooledClientConnectionManager connectionManager = null;
+  
+  /**
+   * Max number of connections in total
+   */
+  private int maxConnections = 200;
+  
+  /**
+   * Max number of connections to each peer
+   */
+  private int maxConnectionsPerPeer = 20;
+  
+  /**
+   * Connection timeout in ms
+   */
+  private int connectionTimeout = 60000;
+  
+  /**
+   * Socket timeout in ms
+   */
+  private int socketTimeout = 60000;
+  
+  /**
+   * Idle connections are closed after this many ms
+   */
+  private long idleTimeout = 60000;
+  
+  /**
+   * How long a connection is kept alive when the peer doesn't tell, in ms
+   */
+  private long keepAliveTimeout = 30000;
+  
+  /**
+   * When idle connections were evicted last time
+   */
+  private volatile long lastEviction = 0;
+  
+  /**
+   * If file requests should be sent with the HTTP/2 transport
+   */
+  private boolean http2Enabled = false;
+  
+  /**
+   * The HTTP/2 transport
+   */
+  private Http2FileTransport http2Transport = new Http2FileTransport();
+  
+  /**
+   * Negotiated payload compression
+   */
+  private PayloadCompression compression = new PayloadCompression();
+  
   /**
    * Default constructor
    */
@@ -126,7 +206,7 @@ public class HttpExchangeConnector implements ExchangeConnector {
    * @return the status code
    */
   public ExchangeResponse send(String remoteAddress, String json) {
-    HttpClient httpClient = createClient();
+    HttpClient httpClient = getClient();
     HttpPost httpPost = createPost(remoteAddress);
     httpPost.addHeader("content-type", "application/json; charset=utf-8");
     httpPost.addHeader("Beast-Message-Type", "json");
@@ -142,9 +222,8 @@ public class HttpExchangeConnector implements ExchangeConnector {
       logger.info("response status code: " + result.statusCode());
       return result;
     } catch (Exception e) {
+      httpPost.abort();
       throw new RuntimeException(e);
-    } finally {
-      shutdownClient(httpClient);
     }
   }
   
@@ -153,7 +232,7 @@ public class HttpExchangeConnector implements ExchangeConnector {
    */
   @Override
   public ExchangeResponse sendDexStyle(String remoteAddress, AuthorizationRequest request) {
-    HttpClient httpClient = createClient();
+    HttpClient httpClient = getClient();
     HttpPost httpPost = createPost(remoteAddress);
     httpPost.setEntity(new ByteArrayEntity(request.getPublicKey()));
     httpPost.addHeader("Content-MD5", DigestUtils.md5Hex(request.getPublicKey()));
@@ -173,9 +252,8 @@ public class HttpExchangeConnector implements ExchangeConnector {
       logger.info("response status code: " + result.statusCode());
       return result;
     } catch (Exception e) {
+      httpPost.abort();
       throw new RuntimeException(e);
-    } finally {
-      shutdownClient(httpClient);
     }
   }
 
@@ -184,19 +262,48 @@ public class HttpExchangeConnector implements ExchangeConnector {
    */
   @Override
   public ExchangeResponse send(SendFileRequest request) {
-    HttpClient httpClient = createClient();
     HttpPost httpPost = createPost(request.getAddress());
     httpPost.addHeader("Content-Type", request.getContentType());
     httpPost.addHeader("Node-Name", securityManager.getLocalNodeName());
     httpPost.addHeader("Dex-Protocol-Version", "2.1");
     httpPost.addHeader("Beast-Message-Type", "file");
     httpPost.addHeader("Date", dateFormat.format(request.getDate()));
-    httpPost.addHeader("Content-MD5", DigestUtils.md5Hex(request.getData()));
+    httpPost.addHeader("Content-MD5", getContentMD5(request));
     String signedMessage=securityManager.createSignatureMessage(httpPost);
     httpPost.addHeader("Authorization", securityManager.getLocalNodeName() + ":" + securityManager.createSignature(signedMessage));
     
+    boolean compress = compression != null && compression.shouldCompress(request.getNodeName(), request.getContentLength());
+    ExchangeResponse result = send(httpPost, request, compress);
+    if (compression != null) {
+      compression.negotiate(request.getNodeName(), result, compress);
+      if (compress && result.statusCode() == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE) {
+        logger.info("Compressed payload not accepted by " + request.getNodeName() + ", sending uncompressed");
+        result = send(httpPost, request, false);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Sends the signed post with the content of the file request
+   * @param httpPost the post with the signed headers
+   * @param request the file request
+   * @param compress if the content should be compressed
+   * @return the response
+   */
+  protected ExchangeResponse send(HttpPost httpPost, SendFileRequest request, boolean compress) {
+    httpPost.removeHeaders("Content-Encoding");
+    if (compress) {
+      httpPost.addHeader("Content-Encoding", PayloadCompression.ENCODING);
+    }
+    
+    if (http2Enabled) {
+      return sendHttp2(httpPost, request, compress);
+    }
+    
+    HttpClient httpClient = getClient();
     try {
-      httpPost.setEntity(createByteArrayEntity(request.getData()));
+      httpPost.setEntity(compress ? createCompressingEntity(request) : createEntity(request));
       long st = System.currentTimeMillis();
       logger.info("Sending file data to: " + request.getAddress() + ", thread: " + Thread.currentThread().getName());
       HttpResponse response = httpClient.execute(httpPost);
@@ -209,13 +316,44 @@ public class HttpExchangeConnector implements ExchangeConnector {
       logger.info("response status code: " + result.statusCode());
       return result;
     } catch (Exception e) {
+      httpPost.abort();
       throw new RuntimeException(e);
-    } finally {
-      shutdownClient(httpClient);
     }
   }
 
   
+  /**
+   * Sends the file request using the HTTP/2 transport
+   * @param signed the post containing the signed headers
+   * @param request the file request
+   * @param compress if the content should be compressed
+   * @return the response
+   */
+  protected ExchangeResponse sendHttp2(HttpPost signed, SendFileRequest request, boolean compress) {
+    try {
+      long st = System.currentTimeMillis();
+      logger.info("Sending file data (http2) to: " + request.getAddress() + ", thread: " + Thread.currentThread().getName());
+      ExchangeResponse result = http2Transport.send(signed, request, compress ? compression : null);
+      logger.info("File data sent to "  + request.getAddress() +  " in " + (System.currentTimeMillis() - st) + " ms, thread: " + Thread.currentThread().getName());
+      logger.info("response status code: " + result.statusCode());
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  /**
+   * Calculates the content md5 of the request
+   * @see ExchangeConnector#prepare(SendFileRequest)
+   */
+  @Override
+  public void prepare(SendFileRequest request) {
+    getContentMD5(request);
+  }
+  
   /**
    * Parses a http key authorization request according to protocol version 2.2
    *  @param request the http request
@@ -237,9 +375,69 @@ public class HttpExchangeConnector implements ExchangeConnector {
       result.setRedirected(true);
       result.setRedirectAddress(response.getFirstHeader("location").getValue());
     }
+    Header acceptEncoding = response.getFirstHeader("Accept-Encoding");
+    if (acceptEncoding != null) {
+      result.setAcceptEncoding(acceptEncoding.getValue());
+    }
     return result;
   }
 
+  /**
+   * Returns the md5 hex digest of the content in the request. If the request is file based
+   * the digest is calculated by streaming the file, or taken from the digest cache if the file
+   * has been sent before. The digest is remembered in the request.
+   * @param request the request
+   * @return the md5 hex digest
+   */
+  protected String getContentMD5(SendFileRequest request) {
+    String md5 = request.getContentMD5();
+    if (md5 == null) {
+      if (request.getFile() != null) {
+        try {
+          md5 = digestCache.md5Hex(request.getFile());
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to calculate md5 for " + request.getFile(), e);
+        }
+      } else {
+        md5 = DigestUtils.md5Hex(request.getData());
+      }
+      request.setContentMD5(md5);
+    }
+    return md5;
+  }
+  
+  /**
+   * Creates the entity for the request. A file entity is used if the request is file based,
+   * otherwise a byte array entity.
+   * @param request the request
+   * @return the entity
+   */
+  protected AbstractHttpEntity createEntity(SendFileRequest request) {
+    if (request.getFile() != null) {
+      return createFileEntity(request.getFile(), request.getContentType());
+    }
+    return createByteArrayEntity(request.getData());
+  }
+  
+  /**
+   * Creates an entity that compresses the content of the request while it is sent
+   * @param request the request
+   * @return the entity
+   */
+  protected AbstractHttpEntity createCompressingEntity(SendFileRequest request) {
+    return new CompressingEntity(request, compression);
+  }
+  
+  /**
+   * Creates a file entity that streams the file content when sent
+   * @param file the file
+   * @param contentType the content type
+   * @return the file entity
+   */
+  protected FileEntity createFileEntity(File file, String contentType) {
+    return new FileEntity(file, contentType);
+  }
+  
   /**
    * Creates a byte array entity for use in a http post
    * @param arr the byte array to be wrapped in the byte array entity
@@ -289,7 +487,54 @@ public class HttpExchangeConnector implements ExchangeConnector {
   }
   
   /**
-   * Creates a http client with the relevant http parameters set
+   * @param digestCache the cache of file digests
+   */
+  public void setDigestCache(FileDigestCache digestCache) {
+    this.digestCache = digestCache;
+  }
+  
+  /**
+   * @return the cache of file digests
+   */
+  public FileDigestCache getDigestCache() {
+    return digestCache;
+  }
+  
+  /**
+   * Returns the shared http client. The client is created on first use and
+   * idle connections are evicted regularly.
+   * @return the http client
+   */
+  protected HttpClient getClient() {
+    HttpClient result = httpClient;
+    if (result == null) {
+      synchronized (this) {
+        if (httpClient == null) {
+          httpClient = createClient();
+        }
+        result = httpClient;
+      }
+    }
+    evictIdleConnections();
+    return result;
+  }
+  
+  /**
+   * Closes expired connections and connections that have been idle longer than the idle timeout.
+   * Only performed if at least half of the idle timeout has passed since last eviction.
+   */
+  protected void evictIdleConnections() {
+    PooledClientConnectionManager mgr = connectionManager;
+    long now = System.currentTimeMillis();
+    if (mgr != null && now - lastEviction > idleTimeout / 2) {
+      lastEviction = now;
+      mgr.closeExpiredConnections();
+      mgr.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  /**
+   * Creates a http client with the relevant http parameters set and a connection pool
    * @return the http client
    */
   protected HttpClient createClient() {
@@ -297,19 +542,40 @@ public class HttpExchangeConnector implements ExchangeConnector {
     registerHttpScheme(schemeRegistry);
     registerHttpsScheme(schemeRegistry);
     
-    ThreadSafeClientConnManager connMgr = new ThreadSafeClientConnManager(
-            schemeRegistry);
-    connMgr.setMaxTotal(200);
-    connMgr.setDefaultMaxPerRoute(20);
+    PooledClientConnectionManager connMgr = new PooledClientConnectionManager(
+            schemeRegistry, -1, TimeUnit.MILLISECONDS);
+    connMgr.setMaxTotal(maxConnections);
+    connMgr.setDefaultMaxPerRoute(maxConnectionsPerPeer);
     
     HttpParams httpParams = new BasicHttpParams();
-    HttpConnectionParams.setConnectionTimeout(httpParams, 60000);
-    HttpConnectionParams.setSoTimeout(httpParams, 60000);
+    HttpConnectionParams.setConnectionTimeout(httpParams, connectionTimeout);
+    HttpConnectionParams.setSoTimeout(httpParams, socketTimeout);
+    HttpConnectionParams.setStaleCheckingEnabled(httpParams, true);
     HttpProtocolParams.setVersion(httpParams, HttpVersion.HTTP_1_1);
     HttpProtocolParams.setContentCharset(httpParams, HTTP.UTF_8);
     HttpProtocolParams.setHttpElementCharset(httpParams, HTTP.UTF_8);
     httpParams.setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_1);
-    return new DefaultHttpClient(connMgr, httpParams);
+    
+    DefaultHttpClient client = new DefaultHttpClient(connMgr, httpParams);
+    client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+      @Override
+      public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        BasicHeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+        while (it.hasNext()) {
+          HeaderElement he = it.nextElement();
+          if (he.getValue() != null && "timeout".equalsIgnoreCase(he.getName())) {
+            try {
+              return Long.parseLong(he.getValue()) * 1000L;
+            } catch (NumberFormatException e) {
+              // Use default
+            }
+          }
+        }
+        return keepAliveTimeout;
+      }
+    });
+    connectionManager = connMgr;
+    return client;
   }
 
   /**
@@ -319,6 +585,180 @@ public class HttpExchangeConnector implements ExchangeConnector {
     httpClient.getConnectionManager().shutdown();
   }
 
+  /**
+   * Shuts down the shared http client and closes all connections
+   * @see org.springframework.beans.factory.DisposableBean#destroy()
+   */
+  @Override
+  public synchronized void destroy() {
+    http2Transport.shutdown();
+    if (httpClient != null) {
+      shutdownClient(httpClient);
+      httpClient = null;
+      connectionManager = null;
+    }
+  }
+  
+  /**
+   * @return number of connections currently in use
+   */
+  public int getLeasedConnections() {
+    PooledClientConnectionManager mgr = connectionManager;
+    return mgr != null ? mgr.getLeased() : 0;
+  }
+  
+  /**
+   * @return number of idle connections that can be reused
+   */
+  public int getAvailableConnections() {
+    PooledClientConnectionManager mgr = connectionManager;
+    return mgr != null ? mgr.getAvailable() : 0;
+  }
+  
+  /**
+   * @return number of requests waiting for a connection
+   */
+  public int getPendingConnections() {
+    PooledClientConnectionManager mgr = connectionManager;
+    return mgr != null ? mgr.getPending() : 0;
+  }
+  
+  /**
+   * @return number of connections that has been opened, i.e. the number of TCP/TLS handshakes
+   */
+  public long getHandshakeCount() {
+    PooledClientConnectionManager mgr = connectionManager;
+    return mgr != null ? mgr.getHandshakes() : 0;
+  }
+  
+  /**
+   * @param maxConnections max number of connections in total. Must be set before first use.
+   */
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+  
+  /**
+   * @return max number of connections in total
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+  
+  /**
+   * @param maxConnectionsPerPeer max number of connections to each peer. Must be set before first use.
+   */
+  public void setMaxConnectionsPerPeer(int maxConnectionsPerPeer) {
+    this.maxConnectionsPerPeer = maxConnectionsPerPeer;
+  }
+  
+  /**
+   * @return max number of connections to each peer
+   */
+  public int getMaxConnectionsPerPeer() {
+    return maxConnectionsPerPeer;
+  }
+  
+  /**
+   * @param connectionTimeout the connection timeout in ms. Must be set before first use.
+   */
+  public void setConnectionTimeout(int connectionTimeout) {
+    this.connectionTimeout = connectionTimeout;
+  }
+  
+  /**
+   * @return the connection timeout in ms
+   */
+  public int getConnectionTimeout() {
+    return connectionTimeout;
+  }
+  
+  /**
+   * @param socketTimeout the socket timeout in ms. Must be set before first use.
+   */
+  public void setSocketTimeout(int socketTimeout) {
+    this.socketTimeout = socketTimeout;
+  }
+  
+  /**
+   * @return the socket timeout in ms
+   */
+  public int getSocketTimeout() {
+    return socketTimeout;
+  }
+  
+  /**
+   * @param idleTimeout idle connections are closed after this many ms
+   */
+  public void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+  
+  /**
+   * @return the idle timeout in ms
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+  
+  /**
+   * @param keepAliveTimeout how long in ms a connection is kept alive if the peer doesn't specify it
+   */
+  public void setKeepAliveTimeout(long keepAliveTimeout) {
+    this.keepAliveTimeout = keepAliveTimeout;
+  }
+  
+  /**
+   * @return the keep alive timeout in ms
+   */
+  public long getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  /**
+   * Requires Java 12 or later. Note that the HTTP/2 transport verifies the host name of the peer,
+   * see {@link Http2FileTransport}.
+   * @param http2Enabled if file requests should be sent with the HTTP/2 transport
+   */
+  public void setHttp2Enabled(boolean http2Enabled) {
+    this.http2Enabled = http2Enabled;
+  }
+  
+  /**
+   * @return if file requests are sent with the HTTP/2 transport
+   */
+  public boolean isHttp2Enabled() {
+    return http2Enabled;
+  }
+  
+  /**
+   * @param http2Transport the HTTP/2 transport
+   */
+  public void setHttp2Transport(Http2FileTransport http2Transport) {
+    this.http2Transport = http2Transport;
+  }
+  
+  /**
+   * @return the HTTP/2 transport
+   */
+  public Http2FileTransport getHttp2Transport() {
+    return http2Transport;
+  }
+  
+  /**
+   * @param compression the negotiated payload compression, null to never compress
+   */
+  public void setCompression(PayloadCompression compression) {
+    this.compression = compression;
+  }
+  
+  /**
+   * @return the negotiated payload compression
+   */
+  public PayloadCompression getCompression() {
+    return compression;
+  }
+  
   /**
    * Registers HTTP scheme.
    * @param schemeReg Scheme registry
@@ -332,6 +772,16 @@ public class HttpExchangeConnector implements ExchangeConnector {
    * @param schemeReg Scheme registry
    */
   private void registerHttpsScheme(SchemeRegistry schemeReg) {
+      Scheme https = new Scheme("https", 443, new SSLSocketFactory(
+          createTrustAllSSLContext(), SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER));
+      schemeReg.register(https);
+  }
+  
+  /**
+   * Creates a ssl context that doesn't require remote site to have certificates
+   * @return the ssl context
+   */
+  static SSLContext createTrustAllSSLContext() {
       try {
           SSLContext sslContext = SSLContext.getInstance("SSL");
           sslContext.init(
@@ -352,11 +802,9 @@ public class HttpExchangeConnector implements ExchangeConnector {
               },
               new SecureRandom()
           );
-          Scheme https = new Scheme("https", 443, new SSLSocketFactory(
-              sslContext, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER));
-          schemeReg.register(https);
+          return sslContext;
       } catch (Exception e) {
-          throw new RuntimeException("Failed to register https scheme", e);
+          throw new RuntimeException("Failed to create ssl context", e);
       }
   } 
 }
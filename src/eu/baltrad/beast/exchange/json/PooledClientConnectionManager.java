@@ -0,0 +1,128 @@
+package eu.baltrad.beast.exchange.json;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Thread safe connection manager that keeps track of the pool usage so that
+ * it is possible to monitor how well the connections are reused.
+ * @author anders
+ */
+public class PooledClientConnectionManager extends ThreadSafeClientConnManager {
+  /**
+   * Number of connections currently leased
+   */
+  private final AtomicInteger leased = new AtomicInteger();
+
+  /**
+   * Number of threads currently waiting for a connection
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * Number of connections that has been opened (and hence handshaked)
+   */
+  private final AtomicLong handshakes = new AtomicLong();
+
+  /**
+   * Constructor
+   * @param schemeRegistry the scheme registry
+   * @param connTTL max time to live for a persistent connection
+   * @param connTTLTimeUnit the time unit of connTTL
+   */
+  public PooledClientConnectionManager(SchemeRegistry schemeRegistry, long connTTL, TimeUnit connTTLTimeUnit) {
+    super(schemeRegistry, connTTL, connTTLTimeUnit);
+  }
+
+  /**
+   * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#createConnectionOperator(org.apache.http.conn.scheme.SchemeRegistry)
+   */
+  @Override
+  protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schreg) {
+    return new DefaultClientConnectionOperator(schreg) {
+      @Override
+      public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local, HttpContext context, HttpParams params) throws IOException {
+        super.openConnection(conn, target, local, context, params);
+        handshakes.incrementAndGet();
+      }
+    };
+  }
+
+  /**
+   * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#requestConnection(org.apache.http.conn.routing.HttpRoute, java.lang.Object)
+   */
+  @Override
+  public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+    final ClientConnectionRequest request = super.requestConnection(route, state);
+    return new ClientConnectionRequest() {
+      @Override
+      public ManagedClientConnection getConnection(long timeout, TimeUnit tunit) throws InterruptedException, ConnectionPoolTimeoutException {
+        pending.incrementAndGet();
+        try {
+          ManagedClientConnection result = request.getConnection(timeout, tunit);
+          leased.incrementAndGet();
+          return result;
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+      @Override
+      public void abortRequest() {
+        request.abortRequest();
+      }
+    };
+  }
+
+  /**
+   * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#releaseConnection(org.apache.http.conn.ManagedClientConnection, long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+    super.releaseConnection(conn, validDuration, timeUnit);
+    leased.decrementAndGet();
+  }
+
+  /**
+   * @return number of connections currently in use
+   */
+  public int getLeased() {
+    return leased.get();
+  }
+
+  /**
+   * @return number of idle connections available for reuse
+   */
+  public int getAvailable() {
+    return Math.max(0, getConnectionsInPool() - leased.get());
+  }
+
+  /**
+   * @return number of threads waiting for a connection
+   */
+  public int getPending() {
+    return pending.get();
+  }
+
+  /**
+   * @return number of connections that has been opened
+   */
+  public long getHandshakes() {
+    return handshakes.get();
+  }
+}
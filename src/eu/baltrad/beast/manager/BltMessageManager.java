@@ -20,8 +20,9 @@ package eu.baltrad.beast.manager;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.LogManager;
@@ -30,7 +31,9 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
 import eu.baltrad.beast.adaptor.IBltAdaptorManager;
+import eu.baltrad.beast.db.CatalogCache;
 import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltDataMessage;
 import eu.baltrad.beast.router.IMultiRoutedMessage;
 import eu.baltrad.beast.router.IRouter;
 
@@ -53,13 +56,52 @@ public class BltMessageManager implements IBltMessageManager, InitializingBean,
   /**
    * The executor
    */
-  private ExecutorService executor = null;
+  private volatile ExecutorService executor = null;
 
   /**
    * Number of threads in the default executor 
    */
   private int poolSize = 10;
   
+  /**
+   * Max number of queued priority messages (alerts and trigger jobs) in the default executor
+   */
+  private int priorityQueueSize = 1000;
+  
+  /**
+   * Max number of queued data messages in the default executor
+   */
+  private int dataQueueSize = 10000;
+  
+  /**
+   * What to do when the default executors queue is full. Defaults to discarding the oldest
+   * data message so that {@link #manage(IBltMessage)} never blocks the caller.
+   */
+  private PrioritizedMessageQueue.OverflowPolicy overflowPolicy = PrioritizedMessageQueue.OverflowPolicy.DISCARD_OLDEST;
+  
+  /**
+   * If the messages should be processed by virtual threads instead of platform
+   * threads. Requires java 21 or later, otherwise the fixed pool is used. Since many
+   * more messages are then routed at the same time, the catalog bean should limit its
+   * number of concurrent queries (maxConcurrentQueries) to what the database pool allows.
+   */
+  private boolean useVirtualThreads = false;
+  
+  /**
+   * Number of virtual threads processing messages when virtual threads are used
+   */
+  private int virtualThreadPoolSize = 200;
+  
+  /**
+   * The queue used by the default executor
+   */
+  private PrioritizedMessageQueue queue = null;
+  
+  /**
+   * The catalog cache that should be fed with the files of the data messages, null if none
+   */
+  private CatalogCache catalogCache = null;
+  
   /**
    * The logger
    */
@@ -107,15 +149,80 @@ public class BltMessageManager implements IBltMessageManager, InitializingBean,
     return this.executor;
   }
   
+  /**
+   * @param priorityQueueSize max number of queued alerts and trigger jobs in the default executor
+   */
+  public void setPriorityQueueSize(int priorityQueueSize) {
+    this.priorityQueueSize = priorityQueueSize;
+  }
+  
+  /**
+   * @param dataQueueSize max number of queued data messages in the default executor
+   */
+  public void setDataQueueSize(int dataQueueSize) {
+    this.dataQueueSize = dataQueueSize;
+  }
+  
+  /**
+   * @param overflowPolicy what to do when the default executor queue is full
+   */
+  public void setOverflowPolicy(PrioritizedMessageQueue.OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+  
+  /**
+   * @param useVirtualThreads if the messages should be processed by virtual threads
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+  
+  /**
+   * @param virtualThreadPoolSize the number of virtual threads processing messages when virtual threads are used
+   */
+  public void setVirtualThreadPoolSize(int virtualThreadPoolSize) {
+    this.virtualThreadPoolSize = virtualThreadPoolSize;
+  }
+  
+  /**
+   * @param catalogCache the catalog cache that should be fed with the files of incoming data messages
+   */
+  public void setCatalogCache(CatalogCache catalogCache) {
+    this.catalogCache = catalogCache;
+  }
+  
+  /**
+   * @return the queue used by the default executor or null if a custom executor is used. Can be used for
+   * monitoring queue depth, wait times and rejections.
+   */
+  public PrioritizedMessageQueue getQueue() {
+    return this.queue;
+  }
+  
   /**
    * @see IBltMessageManager#manage(IBltMessage)
    */
-  public synchronized void manage(IBltMessage message) {
-    if (!executor.isShutdown()) {
+  public void manage(IBltMessage message) {
+    CatalogCache cache = catalogCache;
+    if (cache != null && message instanceof BltDataMessage && ((BltDataMessage)message).getFileEntry() != null) {
+      try {
+        cache.add(((BltDataMessage)message).getFileEntry());
+      } catch (RuntimeException t) {
+        logger.warn("Failed to add file to catalog cache", t);
+      }
+    }
+    ExecutorService ex = executor;
+    if (ex != null && !ex.isShutdown()) {
       Runnable r = createRunnable(message);
       try {
-        executor.execute(r);
-      }catch (RuntimeException t) {
+        ex.execute(r);
+      } catch (RejectedExecutionException t) {
+        if (ex.isShutdown()) {
+          logger.warn("ExecutorService has been shutdown, can not manage message");
+        } else {
+          logger.warn("Message queue full, rejected " + message.getClass().getName());
+        }
+      } catch (RuntimeException t) {
         t.printStackTrace();
       }
     } else {
@@ -130,7 +237,7 @@ public class BltMessageManager implements IBltMessageManager, InitializingBean,
    */
   protected Runnable createRunnable(final IBltMessage message) {
     logger.debug("createRunnable("+message.getClass().getName()+")");
-    return new Runnable() {
+    return new PrioritizedMessageQueue.MessageTask(message) {
       @Override
       public void run() {
         try {
@@ -153,14 +260,28 @@ public class BltMessageManager implements IBltMessageManager, InitializingBean,
   @Override
   public synchronized void afterPropertiesSet() throws Exception {
     if (executor == null) {
-      executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
-        @Override
-        public Thread newThread(Runnable r) {
-          Thread th = new Thread(r);
-          th.setDaemon(true);
-          return th;
+      ThreadFactory factory = null;
+      int nrThreads = poolSize;
+      if (useVirtualThreads) {
+        factory = VirtualThreadSupport.newVirtualThreadFactory("beast-message-");
+        if (factory != null) {
+          nrThreads = virtualThreadPoolSize;
+        } else {
+          logger.warn("Virtual threads not supported by runtime, using a pool of " + poolSize + " threads");
         }
-      });
+      }
+      if (factory == null) {
+        factory = new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread th = new Thread(r);
+            th.setDaemon(true);
+            return th;
+          }
+        };
+      }
+      queue = new PrioritizedMessageQueue(priorityQueueSize, dataQueueSize, overflowPolicy);
+      executor = new ThreadPoolExecutor(nrThreads, nrThreads, 0L, TimeUnit.MILLISECONDS, queue, factory);
     }
   }
   
@@ -0,0 +1,506 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.manager;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltAlertMessage;
+import eu.baltrad.beast.message.mo.BltDataMessage;
+import eu.baltrad.beast.message.mo.BltTriggerJobMessage;
+
+/**
+ * A bounded work queue for the message manager executor. Tasks are kept in
+ * two classes, priority (alerts and trigger jobs) and data (everything else),
+ * and the priority class is always served first so that a burst of data
+ * messages can not starve the alerts and scheduled jobs. Each class has its
+ * own capacity and when the data class is full the overflow policy decides
+ * what should happen.
+ *
+ * The queue is lock free, the tasks are kept in concurrent linked queues and
+ * semaphores are used for keeping track of capacity and available tasks.
+ * 
+ * @author Anders Henja
+ */
+public class PrioritizedMessageQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+  /**
+   * The message classes
+   */
+  public static enum MessageClass {
+    PRIORITY,
+    DATA
+  }
+  
+  /**
+   * What to do when a message is offered and the queue is full.
+   */
+  public static enum OverflowPolicy {
+    /**
+     * The caller will be blocked until there is room in the queue
+     */
+    BLOCK,
+    /**
+     * The oldest data message in the queue is discarded. Priority messages
+     * will be rejected.
+     */
+    DISCARD_OLDEST,
+    /**
+     * The message is rejected
+     */
+    REJECT
+  }
+  
+  /**
+   * A runnable that knows what message it is processing so that
+   * the queue can classify it.
+   */
+  public static abstract class MessageTask implements Runnable {
+    private final IBltMessage message;
+    
+    /**
+     * Constructor
+     * @param message the message that should be processed
+     */
+    public MessageTask(IBltMessage message) {
+      this.message = message;
+    }
+    
+    /**
+     * @return the message
+     */
+    public IBltMessage getMessage() {
+      return message;
+    }
+  }
+  
+  /**
+   * Entry in the queue
+   */
+  private static class Entry {
+    final Runnable task;
+    final long enqueued;
+    
+    Entry(Runnable task) {
+      this.task = task;
+      this.enqueued = System.currentTimeMillis();
+    }
+  }
+  
+  /**
+   * Keeps track of one message class
+   */
+  private static class ClassQueue {
+    final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+    final Semaphore space;
+    final int capacity;
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong discarded = new AtomicLong();
+    final AtomicLong dequeued = new AtomicLong();
+    final AtomicLong totalWaitTime = new AtomicLong();
+    final AtomicLong maxWaitTime = new AtomicLong();
+    
+    ClassQueue(int capacity) {
+      this.capacity = capacity;
+      this.space = new Semaphore(capacity);
+    }
+
+    void addWaitTime(long wait) {
+      dequeued.incrementAndGet();
+      totalWaitTime.addAndGet(wait);
+      long current = maxWaitTime.get();
+      while (wait > current && !maxWaitTime.compareAndSet(current, wait)) {
+        current = maxWaitTime.get();
+      }
+    }
+  }
+  
+  /**
+   * The priority messages
+   */
+  private final ClassQueue priority;
+  
+  /**
+   * The data messages
+   */
+  private final ClassQueue data;
+  
+  /**
+   * Number of available tasks. Might be higher than the actual number of
+   * tasks since discarded entries are not withdrawn.
+   */
+  private final Semaphore available = new Semaphore(0);
+  
+  /**
+   * The overflow policy
+   */
+  private final OverflowPolicy policy;
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(PrioritizedMessageQueue.class);
+  
+  /**
+   * Constructor
+   * @param priorityCapacity the capacity for priority messages
+   * @param dataCapacity the capacity for data messages
+   * @param policy the overflow policy
+   */
+  public PrioritizedMessageQueue(int priorityCapacity, int dataCapacity, OverflowPolicy policy) {
+    if (priorityCapacity <= 0 || dataCapacity <= 0) {
+      throw new IllegalArgumentException("capacity must be > 0");
+    }
+    if (policy == null) {
+      throw new IllegalArgumentException("policy must not be null");
+    }
+    this.priority = new ClassQueue(priorityCapacity);
+    this.data = new ClassQueue(dataCapacity);
+    this.policy = policy;
+  }
+  
+  /**
+   * Classifies a task.
+   * @param task the task
+   * @return the message class
+   */
+  protected MessageClass classify(Runnable task) {
+    if (task instanceof MessageTask) {
+      IBltMessage message = ((MessageTask)task).getMessage();
+      if (message instanceof BltAlertMessage || message instanceof BltTriggerJobMessage) {
+        return MessageClass.PRIORITY;
+      } else if (message instanceof BltDataMessage) {
+        return MessageClass.DATA;
+      }
+    }
+    return MessageClass.DATA;
+  }
+  
+  /**
+   * @param mc the message class
+   * @return the class queue
+   */
+  private ClassQueue get(MessageClass mc) {
+    return mc == MessageClass.PRIORITY ? priority : data;
+  }
+  
+  /**
+   * Adds the entry to the queue. Space must have been reserved before.
+   * @param cq the class queue
+   * @param task the task
+   */
+  private void enqueue(ClassQueue cq, Runnable task) {
+    cq.entries.offer(new Entry(task));
+    available.release();
+  }
+  
+  /**
+   * Tries to make room for the task according to the overflow policy without blocking.
+   * @param cq the class queue
+   * @param mc the message class
+   * @return true if space has been reserved
+   */
+  private boolean reserveNonBlocking(ClassQueue cq, MessageClass mc) {
+    while (!cq.space.tryAcquire()) {
+      if (policy == OverflowPolicy.DISCARD_OLDEST && mc == MessageClass.DATA) {
+        Entry oldest = cq.entries.poll();
+        if (oldest != null) {
+          // The space held by the discarded entry is reused by the new one
+          cq.discarded.incrementAndGet();
+          logger.warn("Message queue full, discarding oldest data message");
+          return true;
+        }
+      } else {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * @see java.util.Queue#offer(java.lang.Object)
+   */
+  @Override
+  public boolean offer(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    MessageClass mc = classify(task);
+    ClassQueue cq = get(mc);
+    if (policy == OverflowPolicy.BLOCK) {
+      try {
+        cq.space.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cq.rejected.incrementAndGet();
+        return false;
+      }
+    } else if (!reserveNonBlocking(cq, mc)) {
+      cq.rejected.incrementAndGet();
+      return false;
+    }
+    enqueue(cq, task);
+    return true;
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    MessageClass mc = classify(task);
+    ClassQueue cq = get(mc);
+    if (policy == OverflowPolicy.BLOCK) {
+      if (!cq.space.tryAcquire(timeout, unit)) {
+        cq.rejected.incrementAndGet();
+        return false;
+      }
+    } else if (!reserveNonBlocking(cq, mc)) {
+      cq.rejected.incrementAndGet();
+      return false;
+    }
+    enqueue(cq, task);
+    return true;
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+   */
+  @Override
+  public void put(Runnable task) throws InterruptedException {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    ClassQueue cq = get(classify(task));
+    cq.space.acquire();
+    enqueue(cq, task);
+  }
+  
+  /**
+   * Removes the next task, priority messages first.
+   * @return the task or null if there was none
+   */
+  private Runnable dequeue() {
+    ClassQueue[] order = new ClassQueue[]{priority, data};
+    for (ClassQueue cq : order) {
+      Entry e = cq.entries.poll();
+      if (e != null) {
+        cq.space.release();
+        cq.addWaitTime(System.currentTimeMillis() - e.enqueued);
+        return e.task;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @see java.util.Queue#poll()
+   */
+  @Override
+  public Runnable poll() {
+    while (available.tryAcquire()) {
+      Runnable r = dequeue();
+      if (r != null) {
+        return r;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long remaining = unit.toNanos(timeout);
+    while (available.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+      Runnable r = dequeue();
+      if (r != null) {
+        return r;
+      }
+      remaining = deadline - System.nanoTime();
+    }
+    return null;
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#take()
+   */
+  @Override
+  public Runnable take() throws InterruptedException {
+    while (true) {
+      available.acquire();
+      Runnable r = dequeue();
+      if (r != null) {
+        return r;
+      }
+    }
+  }
+
+  /**
+   * @see java.util.Queue#peek()
+   */
+  @Override
+  public Runnable peek() {
+    Entry e = priority.entries.peek();
+    if (e == null) {
+      e = data.entries.peek();
+    }
+    return e != null ? e.task : null;
+  }
+  
+  /**
+   * @see java.util.AbstractCollection#remove(java.lang.Object)
+   */
+  @Override
+  public boolean remove(Object o) {
+    ClassQueue[] order = new ClassQueue[]{priority, data};
+    for (ClassQueue cq : order) {
+      for (Entry e : cq.entries) {
+        if (e.task == o && cq.entries.remove(e)) {
+          cq.space.release();
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+   */
+  @Override
+  public int remainingCapacity() {
+    return priority.space.availablePermits() + data.space.availablePermits();
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+   */
+  @Override
+  public int drainTo(Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+   */
+  @Override
+  public int drainTo(Collection<? super Runnable> c, int maxElements) {
+    int n = 0;
+    while (n < maxElements) {
+      Runnable r = poll();
+      if (r == null) {
+        break;
+      }
+      c.add(r);
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * @see java.util.AbstractCollection#iterator()
+   */
+  @Override
+  public Iterator<Runnable> iterator() {
+    List<Runnable> snapshot = new ArrayList<Runnable>();
+    for (Entry e : priority.entries) {
+      snapshot.add(e.task);
+    }
+    for (Entry e : data.entries) {
+      snapshot.add(e.task);
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+
+  /**
+   * @see java.util.AbstractCollection#size()
+   */
+  @Override
+  public int size() {
+    return size(MessageClass.PRIORITY) + size(MessageClass.DATA);
+  }
+  
+  /**
+   * @param mc the message class
+   * @return the number of queued messages in the class
+   */
+  public int size(MessageClass mc) {
+    ClassQueue cq = get(mc);
+    return cq.capacity - cq.space.availablePermits();
+  }
+  
+  /**
+   * @param mc the message class
+   * @return the number of messages that have been rejected in the class
+   */
+  public long getRejectedCount(MessageClass mc) {
+    return get(mc).rejected.get();
+  }
+  
+  /**
+   * @param mc the message class
+   * @return the number of messages that have been discarded in the class
+   */
+  public long getDiscardedCount(MessageClass mc) {
+    return get(mc).discarded.get();
+  }
+  
+  /**
+   * @param mc the message class
+   * @return the average time in ms that the messages have been waiting in the queue
+   */
+  public long getAverageWaitTime(MessageClass mc) {
+    ClassQueue cq = get(mc);
+    long n = cq.dequeued.get();
+    return n > 0 ? cq.totalWaitTime.get() / n : 0;
+  }
+
+  /**
+   * @param mc the message class
+   * @return the longest time in ms that any message has been waiting in the queue
+   */
+  public long getMaxWaitTime(MessageClass mc) {
+    return get(mc).maxWaitTime.get();
+  }
+  
+  /**
+   * @return the overflow policy
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+}
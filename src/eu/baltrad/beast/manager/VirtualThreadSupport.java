@@ -0,0 +1,105 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.manager;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Helper for creating executors that runs each task in its own virtual thread.
+ * Virtual threads are only available when running on java 21 or later and
+ * since the library still can be built and executed on older runtimes, the
+ * executor is created by reflection.
+ * @author Anders Henja
+ */
+public class VirtualThreadSupport {
+  /**
+   * The factory method, null if not supported by the runtime
+   */
+  private static final Method factoryMethod = lookupFactoryMethod();
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(VirtualThreadSupport.class);
+
+  /**
+   * Hidden constructor
+   */
+  private VirtualThreadSupport() {
+  }
+  
+  /**
+   * @return the Executors.newVirtualThreadPerTaskExecutor method or null if not available
+   */
+  private static Method lookupFactoryMethod() {
+    try {
+      return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (SecurityException e) {
+      return null;
+    }
+  }
+  
+  /**
+   * @return if virtual threads are supported by the runtime
+   */
+  public static boolean isSupported() {
+    return factoryMethod != null;
+  }
+  
+  /**
+   * Creates an executor that starts a new virtual thread for each task.
+   * @return the executor or null if virtual threads are not supported
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (factoryMethod != null) {
+      try {
+        return (ExecutorService)factoryMethod.invoke(null);
+      } catch (Exception e) {
+        logger.warn("Failed to create virtual thread executor", e);
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Creates a thread factory that creates virtual threads named prefix0, prefix1 and so on.
+   * @param prefix the name prefix of the created threads
+   * @return the thread factory or null if virtual threads are not supported
+   */
+  public static ThreadFactory newVirtualThreadFactory(String prefix) {
+    if (factoryMethod != null) {
+      try {
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+        return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+      } catch (Exception e) {
+        logger.warn("Failed to create virtual thread factory", e);
+      }
+    }
+    return null;
+  }
+}
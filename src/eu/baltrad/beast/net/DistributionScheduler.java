@@ -0,0 +1,531 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.net;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import eu.baltrad.beast.net.FileDistribution.FileDistributionStateContainer;
+
+/**
+ * Destination aware scheduling of file distributions. Instead of letting all distributions
+ * compete for the worker threads and aborting a distribution when another upload to the same
+ * destination is ongoing, the distributions are queued per host:
+ * <ul>
+ * <li>At most maxPerHost uploads are running towards the same host at the same time so that a
+ * slow or unreachable host can not occupy all worker threads.</li>
+ * <li>There is never more than one upload running to the same destination (full uri). A
+ * distribution to a destination that is busy waits in the queue.</li>
+ * <li>Queued distributions are coalesced on destination, if a newer file is queued for the same
+ * destination the older one is never uploaded and its state is marked as superseded.</li>
+ * </ul>
+ * The state of each distribution can be waited for since {@link FileDistributionStateContainer} is
+ * a future. Throughput and latency statistics are kept per host.
+ * 
+ * Only {@link FileDistribution}s passed to {@link #execute(Runnable)} are scheduled, any other task
+ * is passed on to the worker executor as is. Note that {@link #submit(Runnable)} wraps the task
+ * and hence bypasses the scheduling.
+ * 
+ * @author Anders Henja
+ */
+public class DistributionScheduler extends AbstractExecutorService {
+  /**
+   * Statistics for one host
+   */
+  public static class Statistics {
+    private long submitted = 0;
+    private long coalesced = 0;
+    private long completed = 0;
+    private long failed = 0;
+    private int queued = 0;
+    private int running = 0;
+    private long bytes = 0;
+    private long totalLatency = 0;
+    private long totalUploadTime = 0;
+    
+    /**
+     * @return number of distributions submitted
+     */
+    public synchronized long getSubmitted() {
+      return submitted;
+    }
+    
+    /**
+     * @return number of distributions that were replaced by a newer file before being uploaded
+     */
+    public synchronized long getCoalesced() {
+      return coalesced;
+    }
+    
+    /**
+     * @return number of successful distributions
+     */
+    public synchronized long getCompleted() {
+      return completed;
+    }
+    
+    /**
+     * @return number of failed distributions
+     */
+    public synchronized long getFailed() {
+      return failed;
+    }
+    
+    /**
+     * @return number of distributions waiting to be uploaded
+     */
+    public synchronized int getQueued() {
+      return queued;
+    }
+    
+    /**
+     * @return number of ongoing uploads
+     */
+    public synchronized int getRunning() {
+      return running;
+    }
+    
+    /**
+     * @return total number of bytes successfully uploaded
+     */
+    public synchronized long getBytes() {
+      return bytes;
+    }
+    
+    /**
+     * @return average time in ms from submission until the distribution was done
+     */
+    public synchronized long getAverageLatency() {
+      long n = completed + failed;
+      return n > 0 ? totalLatency / n : 0;
+    }
+    
+    /**
+     * @return average time in ms spent uploading
+     */
+    public synchronized long getAverageUploadTime() {
+      long n = completed + failed;
+      return n > 0 ? totalUploadTime / n : 0;
+    }
+    
+    /**
+     * @return bytes per second while uploading, 0 if nothing has been uploaded
+     */
+    public synchronized double getThroughput() {
+      return totalUploadTime > 0 ? (double)bytes * 1000.0 / (double)totalUploadTime : 0.0;
+    }
+    
+    synchronized void submitted(boolean replaced) {
+      submitted++;
+      if (replaced) {
+        coalesced++;
+      } else {
+        queued++;
+      }
+    }
+    
+    synchronized void started() {
+      queued--;
+      running++;
+    }
+    
+    synchronized void rejected() {
+      running--;
+      failed++;
+    }
+    
+    synchronized void aborted() {
+      queued--;
+      failed++;
+    }
+    
+    synchronized void done(boolean successful, long size, long latency, long uploadTime) {
+      running--;
+      if (successful) {
+        completed++;
+        bytes += size;
+      } else {
+        failed++;
+      }
+      totalLatency += latency;
+      totalUploadTime += uploadTime;
+    }
+  }
+  
+  /**
+   * A queued distribution
+   */
+  private static class Entry {
+    final FileDistribution distribution;
+    final long queuedAt;
+    
+    Entry(FileDistribution distribution, long queuedAt) {
+      this.distribution = distribution;
+      this.queuedAt = queuedAt;
+    }
+  }
+  
+  /**
+   * The queue for one host
+   */
+  private static class Host {
+    final LinkedHashMap<URI, Entry> pending = new LinkedHashMap<URI, Entry>();
+    final Set<URI> active = new HashSet<URI>();
+    final Statistics statistics = new Statistics();
+  }
+  
+  /**
+   * Runs a distribution and reports back when it's done
+   */
+  private class Task implements Runnable {
+    private final Host host;
+    private final Entry entry;
+    
+    Task(Host host, Entry entry) {
+      this.host = host;
+      this.entry = entry;
+    }
+    
+    @Override
+    public void run() {
+      FileDistribution distribution = entry.distribution;
+      FileDistributionStateContainer state = distribution.getDistributionState();
+      long started = currentTimeMillis();
+      boolean successful = false;
+      try {
+        if (state == null || !state.isCancelled()) {
+          successful = distribution.runScheduled();
+        }
+      } finally {
+        completed(host, entry, successful, started);
+      }
+    }
+    
+    /**
+     * Called if the task never will be run
+     */
+    void abort() {
+      try {
+        completed(host, entry, false, currentTimeMillis());
+      } finally {
+        FileDistributionStateContainer state = entry.distribution.getDistributionState();
+        if (state != null) {
+          state.uploadDone(false);
+        }
+      }
+    }
+  }
+  
+  /**
+   * The executor running the uploads
+   */
+  private final ExecutorService executor;
+  
+  /**
+   * Max number of concurrent uploads to the same host
+   */
+  private int maxPerHost = 2;
+  
+  /**
+   * The queues, host -> queue
+   */
+  private final Map<String, Host> hosts = new HashMap<String, Host>();
+  
+  /**
+   * Number of distributions that are queued or running
+   */
+  private int outstanding = 0;
+  
+  /**
+   * If shutdown has been requested
+   */
+  private boolean shutdown = false;
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(DistributionScheduler.class);
+  
+  /**
+   * Constructor
+   * @param executor the executor running the uploads
+   */
+  public DistributionScheduler(ExecutorService executor) {
+    this.executor = executor;
+  }
+  
+  /**
+   * Schedules file distributions, all other tasks are executed directly
+   * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+   */
+  @Override
+  public void execute(Runnable command) {
+    if (command instanceof FileDistribution) {
+      schedule((FileDistribution)command);
+    } else {
+      executor.execute(command);
+    }
+  }
+  
+  /**
+   * Queues the distribution. If there already is a distribution queued to the same destination
+   * it is replaced and marked as superseded.
+   * @param distribution the distribution
+   * @throws RejectedExecutionException if the scheduler has been shut down
+   */
+  public void schedule(FileDistribution distribution) {
+    Entry replaced = null;
+    URI destination = distribution.getFullDestination();
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("Distribution scheduler has been shut down");
+      }
+      Host host = getHost(destination);
+      replaced = host.pending.remove(destination);
+      host.pending.put(destination, new Entry(distribution, currentTimeMillis()));
+      host.statistics.submitted(replaced != null);
+      if (replaced == null) {
+        outstanding++;
+      }
+      dispatch(host);
+    }
+    if (replaced != null) {
+      logger.info("File " + replaced.distribution.getSourceFile().getName() + " superseded by " + 
+          distribution.getSourceFile().getName() + " before being distributed to: " + destination.getPath());
+      FileDistributionStateContainer state = replaced.distribution.getDistributionState();
+      if (state != null) {
+        state.uploadSuperseded();
+      }
+    }
+  }
+  
+  /**
+   * Hands over as many queued distributions to the executor as allowed. Must be called
+   * while holding the lock.
+   * @param host the host
+   */
+  private void dispatch(Host host) {
+    Iterator<Map.Entry<URI, Entry>> it = host.pending.entrySet().iterator();
+    while (host.active.size() < maxPerHost && it.hasNext()) {
+      Map.Entry<URI, Entry> e = it.next();
+      if (host.active.contains(e.getKey())) {
+        continue;
+      }
+      it.remove();
+      host.active.add(e.getKey());
+      host.statistics.started();
+      try {
+        executor.execute(new Task(host, e.getValue()));
+      } catch (RejectedExecutionException ex) {
+        logger.error("Failed to distribute " + e.getValue().distribution.getSourceFile().getName() + ", executor rejected it");
+        host.active.remove(e.getKey());
+        host.statistics.rejected();
+        outstanding--;
+        FileDistributionStateContainer state = e.getValue().distribution.getDistributionState();
+        if (state != null) {
+          state.uploadDone(false);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Called when a distribution is done
+   * @param host the host
+   * @param entry the distribution
+   * @param successful if it was successful
+   * @param started when the upload started
+   */
+  private void completed(Host host, Entry entry, boolean successful, long started) {
+    long now = currentTimeMillis();
+    long size = successful ? entry.distribution.getSourceFile().length() : 0;
+    synchronized (this) {
+      host.active.remove(entry.distribution.getFullDestination());
+      host.statistics.done(successful, size, now - entry.queuedAt, now - started);
+      outstanding--;
+      dispatch(host);
+      if (shutdown && outstanding == 0) {
+        executor.shutdown();
+      }
+    }
+  }
+  
+  /**
+   * Returns the queue for the host of the destination, must be called while holding the lock
+   * @param destination the destination
+   * @return the queue
+   */
+  private Host getHost(URI destination) {
+    String key = getHostKey(destination);
+    Host result = hosts.get(key);
+    if (result == null) {
+      result = new Host();
+      hosts.put(key, result);
+    }
+    return result;
+  }
+  
+  /**
+   * @param destination the destination
+   * @return the key used for identifying the host of the destination
+   */
+  protected String getHostKey(URI destination) {
+    String host = destination.getHost() != null ? destination.getHost().toLowerCase() : "localhost";
+    return destination.getPort() >= 0 ? host + ":" + destination.getPort() : host;
+  }
+  
+  /**
+   * @param destination a destination on the host
+   * @return the statistics for the host of the destination
+   */
+  public synchronized Statistics getStatistics(URI destination) {
+    return getHost(destination).statistics;
+  }
+  
+  /**
+   * @return the statistics for all hosts, host[:port] -> statistics
+   */
+  public synchronized Map<String, Statistics> getStatistics() {
+    Map<String, Statistics> result = new HashMap<String, Statistics>();
+    for (Map.Entry<String, Host> e : hosts.entrySet()) {
+      result.put(e.getKey(), e.getValue().statistics);
+    }
+    return result;
+  }
+  
+  /**
+   * @return number of distributions that are queued or running
+   */
+  public synchronized int getOutstanding() {
+    return outstanding;
+  }
+  
+  /**
+   * @param maxPerHost max number of concurrent uploads to the same host
+   */
+  public synchronized void setMaxPerHost(int maxPerHost) {
+    if (maxPerHost < 1) {
+      throw new IllegalArgumentException("maxPerHost must be at least 1");
+    }
+    this.maxPerHost = maxPerHost;
+    for (Host host : hosts.values()) {
+      dispatch(host);
+    }
+  }
+  
+  /**
+   * @return max number of concurrent uploads to the same host
+   */
+  public synchronized int getMaxPerHost() {
+    return maxPerHost;
+  }
+  
+  /**
+   * Stops accepting new distributions. Already queued distributions will be uploaded before
+   * the executor is shut down.
+   * @see java.util.concurrent.ExecutorService#shutdown()
+   */
+  @Override
+  public synchronized void shutdown() {
+    shutdown = true;
+    if (outstanding == 0) {
+      executor.shutdown();
+    }
+  }
+  
+  /**
+   * Fails all queued distributions and shuts down the executor
+   * @see java.util.concurrent.ExecutorService#shutdownNow()
+   */
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> result = new ArrayList<Runnable>();
+    synchronized (this) {
+      shutdown = true;
+      for (Host host : hosts.values()) {
+        for (Entry e : host.pending.values()) {
+          result.add(e.distribution);
+          host.statistics.aborted();
+          outstanding--;
+        }
+        host.pending.clear();
+      }
+    }
+    for (Runnable r : result) {
+      FileDistributionStateContainer state = ((FileDistribution)r).getDistributionState();
+      if (state != null) {
+        state.uploadDone(false);
+      }
+    }
+    for (Runnable r : executor.shutdownNow()) {
+      if (r instanceof Task) {
+        ((Task)r).abort();
+        result.add(((Task)r).entry.distribution);
+      } else {
+        result.add(r);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * @see java.util.concurrent.ExecutorService#isShutdown()
+   */
+  @Override
+  public synchronized boolean isShutdown() {
+    return shutdown;
+  }
+  
+  /**
+   * @see java.util.concurrent.ExecutorService#isTerminated()
+   */
+  @Override
+  public boolean isTerminated() {
+    return executor.isTerminated();
+  }
+  
+  /**
+   * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+  
+  /**
+   * @return current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+}
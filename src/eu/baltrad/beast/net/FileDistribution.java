@@ -22,11 +22,19 @@ import java.io.File;
 import java.net.URI;
 import java.net.UnknownServiceException;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.schmizz.sshj.SSHClient;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import eu.baltrad.beast.net.ftp.FTPFileUploadHandler;
+import eu.baltrad.beast.net.ftp.FTPSession;
+import eu.baltrad.beast.net.ftp.FTPUploadQueue;
 import eu.baltrad.beast.net.scp.SCPFileUploadHandler;
 import eu.baltrad.beast.net.scp.SCPOnlyFileUploadHandler;
 import eu.baltrad.beast.net.sftp.SFTPFileUploadHandler;
@@ -38,7 +46,14 @@ import eu.baltrad.beast.net.sftp.SFTPFileUploadHandler;
  * 
  * The class provides protection against parallel uploads toward the same destination. 
  * If a distribution is started towards a destination that is already targeted by another 
- * active distribution, it will aborted and a warning will be output to the log.
+ * active distribution, it will aborted and a warning will be output to the log. When the
+ * distributions are executed by a {@link DistributionScheduler} they are instead queued
+ * per destination, see {@link #runScheduled()}.
+ * 
+ * The ssh based uploads (scp, scponly and sftp) share a pool of authenticated sessions so that
+ * files to the same host, port and user don't need a new key exchange and authentication each.
+ * The ftp uploads likewise share logged in sessions and uploads queued for the same server are
+ * batched in one session.
  *
  */
 public class FileDistribution implements Runnable {
@@ -51,21 +66,44 @@ public class FileDistribution implements Runnable {
   
   private static HashMap<URI, String> currentUploads = new HashMap<URI, String>();
   
+  /**
+   * Authenticated ssh sessions shared by the scp, scponly and sftp uploads
+   */
+  private static SessionPool<SSHClient> sshSessionPool = new SessionPool<SSHClient>();
+  
+  /**
+   * Logged in ftp sessions shared by the ftp uploads
+   */
+  private static SessionPool<FTPSession> ftpSessionPool = new SessionPool<FTPSession>();
+  
+  /**
+   * Batches ftp uploads to the same server
+   */
+  private static FTPUploadQueue ftpUploadQueue = new FTPUploadQueue();
+  
   /**
    * The logger
    */
   private static Logger logger = LogManager.getLogger(FileDistribution.class);
   
   
-  public static class FileDistributionStateContainer {
+  /**
+   * The state of a distribution. Can be polled or waited for as a future, the
+   * result is true if the file was distributed successfully.
+   */
+  public static class FileDistributionStateContainer implements Future<Boolean> {
     
     private volatile FileDistributionState state;
     
+    private final CountDownLatch done = new CountDownLatch(1);
+    
     private enum FileDistributionState {
       NOT_STARTED,
       ONGOING,
       FAILED,
-      SUCCESSFUL
+      SUCCESSFUL,
+      SUPERSEDED,
+      CANCELLED
     }
     
     public FileDistributionStateContainer() {
@@ -78,21 +116,80 @@ public class FileDistribution implements Runnable {
     
     public void uploadDone(boolean uploadSuccessful) {
       if (uploadSuccessful) {
-        state = FileDistributionState.SUCCESSFUL;
+        finish(FileDistributionState.SUCCESSFUL);
       } else {
-        state = FileDistributionState.FAILED;
+        finish(FileDistributionState.FAILED);
+      }
+    }
+    
+    /**
+     * Indicates that the distribution never was performed since a newer file
+     * was distributed to the same destination.
+     */
+    public void uploadSuperseded() {
+      finish(FileDistributionState.SUPERSEDED);
+    }
+    
+    private synchronized boolean finish(FileDistributionState newState) {
+      if (isDone()) {
+        return false;
       }
+      state = newState;
+      done.countDown();
+      return true;
     }
     
     public boolean isDone() {
       return state == FileDistributionState.SUCCESSFUL ||
-             state == FileDistributionState.FAILED;
+             state == FileDistributionState.FAILED ||
+             state == FileDistributionState.SUPERSEDED ||
+             state == FileDistributionState.CANCELLED;
     }
     
     public boolean isSuccessful() {
       return state == FileDistributionState.SUCCESSFUL;
     }
-  
+    
+    public boolean isSuperseded() {
+      return state == FileDistributionState.SUPERSEDED;
+    }
+    
+    /**
+     * Cancels the distribution if it hasn't been started
+     * @see java.util.concurrent.Future#cancel(boolean)
+     */
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+      if (state == FileDistributionState.NOT_STARTED) {
+        return finish(FileDistributionState.CANCELLED);
+      }
+      return false;
+    }
+    
+    @Override
+    public boolean isCancelled() {
+      return state == FileDistributionState.CANCELLED;
+    }
+    
+    /**
+     * @see java.util.concurrent.Future#get()
+     */
+    @Override
+    public Boolean get() throws InterruptedException {
+      done.await();
+      return isSuccessful();
+    }
+    
+    /**
+     * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return isSuccessful();
+    }
   }
   
   /**
@@ -126,6 +223,45 @@ public class FileDistribution implements Runnable {
   public static void setCurrentUploads(HashMap<URI, String> currentUploads) {
     FileDistribution.currentUploads = currentUploads;
   }
+  
+  public static SessionPool<SSHClient> getSshSessionPool() {
+    return sshSessionPool;
+  }
+  
+  public static void setSshSessionPool(SessionPool<SSHClient> sshSessionPool) {
+    FileDistribution.sshSessionPool = sshSessionPool;
+  }
+  
+  public static SessionPool<FTPSession> getFtpSessionPool() {
+    return ftpSessionPool;
+  }
+  
+  public static void setFtpSessionPool(SessionPool<FTPSession> ftpSessionPool) {
+    FileDistribution.ftpSessionPool = ftpSessionPool;
+  }
+  
+  /**
+   * Closes the idle ssh and ftp sessions and stops their eviction. Called when the
+   * distribution rule manager is destroyed.
+   */
+  public static void shutdownSessionPools() {
+    SessionPool<SSHClient> ssh = sshSessionPool;
+    if (ssh != null) {
+      ssh.shutdown();
+    }
+    SessionPool<FTPSession> ftp = ftpSessionPool;
+    if (ftp != null) {
+      ftp.shutdown();
+    }
+  }
+  
+  public static FTPUploadQueue getFtpUploadQueue() {
+    return ftpUploadQueue;
+  }
+  
+  public static void setFtpUploadQueue(FTPUploadQueue ftpUploadQueue) {
+    FileDistribution.ftpUploadQueue = ftpUploadQueue;
+  }
 
   public URI getFullDestination() {
     return fullDestination;
@@ -158,11 +294,7 @@ public class FileDistribution implements Runnable {
       warnAboutOngoingUpload(sourceFile, fullDestination);
     } else {
       try {
-        uploadHandler.upload(sourceFile, fullDestination);
-        logger.info("File " + sourceFile.getName() + " distributed with " + fullDestination.getScheme() + " to: " + fullDestination.getPath());
-        uploadSuccessful = true;
-      } catch (Throwable e) {
-        logger.error("File distribution failed! " + e.toString(), e);
+        uploadSuccessful = distribute();
       } finally {
         unlockUpload(fullDestination);
       }
@@ -171,6 +303,45 @@ public class FileDistribution implements Runnable {
     uploadDone(uploadSuccessful);
   }
   
+  /**
+   * Runs the distribution when scheduled by the {@link DistributionScheduler}. The scheduler
+   * makes sure that there never are two uploads to the same destination at the same time, so
+   * no locking is needed.
+   * @return true if the file was distributed
+   */
+  public boolean runScheduled() {
+    boolean uploadSuccessful = false;
+    if (!sourceFile.isAbsolute()) {
+      logger.error("Source path must be absolute: " + sourceFile);
+    } else {
+      if (distributionState != null) {
+        distributionState.uploadStarted();
+      }
+      uploadSuccessful = distribute();
+    }
+    uploadDone(uploadSuccessful);
+    return uploadSuccessful;
+  }
+  
+  /**
+   * Uploads the file
+   * @return true if successful
+   */
+  protected boolean distribute() {
+    try {
+      uploadHandler.upload(sourceFile, fullDestination);
+      logger.info("File " + sourceFile.getName() + " distributed with " + fullDestination.getScheme() + " to: " + fullDestination.getPath());
+      return true;
+    } catch (Throwable e) {
+      logger.error("File distribution failed! " + e.toString(), e);
+      return false;
+    }
+  }
+  
+  public FileDistributionStateContainer getDistributionState() {
+    return distributionState;
+  }
+  
   protected FileUploadHandler getHandlerByScheme(String scheme) throws UnknownServiceException {
     FileUploadHandler uploadHandler = null;
       
@@ -179,15 +350,15 @@ public class FileDistribution implements Runnable {
     }
     
     if (scheme.equalsIgnoreCase("ftp")) {
-      uploadHandler = new FTPFileUploadHandler();
+      uploadHandler = createFTPHandler(new FTPFileUploadHandler());
     } else if (scheme.equalsIgnoreCase("scp")) {
-      uploadHandler = new SCPFileUploadHandler();      
+      uploadHandler = createSSHHandler(new SCPFileUploadHandler());
     } else if (scheme.equalsIgnoreCase("scponly")) {
-      uploadHandler = new SCPOnlyFileUploadHandler();      
+      uploadHandler = createSSHHandler(new SCPOnlyFileUploadHandler());
     } else if (scheme.equalsIgnoreCase("copy")) {
       uploadHandler = new CopyFileUploadHandler();      
     } else if (scheme.equalsIgnoreCase("sftp")) {
-      uploadHandler = new SFTPFileUploadHandler();      
+      uploadHandler = createSSHHandler(new SFTPFileUploadHandler());
     } else {
       throw new UnknownServiceException(scheme);      
     }
@@ -195,6 +366,27 @@ public class FileDistribution implements Runnable {
     return uploadHandler;
   }
   
+  /**
+   * Lets the handler use the shared ftp session pool and upload queue
+   * @param handler the handler
+   * @return the handler
+   */
+  protected FTPFileUploadHandler createFTPHandler(FTPFileUploadHandler handler) {
+    handler.setSessionPool(getFtpSessionPool());
+    handler.setUploadQueue(getFtpUploadQueue());
+    return handler;
+  }
+  
+  /**
+   * Lets the handler use the shared ssh session pool
+   * @param handler the handler
+   * @return the handler
+   */
+  protected SCPFileUploadHandler createSSHHandler(SCPFileUploadHandler handler) {
+    handler.setSessionPool(getSshSessionPool());
+    return handler;
+  }
+  
   /**
    * Append a path to an URI.
    * 
@@ -0,0 +1,524 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.net;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Keyed pool of authenticated sessions (connections) used by the upload handlers so that
+ * the connection setup and authentication doesn't have to be done for every file. Sessions
+ * are keyed by host, port and user info of the destination URI.
+ * 
+ * A session that has been idle longer than the idle timeout is closed and a session is
+ * checked with {@link SessionFactory#isValid(Object)} before it is reused. At most maxSessions
+ * sessions are opened to the same key, further borrowers will wait until one is released.
+ * Idle sessions are evicted by a daemon thread that runs as long as there are idle sessions.
+ * 
+ * @author Anders Henja
+ */
+public class SessionPool<T> {
+  /**
+   * Opens, checks and closes sessions
+   */
+  public static interface SessionFactory<T> {
+    /**
+     * Opens and authenticates a session
+     * @param uri the destination
+     * @return the session
+     * @throws IOException if session couldn't be opened
+     */
+    T open(URI uri) throws IOException;
+    
+    /**
+     * @param session the session
+     * @return if the session still is usable
+     */
+    boolean isValid(T session);
+    
+    /**
+     * Closes the session, should not throw
+     * @param session the session
+     */
+    void close(T session);
+  }
+  
+  /**
+   * Identifies the sessions that can be shared
+   */
+  private static class Key {
+    private final String host;
+    private final int port;
+    private final String userInfo;
+    
+    Key(URI uri) {
+      host = uri.getHost() != null ? uri.getHost().toLowerCase() : null;
+      port = uri.getPort();
+      userInfo = uri.getUserInfo();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Key) {
+        Key k = (Key)o;
+        return port == k.port && equals(host, k.host) && equals(userInfo, k.userInfo);
+      }
+      return false;
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31 * (31 * port + (host != null ? host.hashCode() : 0)) + (userInfo != null ? userInfo.hashCode() : 0);
+    }
+    
+    private static boolean equals(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+  
+  /**
+   * An idle session
+   */
+  private static class Idle<T> {
+    private final T session;
+    private final SessionFactory<T> factory;
+    private final long since;
+    
+    Idle(T session, SessionFactory<T> factory, long since) {
+      this.session = session;
+      this.factory = factory;
+      this.since = since;
+    }
+  }
+  
+  /**
+   * Idle sessions per key, most recently used last
+   */
+  private final Map<Key, LinkedList<Idle<T>>> idle = new HashMap<Key, LinkedList<Idle<T>>>();
+  
+  /**
+   * Number of open sessions (in use and idle) per key
+   */
+  private final Map<Key, Integer> open = new HashMap<Key, Integer>();
+  
+  /**
+   * Max number of sessions per key
+   */
+  private int maxSessions = 4;
+  
+  /**
+   * Time in ms that a session may be idle before it is closed
+   */
+  private long idleTimeout = 60000;
+  
+  /**
+   * Max time in ms to wait for a session when max sessions have been reached
+   */
+  private long maxWait = 60000;
+  
+  /**
+   * Number of sessions that has been opened
+   */
+  private long created = 0;
+  
+  /**
+   * Number of times a session has been reused
+   */
+  private long reused = 0;
+  
+  /**
+   * Closes idle sessions periodically, null when there are no idle sessions
+   */
+  private ScheduledExecutorService evictor = null;
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(SessionPool.class);
+  
+  /**
+   * Borrows a session to the destination. Either an idle session is reused or a new session is opened.
+   * The session must be returned with {@link #release(URI, Object, boolean)}.
+   * @param uri the destination
+   * @param factory the factory used for opening and checking sessions
+   * @return the session
+   * @throws IOException if a session couldn't be opened or if timed out waiting for a session
+   */
+  public T borrow(URI uri, SessionFactory<T> factory) throws IOException {
+    Key key = new Key(uri);
+    long deadline = currentTimeMillis() + maxWait;
+    while (true) {
+      closeIdle();
+      Idle<T> candidate = null;
+      synchronized (this) {
+        while (candidate == null && getOpen(key) >= maxSessions) {
+          candidate = pollIdle(key);
+          if (candidate == null) {
+            long remaining = deadline - currentTimeMillis();
+            if (remaining <= 0) {
+              throw new IOException("Timed out waiting for a session to " + uri.getHost());
+            }
+            try {
+              wait(remaining);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException("Interrupted while waiting for a session to " + uri.getHost());
+            }
+          }
+        }
+        if (candidate == null) {
+          candidate = pollIdle(key);
+        }
+        if (candidate == null) {
+          open.put(key, getOpen(key) + 1);
+        }
+      }
+      
+      if (candidate != null) {
+        if (factory.isValid(candidate.session)) {
+          synchronized (this) {
+            reused++;
+          }
+          return candidate.session;
+        }
+        candidate.factory.close(candidate.session);
+        closed(key);
+      } else {
+        try {
+          T session = factory.open(uri);
+          synchronized (this) {
+            created++;
+          }
+          return session;
+        } catch (IOException e) {
+          closed(key);
+          throw e;
+        } catch (RuntimeException e) {
+          closed(key);
+          throw e;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Returns a borrowed session to the pool
+   * @param uri the destination
+   * @param session the session
+   * @param factory the factory used for closing the session
+   * @param reusable if the session can be reused, otherwise it is closed
+   */
+  public void release(URI uri, T session, SessionFactory<T> factory, boolean reusable) {
+    Key key = new Key(uri);
+    if (reusable && idleTimeout > 0) {
+      synchronized (this) {
+        LinkedList<Idle<T>> list = idle.get(key);
+        if (list == null) {
+          list = new LinkedList<Idle<T>>();
+          idle.put(key, list);
+        }
+        list.addLast(new Idle<T>(session, factory, currentTimeMillis()));
+        startEvictor();
+        notifyAll();
+      }
+    } else {
+      factory.close(session);
+      closed(key);
+    }
+  }
+  
+  /**
+   * Closes sessions that have been idle longer than the idle timeout
+   */
+  public void closeIdle() {
+    List<Idle<T>> expired;
+    synchronized (this) {
+      expired = evictIdle();
+    }
+    closeAll(expired);
+  }
+  
+  /**
+   * Closes all idle sessions to the destination, e.g. when a session to it turned out to be broken
+   * and the others probably are as well.
+   * @param uri the destination
+   */
+  public void closeIdle(URI uri) {
+    Key key = new Key(uri);
+    List<Idle<T>> sessions = new ArrayList<Idle<T>>();
+    synchronized (this) {
+      LinkedList<Idle<T>> list = idle.remove(key);
+      if (list != null) {
+        for (Idle<T> i : list) {
+          sessions.add(i);
+          decrement(key);
+        }
+        notifyAll();
+      }
+    }
+    closeAll(sessions);
+  }
+  
+  /**
+   * Closes all idle sessions and stops the eviction. Sessions in use are closed when released.
+   */
+  public void shutdown() {
+    List<Idle<T>> sessions = new ArrayList<Idle<T>>();
+    synchronized (this) {
+      stopEvictor();
+      for (Map.Entry<Key, LinkedList<Idle<T>>> e : idle.entrySet()) {
+        for (Idle<T> i : e.getValue()) {
+          sessions.add(i);
+          decrement(e.getKey());
+        }
+      }
+      idle.clear();
+      notifyAll();
+    }
+    closeAll(sessions);
+  }
+  
+  /**
+   * Starts the periodic eviction of idle sessions unless it already is running. Must be called when synchronized.
+   */
+  private void startEvictor() {
+    if (evictor == null) {
+      long interval = Math.max(idleTimeout / 2, 1000);
+      evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "beast-session-pool");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      evictor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          evict();
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  /**
+   * Stops the periodic eviction. Must be called when synchronized.
+   */
+  private void stopEvictor() {
+    if (evictor != null) {
+      evictor.shutdown();
+      evictor = null;
+    }
+  }
+  
+  /**
+   * Closes the sessions that have been idle too long and stops the eviction when there
+   * are no idle sessions left. Called periodically by the evictor.
+   */
+  protected void evict() {
+    List<Idle<T>> expired;
+    synchronized (this) {
+      expired = evictIdle();
+      if (idle.isEmpty()) {
+        stopEvictor();
+      }
+    }
+    closeAll(expired);
+  }
+  
+  /**
+   * @return if idle sessions are evicted periodically
+   */
+  public synchronized boolean isEvicting() {
+    return evictor != null;
+  }
+  
+  /**
+   * Removes the most recently used idle session for the key
+   * @param key the key
+   * @return the idle session or null if there is none
+   */
+  private Idle<T> pollIdle(Key key) {
+    LinkedList<Idle<T>> list = idle.get(key);
+    if (list != null && !list.isEmpty()) {
+      Idle<T> result = list.removeLast();
+      if (list.isEmpty()) {
+        idle.remove(key);
+      }
+      return result;
+    }
+    return null;
+  }
+  
+  /**
+   * Removes the sessions that have been idle too long. Must be called when synchronized.
+   * @return the removed sessions that should be closed
+   */
+  private List<Idle<T>> evictIdle() {
+    List<Idle<T>> result = new ArrayList<Idle<T>>();
+    long now = currentTimeMillis();
+    Iterator<Map.Entry<Key, LinkedList<Idle<T>>>> it = idle.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, LinkedList<Idle<T>>> e = it.next();
+      Iterator<Idle<T>> lit = e.getValue().iterator();
+      while (lit.hasNext()) {
+        Idle<T> i = lit.next();
+        if (now - i.since >= idleTimeout) {
+          lit.remove();
+          result.add(i);
+          decrement(e.getKey());
+        }
+      }
+      if (e.getValue().isEmpty()) {
+        it.remove();
+      }
+    }
+    if (!result.isEmpty()) {
+      notifyAll();
+    }
+    return result;
+  }
+  
+  private void closeAll(List<Idle<T>> sessions) {
+    for (Idle<T> i : sessions) {
+      try {
+        i.factory.close(i.session);
+      } catch (RuntimeException e) {
+        logger.debug("Failed to close session", e);
+      }
+    }
+  }
+  
+  private synchronized void closed(Key key) {
+    decrement(key);
+    notifyAll();
+  }
+  
+  private void decrement(Key key) {
+    int n = getOpen(key) - 1;
+    if (n > 0) {
+      open.put(key, n);
+    } else {
+      open.remove(key);
+    }
+  }
+  
+  private int getOpen(Key key) {
+    Integer n = open.get(key);
+    return n != null ? n.intValue() : 0;
+  }
+  
+  /**
+   * @return number of idle sessions
+   */
+  public synchronized int getIdleCount() {
+    int result = 0;
+    for (LinkedList<Idle<T>> list : idle.values()) {
+      result += list.size();
+    }
+    return result;
+  }
+  
+  /**
+   * @return number of open sessions, in use and idle
+   */
+  public synchronized int getOpenCount() {
+    int result = 0;
+    for (Integer n : open.values()) {
+      result += n;
+    }
+    return result;
+  }
+  
+  /**
+   * @return number of sessions that have been opened
+   */
+  public synchronized long getCreatedCount() {
+    return created;
+  }
+  
+  /**
+   * @return number of times a session has been reused
+   */
+  public synchronized long getReusedCount() {
+    return reused;
+  }
+  
+  /**
+   * @param maxSessions max number of sessions per host, port and user
+   */
+  public synchronized void setMaxSessions(int maxSessions) {
+    this.maxSessions = maxSessions;
+  }
+  
+  /**
+   * @return max number of sessions per host, port and user
+   */
+  public synchronized int getMaxSessions() {
+    return maxSessions;
+  }
+  
+  /**
+   * @param idleTimeout time in ms that a session may be idle before it is closed, 0 disables reuse
+   */
+  public synchronized void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+  
+  /**
+   * @return time in ms that a session may be idle before it is closed
+   */
+  public synchronized long getIdleTimeout() {
+    return idleTimeout;
+  }
+  
+  /**
+   * @param maxWait max time in ms to wait for a session when max sessions have been reached
+   */
+  public synchronized void setMaxWait(long maxWait) {
+    this.maxWait = maxWait;
+  }
+  
+  /**
+   * @return max time in ms to wait for a session when max sessions have been reached
+   */
+  public synchronized long getMaxWait() {
+    return maxWait;
+  }
+  
+  /**
+   * @return the current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+}
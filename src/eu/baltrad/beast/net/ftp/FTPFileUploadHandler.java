@@ -23,6 +23,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
@@ -32,8 +36,17 @@ import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import eu.baltrad.beast.net.FileUploadHandlerBase;
+import eu.baltrad.beast.net.SessionPool;
 
-public class FTPFileUploadHandler extends FileUploadHandlerBase {
+/**
+ * Uploads files with ftp. The file is first stored with a temporary name (the name prefixed
+ * with a dot) and then renamed.
+ * 
+ * If a session pool is set the logged in clients are reused between uploads and the working
+ * directory, transfer mode and directory listings are remembered per session. If an upload queue
+ * is set as well, uploads to the same server are batched, see {@link FTPUploadQueue}.
+ */
+public class FTPFileUploadHandler extends FileUploadHandlerBase implements SessionPool.SessionFactory<FTPSession> {
   private final static Logger logger = LogManager.getLogger(FTPFileUploadHandler.class);
   
   protected static final int DEFAULT_CONNECT_TIMEOUT = 10000;
@@ -41,6 +54,21 @@ public class FTPFileUploadHandler extends FileUploadHandlerBase {
 
   private FTPClient client;
 
+  /**
+   * The state of the current session if pooled
+   */
+  private FTPSession session = null;
+
+  /**
+   * Pool of logged in sessions, if null a new connection is used for each upload
+   */
+  private SessionPool<FTPSession> sessionPool = null;
+
+  /**
+   * Queue used for batching uploads, if null no batching is done
+   */
+  private FTPUploadQueue uploadQueue = null;
+
   public FTPFileUploadHandler() {
     this(new FTPClient());
   }
@@ -51,6 +79,18 @@ public class FTPFileUploadHandler extends FileUploadHandlerBase {
   
   @Override
   public void upload(File src, URI dst) throws IOException {
+    if (sessionPool != null || uploadQueue != null) {
+      FTPUpload upload = new FTPUpload(src, dst);
+      if (uploadQueue != null) {
+        uploadQueue.upload(upload, this);
+      } else {
+        uploadBatch(Collections.singletonList(upload));
+      }
+      if (upload.getError() != null) {
+        throw upload.getError();
+      }
+      return;
+    }
     connect(dst);
     try {
       if (!client.login(getUser(dst), getPassword(dst)))
@@ -61,6 +101,163 @@ public class FTPFileUploadHandler extends FileUploadHandlerBase {
     }
   }
 
+  /**
+   * Uploads the files in one session. All files must be uploaded to the same server and user.
+   * Failures are reported in each upload, if an upload fails the session is closed and a new
+   * session is used for the remaining files.
+   * @param uploads the uploads
+   */
+  public void uploadBatch(List<FTPUpload> uploads) {
+    FTPSession s = null;
+    URI key = null;
+    for (FTPUpload upload : uploads) {
+      try {
+        if (s == null) {
+          key = upload.getDestination();
+          s = borrow(key);
+        }
+        store(s, upload.getSource(), upload.getDestination());
+        logger.debug("Uploaded " + upload.getSource().getName() + " to " + upload.getDestination().getHost());
+      } catch (IOException e) {
+        upload.setError(e);
+        if (s != null) {
+          release(key, s, false);
+          s = null;
+        }
+      }
+    }
+    if (s != null) {
+      release(key, s, true);
+    }
+  }
+
+  /**
+   * Stores the file using the session
+   * @param s the session
+   * @param src the file
+   * @param dst the destination
+   * @throws IOException if the file couldn't be stored
+   */
+  protected void store(FTPSession s, File src, URI dst) throws IOException {
+    FTPClient previous = client;
+    client = s.getClient();
+    session = s;
+    try {
+      store(src, dst);
+    } finally {
+      client = previous;
+      session = null;
+    }
+  }
+
+  /**
+   * Connects and logs in
+   * @see SessionPool.SessionFactory#open(URI)
+   */
+  @Override
+  public FTPSession open(URI uri) throws IOException {
+    FTPClient previous = client;
+    client = createClient();
+    try {
+      connect(uri);
+      if (!client.login(getUser(uri), getPassword(uri))) {
+        throw new IOException("Failed to log in to " + uri.getHost());
+      }
+      return new FTPSession(client);
+    } catch (IOException e) {
+      disconnect(client);
+      throw e;
+    } finally {
+      client = previous;
+    }
+  }
+
+  /**
+   * Checks that the control connection still is alive
+   * @see SessionPool.SessionFactory#isValid(Object)
+   */
+  @Override
+  public boolean isValid(FTPSession s) {
+    try {
+      return s.getClient().isConnected() && s.getClient().sendNoOp();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @see SessionPool.SessionFactory#close(Object)
+   */
+  @Override
+  public void close(FTPSession s) {
+    try {
+      s.getClient().logout();
+    } catch (IOException e) {
+      logger.debug("Failed to log out", e);
+    }
+    disconnect(s.getClient());
+  }
+
+  private FTPSession borrow(URI uri) throws IOException {
+    if (sessionPool != null) {
+      return sessionPool.borrow(uri, this);
+    }
+    return open(uri);
+  }
+
+  private void release(URI uri, FTPSession s, boolean reusable) {
+    if (sessionPool != null) {
+      sessionPool.release(uri, s, this, reusable);
+    } else {
+      close(s);
+    }
+  }
+
+  private void disconnect(FTPClient c) {
+    try {
+      if (c.isConnected()) {
+        c.disconnect();
+      }
+    } catch (IOException e) {
+      logger.debug("Failed to disconnect", e);
+    }
+  }
+
+  /**
+   * @return a new client
+   */
+  protected FTPClient createClient() {
+    return new FTPClient();
+  }
+
+  /**
+   * @param sessionPool the pool of sessions to use, null if a new connection should be used for each upload
+   */
+  public void setSessionPool(SessionPool<FTPSession> sessionPool) {
+    this.sessionPool = sessionPool;
+  }
+
+  /**
+   * @return the pool of sessions
+   */
+  public SessionPool<FTPSession> getSessionPool() {
+    return sessionPool;
+  }
+
+  /**
+   * @param uploadQueue the queue used for batching uploads, null if no batching should be done
+   */
+  public void setUploadQueue(FTPUploadQueue uploadQueue) {
+    this.uploadQueue = uploadQueue;
+  }
+
+  /**
+   * @return the queue used for batching uploads
+   */
+  public FTPUploadQueue getUploadQueue() {
+    return uploadQueue;
+  }
+
   public void setClient(FTPClient client) {
     if (client == null)
       throw new NullPointerException("client == null");
@@ -86,11 +283,11 @@ public class FTPFileUploadHandler extends FileUploadHandlerBase {
       dstPath = dstPath.getParentFile();
     }
     
-    if (!client.changeWorkingDirectory(dstPath.toString())) {
+    if (!changeWorkingDirectory(dstPath.toString())) {
       throw new IOException("Failed to cwd: " + dstPath);      
     }
     
-    if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+    if (!setBinaryFileType()) {
       throw new IOException("Failed to set binary transfer mode");      
     }
     
@@ -114,16 +311,65 @@ public class FTPFileUploadHandler extends FileUploadHandlerBase {
     }
   }
 
+  /**
+   * Changes working directory unless the session already is in that directory
+   * @param dir the directory
+   * @return true on success
+   * @throws IOException on communication error
+   */
+  protected boolean changeWorkingDirectory(String dir) throws IOException {
+    if (session != null && dir.equals(session.getWorkingDirectory())) {
+      return true;
+    }
+    boolean result = client.changeWorkingDirectory(dir);
+    if (session != null) {
+      session.setWorkingDirectory(result ? dir : null);
+    }
+    return result;
+  }
+
+  /**
+   * Sets binary file type unless already set in the session
+   * @return true on success
+   * @throws IOException on communication error
+   */
+  protected boolean setBinaryFileType() throws IOException {
+    if (session != null && session.isBinary()) {
+      return true;
+    }
+    boolean result = client.setFileType(FTP.BINARY_FILE_TYPE);
+    if (session != null) {
+      session.setBinary(result);
+    }
+    return result;
+  }
+
+  /**
+   * Checks if the path is a directory by listing the parent directory. If the upload is
+   * done in a session, the sub directories of the parent are remembered so that the parent
+   * only is listed once per session regardless of the file names.
+   * @param path the path
+   * @return true if the path is a directory
+   * @throws IOException on communication error
+   */
   protected boolean isDirectory(File path) throws IOException {
     if ("/".equals(path.toString()))
       return true;
 
-    FTPFile[] dirs = client.listFiles(path.getParent());
-    for (FTPFile dir: dirs) {
-      if (dir.isDirectory() && dir.getName().equals(path.getName()))
-        return true;
+    String parent = path.getParent();
+    Set<String> subdirs = (session != null) ? session.getSubdirectories(parent) : null;
+    if (subdirs == null) {
+      subdirs = new HashSet<String>();
+      for (FTPFile dir: client.listFiles(parent)) {
+        if (dir.isDirectory()) {
+          subdirs.add(dir.getName());
+        }
+      }
+      if (session != null) {
+        session.setSubdirectories(parent, subdirs);
+      }
     }
-    return false;
+    return subdirs.contains(path.getName());
   }
 
   protected InputStream openStream(File f) throws IOException {
@@ -0,0 +1,133 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.net.ftp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+ * A connected and logged in ftp client together with what is known about its state,
+ * so that a reused session doesn't have to change directory, set transfer type or
+ * list directories again.
+ * @author Anders Henja
+ */
+public class FTPSession {
+  /**
+   * The client
+   */
+  private final FTPClient client;
+  
+  /**
+   * The current working directory, null if not known
+   */
+  private String workingDirectory = null;
+  
+  /**
+   * If binary transfer mode has been set
+   */
+  private boolean binary = false;
+  
+  /**
+   * Max number of directory listings kept
+   */
+  public static final int MAX_LISTINGS = 32;
+  
+  /**
+   * The names of the sub directories in recently listed directories, directory -> names.
+   * Least recently used first.
+   */
+  private Map<String, Set<String>> listings = new LinkedHashMap<String, Set<String>>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+      return size() > MAX_LISTINGS;
+    }
+  };
+  
+  /**
+   * Constructor
+   * @param client the connected and logged in client
+   */
+  public FTPSession(FTPClient client) {
+    this.client = client;
+  }
+  
+  /**
+   * @return the client
+   */
+  public FTPClient getClient() {
+    return client;
+  }
+  
+  /**
+   * @return the current working directory, null if not known
+   */
+  public String getWorkingDirectory() {
+    return workingDirectory;
+  }
+  
+  /**
+   * @param workingDirectory the current working directory
+   */
+  public void setWorkingDirectory(String workingDirectory) {
+    this.workingDirectory = workingDirectory;
+  }
+  
+  /**
+   * @return if binary transfer mode has been set
+   */
+  public boolean isBinary() {
+    return binary;
+  }
+  
+  /**
+   * @param binary if binary transfer mode has been set
+   */
+  public void setBinary(boolean binary) {
+    this.binary = binary;
+  }
+  
+  /**
+   * @param directory the directory
+   * @return the names of the sub directories in the directory, null if the directory hasn't been listed
+   */
+  public Set<String> getSubdirectories(String directory) {
+    return listings.get(directory);
+  }
+  
+  /**
+   * @param directory the directory
+   * @param names the names of the sub directories in the directory
+   */
+  public void setSubdirectories(String directory, Set<String> names) {
+    listings.put(directory, names);
+  }
+  
+  /**
+   * Forgets everything known about the state, e.g. after a failure
+   */
+  public void reset() {
+    workingDirectory = null;
+    binary = false;
+    listings.clear();
+  }
+}
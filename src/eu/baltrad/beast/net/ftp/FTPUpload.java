@@ -0,0 +1,73 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.net.ftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * A file to be uploaded as part of a batch and the outcome of the upload.
+ * @author Anders Henja
+ */
+public class FTPUpload {
+  private final File source;
+  private final URI destination;
+  private IOException error = null;
+  boolean done = false;
+  boolean leader = false;
+  
+  /**
+   * Constructor
+   * @param source the file to upload
+   * @param destination the destination
+   */
+  public FTPUpload(File source, URI destination) {
+    this.source = source;
+    this.destination = destination;
+  }
+  
+  /**
+   * @return the file to upload
+   */
+  public File getSource() {
+    return source;
+  }
+  
+  /**
+   * @return the destination
+   */
+  public URI getDestination() {
+    return destination;
+  }
+  
+  /**
+   * @return the error if the upload failed, otherwise null
+   */
+  public IOException getError() {
+    return error;
+  }
+  
+  /**
+   * @param error the error if the upload failed
+   */
+  public void setError(IOException error) {
+    this.error = error;
+  }
+}
@@ -0,0 +1,224 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.net.ftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Batches uploads that are queued for the same ftp server and user so that they are
+ * uploaded one after the other in the same session. The first upload towards a server
+ * becomes the leader and uploads everything that is queued meanwhile, while the other
+ * callers wait for their own file. When the leader's own file is done it continues with at
+ * most maxBatchSize more files before handing over to the next waiting caller.
+ * @author Anders Henja
+ */
+public class FTPUploadQueue {
+  /**
+   * Queued uploads per server
+   */
+  private Map<String, LinkedList<FTPUpload>> queues = new HashMap<String, LinkedList<FTPUpload>>();
+  
+  /**
+   * Servers that currently have a leader
+   */
+  private Set<String> leaders = new HashSet<String>();
+  
+  /**
+   * Max number of files uploaded in one batch
+   */
+  private int maxBatchSize = 50;
+  
+  /**
+   * Number of batches uploaded
+   */
+  private long batchCount = 0;
+  
+  /**
+   * Number of files uploaded in batches
+   */
+  private long fileCount = 0;
+  
+  /**
+   * Uploads the file, possibly together with other queued files. Returns when the file has been uploaded.
+   * @param upload the upload
+   * @param handler the handler used if this caller becomes leader
+   * @throws IOException if the upload failed
+   */
+  public void upload(FTPUpload upload, FTPFileUploadHandler handler) throws IOException {
+    String key = getKey(upload.getDestination());
+    synchronized (this) {
+      getQueue(key).addLast(upload);
+      if (!leaders.contains(key)) {
+        leaders.add(key);
+        upload.leader = true;
+      } else {
+        waitFor(key, upload);
+      }
+    }
+    if (upload.leader) {
+      lead(key, upload, handler);
+    }
+    if (upload.getError() != null) {
+      throw upload.getError();
+    }
+  }
+  
+  /**
+   * Uploads queued files until the queue is empty, or until own upload is done and max batch size has
+   * been uploaded after that
+   * @param key the key
+   * @param own the leaders own upload
+   * @param handler the handler
+   */
+  protected void lead(String key, FTPUpload own, FTPFileUploadHandler handler) {
+    int afterOwn = 0;
+    while (true) {
+      List<FTPUpload> batch = new ArrayList<FTPUpload>();
+      synchronized (this) {
+        LinkedList<FTPUpload> queue = getQueue(key);
+        if (queue.isEmpty()) {
+          queues.remove(key);
+          leaders.remove(key);
+          return;
+        }
+        if (own.done && afterOwn >= maxBatchSize) {
+          queue.getFirst().leader = true;
+          notifyAll();
+          return;
+        }
+        while (!queue.isEmpty() && batch.size() < maxBatchSize) {
+          batch.add(queue.removeFirst());
+        }
+      }
+      try {
+        handler.uploadBatch(batch);
+      } catch (RuntimeException e) {
+        for (FTPUpload u : batch) {
+          if (u.getError() == null) {
+            u.setError(new IOException("Upload failed: " + e.getMessage(), e));
+          }
+        }
+      } finally {
+        synchronized (this) {
+          for (FTPUpload u : batch) {
+            u.done = true;
+          }
+          if (own.done) {
+            afterOwn += batch.size();
+          }
+          batchCount++;
+          fileCount += batch.size();
+          notifyAll();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Waits until the upload is done or the caller has become leader. Must be called when synchronized.
+   * @param key the key
+   * @param upload the upload
+   * @throws IOException if interrupted before the upload has been started
+   */
+  private void waitFor(String key, FTPUpload upload) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (!upload.done && !upload.leader) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          if (!upload.leader && getQueue(key).remove(upload)) {
+            throw new InterruptedIOException("Interrupted while waiting for upload");
+          }
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+  
+  private LinkedList<FTPUpload> getQueue(String key) {
+    LinkedList<FTPUpload> result = queues.get(key);
+    if (result == null) {
+      result = new LinkedList<FTPUpload>();
+      queues.put(key, result);
+    }
+    return result;
+  }
+  
+  /**
+   * @param uri the destination
+   * @return the key identifying the server and user
+   */
+  protected String getKey(URI uri) {
+    String host = uri.getHost() != null ? uri.getHost().toLowerCase() : "";
+    return host + ":" + uri.getPort() + ":" + uri.getUserInfo();
+  }
+  
+  /**
+   * @return number of uploads currently queued
+   */
+  public synchronized int getQueuedCount() {
+    int result = 0;
+    for (LinkedList<FTPUpload> q : queues.values()) {
+      result += q.size();
+    }
+    return result;
+  }
+  
+  /**
+   * @return number of batches uploaded
+   */
+  public synchronized long getBatchCount() {
+    return batchCount;
+  }
+  
+  /**
+   * @return number of files uploaded in batches
+   */
+  public synchronized long getFileCount() {
+    return fileCount;
+  }
+  
+  /**
+   * @param maxBatchSize max number of files uploaded in one batch
+   */
+  public synchronized void setMaxBatchSize(int maxBatchSize) {
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+  }
+  
+  /**
+   * @return max number of files uploaded in one batch
+   */
+  public synchronized int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+}
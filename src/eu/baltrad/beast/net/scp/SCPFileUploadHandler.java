@@ -27,7 +27,11 @@ import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
 import net.schmizz.sshj.xfer.scp.SCPFileTransfer;
 
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
 import eu.baltrad.beast.net.FileUploadHandlerBase;
+import eu.baltrad.beast.net.SessionPool;
 
 /**
  * Upload files using SCP.
@@ -38,13 +42,23 @@ import eu.baltrad.beast.net.FileUploadHandlerBase;
  * More thorough configuration could be provided through query arguments in
  * the future.
  */
-public class SCPFileUploadHandler extends FileUploadHandlerBase {
+public class SCPFileUploadHandler extends FileUploadHandlerBase implements SessionPool.SessionFactory<SSHClient> {
   
   protected static final int DEFAULT_CONNECT_TIMEOUT = 10000;
   protected static final int DEFAULT_SOCKET_TIMEOUT = 60000;
   private DefaultConfig sshDefaultConfig = null;
   private Object sshDefaultConfigLock = new Object();
   
+  /**
+   * Pool of authenticated sessions, if null a new session is used for each upload
+   */
+  private SessionPool<SSHClient> sessionPool = null;
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(SCPFileUploadHandler.class);
+  
   /**
    * Default constructor.
    */
@@ -52,6 +66,10 @@ public class SCPFileUploadHandler extends FileUploadHandlerBase {
   }
     
   public void upload(File src, URI dst) throws IOException {
+    if (sessionPool != null) {
+      uploadPooled(src, dst);
+      return;
+    }
     SSHClient client = connect(dst);
     try {
       auth(client, dst);
@@ -61,6 +79,93 @@ public class SCPFileUploadHandler extends FileUploadHandlerBase {
     }
   }
 
+  /**
+   * Uploads the file using a session from the session pool. The session is returned to
+   * the pool if the upload was successful, otherwise it is closed. Since a reused session
+   * might have been dropped by the server without the client noticing, a failed upload is
+   * retried once on a new session after the idle sessions to the destination have been closed.
+   * @param src the file to upload
+   * @param dst the destination
+   * @throws IOException if the upload fails
+   */
+  protected void uploadPooled(File src, URI dst) throws IOException {
+    SSHClient client = sessionPool.borrow(dst, this);
+    try {
+      storePooled(client, src, dst);
+    } catch (IOException e) {
+      logger.info("Failed to upload " + src.getName() + " to " + dst.getHost() + ", retrying with a new session: " + e.getMessage());
+      sessionPool.closeIdle(dst);
+      storePooled(sessionPool.borrow(dst, this), src, dst);
+    }
+  }
+
+  /**
+   * Stores the file and returns the session to the pool
+   * @param client the borrowed session
+   * @param src the file to upload
+   * @param dst the destination
+   * @throws IOException if the upload fails
+   */
+  private void storePooled(SSHClient client, File src, URI dst) throws IOException {
+    boolean reusable = false;
+    try {
+      store(client, src, dst);
+      reusable = true;
+    } finally {
+      sessionPool.release(dst, client, this, reusable);
+    }
+  }
+
+  /**
+   * Connects and authenticates a session
+   * @see SessionPool.SessionFactory#open(URI)
+   */
+  @Override
+  public SSHClient open(URI uri) throws IOException {
+    SSHClient client = connect(uri);
+    try {
+      auth(client, uri);
+    } catch (IOException e) {
+      close(client);
+      throw e;
+    }
+    return client;
+  }
+
+  /**
+   * @see SessionPool.SessionFactory#isValid(Object)
+   */
+  @Override
+  public boolean isValid(SSHClient client) {
+    return client.isConnected() && client.isAuthenticated();
+  }
+
+  /**
+   * @see SessionPool.SessionFactory#close(Object)
+   */
+  @Override
+  public void close(SSHClient client) {
+    try {
+      disconnect(client);
+    } catch (IOException e) {
+      logger.debug("Failed to disconnect ssh session", e);
+    }
+  }
+
+  /**
+   * @param sessionPool the pool of sessions to use, null if a new session should be used for each upload
+   */
+  public void setSessionPool(SessionPool<SSHClient> sessionPool) {
+    this.sessionPool = sessionPool;
+  }
+
+  /**
+   * @return the pool of sessions
+   */
+  public SessionPool<SSHClient> getSessionPool() {
+    return sessionPool;
+  }
+
   protected SSHClient connect(URI uri) throws IOException {
     SSHClient client = acquireSSHClient();
     client.addHostKeyVerifier(new PromiscuousVerifier());
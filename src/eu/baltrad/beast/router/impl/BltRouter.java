@@ -23,9 +23,16 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.RowMapper;
@@ -55,16 +62,22 @@ import eu.baltrad.beast.rules.RuleException;
  * The Baltrad router that determines all routes.
  * @author Anders Henja
  */
-public class BltRouter implements IRouter, IRouterManager, InitializingBean {
+public class BltRouter implements IRouter, IRouterManager, InitializingBean, DisposableBean {
   /**
    * The JDBC template managing the database connectivity.
    */
   private JdbcOperations template = null;
 
   /**
-   * The route definitions.
+   * The route definitions. This is an immutable snapshot that is replaced
+   * whenever the definitions are changed so readers never have to lock.
    */
-  private List<RouteDefinition> definitions = null;
+  private volatile RouteDispatchIndex definitions = null;
+  
+  /**
+   * Serializes modifications of the definitions snapshot.
+   */
+  private final Object definitionsLock = new Object();
   
   /**
    * The rule factory. 
@@ -81,6 +94,23 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    */
   private ISystemReporter reporter = null;
   
+  /**
+   * Number of threads used for evaluating the routes of a data message in parallel.
+   * If 1 or less, the routes are evaluated sequentially in the calling thread.
+   */
+  private int evaluationPoolSize = 0;
+  
+  /**
+   * The executor used for parallel evaluation of routes, null if sequential. Read
+   * for every message so it is volatile instead of guarded by the router lock.
+   */
+  private volatile ExecutorService evaluationExecutor = null;
+  
+  /**
+   * Evaluation of a route that takes longer than this many ms is logged as a warning
+   */
+  private long slowEvaluationThreshold = 1000;
+  
   /**
    * Not used here but must be initialized in order for rule managers to be able to access the static context.
    */
@@ -95,7 +125,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    * Constructor
    */
   public BltRouter() {
-    definitions = new ArrayList<RouteDefinition>();
+    definitions = new RouteDispatchIndex(new ArrayList<RouteDefinition>());
     reporter = new NullReporter();
   };
 
@@ -133,7 +163,56 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    * @param definitions - a list of definitions.
    */
   void setDefinitions(List<RouteDefinition> definitions) {
-    this.definitions = definitions;
+    synchronized (definitionsLock) {
+      this.definitions = new RouteDispatchIndex(definitions);
+    }
+  }
+  
+  /**
+   * Sets the number of threads that should be used when evaluating the routes
+   * for a message in parallel. If 1 or less, routes will be evaluated sequentially.
+   * Must be set before the bean has been initialized.
+   * @param evaluationPoolSize the number of threads
+   */
+  public void setEvaluationPoolSize(int evaluationPoolSize) {
+    this.evaluationPoolSize = evaluationPoolSize;
+  }
+  
+  /**
+   * @return the number of threads used for parallel evaluation of routes
+   */
+  public int getEvaluationPoolSize() {
+    return evaluationPoolSize;
+  }
+  
+  /**
+   * Sets the executor to use for evaluating routes in parallel. If null, the
+   * routes will be evaluated sequentially.
+   * @param executor the executor
+   */
+  public void setEvaluationExecutor(ExecutorService executor) {
+    this.evaluationExecutor = executor;
+  }
+  
+  /**
+   * @return the executor used for evaluating routes in parallel
+   */
+  public ExecutorService getEvaluationExecutor() {
+    return evaluationExecutor;
+  }
+  
+  /**
+   * @param slowEvaluationThreshold evaluation of a route that takes longer than this many ms is logged as a warning
+   */
+  public void setSlowEvaluationThreshold(long slowEvaluationThreshold) {
+    this.slowEvaluationThreshold = slowEvaluationThreshold;
+  }
+  
+  /**
+   * @return evaluation of a route that takes longer than this many ms is logged as a warning
+   */
+  public long getSlowEvaluationThreshold() {
+    return slowEvaluationThreshold;
   }
   
   /**
@@ -172,16 +251,60 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
 	      RouteDefinition d = getDefinition(job);
 	      result.addAll(getMultiRoutedMessages(msg, d));
 	    } else {
-	      // definitions might be updated while adding/executing all routes. Therefore, use a copy with current state
-	      List<RouteDefinition> currentDefinitions = new ArrayList<RouteDefinition>(definitions);
-	      for (RouteDefinition d : currentDefinitions) {
-	        result.addAll(getMultiRoutedMessages(msg, d));
+	      // the definitions are an immutable snapshot so they might be replaced while executing the routes
+	      List<RouteDefinition> candidates = definitions.getCandidates(msg);
+	      ExecutorService executor = getEvaluationExecutor();
+	      if (executor != null && candidates.size() > 1) {
+	        result.addAll(getMultiRoutedMessagesInParallel(executor, msg, candidates));
+	      } else {
+	        for (RouteDefinition d : candidates) {
+	          result.addAll(getMultiRoutedMessages(msg, d));
+	        }
 	      }
 	    }
 	  }
 	  return result;
 	}
 
+	/**
+	 * Evaluates the definitions in parallel using the provided executor. The result
+	 * is merged in the same order as the definitions so it is identical to the
+	 * result of a sequential evaluation.
+	 * @param executor the executor
+	 * @param msg the message
+	 * @param defs the definitions to evaluate
+	 * @return the routed messages
+	 */
+	protected List<IMultiRoutedMessage> getMultiRoutedMessagesInParallel(ExecutorService executor, final IBltMessage msg, List<RouteDefinition> defs) {
+	  List<IMultiRoutedMessage> result = new ArrayList<IMultiRoutedMessage>();
+	  List<Future<List<IMultiRoutedMessage>>> futures = new ArrayList<Future<List<IMultiRoutedMessage>>>();
+	  for (final RouteDefinition d : defs) {
+	    Callable<List<IMultiRoutedMessage>> task = new Callable<List<IMultiRoutedMessage>>() {
+	      @Override
+	      public List<IMultiRoutedMessage> call() throws Exception {
+	        return getMultiRoutedMessages(msg, d);
+	      }
+	    };
+	    futures.add(executor.submit(task));
+	  }
+	  
+	  for (int i = 0; i < futures.size(); i++) {
+	    try {
+	      result.addAll(futures.get(i).get());
+	    } catch (ExecutionException e) {
+	      logger.info("Rule '" + defs.get(i).getName() + "' caused exception", e.getCause());
+	    } catch (InterruptedException e) {
+	      logger.warn("Interrupted while waiting for route '" + defs.get(i).getName() + "'");
+	      for (int j = i; j < futures.size(); j++) {
+	        futures.get(j).cancel(true);
+	      }
+	      Thread.currentThread().interrupt();
+	      break;
+	    }
+	  }
+	  return result;
+	}
+	
 	/**
 	 * Used to get the routed messages from a specific rule 
 	 * @param msg the message
@@ -191,11 +314,17 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
 	  List<IMultiRoutedMessage> result = new ArrayList<IMultiRoutedMessage>();
 	  if (def != null) {
 	    IBltMessage nmsg = null;
+	    long started = System.currentTimeMillis();
 	    try {
 	      nmsg = def.handle(msg);
 	    } catch (Exception e) {
 	      logger.info("Rule caused exception", e);
 	    }
+	    // RouteDefinition logs the time of each evaluation at debug level, slow ones (also failing ones) are warned about here
+	    long elapsed = System.currentTimeMillis() - started;
+	    if (elapsed > slowEvaluationThreshold) {
+	      logger.warn("Evaluation of route '" + def.getName() + "' took " + elapsed + " ms");
+	    }
 	    if (nmsg != null) {
 	      if (nmsg instanceof IMultiRoutedMessage) {
 	        result.add((IMultiRoutedMessage) nmsg);
@@ -255,7 +384,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
         RouteDefinition d = getDefinition(job);
         result.addAll(getRoutedMessages(msg, d));        
       } else {
-        for (RouteDefinition d : definitions) {
+        for (RouteDefinition d : definitions.getCandidates(msg)) {
           result.addAll(getRoutedMessages(msg, d));
         }
       }
@@ -308,46 +437,36 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    * @see eu.baltrad.beast.router.IRouterManager#getNames()
    */
   @Override
-	public synchronized List<String> getNames() {
-    List<String> result = new ArrayList<String>();
-    for (RouteDefinition def : definitions) {
-      result.add(def.getName());
-    }
-	  return result;
+	public List<String> getNames() {
+	  return new ArrayList<String>(definitions.getNames());
 	}
 	
 	/**
    * @see eu.baltrad.beast.router.IRouterManager#getDefinition(java.lang.String)
    */
   @Override
-  public synchronized RouteDefinition getDefinition(String name) {
-    for (RouteDefinition def: definitions) {
-      if (def.getName().equals(name)) {
-        return def;
-      }
-    }
-    return null;
+  public RouteDefinition getDefinition(String name) {
+    return definitions.getDefinition(name);
   }
 
   /**
    * @see eu.baltrad.beast.router.IRouterManager#getDefinitions()
    */
   @Override
-  public synchronized List<RouteDefinition> getDefinitions() {
-    List<RouteDefinition> result = new ArrayList<RouteDefinition>();
-    result.addAll(this.definitions);
-    return result;
+  public List<RouteDefinition> getDefinitions() {
+    return new ArrayList<RouteDefinition>(definitions.getDefinitions());
   }
 
   /**
    * @see eu.baltrad.beast.router.IRouterManager#getDefinitions(List<String>)
    */
   @Override
-  public synchronized List<RouteDefinition> getDefinitions(List<String> types) {
+  public List<RouteDefinition> getDefinitions(List<String> types) {
     if (types != null && types.size() > 0) {
+      List<RouteDefinition> current = definitions.getDefinitions();
       List<RouteDefinition> result = new ArrayList<RouteDefinition>();
       for (String t : types) {
-        for (RouteDefinition d: this.definitions) {
+        for (RouteDefinition d: current) {
           if (d.getRuleType().equals(t)) {
             result.add(d);
           }
@@ -363,19 +482,20 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    * Removes the specified definition from the list.
    * @param name the name of the definition that should be removed
    */
-  protected synchronized void removeDefinitionFromList(String name) {
-    int nlen = definitions.size();
-    int indexToRemove = -1;
-    for (int i = 0; i < nlen; i++) {
-      RouteDefinition rule = definitions.get(i);
-      if (rule.getName().equals(name)) {
-        indexToRemove = i;
-        break;
-      }
+  protected void removeDefinitionFromList(String name) {
+    replaceDefinition(name, null);
+  }
+  
+  /**
+   * Atomically replaces the definition with the specified name. The new
+   * definition is placed last.
+   * @param name the name of the definition that should be removed
+   * @param def the definition that should be added, may be null
+   */
+  protected void replaceDefinition(String name, RouteDefinition def) {
+    synchronized (definitionsLock) {
+      definitions = definitions.replace(name, def);
     }
-    if (indexToRemove >= 0) {
-      definitions.remove(indexToRemove);
-    }    
   }
 
   /**
@@ -401,7 +521,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    */
   @Transactional(propagation=Propagation.REQUIRED, rollbackFor=Exception.class)
   @Override
-  public synchronized void deleteDefinition(String name) {
+  public void deleteDefinition(String name) {
     try {
       Map<String, Object> values = template.queryForMap(
           "select rule_id, type from beast_router_rules where name=?",
@@ -424,7 +544,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    */
   @Transactional(propagation=Propagation.REQUIRED, rollbackFor=Exception.class)
   @Override
-  public synchronized void storeDefinition(RouteDefinition def) {
+  public void storeDefinition(RouteDefinition def) {
     IRule rule = def.getRule();
     String type = rule.getType();
     IRuleManager manager = ruleManagers.get(type);
@@ -451,7 +571,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
       reporter.warn("00104", "%s failed to add route '%s'", def.getAuthor(), t.getMessage());
       throw new RuleException("Failed to add router rule definition: " + t.getMessage(), t);
     }
-    this.definitions.add(def);
+    replaceDefinition(null, def);
   }
 
   /**
@@ -459,7 +579,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    */
   @Transactional(propagation=Propagation.REQUIRED, rollbackFor=Exception.class)
   @Override
-  public synchronized void updateDefinition(RouteDefinition def) {
+  public void updateDefinition(RouteDefinition def) {
     IRule rule = def.getRule();
     String type = rule.getType();
     try {
@@ -492,22 +612,33 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
     }
     
     // If all went well, then replace the existing definition with the new one.
-    removeDefinitionFromList(def.getName());
-    definitions.add(def);
+    replaceDefinition(def.getName(), def);
   }
  
   /**
    * Spring framework will call this function after the bean has been created.
    */
   @Override
-  public synchronized void afterPropertiesSet() throws Exception {
+  public void afterPropertiesSet() throws Exception {
     if (context == null) {
       logger.error("Context could not be aquired. Might affect rule behaviour");
     }
+    synchronized (this) {
+      if (evaluationExecutor == null && evaluationPoolSize > 1) {
+        evaluationExecutor = Executors.newFixedThreadPool(evaluationPoolSize, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread th = new Thread(r);
+            th.setDaemon(true);
+            return th;
+          }
+        });
+      }
+    }
     RowMapper<RouteDefinition> mapper = getRouteDefinitionMapper();
-    definitions = template.query(
+    setDefinitions(template.query(
         "select rule_id, name,type,author,description,active from beast_router_rules",
-        mapper);
+        mapper));
   }
   
   /**
@@ -531,7 +662,7 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
    * @param rule_id the rule id.
    * @return a list of recipients.
    */
-  protected synchronized List<String> getRecipients(int rule_id) {
+  protected List<String> getRecipients(int rule_id) {
     RowMapper<String> mapper = new RowMapper<String>() {
       public String mapRow(ResultSet rs, int rowNum) throws SQLException {
         return rs.getString("name");
@@ -591,6 +722,18 @@ public class BltRouter implements IRouter, IRouterManager, InitializingBean {
     return manager.createRule();
   }
 
+  /**
+   * Shuts down the parallel evaluation executor if there is one.
+   * @see org.springframework.beans.factory.DisposableBean#destroy()
+   */
+  @Override
+  public synchronized void destroy() throws Exception {
+    if (evaluationExecutor != null) {
+      evaluationExecutor.shutdownNow();
+      evaluationExecutor = null;
+    }
+  }
+  
   /**
    * @param context the context to set
    */
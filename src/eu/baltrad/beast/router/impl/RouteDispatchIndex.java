@@ -0,0 +1,269 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.router.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltDataMessage;
+import eu.baltrad.beast.router.RouteDefinition;
+import eu.baltrad.beast.rules.IIndexableRule;
+
+/**
+ * Immutable snapshot of the route definitions used by the router. Besides
+ * providing lookup by name it acts as a pre-dispatch index. Routes
+ * with rules implementing {@link IIndexableRule} are bucketed on object type
+ * and source so that only the routes that possibly can match a data message
+ * are returned. All other routes are always returned. The candidates are
+ * always returned in the same order as in the list the index was built from.
+ * @author Anders Henja
+ */
+public class RouteDispatchIndex {
+  /**
+   * Key used for object type or source when the rule matches any value
+   */
+  private static final String ANY = "*";
+
+  /**
+   * All definitions in original order
+   */
+  private final List<RouteDefinition> definitions;
+
+  /**
+   * name -> definition
+   */
+  private final Map<String, RouteDefinition> byName;
+
+  /**
+   * The names in route order
+   */
+  private final List<String> names;
+
+  /**
+   * object type -> source -> positions (in ascending order) in definitions
+   */
+  private final Map<String, Map<String, int[]>> buckets;
+
+  /**
+   * Constructor
+   * @param definitions the definitions to index
+   */
+  public RouteDispatchIndex(List<RouteDefinition> definitions) {
+    this.definitions = Collections.unmodifiableList(new ArrayList<RouteDefinition>(definitions));
+    this.buckets = createBuckets(this.definitions);
+    this.byName = new HashMap<String, RouteDefinition>();
+    List<String> tmpnames = new ArrayList<String>();
+    for (RouteDefinition def : this.definitions) {
+      if (!byName.containsKey(def.getName())) {
+        byName.put(def.getName(), def);
+      }
+      tmpnames.add(def.getName());
+    }
+    this.names = Collections.unmodifiableList(tmpnames);
+  }
+
+  /**
+   * Creates a new snapshot where the first definition with the specified name
+   * has been removed and, if provided, the new definition has been added last.
+   * @param name the name of the definition to remove
+   * @param def the definition to add, may be null
+   * @return the new snapshot
+   */
+  public RouteDispatchIndex replace(String name, RouteDefinition def) {
+    List<RouteDefinition> ndefs = new ArrayList<RouteDefinition>(definitions);
+    RouteDefinition existing = (name != null) ? byName.get(name) : null;
+    if (existing != null) {
+      ndefs.remove(existing);
+    }
+    if (def != null) {
+      ndefs.add(def);
+    }
+    return new RouteDispatchIndex(ndefs);
+  }
+
+  /**
+   * Returns the routes that might be able to handle the message. If message
+   * is not a data message, all routes are returned.
+   * @param msg the message
+   * @return the candidate routes in route order
+   */
+  public List<RouteDefinition> getCandidates(IBltMessage msg) {
+    if (!(msg instanceof BltDataMessage)) {
+      return definitions;
+    }
+    FileEntry file = ((BltDataMessage)msg).getFileEntry();
+    if (file == null) {
+      return definitions;
+    }
+    String object = null;
+    String source = null;
+    if (file.getMetadata() != null) {
+      object = file.getMetadata().getWhatObject();
+    }
+    if (file.getSource() != null) {
+      source = file.getSource().getName();
+    }
+    return getCandidates(object, source);
+  }
+
+  /**
+   * Returns the routes that might match a file with specified object type and source.
+   * @param object the object type (what/object), may be null
+   * @param source the source name (_bdb/source_name), may be null
+   * @return the candidate routes in route order
+   */
+  public List<RouteDefinition> getCandidates(String object, String source) {
+    List<int[]> matching = new ArrayList<int[]>();
+    int total = 0;
+    String[] objectKeys = object != null ? new String[]{object, ANY} : new String[]{ANY};
+    String[] sourceKeys = source != null ? new String[]{source, ANY} : new String[]{ANY};
+    for (String o : objectKeys) {
+      Map<String, int[]> bySource = buckets.get(o);
+      if (bySource != null) {
+        for (String s : sourceKeys) {
+          int[] positions = bySource.get(s);
+          if (positions != null) {
+            matching.add(positions);
+            total += positions.length;
+          }
+        }
+      }
+    }
+    if (total == definitions.size()) {
+      return definitions;
+    }
+
+    // A route is only present in one bucket so it is enough to merge them
+    int[] merged = new int[total];
+    int offset = 0;
+    for (int[] positions : matching) {
+      System.arraycopy(positions, 0, merged, offset, positions.length);
+      offset += positions.length;
+    }
+    Arrays.sort(merged);
+    
+    List<RouteDefinition> result = new ArrayList<RouteDefinition>(total);
+    for (int p : merged) {
+      result.add(definitions.get(p));
+    }
+    return result;
+  }
+
+  /**
+   * @return all indexed definitions in route order
+   */
+  public List<RouteDefinition> getDefinitions() {
+    return definitions;
+  }
+
+  /**
+   * @param name the name of the definition
+   * @return the first definition with specified name or null if not found
+   */
+  public RouteDefinition getDefinition(String name) {
+    return byName.get(name);
+  }
+
+  /**
+   * @return the names of all definitions in route order
+   */
+  public List<String> getNames() {
+    return names;
+  }
+
+  /**
+   * Creates the buckets from the definitions
+   * @param definitions the definitions
+   * @return the buckets
+   */
+  private static Map<String, Map<String, int[]>> createBuckets(List<RouteDefinition> definitions) {
+    Map<String, Map<String, List<Integer>>> tmp = new HashMap<String, Map<String, List<Integer>>>();
+    int nlen = definitions.size();
+    for (int i = 0; i < nlen; i++) {
+      RouteDefinition def = definitions.get(i);
+      Set<String> objects = null;
+      Set<String> sources = null;
+      if (def != null && def.getRule() instanceof IIndexableRule) {
+        IIndexableRule rule = (IIndexableRule)def.getRule();
+        objects = createKeys(rule.getIndexedObjectTypes());
+        sources = createKeys(rule.getIndexedSources());
+      } else {
+        objects = createKeys(null);
+        sources = createKeys(null);
+      }
+      for (String o : objects) {
+        Map<String, List<Integer>> bySource = tmp.get(o);
+        if (bySource == null) {
+          bySource = new HashMap<String, List<Integer>>();
+          tmp.put(o, bySource);
+        }
+        for (String s : sources) {
+          List<Integer> positions = bySource.get(s);
+          if (positions == null) {
+            positions = new ArrayList<Integer>();
+            bySource.put(s, positions);
+          }
+          positions.add(i);
+        }
+      }
+    }
+
+    Map<String, Map<String, int[]>> result = new HashMap<String, Map<String, int[]>>();
+    for (Map.Entry<String, Map<String, List<Integer>>> oe : tmp.entrySet()) {
+      Map<String, int[]> bySource = new HashMap<String, int[]>();
+      for (Map.Entry<String, List<Integer>> se : oe.getValue().entrySet()) {
+        List<Integer> positions = se.getValue();
+        int[] arr = new int[positions.size()];
+        for (int j = 0; j < arr.length; j++) {
+          arr[j] = positions.get(j);
+        }
+        bySource.put(se.getKey(), arr);
+      }
+      result.put(oe.getKey(), bySource);
+    }
+    return result;
+  }
+
+  /**
+   * Creates the unique keys from a list of values.
+   * @param values the values, null means any
+   * @return the keys
+   */
+  private static Set<String> createKeys(List<String> values) {
+    Set<String> result = new HashSet<String>();
+    if (values == null) {
+      result.add(ANY);
+    } else {
+      for (String v : values) {
+        if (v != null) {
+          result.add(v);
+        }
+      }
+    }
+    return result;
+  }
+}
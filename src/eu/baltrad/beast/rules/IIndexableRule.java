@@ -0,0 +1,44 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules;
+
+import java.util.List;
+
+/**
+ * Rules that only can react on data messages with a known object type
+ * and/or source can implement this interface so that the router is
+ * able to skip the rule without invoking it when a file can not
+ * possibly match.
+ * @author Anders Henja
+ */
+public interface IIndexableRule {
+  /**
+   * Returns the object types (what/object) that this rule can match, e.g.
+   * PVOL or SCAN.
+   * @return the object types or null if rule might match any object type
+   */
+  public List<String> getIndexedObjectTypes();
+
+  /**
+   * Returns the source names (_bdb/source_name) that this rule can match.
+   * An empty list means that no source will match.
+   * @return the source names or null if rule might match any source
+   */
+  public List<String> getIndexedSources();
+}
@@ -0,0 +1,214 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.composite;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.beast.db.CatalogEntry;
+
+/**
+ * Keeps track of the files that have arrived for each nominal time (slot)
+ * of a compositing rule so that the catalog does not have to be queried
+ * for every incoming file.
+ * <p>
+ * A slot is seeded from the catalog the first time it is needed (e.g. after
+ * a restart or when the slot has been evicted) and is after that updated
+ * with each incoming file. For each source the same entry is kept as the one
+ * that would have been selected from a catalog query, i.e. the lowest
+ * elevation angle for scan based composites and the earliest file otherwise.
+ * Only a limited number of slots are kept, the oldest are evicted first.
+ * @author Anders Henja
+ */
+public class CompositeArrivalTracker {
+  /**
+   * Default number of slots to keep
+   */
+  public static final int DEFAULT_MAX_SLOTS = 12;
+  
+  /**
+   * The elevation angle attribute
+   */
+  private static final String ELANGLE_ATTRIBUTE = "/dataset1/where/elangle";
+  
+  /**
+   * The slots in the order they were seeded
+   */
+  private final Map<DateTime, Map<String, CatalogEntry>> slots;
+  
+  /**
+   * If scan based composite or not
+   */
+  private boolean scanBased = false;
+  
+  /**
+   * The sources that should be tracked
+   */
+  private List<String> sources = null;
+  
+  /**
+   * Number of times a slot was found
+   */
+  private long hits = 0;
+  
+  /**
+   * Number of times a slot had to be seeded
+   */
+  private long misses = 0;
+  
+  /**
+   * Constructor
+   */
+  public CompositeArrivalTracker() {
+    this(DEFAULT_MAX_SLOTS);
+  }
+  
+  /**
+   * Constructor
+   * @param maxSlots the maximum number of slots to keep
+   */
+  public CompositeArrivalTracker(final int maxSlots) {
+    if (maxSlots <= 0) {
+      throw new IllegalArgumentException("maxSlots must be positive");
+    }
+    slots = new LinkedHashMap<DateTime, Map<String, CatalogEntry>>() {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<DateTime, Map<String, CatalogEntry>> eldest) {
+        return size() > maxSlots;
+      }
+    };
+  }
+  
+  /**
+   * Sets the configuration of the rule. Any tracked slots are cleared if the configuration is changed.
+   * @param scanBased if the composite is scan based
+   * @param sources the sources in the composite
+   */
+  public synchronized void configure(boolean scanBased, List<String> sources) {
+    if (this.scanBased != scanBased || this.sources == null || !this.sources.equals(sources)) {
+      slots.clear();
+    }
+    this.scanBased = scanBased;
+    this.sources = sources;
+  }
+  
+  /**
+   * Returns the tracked entries for the slot
+   * @param nominalTime the nominal time of the slot
+   * @return a copy of the entries (source -> entry) or null if the slot has not been seeded
+   */
+  public synchronized Map<String, CatalogEntry> get(DateTime nominalTime) {
+    Map<String, CatalogEntry> entries = slots.get(nominalTime);
+    if (entries == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return new HashMap<String, CatalogEntry>(entries);
+  }
+  
+  /**
+   * Seeds a slot with entries fetched from the catalog
+   * @param nominalTime the nominal time of the slot
+   * @param entries the entries (source -> entry)
+   */
+  public synchronized void seed(DateTime nominalTime, Map<String, CatalogEntry> entries) {
+    slots.put(nominalTime, new HashMap<String, CatalogEntry>(entries));
+  }
+  
+  /**
+   * Updates a seeded slot with an arrived file. If the slot has not been seeded, nothing is done
+   * since the file will be included when the slot is seeded.
+   * @param nominalTime the nominal time of the slot
+   * @param file the file that has arrived, must already be matching the rule
+   */
+  public synchronized void update(DateTime nominalTime, FileEntry file) {
+    Map<String, CatalogEntry> entries = slots.get(nominalTime);
+    if (entries == null) {
+      return;
+    }
+    CatalogEntry candidate = createEntry(file);
+    String source = candidate.getSource();
+    if (sources == null || !sources.contains(source)) {
+      return;
+    }
+    CatalogEntry current = entries.get(source);
+    if (current == null || isPreferred(candidate, current)) {
+      entries.put(source, candidate);
+    }
+  }
+  
+  /**
+   * Removes all tracked slots
+   */
+  public synchronized void clear() {
+    slots.clear();
+  }
+  
+  /**
+   * @return the number of lookups that found a seeded slot
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+  
+  /**
+   * @return the number of lookups that did not find a seeded slot
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * @param file the file entry
+   * @return a catalog entry wrapping the file
+   */
+  protected CatalogEntry createEntry(FileEntry file) {
+    return new CatalogEntry(file);
+  }
+  
+  /**
+   * Same order as the one used when querying the catalog, i.e. lowest elevation angle first for
+   * scans and then the earliest date/time.
+   * @param candidate the candidate
+   * @param current the currently tracked entry
+   * @return true if candidate should replace current
+   */
+  protected boolean isPreferred(CatalogEntry candidate, CatalogEntry current) {
+    if (candidate.getUuid() != null && candidate.getUuid().equals(current.getUuid())) {
+      return false;
+    }
+    if (scanBased) {
+      Double candidateAngle = (Double)candidate.getAttribute(ELANGLE_ATTRIBUTE);
+      Double currentAngle = (Double)current.getAttribute(ELANGLE_ATTRIBUTE);
+      if (candidateAngle != null && currentAngle != null) {
+        int cmp = candidateAngle.compareTo(currentAngle);
+        if (cmp != 0) {
+          return cmp < 0;
+        }
+      }
+    }
+    return current.getDateTime().isAfter(candidate.getDateTime());
+  }
+}
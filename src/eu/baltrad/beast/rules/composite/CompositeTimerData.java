@@ -25,12 +25,13 @@ import java.util.Map;
 
 import eu.baltrad.bdb.util.DateTime;
 import eu.baltrad.beast.db.CatalogEntry;
+import eu.baltrad.beast.rules.timer.IRecoverableTimerData;
 
 /**
  * Used for keeping track on registered tasks in the timeout manager.
  * @author Anders Henja
  */
-public class CompositeTimerData {
+public class CompositeTimerData implements IRecoverableTimerData {
   /**
    * The date time 
    */
@@ -96,6 +97,15 @@ public class CompositeTimerData {
     return result;
   }
   
+  /**
+   * @see Object#hashCode()
+   * Consistent with {@link #equals(Object)}, i.e. based on date/time and ruleid
+   */
+  @Override
+  public int hashCode() {
+    return 31 * dt.hashCode() + ruleid;
+  }
+  
   /**
    * @return the date time
    */
@@ -109,6 +119,14 @@ public class CompositeTimerData {
   public int getRuleId() {
     return this.ruleid;
   }
+  
+  /**
+   * Composites are not source specific
+   * @return null
+   */
+  public String getSource() {
+    return null;
+  }
 
   /**
    * @param scanBased the scanBased to set
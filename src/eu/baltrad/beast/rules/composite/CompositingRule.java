@@ -19,11 +19,13 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.composite;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -45,9 +47,11 @@ import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.message.mo.BltDataMessage;
 import eu.baltrad.beast.message.mo.BltGenerateMessage;
 import eu.baltrad.beast.message.mo.BltMultiRoutedMessage;
+import eu.baltrad.beast.rules.IIndexableRule;
 import eu.baltrad.beast.rules.IRule;
 import eu.baltrad.beast.rules.RuleUtils;
-import eu.baltrad.beast.rules.timer.ITimeoutRule;
+import eu.baltrad.beast.rules.timer.IRecoverableTimeoutRule;
+import eu.baltrad.beast.rules.timer.IRecoverableTimerData;
 import eu.baltrad.beast.rules.timer.TimeoutManager;
 import eu.baltrad.beast.rules.timer.TimeoutTask;
 import eu.baltrad.beast.rules.util.IRuleUtilities;
@@ -61,7 +65,7 @@ import eu.baltrad.beast.rules.util.IRuleUtilities;
  * 
  * @author Anders Henja
  */
-public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
+public class CompositingRule implements IRule, IRecoverableTimeoutRule, IIndexableRule, InitializingBean {
   /**
    * The name of this static composite type
    */
@@ -118,6 +122,11 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
    */
   private TimeoutManager timeoutManager = null;
   
+  /**
+   * Keeps track of arrived files per nominal time
+   */
+  private CompositeArrivalTracker arrivals = new CompositeArrivalTracker();
+  
   /**
    * Utilities that simplifies database access
    */
@@ -258,6 +267,13 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
    */
   private IFilter filter = null;
   
+  /**
+   * Guards the rule state. A lock is used instead of synchronized methods so that virtual
+   * threads waiting for the rule, while another thread queries the catalog, don't pin their
+   * carrier threads.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  
   /**
    * The logger
    */
@@ -367,6 +383,7 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
    */
   public void setSources(List<String> sources) {
     this.sources = sources;
+    arrivals.configure(scanBased, sources);
   }
   
   /**
@@ -406,11 +423,28 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
     return true;
   }  
 
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedObjectTypes()
+   */
+  @Override
+  public List<String> getIndexedObjectTypes() {
+    return Arrays.asList(isScanBased() ? "SCAN" : "PVOL");
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedSources()
+   */
+  @Override
+  public List<String> getIndexedSources() {
+    return sources;
+  }
+
   /**
    * @param scanBased the scanBased to set
    */
   public void setScanBased(boolean scanBased) {
     this.scanBased = scanBased;
+    arrivals.configure(scanBased, sources);
   }
 
   /**
@@ -424,31 +458,36 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
    * @see eu.baltrad.beast.rules.IRule#handle(eu.baltrad.beast.message.IBltMessage)
    */
   @Override
-  public synchronized IBltMessage handle(IBltMessage message) {
-    logger.debug("ENTER: handle(IBltMessage)");
+  public IBltMessage handle(IBltMessage message) {
+    lock.lock();
     try {
-      IBltMessage generatedMessage = null;
-      if (message instanceof BltDataMessage) {
-        FileEntry file = ((BltDataMessage)message).getFileEntry();
-        DateTime fileDateTime = getDateTimeFromFile(file);
-        UUID fileUuid = file.getUuid();
-        CompositingRuleFilter ruleFilter = createFilter(ruleUtil.createNominalTime(fileDateTime, getInterval()));
-        if (dateTimeExceedsMaxAgeLimit(fileDateTime)) {
-          logger.debug("CompositingRule - datetime in file " + fileUuid + " exceeds the maximum age limit of " + 
-              getMaxAgeLimit() + " in rule. File not handled by rule.");
-        } else if (ruleFilter.fileMatches(file)) {
-          logger.info("ENTER: execute CompositingRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
-              ", file: " + fileUuid);
+      logger.debug("ENTER: handle(IBltMessage)");
+      try {
+        IBltMessage generatedMessage = null;
+        if (message instanceof BltDataMessage) {
+          FileEntry file = ((BltDataMessage)message).getFileEntry();
+          DateTime fileDateTime = getDateTimeFromFile(file);
+          UUID fileUuid = file.getUuid();
+          CompositingRuleFilter ruleFilter = createFilter(ruleUtil.createNominalTime(fileDateTime, getInterval()));
+          if (dateTimeExceedsMaxAgeLimit(fileDateTime)) {
+            logger.debug("CompositingRule - datetime in file " + fileUuid + " exceeds the maximum age limit of " + 
+                getMaxAgeLimit() + " in rule. File not handled by rule.");
+          } else if (ruleFilter.fileMatches(file)) {
+            logger.info("ENTER: execute CompositingRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
+                ", file: " + fileUuid);
           
-          generatedMessage = createComposite(message, ruleFilter);
+            generatedMessage = createComposite(message, ruleFilter);
           
-          logger.info("EXIT: execute CompositingRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
-              ", file: " + fileUuid); 
+            logger.info("EXIT: execute CompositingRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
+                ", file: " + fileUuid); 
+          }
         }
+        return generatedMessage;
+      } finally {
+        logger.debug("EXIT: handle(IBltMessage)");
       }
-      return generatedMessage;
     } finally {
-      logger.debug("EXIT: handle(IBltMessage)");
+      lock.unlock();
     }
   }
   
@@ -475,6 +514,10 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
       return null;
     }
     
+    if (message instanceof BltDataMessage) {
+      arrivals.update(ruleFilter.getStartDateTime(), ((BltDataMessage)message).getFileEntry());
+    }
+    
     TimeoutTask timeoutTask = timeoutManager.getRegisteredTask(data);
     if (timeoutTask == null) {
       Map<String, CatalogEntry> previousEntries = fetchPreviousEntriesMap(ruleFilter);
@@ -485,7 +528,7 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
       data = (CompositeTimerData)timeoutTask.getData();
     }
     
-    Map<String,CatalogEntry> currentEntries = fetchEntriesMap(ruleFilter);
+    Map<String,CatalogEntry> currentEntries = getEntriesMap(ruleFilter);
     
     boolean allSourcesPresent = true;
     for (String src : data.getPreviousSources()) {
@@ -524,24 +567,47 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
    * @see eu.baltrad.beast.rules.timer.ITimeoutRule#timeout(long, int, Object)
    */
   @Override
-  public synchronized IBltMessage timeout(long id, int why, Object data) {
-    logger.debug("ENTER: timeout("+id+","+why+"," + data + ")");
-    IBltMessage result = null;
-    CompositeTimerData ctd = (CompositeTimerData)data;
-    if (ctd != null) {
-      CompositingRuleFilter ruleFilter = createFilter(ctd.getDateTime());
-      Map<String, CatalogEntry> entries = fetchEntriesMap(ruleFilter);
-
-      if (!ruleUtil.isTriggered(ruleid, ctd.getDateTime())) {
-        IBltMessage msgtosend = createMessage(ctd.getDateTime(), entries);
-        BltMultiRoutedMessage mrmsg = new BltMultiRoutedMessage();
-        mrmsg.setDestinations(recipients);
-        mrmsg.setMessage(msgtosend);
-        ruleUtil.trigger(ruleid, ctd.getDateTime());
-        result = mrmsg;
+  public IBltMessage timeout(long id, int why, Object data) {
+    lock.lock();
+    try {
+      logger.debug("ENTER: timeout("+id+","+why+"," + data + ")");
+      IBltMessage result = null;
+      CompositeTimerData ctd = (CompositeTimerData)data;
+      if (ctd != null) {
+        CompositingRuleFilter ruleFilter = createFilter(ctd.getDateTime());
+        Map<String, CatalogEntry> entries = fetchEntriesMap(ruleFilter);
+
+        if (!ruleUtil.isTriggered(ruleid, ctd.getDateTime())) {
+          IBltMessage msgtosend = createMessage(ctd.getDateTime(), entries);
+          BltMultiRoutedMessage mrmsg = new BltMultiRoutedMessage();
+          mrmsg.setDestinations(recipients);
+          mrmsg.setMessage(msgtosend);
+          ruleUtil.trigger(ruleid, ctd.getDateTime());
+          result = mrmsg;
+        }
       }
+      logger.debug("EXIT: timeout("+id+","+why+"," + data + ")");
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * @see eu.baltrad.beast.rules.timer.IRecoverableTimeoutRule#recoverTimerData(eu.baltrad.bdb.util.DateTime, java.lang.String)
+   */
+  @Override
+  public IRecoverableTimerData recoverTimerData(DateTime nominalTime, String source) {
+    if (ruleUtil.isTriggered(ruleid, nominalTime)) {
+      return null;
+    }
+    CompositeTimerData result = new CompositeTimerData(ruleid, nominalTime, isScanBased(), sources);
+    // the previous sources and angles are used to decide if the composite can be created
+    // before the timeout, these are not journaled so they are fetched again
+    Map<String, CatalogEntry> previousEntries = fetchPreviousEntriesMap(createFilter(nominalTime));
+    if (previousEntries.size() > 0) {
+      result.setPreviousEntries(previousEntries);
     }
-    logger.debug("EXIT: timeout("+id+","+why+"," + data + ")");
     return result;
   }
   
@@ -675,7 +741,30 @@ public class CompositingRule implements IRule, ITimeoutRule, InitializingBean {
     DateTime previousStartDT = ruleUtil.createPrevNominalTime(ruleFilter.getStartDateTime(), interval);
     CompositingRuleFilter previousFilter = createFilter(previousStartDT);
     
-    return fetchEntriesMap(previousFilter);
+    return getEntriesMap(previousFilter);
+  }
+  
+  /**
+   * Returns the entries for the nominal time of the filter. The entries are taken from the
+   * arrival tracker and the catalog is only queried if the nominal time is not tracked.
+   * @param ruleFilter the filter
+   * @return the entries (source -> entry)
+   */
+  protected Map<String,CatalogEntry> getEntriesMap(CompositingRuleFilter ruleFilter) {
+    DateTime nominalTime = ruleFilter.getStartDateTime();
+    Map<String,CatalogEntry> result = arrivals.get(nominalTime);
+    if (result == null) {
+      result = fetchEntriesMap(ruleFilter);
+      arrivals.seed(nominalTime, result);
+    }
+    return result;
+  }
+  
+  /**
+   * @return the arrival tracker
+   */
+  public CompositeArrivalTracker getArrivalTracker() {
+    return arrivals;
   }
   
   protected Map<String,CatalogEntry> fetchEntriesMap(CompositingRuleFilter ruleFilter) {
@@ -115,6 +115,9 @@ public class CompositingRuleManager implements IRuleManager {
         getCompsiteRuleMapper(),
         new Object[]{ruleId});
     rule.setFilter(loadFilter(ruleId));
+    if (timeoutManager != null) {
+      timeoutManager.recover(rule);
+    }
     return rule;
   }
 
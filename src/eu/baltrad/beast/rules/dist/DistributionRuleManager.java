@@ -32,6 +32,8 @@ import org.springframework.beans.factory.InitializingBean;
 import eu.baltrad.bdb.storage.LocalStorage;
 
 import eu.baltrad.beast.db.IFilter;
+import eu.baltrad.beast.net.DistributionScheduler;
+import eu.baltrad.beast.net.FileDistribution;
 import eu.baltrad.beast.rules.IRule;
 import eu.baltrad.beast.rules.IRuleManager;
 import eu.baltrad.beast.rules.PropertyManager;
@@ -68,6 +70,11 @@ public class DistributionRuleManager implements IRuleManager,
    */
   private int noOfParallelDistributions = 5;
   
+  /**
+   * Max number of concurrent distributions to the same host
+   */
+  private int maxDistributionsPerHost = 2;
+  
   /**
    * The executor for distributions
    */
@@ -102,6 +109,17 @@ public class DistributionRuleManager implements IRuleManager,
     this.noOfParallelDistributions = noOfParallelDistributions;
   }
 
+  public int getMaxDistributionsPerHost() {
+    return maxDistributionsPerHost;
+  }
+
+  /**
+   * @param maxDistributionsPerHost max number of concurrent distributions to the same host
+   */
+  public void setMaxDistributionsPerHost(int maxDistributionsPerHost) {
+    this.maxDistributionsPerHost = maxDistributionsPerHost;
+  }
+
   /**
    * @see eu.baltrad.beast.rules.IRuleManager#delete(int)
    */
@@ -168,14 +186,16 @@ public class DistributionRuleManager implements IRuleManager,
     }
     
     if (distributionExecutor == null) {
-      distributionExecutor = Executors.newFixedThreadPool(noOfParallelDistributions, new ThreadFactory() {
+      DistributionScheduler scheduler = new DistributionScheduler(Executors.newFixedThreadPool(noOfParallelDistributions, new ThreadFactory() {
         @Override
         public Thread newThread(Runnable runnable) {
           Thread thread = new Thread(runnable);
           thread.setDaemon(true);
           return thread;
         }
-      });
+      }));
+      scheduler.setMaxPerHost(maxDistributionsPerHost);
+      distributionExecutor = scheduler;
     }
   }
 
@@ -208,11 +228,13 @@ public class DistributionRuleManager implements IRuleManager,
   }
 
   /**
+   * Stops the distributions and closes the pooled sessions they used.
    * @see org.springframework.beans.factory.DisposableBean#destroy()
    */
   @Override
   public void destroy() throws Exception {
     shutdown();
+    FileDistribution.shutdownSessionPools();
   }
   
 }
@@ -20,6 +20,7 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.scansun;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.LogManager;
@@ -29,13 +30,14 @@ import eu.baltrad.bdb.db.FileEntry;
 import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.message.mo.BltDataMessage;
 import eu.baltrad.beast.message.mo.BltGenerateMessage;
+import eu.baltrad.beast.rules.IIndexableRule;
 import eu.baltrad.beast.rules.IRule;
 
 /**
  * @author Anders Henja
  *
  */
-public class ScansunRule implements IRule {
+public class ScansunRule implements IRule, IIndexableRule {
   /**
    * The name of this static scansun type
    */
@@ -86,6 +88,22 @@ public class ScansunRule implements IRule {
     }
   }
 
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedObjectTypes()
+   */
+  @Override
+  public List<String> getIndexedObjectTypes() {
+    return Arrays.asList("PVOL");
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedSources()
+   */
+  @Override
+  public List<String> getIndexedSources() {
+    return sources;
+  }
+
   /**
    * @see eu.baltrad.beast.rules.IRule#getType()
    */
@@ -20,6 +20,7 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.site2d;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -38,6 +39,7 @@ import eu.baltrad.beast.db.IFilter;
 import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.message.mo.BltDataMessage;
 import eu.baltrad.beast.message.mo.BltGenerateMessage;
+import eu.baltrad.beast.rules.IIndexableRule;
 import eu.baltrad.beast.rules.IRule;
 import eu.baltrad.beast.rules.RuleUtils;
 import eu.baltrad.beast.rules.util.IRuleUtilities;
@@ -47,7 +49,7 @@ import eu.baltrad.beast.rules.util.IRuleUtilities;
  *
  * @author Anders Henja
  */
-public class Site2DRule implements IRule, InitializingBean {
+public class Site2DRule implements IRule, IIndexableRule, InitializingBean {
   /** Performs the quality analysis and then applies the result to the original set */
   public final static int QualityControlMode_ANALYZE_AND_APPLY = 0;
   
@@ -389,6 +391,22 @@ public class Site2DRule implements IRule, InitializingBean {
     return ruleid;
   }
   
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedObjectTypes()
+   */
+  @Override
+  public List<String> getIndexedObjectTypes() {
+    return Arrays.asList(scanBased ? "SCAN" : "PVOL");
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedSources()
+   */
+  @Override
+  public List<String> getIndexedSources() {
+    return sources;
+  }
+
   /**
    * @see eu.baltrad.beast.rules.IRule#getType()
    */
@@ -0,0 +1,41 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.timer;
+
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * A timeout rule that is able to recreate the timer data of journaled
+ * timeouts after a restart.
+ * @author Anders Henja
+ */
+public interface IRecoverableTimeoutRule extends ITimeoutRule {
+  /**
+   * @return the rule id
+   */
+  public int getRuleId();
+  
+  /**
+   * Recreates the timer data for a timeout that was pending when the system was stopped.
+   * @param nominalTime the nominal time of the timeout
+   * @param source the source or null if the timeout was not source specific
+   * @return the timer data or null if the timeout should not be recovered
+   */
+  public IRecoverableTimerData recoverTimerData(DateTime nominalTime, String source);
+}
@@ -0,0 +1,43 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.timer;
+
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * Timer data that can be written to the {@link ITimeoutJournal} so that
+ * a pending timeout can be recovered after a restart.
+ * @author Anders Henja
+ */
+public interface IRecoverableTimerData {
+  /**
+   * @return the id of the rule that registered the timeout
+   */
+  public int getRuleId();
+  
+  /**
+   * @return the nominal date time the timeout is registered for
+   */
+  public DateTime getDateTime();
+  
+  /**
+   * @return the source the timeout is registered for or null if not source specific
+   */
+  public String getSource();
+}
@@ -0,0 +1,76 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.timer;
+
+import java.util.List;
+
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * Journal keeping track of pending timeouts and triggered rules so that
+ * they survive a restart.
+ * @author Anders Henja
+ */
+public interface ITimeoutJournal {
+  /**
+   * Adds (or updates) a pending timeout
+   * @param ruleId the rule id
+   * @param nominalTime the nominal time
+   * @param source the source, may be null
+   * @param deadline when the timeout should occur in ms since epoch
+   */
+  public void addTimeout(int ruleId, DateTime nominalTime, String source, long deadline);
+  
+  /**
+   * Removes a pending timeout
+   * @param ruleId the rule id
+   * @param nominalTime the nominal time
+   * @param source the source, may be null
+   */
+  public void removeTimeout(int ruleId, DateTime nominalTime, String source);
+  
+  /**
+   * @return all pending timeouts
+   */
+  public List<TimeoutJournalEntry> getTimeouts();
+  
+  /**
+   * Removes all timeouts with a deadline before the specified time
+   * @param before time in ms since epoch
+   */
+  public void purgeTimeouts(long before);
+  
+  /**
+   * Marks a rule as triggered for a nominal time
+   * @param ruleId the rule id
+   * @param nominalTime the nominal time
+   */
+  public void addTrigger(int ruleId, DateTime nominalTime);
+  
+  /**
+   * @return all trigger marks ordered by the time they were triggered
+   */
+  public List<TimeoutJournalEntry> getTriggers();
+  
+  /**
+   * Removes all trigger marks triggered before the specified time
+   * @param before time in ms since epoch
+   */
+  public void purgeTriggers(long before);
+}
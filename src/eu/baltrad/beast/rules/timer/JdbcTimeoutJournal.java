@@ -0,0 +1,428 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.timer;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.baltrad.bdb.util.Date;
+import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.bdb.util.Time;
+import eu.baltrad.beast.rules.util.TriggerHistory;
+
+/**
+ * Keeps the timeout journal in the tables beast_timeout_journal and
+ * beast_trigger_journal. Additions and removals are only buffered by the
+ * calling thread and written in batches every flushInterval ms so that
+ * the rules never wait for the database. Several changes to the same
+ * timeout or trigger within one interval results in one row being written.
+ * Each write is performed in one transaction when a transaction manager has been
+ * set, so that a failure never leaves the journal with deleted but not re-inserted
+ * rows. Triggers older than the trigger retention are purged at most once every
+ * purge interval when triggers are written.
+ * @author Anders Henja
+ */
+public class JdbcTimeoutJournal implements ITimeoutJournal, DisposableBean {
+  /**
+   * The jdbc template
+   */
+  private JdbcOperations template = null;
+  
+  /**
+   * Runs the writes in a transaction, null if no transaction manager has been set
+   */
+  private TransactionTemplate transactionTemplate = null;
+  
+  /**
+   * Time in ms between the writes, 0 or less means that each change is written at once
+   */
+  private long flushInterval = 1000;
+  
+  /**
+   * Time in ms that triggers are kept in the journal
+   */
+  private long triggerRetention = TriggerHistory.DEFAULT_RETENTION * 1000L;
+  
+  /**
+   * Min time in ms between the purges of old triggers
+   */
+  private long triggerPurgeInterval = 60L * 60L * 1000L;
+  
+  /**
+   * When the triggers were purged the last time
+   */
+  private long lastTriggerPurge = 0;
+  
+  /**
+   * Buffered timeout changes, key -> {rule_id, nominal_time, source, deadline}. A null
+   * deadline means that the timeout should be removed.
+   */
+  private Map<String, Object[]> pendingTimeouts = new LinkedHashMap<String, Object[]>();
+  
+  /**
+   * Buffered triggers, key -> {rule_id, nominal_time, triggered}
+   */
+  private Map<String, Object[]> pendingTriggers = new LinkedHashMap<String, Object[]>();
+  
+  /**
+   * If a flush has been scheduled
+   */
+  private boolean flushScheduled = false;
+  
+  /**
+   * Serializes the flushes so that the writes are performed in order
+   */
+  private final Object flushLock = new Object();
+  
+  /**
+   * The timer performing the flushes, created on first use
+   */
+  private ScheduledExecutorService timer = null;
+  
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(JdbcTimeoutJournal.class);
+  
+  /**
+   * @param template the jdbc template to set
+   */
+  public void setJdbcTemplate(JdbcOperations template) {
+    this.template = template;
+  }
+  
+  /**
+   * @param transactionManager the transaction manager used for running each write in one transaction
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = (transactionManager != null) ? new TransactionTemplate(transactionManager) : null;
+  }
+  
+  /**
+   * @param triggerRetention time in ms that triggers are kept in the journal, should not be shorter
+   * than the trigger retention used by the rule utilities
+   */
+  public void setTriggerRetention(long triggerRetention) {
+    this.triggerRetention = triggerRetention;
+  }
+  
+  /**
+   * @return time in ms that triggers are kept in the journal
+   */
+  public long getTriggerRetention() {
+    return triggerRetention;
+  }
+  
+  /**
+   * @param triggerPurgeInterval min time in ms between the purges of old triggers
+   */
+  public void setTriggerPurgeInterval(long triggerPurgeInterval) {
+    this.triggerPurgeInterval = triggerPurgeInterval;
+  }
+  
+  /**
+   * @param flushInterval time in ms between the writes, 0 or less means that each change is written at once
+   */
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+  
+  /**
+   * @return time in ms between the writes
+   */
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#addTimeout(int, eu.baltrad.bdb.util.DateTime, java.lang.String, long)
+   */
+  @Override
+  public void addTimeout(int ruleId, DateTime nominalTime, String source, long deadline) {
+    String nt = formatDateTime(nominalTime);
+    String src = (source == null) ? "" : source;
+    bufferTimeout(new Object[]{ruleId, nt, src, deadline});
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#removeTimeout(int, eu.baltrad.bdb.util.DateTime, java.lang.String)
+   */
+  @Override
+  public void removeTimeout(int ruleId, DateTime nominalTime, String source) {
+    String nt = formatDateTime(nominalTime);
+    String src = (source == null) ? "" : source;
+    bufferTimeout(new Object[]{ruleId, nt, src, null});
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#getTimeouts()
+   */
+  @Override
+  public List<TimeoutJournalEntry> getTimeouts() {
+    flush();
+    return template.query(
+        "select rule_id, nominal_time, source, deadline as time from beast_timeout_journal order by deadline",
+        getEntryMapper());
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#purgeTimeouts(long)
+   */
+  @Override
+  public void purgeTimeouts(long before) {
+    flush();
+    template.update("delete from beast_timeout_journal where deadline < ?", new Object[]{before});
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#addTrigger(int, eu.baltrad.bdb.util.DateTime)
+   */
+  @Override
+  public void addTrigger(int ruleId, DateTime nominalTime) {
+    String nt = formatDateTime(nominalTime);
+    synchronized (this) {
+      pendingTriggers.put(ruleId + ":" + nt, new Object[]{ruleId, nt, currentTimeMillis()});
+    }
+    scheduleFlush();
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#getTriggers()
+   */
+  @Override
+  public List<TimeoutJournalEntry> getTriggers() {
+    flush();
+    return template.query(
+        "select rule_id, nominal_time, null as source, triggered as time from beast_trigger_journal order by triggered",
+        getEntryMapper());
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.timer.ITimeoutJournal#purgeTriggers(long)
+   */
+  @Override
+  public void purgeTriggers(long before) {
+    flush();
+    template.update("delete from beast_trigger_journal where triggered < ?", new Object[]{before});
+  }
+  
+  /**
+   * Writes all buffered changes. Each table gets one batched delete of the affected rows
+   * followed by one batched insert of the rows that should remain, all in one transaction.
+   * If the write fails the transaction is rolled back and the changes are logged and dropped,
+   * the journal never stops the processing.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      final Map<String, Object[]> timeouts;
+      final Map<String, Object[]> triggers;
+      synchronized (this) {
+        flushScheduled = false;
+        timeouts = pendingTimeouts;
+        triggers = pendingTriggers;
+        if (timeouts.isEmpty() && triggers.isEmpty()) {
+          return;
+        }
+        pendingTimeouts = new LinkedHashMap<String, Object[]>();
+        pendingTriggers = new LinkedHashMap<String, Object[]>();
+      }
+      
+      try {
+        if (transactionTemplate != null) {
+          transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+              write(timeouts, triggers);
+            }
+          });
+        } else {
+          write(timeouts, triggers);
+        }
+      } catch (RuntimeException e) {
+        logger.warn("Failed to write " + timeouts.size() + " timeouts and " + triggers.size() + " triggers to journal", e);
+      }
+    }
+  }
+  
+  /**
+   * Writes the changes and purges old triggers if it is time for that
+   * @param timeouts the timeout changes
+   * @param triggers the triggers
+   */
+  protected void write(Map<String, Object[]> timeouts, Map<String, Object[]> triggers) {
+    if (!timeouts.isEmpty()) {
+      List<Object[]> deletes = new ArrayList<Object[]>();
+      List<Object[]> inserts = new ArrayList<Object[]>();
+      for (Object[] t : timeouts.values()) {
+        deletes.add(new Object[]{t[0], t[1], t[2]});
+        if (t[3] != null) {
+          inserts.add(t);
+        }
+      }
+      template.batchUpdate("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?", deletes);
+      if (!inserts.isEmpty()) {
+        template.batchUpdate("insert into beast_timeout_journal (rule_id, nominal_time, source, deadline) values (?,?,?,?)", inserts);
+      }
+    }
+    if (!triggers.isEmpty()) {
+      List<Object[]> deletes = new ArrayList<Object[]>();
+      for (Object[] t : triggers.values()) {
+        deletes.add(new Object[]{t[0], t[1]});
+      }
+      template.batchUpdate("delete from beast_trigger_journal where rule_id=? and nominal_time=?", deletes);
+      template.batchUpdate("insert into beast_trigger_journal (rule_id, nominal_time, triggered) values (?,?,?)",
+          new ArrayList<Object[]>(triggers.values()));
+      long now = currentTimeMillis();
+      if (triggerRetention > 0 && now - lastTriggerPurge >= triggerPurgeInterval) {
+        template.update("delete from beast_trigger_journal where triggered < ?", new Object[]{now - triggerRetention});
+        lastTriggerPurge = now;
+      }
+    }
+  }
+  
+  /**
+   * Writes the buffered changes and stops the timer
+   * @see org.springframework.beans.factory.DisposableBean#destroy()
+   */
+  @Override
+  public void destroy() throws Exception {
+    ScheduledExecutorService t = null;
+    synchronized (this) {
+      t = timer;
+      timer = null;
+    }
+    if (t != null) {
+      t.shutdownNow();
+    }
+    flush();
+  }
+  
+  /**
+   * Buffers a timeout change
+   * @param timeout {rule_id, nominal_time, source, deadline}
+   */
+  private void bufferTimeout(Object[] timeout) {
+    synchronized (this) {
+      pendingTimeouts.put(timeout[0] + ":" + timeout[1] + ":" + timeout[2], timeout);
+    }
+    scheduleFlush();
+  }
+  
+  /**
+   * Schedules a flush unless one already has been scheduled. If there is no flush
+   * interval the changes are written at once.
+   */
+  protected void scheduleFlush() {
+    if (flushInterval <= 0) {
+      flush();
+      return;
+    }
+    synchronized (this) {
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+      if (timer == null) {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "beast-timeout-journal");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+      timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, flushInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  /**
+   * @return current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+  
+  /**
+   * Formats a date time as YYYYmmddHHMMSS
+   * @param dt the date time
+   * @return the formatted string
+   */
+  protected String formatDateTime(DateTime dt) {
+    Date d = dt.getDate();
+    Time t = dt.getTime();
+    return String.format("%04d%02d%02d%02d%02d%02d", d.year(), d.month(), d.day(), t.hour(), t.minute(), t.second());
+  }
+  
+  /**
+   * Parses a date time formatted as YYYYmmddHHMMSS
+   * @param s the string
+   * @return the date time
+   */
+  protected DateTime parseDateTime(String s) {
+    return new DateTime(Integer.parseInt(s.substring(0, 4)),
+                        Integer.parseInt(s.substring(4, 6)),
+                        Integer.parseInt(s.substring(6, 8)),
+                        Integer.parseInt(s.substring(8, 10)),
+                        Integer.parseInt(s.substring(10, 12)),
+                        Integer.parseInt(s.substring(12, 14)));
+  }
+  
+  /**
+   * @return the mapper for journal entries
+   */
+  protected RowMapper<TimeoutJournalEntry> getEntryMapper() {
+    return new RowMapper<TimeoutJournalEntry>() {
+      @Override
+      public TimeoutJournalEntry mapRow(ResultSet rs, int rownum) throws SQLException {
+        String source = rs.getString("source");
+        if (source != null && source.equals("")) {
+          source = null;
+        }
+        return new TimeoutJournalEntry(rs.getInt("rule_id"),
+                                       parseDateTime(rs.getString("nominal_time")),
+                                       source,
+                                       rs.getLong("time"));
+      }
+    };
+  }
+}
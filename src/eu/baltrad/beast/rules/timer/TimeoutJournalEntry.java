@@ -0,0 +1,89 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.timer;
+
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * An entry in the timeout journal, either a pending timeout or a trigger mark.
+ * @author Anders Henja
+ */
+public class TimeoutJournalEntry {
+  /**
+   * The rule id
+   */
+  private int ruleId = 0;
+  
+  /**
+   * The nominal time
+   */
+  private DateTime nominalTime = null;
+  
+  /**
+   * The source, null if not source specific
+   */
+  private String source = null;
+  
+  /**
+   * For timeouts the deadline and for triggers the time when triggered (ms since epoch)
+   */
+  private long time = 0;
+  
+  /**
+   * Constructor
+   * @param ruleId the rule id
+   * @param nominalTime the nominal time
+   * @param source the source, may be null
+   * @param time the deadline or time of trigger in ms since epoch
+   */
+  public TimeoutJournalEntry(int ruleId, DateTime nominalTime, String source, long time) {
+    this.ruleId = ruleId;
+    this.nominalTime = nominalTime;
+    this.source = source;
+    this.time = time;
+  }
+
+  /**
+   * @return the rule id
+   */
+  public int getRuleId() {
+    return ruleId;
+  }
+
+  /**
+   * @return the nominal time
+   */
+  public DateTime getNominalTime() {
+    return nominalTime;
+  }
+
+  /**
+   * @return the source or null
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @return the deadline or time of trigger in ms since epoch
+   */
+  public long getTime() {
+    return time;
+  }
+}
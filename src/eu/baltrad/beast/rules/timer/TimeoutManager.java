@@ -18,9 +18,18 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 ------------------------------------------------------------------------*/
 package eu.baltrad.beast.rules.timer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -31,6 +40,18 @@ import eu.baltrad.beast.message.IBltMessage;
 
 /**
  * The manager keeping track on all timeouts.
+ * <p>
+ * Timeouts are scheduled on a {@link ScheduledExecutorService} and, when they
+ * expire, the rule callbacks are executed on a separate executor so that a
+ * slow timeout (e.g. one performing catalog queries) does not delay the
+ * timeouts of other rules. Registered tasks are also indexed on their data
+ * so that {@link #isRegistered(Object)} and {@link #getRegisteredTask(Object)}
+ * does not have to scan all pending tasks. The data objects must therefore
+ * implement hashCode consistent with equals.
+ * <p>
+ * If a {@link ITimeoutJournal} has been set, timeouts registered with
+ * {@link IRecoverableTimerData} are journaled so that they can be
+ * recovered by {@link #recover(IRecoverableTimeoutRule)} after a restart.
  * @author Anders Henja
  */
 public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
@@ -40,9 +61,24 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
   private static volatile long UniqueID = 0;
   
   /**
-   * The timer
+   * Default number of threads used for executing the timeout callbacks
    */
-  private Timer timer = null;
+  public static final int DEFAULT_CALLBACK_POOL_SIZE = 4;
+  
+  /**
+   * Journaled timeouts that expired longer ago than this (ms) are not recovered
+   */
+  public static final long JOURNAL_RETENTION = 24L * 60L * 60L * 1000L;
+  
+  /**
+   * The scheduler
+   */
+  private ScheduledExecutorService scheduler = null;
+  
+  /**
+   * The executor running the timeout callbacks
+   */
+  private ExecutorService callbackExecutor = null;
   
   /**
    * The timeout task factory
@@ -59,6 +95,21 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    */
   protected Map<Long, TimeoutTask> tasks = null;
   
+  /**
+   * The registered tasks indexed on their data, maintained by {@link TaskMap}
+   */
+  private Map<Object, TimeoutTask> registeredData = new HashMap<Object, TimeoutTask>();
+  
+  /**
+   * The journal, if any
+   */
+  private ITimeoutJournal journal = null;
+  
+  /**
+   * Journaled timeouts not yet recovered, keyed on rule id. Loaded on first recovery.
+   */
+  private Map<Integer, List<TimeoutJournalEntry>> recoverable = null;
+  
   /**
    * The logger
    */
@@ -68,16 +119,41 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    * Default constructor
    */
   public TimeoutManager() {
-    this.timer = new Timer(true);
-    this.tasks = new HashMap<Long, TimeoutTask>();
+    ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("timeout-scheduler"));
+    stpe.setRemoveOnCancelPolicy(true);
+    this.scheduler = stpe;
+    this.callbackExecutor = Executors.newFixedThreadPool(DEFAULT_CALLBACK_POOL_SIZE, new NamedThreadFactory("timeout-callback"));
+    this.tasks = new TaskMap();
+  }
+  
+  /**
+   * Sets the scheduler
+   * @param scheduler the scheduler
+   */
+  public void setScheduler(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
   }
   
   /**
-   * Sets the timer instance
-   * @param timer the timer
+   * @return the scheduler
    */
-  public void setTimer(Timer timer) {
-    this.timer = timer;
+  public ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+  
+  /**
+   * Sets the executor running the rule callbacks when a timeout has expired.
+   * @param callbackExecutor the executor
+   */
+  public void setCallbackExecutor(ExecutorService callbackExecutor) {
+    this.callbackExecutor = callbackExecutor;
+  }
+  
+  /**
+   * @return the executor running the rule callbacks
+   */
+  public ExecutorService getCallbackExecutor() {
+    return callbackExecutor;
   }
   
   /**
@@ -88,6 +164,20 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
     this.factory = factory;
   }
   
+  /**
+   * @param journal the journal to use for keeping pending timeouts over restarts
+   */
+  public void setJournal(ITimeoutJournal journal) {
+    this.journal = journal;
+  }
+  
+  /**
+   * @return the journal
+   */
+  public ITimeoutJournal getJournal() {
+    return journal;
+  }
+  
   /**
    * @param messageManager the message manager to set
    */
@@ -101,15 +191,7 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    * @return true if found otherwise false
    */
   public synchronized boolean isRegistered(Object data) {
-    if (data != null) {
-      for (TimeoutTask t : tasks.values()) {
-        Object o = t.getData();
-        if (o != null && o.equals(data)) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return getRegisteredTask(data) != null;
   }
   
   /**
@@ -119,12 +201,7 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    */
   public synchronized TimeoutTask getRegisteredTask(Object data) {
     if (data != null) {
-      for (TimeoutTask t : tasks.values()) {
-        Object o = t.getData();
-        if (o != null && o.equals(data)) {
-          return t;
-        }
-      }
+      return registeredData.get(data);
     }
     return null;
   }
@@ -136,13 +213,127 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    * @param data data to be passed on to the one registering the task
    * @return a unique id
    */
-  public synchronized long register(ITimeoutRule rule, long delay, Object data) {
-    long id = newID();
-    TimeoutTask task = factory.create(rule, id, data, this);
-    tasks.put(id, task);
-    timer.schedule(task, delay);
-    logger.debug("registered id: " + id);
-    return id;
+  public long register(ITimeoutRule rule, long delay, Object data) {
+    journalAdd(data, System.currentTimeMillis() + delay);
+    synchronized (this) {
+      long id = newID();
+      final TimeoutTask task = factory.create(rule, id, data, this);
+      tasks.put(id, task);
+      task.setFuture(scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          expire(task);
+        }
+      }, delay, TimeUnit.MILLISECONDS));
+      logger.debug("registered id: " + id);
+      return id;
+    }
+  }
+  
+  /**
+   * Registers the timeouts that was journaled for the rule when the system was
+   * stopped. Each journaled timeout is only recovered once, the first time the
+   * rule is recovered.
+   * @param rule the rule
+   */
+  public void recover(IRecoverableTimeoutRule rule) {
+    List<TimeoutJournalEntry> entries = null;
+    synchronized (this) {
+      if (journal == null) {
+        return;
+      }
+      if (recoverable == null) {
+        recoverable = loadRecoverable();
+      }
+      entries = recoverable.remove(rule.getRuleId());
+    }
+    if (entries != null) {
+      long now = System.currentTimeMillis();
+      for (TimeoutJournalEntry entry : entries) {
+        IRecoverableTimerData data = rule.recoverTimerData(entry.getNominalTime(), entry.getSource());
+        if (data != null && !isRegistered(data)) {
+          logger.info("Recovering timeout for rule " + entry.getRuleId() + " and nominal time " + entry.getNominalTime());
+          register(rule, Math.max(0, entry.getTime() - now), data);
+        } else if (data == null) {
+          try {
+            journal.removeTimeout(entry.getRuleId(), entry.getNominalTime(), entry.getSource());
+          } catch (RuntimeException e) {
+            logger.warn("Failed to remove journaled timeout", e);
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Loads the journaled timeouts that should be recovered
+   * @return the timeouts keyed on rule id
+   */
+  protected Map<Integer, List<TimeoutJournalEntry>> loadRecoverable() {
+    Map<Integer, List<TimeoutJournalEntry>> result = new HashMap<Integer, List<TimeoutJournalEntry>>();
+    try {
+      journal.purgeTimeouts(System.currentTimeMillis() - JOURNAL_RETENTION);
+      for (TimeoutJournalEntry entry : journal.getTimeouts()) {
+        List<TimeoutJournalEntry> entries = result.get(entry.getRuleId());
+        if (entries == null) {
+          entries = new ArrayList<TimeoutJournalEntry>();
+          result.put(entry.getRuleId(), entries);
+        }
+        entries.add(entry);
+      }
+    } catch (RuntimeException e) {
+      logger.error("Failed to load timeout journal, no timeouts will be recovered", e);
+    }
+    return result;
+  }
+  
+  /**
+   * Adds the timeout to the journal if there is one and the data is recoverable
+   * @param data the timer data
+   * @param deadline the deadline in ms since epoch
+   */
+  protected void journalAdd(Object data, long deadline) {
+    if (journal != null && data instanceof IRecoverableTimerData) {
+      IRecoverableTimerData rd = (IRecoverableTimerData)data;
+      try {
+        journal.addTimeout(rd.getRuleId(), rd.getDateTime(), rd.getSource(), deadline);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to journal timeout for rule " + rd.getRuleId(), e);
+      }
+    }
+  }
+  
+  /**
+   * Removes the timeout from the journal if there is one and the data is recoverable
+   * @param data the timer data
+   */
+  protected void journalRemove(Object data) {
+    if (journal != null && data instanceof IRecoverableTimerData) {
+      IRecoverableTimerData rd = (IRecoverableTimerData)data;
+      try {
+        journal.removeTimeout(rd.getRuleId(), rd.getDateTime(), rd.getSource());
+      } catch (RuntimeException e) {
+        logger.warn("Failed to remove journaled timeout for rule " + rd.getRuleId(), e);
+      }
+    }
+  }
+  
+  /**
+   * Hands over an expired task to the callback executor. If the executor
+   * refuses the task, it will be run in the calling thread.
+   * @param task the expired task
+   */
+  protected void expire(TimeoutTask task) {
+    ExecutorService executor = callbackExecutor;
+    if (executor != null) {
+      try {
+        executor.execute(task);
+        return;
+      } catch (RejectedExecutionException e) {
+        logger.warn("Callback executor rejected timeout " + task.getId() + ", running it in scheduler thread");
+      }
+    }
+    task.run();
   }
   
   /**
@@ -162,12 +353,18 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    * Unregisters the task with the specified id
    * @param id the id
    */
-  public synchronized void unregister(long id) {
+  public void unregister(long id) {
     logger.debug("unregister(" + id + ")");
-    TimeoutTask task = tasks.get(id);
+    TimeoutTask task = null;
+    synchronized (this) {
+      task = tasks.get(id);
+      if (task != null) {
+        task.stop();
+        tasks.remove(id);
+      }
+    }
     if (task != null) {
-      task.stop();
-      tasks.remove(id);
+      journalRemove(task.getData());
     }
   }
   
@@ -197,6 +394,7 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
       tasks.remove(id);
     }
     IBltMessage message = rule.timeout(id, ITimeoutRule.CANCELLED, data);
+    journalRemove(data);
     if (message != null) {
       logger.debug("messageManager.manage(message)");
       messageManager.manage(message);
@@ -213,6 +411,7 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
       tasks.remove(id);
     }
     IBltMessage message = rule.timeout(id, ITimeoutRule.TIMEOUT, data);
+    journalRemove(data);
     if (message != null) {
       messageManager.manage(message);
     }
@@ -223,8 +422,75 @@ public class TimeoutManager implements ITimeoutTaskListener, DisposableBean {
    */
   @Override
   public void destroy() throws Exception {
-    if (this.timer != null) {
-      this.timer.cancel();
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+    }
+    if (this.callbackExecutor != null) {
+      this.callbackExecutor.shutdown();
+    }
+  }
+  
+  /**
+   * Keeps the data index in sync with the registered tasks. If several tasks
+   * are registered with equal data, the first one registered is the one that
+   * will be found.
+   */
+  protected class TaskMap extends HashMap<Long, TimeoutTask> {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public TimeoutTask put(Long key, TimeoutTask value) {
+      TimeoutTask previous = super.put(key, value);
+      unindex(previous);
+      if (value != null && value.getData() != null && !registeredData.containsKey(value.getData())) {
+        registeredData.put(value.getData(), value);
+      }
+      return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends Long, ? extends TimeoutTask> m) {
+      for (Map.Entry<? extends Long, ? extends TimeoutTask> e : m.entrySet()) {
+        put(e.getKey(), e.getValue());
+      }
+    }
+
+    @Override
+    public TimeoutTask remove(Object key) {
+      TimeoutTask previous = super.remove(key);
+      unindex(previous);
+      return previous;
+    }
+
+    @Override
+    public void clear() {
+      super.clear();
+      registeredData.clear();
+    }
+
+    private void unindex(TimeoutTask task) {
+      if (task != null && task.getData() != null && registeredData.get(task.getData()) == task) {
+        registeredData.remove(task.getData());
+      }
+    }
+  }
+  
+  /**
+   * Creates daemon threads with a recognizable name
+   */
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    NamedThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
     }
   }
 }
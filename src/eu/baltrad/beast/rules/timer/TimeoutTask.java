@@ -19,6 +19,8 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.timer;
 
 import java.util.TimerTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -47,6 +49,17 @@ public class TimeoutTask extends TimerTask {
    */
   private ITimeoutTaskListener listener = null;
   
+  /**
+   * The pending schedule if the task has been scheduled by an executor
+   */
+  private volatile Future<?> future = null;
+  
+  /**
+   * Set when the task either has timed out, been cancelled or stopped so
+   * that the listener never gets more than one notification.
+   */
+  private final AtomicBoolean completed = new AtomicBoolean(false);
+  
   /**
    * The logger
    */
@@ -64,6 +77,9 @@ public class TimeoutTask extends TimerTask {
   @Override
   public void run() {
     logger.debug("run()");
+    if (!completed.compareAndSet(false, true)) {
+      return;
+    }
     try {
       listener.timeoutNotification(id, rule, data);
     } catch (Throwable t) {
@@ -78,6 +94,10 @@ public class TimeoutTask extends TimerTask {
   public boolean cancel() {
     logger.debug("cancel()");
     boolean result = super.cancel();
+    cancelFuture();
+    if (!completed.compareAndSet(false, true)) {
+      return result;
+    }
     try { 
       listener.cancelNotification(id, rule, data);
     } catch (Throwable t) {
@@ -92,9 +112,35 @@ public class TimeoutTask extends TimerTask {
    */
   public boolean stop() {
     logger.debug("stop()");
+    completed.set(true);
+    cancelFuture();
     return super.cancel();
   }
 
+  /**
+   * Cancels the pending schedule, if any
+   */
+  private void cancelFuture() {
+    Future<?> f = future;
+    if (f != null) {
+      f.cancel(false);
+    }
+  }
+
+  /**
+   * @param future the pending schedule of this task
+   */
+  public void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+  /**
+   * @return the pending schedule of this task
+   */
+  public Future<?> getFuture() {
+    return future;
+  }
+
   /**
    * @param id the id to set
    */
@@ -39,6 +39,8 @@ import eu.baltrad.bdb.util.DateTime;
 import eu.baltrad.bdb.util.Time;
 import eu.baltrad.beast.db.Catalog;
 import eu.baltrad.beast.db.CatalogEntry;
+import eu.baltrad.beast.rules.timer.ITimeoutJournal;
+import eu.baltrad.beast.rules.timer.TimeoutJournalEntry;
 import eu.baltrad.beast.system.RadarConnectionStatusReporter;
 import eu.baltrad.beast.system.SystemStatus;
 import eu.baltrad.beast.rules.RuleUtils;
@@ -52,32 +54,20 @@ public class RuleUtilities implements IRuleUtilities {
    */
   private Catalog catalog = null;
 
-  private static class IdDateMapping {
-    private int ruleid = 0;
-    private DateTime dt = null;
-    public IdDateMapping(int ruleid, DateTime dt) {
-      if (dt == null) {
-        throw new NullPointerException();
-      }
-      this.ruleid = ruleid;
-      this.dt = dt;
-    }
-    public boolean equals(Object o) {
-      if (o != null && o.getClass() == IdDateMapping.class) {
-        IdDateMapping o2 = (IdDateMapping)o;
-        if (o2.ruleid == this.ruleid &&
-            o2.dt.equals(this.dt)) {
-          return true;
-        }
-      }
-      return false;
-    }
-  };
+  /**
+   * The history of triggered rules.
+   */
+  private TriggerHistory triggerHistory = new TriggerHistory();
   
   /**
-   * The list of registered triggers.
+   * Journal where triggers are persisted, if any
    */
-  private List<IdDateMapping> registeredTriggers = new ArrayList<IdDateMapping>();
+  private ITimeoutJournal journal = null;
+  
+  /**
+   * If the triggers have been loaded from the journal
+   */
+  private volatile boolean triggersLoaded = false;
   
   /**
    * The radar connection status reporter
@@ -103,6 +93,27 @@ public class RuleUtilities implements IRuleUtilities {
     return catalog;
   }
 
+  /**
+   * @param journal the journal where triggers should be persisted
+   */
+  public void setTimeoutJournal(ITimeoutJournal journal) {
+    this.journal = journal;
+  }
+  
+  /**
+   * @param retention how long (in seconds) triggers should be remembered
+   */
+  public void setTriggerRetention(long retention) {
+    triggerHistory.setRetention(retention);
+  }
+  
+  /**
+   * @return how long (in seconds) triggers are remembered
+   */
+  public long getTriggerRetention() {
+    return triggerHistory.getRetention();
+  }
+  
   /**
    * @param reporter the reporter to set
    */
@@ -472,21 +483,42 @@ public class RuleUtilities implements IRuleUtilities {
   }
   
   /**
-   * This function will keep a backlog of 100 entries.
+   * Triggers are remembered for the trigger retention period, see {@link #setTriggerRetention(long)}.
    * @see eu.baltrad.beast.rules.util.IRuleUtilities#trigger(int, eu.baltrad.bdb.util.DateTime)
    */
   @Override
-  public synchronized void trigger(int ruleid, DateTime now) {
+  public void trigger(int ruleid, DateTime now) {
     logger.debug("trigger("+ruleid+", DateTime)");
-    IdDateMapping m = new IdDateMapping(ruleid, now);
-    
-    if (!registeredTriggers.contains(m)) {
-      registeredTriggers.add(m);
+    loadTriggers();
+    triggerHistory.trigger(ruleid, now);
+    if (journal != null) {
+      try {
+        journal.addTrigger(ruleid, now);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to journal trigger for rule " + ruleid, e);
+      }
     }
-    
-    // Keep a backlog of 200 entries until there is need for more clever solution
-    if (registeredTriggers.size() > 200) {
-      registeredTriggers.remove(0);
+  }
+  
+  /**
+   * Loads the journaled triggers the first time it is called so that rules
+   * are not triggered twice for the same time after a restart.
+   */
+  private void loadTriggers() {
+    if (!triggersLoaded && journal != null) {
+      synchronized (this) {
+        if (!triggersLoaded) {
+          try {
+            journal.purgeTriggers(System.currentTimeMillis() - triggerHistory.getRetention() * 1000L);
+            for (TimeoutJournalEntry entry : journal.getTriggers()) {
+              triggerHistory.trigger(entry.getRuleId(), entry.getNominalTime());
+            }
+          } catch (RuntimeException e) {
+            logger.error("Failed to load journaled triggers", e);
+          }
+          triggersLoaded = true;
+        }
+      }
     }
   }
   
@@ -494,9 +526,9 @@ public class RuleUtilities implements IRuleUtilities {
    * @see eu.baltrad.beast.rules.util.IRuleUtilities#isTriggered(int, eu.baltrad.bdb.util.DateTime)
    */
   @Override
-  public synchronized boolean isTriggered(int ruleid, DateTime now) {
-    IdDateMapping m = new IdDateMapping(ruleid, now);
-    return registeredTriggers.contains(m);
+  public boolean isTriggered(int ruleid, DateTime now) {
+    loadTriggers();
+    return triggerHistory.isTriggered(ruleid, now);
   }
   
   /**
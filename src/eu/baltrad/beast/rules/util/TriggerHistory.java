@@ -0,0 +1,183 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.util;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.baltrad.bdb.util.Date;
+import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.bdb.util.Time;
+
+/**
+ * Keeps track of which nominal times each rule has been triggered for.
+ * <p>
+ * The history is kept per rule and within each rule the nominal times are
+ * grouped into hourly buckets. Membership is a hash lookup in the bucket and
+ * expiry is done by dropping whole buckets whose nominal time is older than
+ * the retention period counted from the newest nominal time triggered for
+ * the rule. No global lock is used.
+ * @author Anders Henja
+ */
+public class TriggerHistory {
+  /**
+   * Default retention, 24 hours in seconds
+   */
+  public static final long DEFAULT_RETENTION = 24L * 60L * 60L;
+  
+  /**
+   * Size of each bucket in seconds
+   */
+  private static final long BUCKET_SIZE = 60L * 60L;
+  
+  /**
+   * How long (in seconds) the history should be kept
+   */
+  private volatile long retention = DEFAULT_RETENTION;
+  
+  /**
+   * The history for each rule
+   */
+  private final ConcurrentMap<Integer, RuleHistory> rules = new ConcurrentHashMap<Integer, RuleHistory>();
+  
+  /**
+   * The history of one rule
+   */
+  private static class RuleHistory {
+    /**
+     * bucket -> nominal times (seconds since epoch) in that bucket
+     */
+    private final ConcurrentNavigableMap<Long, Set<Long>> buckets = new ConcurrentSkipListMap<Long, Set<Long>>();
+    
+    /**
+     * The newest nominal time triggered
+     */
+    private final AtomicLong newest = new AtomicLong(Long.MIN_VALUE);
+  }
+  
+  /**
+   * @param retention how long the history should be kept in seconds, counted from the newest nominal time of each rule
+   */
+  public void setRetention(long retention) {
+    if (retention <= 0) {
+      throw new IllegalArgumentException("retention must be positive");
+    }
+    this.retention = retention;
+  }
+  
+  /**
+   * @return the retention in seconds
+   */
+  public long getRetention() {
+    return retention;
+  }
+  
+  /**
+   * Marks the rule as triggered for the nominal time
+   * @param ruleid the rule id
+   * @param nominalTime the nominal time
+   */
+  public void trigger(int ruleid, DateTime nominalTime) {
+    long t = toSeconds(nominalTime);
+    RuleHistory history = rules.get(ruleid);
+    if (history == null) {
+      RuleHistory created = new RuleHistory();
+      history = rules.putIfAbsent(ruleid, created);
+      if (history == null) {
+        history = created;
+      }
+    }
+    
+    Long bucket = t / BUCKET_SIZE;
+    Set<Long> times = history.buckets.get(bucket);
+    if (times == null) {
+      Set<Long> created = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+      times = history.buckets.putIfAbsent(bucket, created);
+      if (times == null) {
+        times = created;
+      }
+    }
+    times.add(t);
+    
+    long newest = history.newest.get();
+    while (t > newest && !history.newest.compareAndSet(newest, t)) {
+      newest = history.newest.get();
+    }
+    history.buckets.headMap((history.newest.get() - retention) / BUCKET_SIZE).clear();
+  }
+  
+  /**
+   * Returns if the rule has been triggered for the nominal time
+   * @param ruleid the rule id
+   * @param nominalTime the nominal time
+   * @return true if triggered otherwise false
+   */
+  public boolean isTriggered(int ruleid, DateTime nominalTime) {
+    RuleHistory history = rules.get(ruleid);
+    if (history != null) {
+      long t = toSeconds(nominalTime);
+      Set<Long> times = history.buckets.get(t / BUCKET_SIZE);
+      return times != null && times.contains(t);
+    }
+    return false;
+  }
+  
+  /**
+   * Removes the history for a rule
+   * @param ruleid the rule id
+   */
+  public void remove(int ruleid) {
+    rules.remove(ruleid);
+  }
+  
+  /**
+   * @return the total number of nominal times kept
+   */
+  public int size() {
+    int result = 0;
+    for (RuleHistory history : rules.values()) {
+      for (Set<Long> times : history.buckets.values()) {
+        result += times.size();
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Converts the date time to seconds since epoch, the date time is treated as UTC.
+   * @param dt the date time
+   * @return the number of seconds
+   */
+  protected long toSeconds(DateTime dt) {
+    Calendar c = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    c.clear();
+    Date d = dt.getDate();
+    Time t = dt.getTime();
+    c.set(d.year(), d.month() - 1, d.day(), t.hour(), t.minute(), t.second());
+    return c.getTimeInMillis() / 1000L;
+  }
+}
@@ -19,10 +19,12 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.volume;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.LogManager;
@@ -45,9 +47,11 @@ import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.message.mo.BltDataMessage;
 import eu.baltrad.beast.message.mo.BltGenerateMessage;
 import eu.baltrad.beast.message.mo.BltMultiRoutedMessage;
+import eu.baltrad.beast.rules.IIndexableRule;
 import eu.baltrad.beast.rules.IRule;
 import eu.baltrad.beast.rules.RuleUtils;
-import eu.baltrad.beast.rules.timer.ITimeoutRule;
+import eu.baltrad.beast.rules.timer.IRecoverableTimeoutRule;
+import eu.baltrad.beast.rules.timer.IRecoverableTimerData;
 import eu.baltrad.beast.rules.timer.TimeoutManager;
 import eu.baltrad.beast.rules.timer.TimeoutTask;
 import eu.baltrad.beast.rules.util.IRuleUtilities;
@@ -56,7 +60,7 @@ import eu.baltrad.beast.rules.util.IRuleUtilities;
  * @author Anders Henja
  *
  */
-public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
+public class VolumeRule implements IRule, IRecoverableTimeoutRule, IIndexableRule, InitializingBean {
   /**
    * The name of this static composite type
    */
@@ -173,6 +177,13 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
    */
   private MetadataMatcher matcher;
   
+  /**
+   * Guards the rule state. A lock is used instead of synchronized methods so that virtual
+   * threads waiting for the rule, while another thread queries the catalog, don't pin their
+   * carrier threads.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  
   /**
    * The logger
    */
@@ -269,6 +280,25 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
     this.interval = interval;
   }
   
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedObjectTypes()
+   */
+  @Override
+  public List<String> getIndexedObjectTypes() {
+    return Arrays.asList("SCAN");
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedSources()
+   */
+  @Override
+  public List<String> getIndexedSources() {
+    if (sources.size() == 0) {
+      return null;
+    }
+    return sources;
+  }
+
   /**
    * @see eu.baltrad.beast.rules.IRule#getType()
    */
@@ -378,83 +408,88 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
    * @see eu.baltrad.beast.rules.IRule#handle(eu.baltrad.beast.message.IBltMessage)
    */
   @Override
-  public synchronized IBltMessage handle(IBltMessage message) {
-    IBltMessage result = null;
-    VolumeTimerData data = createTimerData(message);
+  public IBltMessage handle(IBltMessage message) {
+    lock.lock();
+    try {
+      IBltMessage result = null;
+      VolumeTimerData data = createTimerData(message);
     
-    if (data != null && !isHandled(data)) {
-      // if data != null, message is an instance of BltDataMessage - therefore safe to cast
-      FileEntry file = ((BltDataMessage)message).getFileEntry();
-      logger.info("ENTER: execute VolumeRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
-          ", file: " + file.getUuid());
-      List<CatalogEntry> entries = fetchAllCurrentEntries(data.getDateTime(), data.getSource());
-      TimeoutTask tt = timeoutManager.getRegisteredTask(data);
-      
-      boolean adaptiveCriteriasMet = false;
-      if (isAdaptiveElevationAngles() && areAdaptiveElevationAnglesMatching(entries, data.getDateTime(), data.getSource())) {
-        adaptiveCriteriasMet = true;
-      }
-      boolean criteriasMet = areCriteriasMet(entries, data.getDateTime(), data.getSource());
+      if (data != null && !isHandled(data)) {
+        // if data != null, message is an instance of BltDataMessage - therefore safe to cast
+        FileEntry file = ((BltDataMessage)message).getFileEntry();
+        logger.info("ENTER: execute VolumeRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
+            ", file: " + file.getUuid());
+        List<CatalogEntry> entries = fetchAllCurrentEntries(data.getDateTime(), data.getSource());
+        TimeoutTask tt = timeoutManager.getRegisteredTask(data);
       
-      if (adaptiveCriteriasMet || criteriasMet) {
-        List<CatalogEntry> newentries = filterEntries(entries, data.getDateTime().getTime());
-        result = createMessage(data.getDateTime(), newentries);
-        if (tt != null) {
-          timeoutManager.unregister(tt.getId());
+        boolean adaptiveCriteriasMet = false;
+        if (isAdaptiveElevationAngles() && areAdaptiveElevationAnglesMatching(entries, data.getDateTime(), data.getSource())) {
+          adaptiveCriteriasMet = true;
         }
+        boolean criteriasMet = areCriteriasMet(entries, data.getDateTime(), data.getSource());
+      
+        if (adaptiveCriteriasMet || criteriasMet) {
+          List<CatalogEntry> newentries = filterEntries(entries, data.getDateTime().getTime());
+          result = createMessage(data.getDateTime(), newentries);
+          if (tt != null) {
+            timeoutManager.unregister(tt.getId());
+          }
         
-        if (isAdaptiveElevationAngles()) {
-          // We update handled with a the previous periods elevation angles so that we know what to expect next
-          // period. The reason for using previous interval is that it is the only way we can recover from
-          // lost scans since we otherwise always assume that we expect the current number of scans to be the
-          // correct.
-          //
-          // This is not true if timeout occurs though, then it's all entries that exists at timeout
-          // that should be used instead.
-          //
-          // The major flaw with this approach is that if user has specified a too long timeout
-          // the timeout will result in an list of elevation angles that are not possible to complete.
-          //
-          if (!criteriasMet) {
-            DateTime prevDateTime = ruleUtilities.createPrevNominalTime(data.getDateTime(), interval);
-            List<CatalogEntry> prevEntries = fetchAllCurrentEntries(prevDateTime, data.getSource());
-            List<CatalogEntry> filteredPrevEntries = filterEntries(prevEntries, prevDateTime.getTime());
-            if (nominalTimeout) {
-              // If we have nominal timeout we use prevDateTime + timeout on stored times as filter
-              TimeDelta td = new TimeDelta().addSeconds(timeout);
-              DateTime dtLimit = prevDateTime.add(td);
-              filteredPrevEntries = ruleUtilities.removeEntriesWithStorageTimeOlderThan(filteredPrevEntries, dtLimit);
+          if (isAdaptiveElevationAngles()) {
+            // We update handled with a the previous periods elevation angles so that we know what to expect next
+            // period. The reason for using previous interval is that it is the only way we can recover from
+            // lost scans since we otherwise always assume that we expect the current number of scans to be the
+            // correct.
+            //
+            // This is not true if timeout occurs though, then it's all entries that exists at timeout
+            // that should be used instead.
+            //
+            // The major flaw with this approach is that if user has specified a too long timeout
+            // the timeout will result in an list of elevation angles that are not possible to complete.
+            //
+            if (!criteriasMet) {
+              DateTime prevDateTime = ruleUtilities.createPrevNominalTime(data.getDateTime(), interval);
+              List<CatalogEntry> prevEntries = fetchAllCurrentEntries(prevDateTime, data.getSource());
+              List<CatalogEntry> filteredPrevEntries = filterEntries(prevEntries, prevDateTime.getTime());
+              if (nominalTimeout) {
+                // If we have nominal timeout we use prevDateTime + timeout on stored times as filter
+                TimeDelta td = new TimeDelta().addSeconds(timeout);
+                DateTime dtLimit = prevDateTime.add(td);
+                filteredPrevEntries = ruleUtilities.removeEntriesWithStorageTimeOlderThan(filteredPrevEntries, dtLimit);
+              } else {
+                // Otherwise we use first entries storage time + timeout as filter 
+                CatalogEntry firstEntry = ruleUtilities.findFirstStoredEntry(filteredPrevEntries);
+                DateTime dt = ruleUtilities.createStorageDateTime(firstEntry);
+                TimeDelta td = new TimeDelta().addSeconds(timeout);
+                DateTime dtLimit = dt.add(td);
+                filteredPrevEntries = ruleUtilities.removeEntriesWithStorageTimeOlderThan(filteredPrevEntries, dtLimit);
+              }
+              List<Double> newElangles = ruleUtilities.getElanglesFromEntries(filteredPrevEntries);
+              logger.info("Adaptive elevation angles for '" + data.getSource() + "' set to " + toStrFromDoubleList(newElangles));
+              data.setAdaptiveElevationAngles(newElangles);
             } else {
-              // Otherwise we use first entries storage time + timeout as filter 
-              CatalogEntry firstEntry = ruleUtilities.findFirstStoredEntry(filteredPrevEntries);
-              DateTime dt = ruleUtilities.createStorageDateTime(firstEntry);
-              TimeDelta td = new TimeDelta().addSeconds(timeout);
-              DateTime dtLimit = dt.add(td);
-              filteredPrevEntries = ruleUtilities.removeEntriesWithStorageTimeOlderThan(filteredPrevEntries, dtLimit);
+              logger.info("Adaptive elevation angles reset for '" + data.getSource() + "'");
             }
-            List<Double> newElangles = ruleUtilities.getElanglesFromEntries(filteredPrevEntries);
-            logger.info("Adaptive elevation angles for '" + data.getSource() + "' set to " + toStrFromDoubleList(newElangles));
-            data.setAdaptiveElevationAngles(newElangles);
-          } else {
-            logger.info("Adaptive elevation angles reset for '" + data.getSource() + "'");
           }
-        }
-      } else {
-        if (tt == null) {
-          if (timeout > 0) {
-            timeoutManager.register(this, ruleUtilities.getTimeoutTime(data.getDateTime(), nominalTimeout, timeout*1000), data);
+        } else {
+          if (tt == null) {
+            if (timeout > 0) {
+              timeoutManager.register(this, ruleUtilities.getTimeoutTime(data.getDateTime(), nominalTimeout, timeout*1000), data);
+            }
           }
         }
+        logger.info("EXIT: execute VolumeRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
+            ", file: " + file.getUuid());
       }
-      logger.info("EXIT: execute VolumeRule with ruleId: " + getRuleId() + ", thread: " + Thread.currentThread().getName() + 
-          ", file: " + file.getUuid());
-    }
     
-    if (result != null) {
-      setHandled(data);
-    }
+      if (result != null) {
+        setHandled(data);
+      }
     
-    return result;
+      return result;
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -526,27 +561,32 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
    * @see eu.baltrad.beast.rules.timer.ITimeoutRule#timeout(long, int, java.lang.Object)
    */
   @Override
-  public synchronized IBltMessage timeout(long id, int why, Object data) {
-    VolumeTimerData vtd = (VolumeTimerData)data;
-    if (vtd != null) {
-      List<CatalogEntry> entries = fetchAllCurrentEntries(vtd.getDateTime(), vtd.getSource());
-      List<CatalogEntry> newentries = filterEntries(entries, vtd.getDateTime().getTime());
-      IBltMessage msgtosend = createMessage(vtd.getDateTime(), newentries);
-      BltMultiRoutedMessage mrmsg = new BltMultiRoutedMessage();
-      mrmsg.setDestinations(recipients);
-      mrmsg.setMessage(msgtosend);
+  public IBltMessage timeout(long id, int why, Object data) {
+    lock.lock();
+    try {
+      VolumeTimerData vtd = (VolumeTimerData)data;
+      if (vtd != null) {
+        List<CatalogEntry> entries = fetchAllCurrentEntries(vtd.getDateTime(), vtd.getSource());
+        List<CatalogEntry> newentries = filterEntries(entries, vtd.getDateTime().getTime());
+        IBltMessage msgtosend = createMessage(vtd.getDateTime(), newentries);
+        BltMultiRoutedMessage mrmsg = new BltMultiRoutedMessage();
+        mrmsg.setDestinations(recipients);
+        mrmsg.setMessage(msgtosend);
       
-      if (isAdaptiveElevationAngles()) {
-        // When timeout is triggered we assume that the current data is what we want to wait for.
-        List<Double> newElangles = ruleUtilities.getElanglesFromEntries(newentries);        
-        logger.info("Timeout caused Adaptive elevation angles to be set for '" + vtd.getSource() + "' angles are: " + toStrFromDoubleList(newElangles));
-        vtd.setAdaptiveElevationAngles(ruleUtilities.getElanglesFromEntries(newentries));
-      }
+        if (isAdaptiveElevationAngles()) {
+          // When timeout is triggered we assume that the current data is what we want to wait for.
+          List<Double> newElangles = ruleUtilities.getElanglesFromEntries(newentries);        
+          logger.info("Timeout caused Adaptive elevation angles to be set for '" + vtd.getSource() + "' angles are: " + toStrFromDoubleList(newElangles));
+          vtd.setAdaptiveElevationAngles(ruleUtilities.getElanglesFromEntries(newentries));
+        }
       
-      setHandled(vtd);
-      return mrmsg;
+        setHandled(vtd);
+        return mrmsg;
+      }
+      return null;
+    } finally {
+      lock.unlock();
     }
-    return null;
   }
 
   /**
@@ -605,6 +645,26 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
     return false; 
   }
   
+  /**
+   * @see eu.baltrad.beast.rules.timer.IRecoverableTimeoutRule#recoverTimerData(eu.baltrad.bdb.util.DateTime, java.lang.String)
+   */
+  @Override
+  public IRecoverableTimerData recoverTimerData(DateTime nominalTime, String source) {
+    lock.lock();
+    try {
+      if (source == null || (sources.size() > 0 && !sources.contains(source))) {
+        return null;
+      }
+      VolumeTimerData result = new VolumeTimerData(ruleid, nominalTime, source);
+      if (isHandled(result)) {
+        return null;
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
   /**
    * If possible creates a CompositingTimerData.
    * @param message the message (that should be a BltDataMessage)
@@ -744,12 +804,17 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
    * @param data the data to check
    * @return true if it already has been processed
    */
-  synchronized boolean isHandled(VolumeTimerData data) {
-    VolumeTimerData handled = handledData.get(data.getSource());
-    if (handled != null) {
-      return data.equals(handled);
+  boolean isHandled(VolumeTimerData data) {
+    lock.lock();
+    try {
+      VolumeTimerData handled = handledData.get(data.getSource());
+      if (handled != null) {
+        return data.equals(handled);
+      }
+      return false;
+    } finally {
+      lock.unlock();
     }
-    return false;
   }
   
   /**
@@ -757,8 +822,13 @@ public class VolumeRule implements IRule, ITimeoutRule, InitializingBean {
    * previous handled job for the provided source.
    * @param data
    */
-  synchronized void setHandled(VolumeTimerData data) {
-    handledData.put(data.getSource(), data);
+  void setHandled(VolumeTimerData data) {
+    lock.lock();
+    try {
+      handledData.put(data.getSource(), data);
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
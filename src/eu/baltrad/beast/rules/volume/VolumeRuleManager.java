@@ -116,6 +116,9 @@ public class VolumeRuleManager implements IRuleManager {
         "select * from beast_volume_rules where rule_id=?",
         getVolumeRuleMapper(), new Object[] { ruleId });
     rule.setFilter(loadFilter(ruleId));
+    if (timeoutManager != null) {
+      timeoutManager.recover(rule);
+    }
     return rule;
   }
 
@@ -22,12 +22,13 @@ import java.util.ArrayList;
 import java.util.List;
 
 import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.beast.rules.timer.IRecoverableTimerData;
 
 /**
  * @author Anders Henja
  *
  */
-public class VolumeTimerData {
+public class VolumeTimerData implements IRecoverableTimerData {
   /**
    * The date time 
    */
@@ -81,6 +82,17 @@ public class VolumeTimerData {
     return result;
   }
   
+  /**
+   * @return a hash code consistent with {@link #equals(Object)}
+   */
+  @Override
+  public int hashCode() {
+    int result = dt.hashCode();
+    result = 31 * result + ruleid;
+    result = 31 * result + source.hashCode();
+    return result;
+  }
+  
   /**
    * @return the date time
    */
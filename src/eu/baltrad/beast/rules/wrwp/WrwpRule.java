@@ -20,6 +20,7 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.wrwp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
@@ -37,6 +38,7 @@ import eu.baltrad.beast.db.IFilter;
 import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.message.mo.BltDataMessage;
 import eu.baltrad.beast.message.mo.BltGenerateMessage;
+import eu.baltrad.beast.rules.IIndexableRule;
 import eu.baltrad.beast.rules.IRule;
 import eu.baltrad.beast.rules.util.IRuleUtilities;
 
@@ -44,7 +46,7 @@ import eu.baltrad.beast.rules.util.IRuleUtilities;
  * @author Anders Henja
  *
  */
-public class WrwpRule implements IRule, InitializingBean {
+public class WrwpRule implements IRule, IIndexableRule, InitializingBean {
   /**
    * The name of this static wrwp type
    */
@@ -416,6 +418,22 @@ public class WrwpRule implements IRule, InitializingBean {
     return handleFile;
   }
 
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedObjectTypes()
+   */
+  @Override
+  public List<String> getIndexedObjectTypes() {
+    return Arrays.asList("PVOL");
+  }
+
+  /**
+   * @see eu.baltrad.beast.rules.IIndexableRule#getIndexedSources()
+   */
+  @Override
+  public List<String> getIndexedSources() {
+    return sources;
+  }
+
   /**
    * @see eu.baltrad.beast.rules.IRule#getType()
    */
@@ -30,6 +30,12 @@ public class AuthorizationManager implements IAuthorizationManager {
    */
   private JdbcOperations template = null;
 
+  /**
+   * The security manager whose cached authorizations are invalidated when an authorization
+   * is changed, set by the security manager. Null if there is none.
+   */
+  private SecurityManager securityManager = null;
+
   /**
    * The logger
    */
@@ -43,6 +49,13 @@ public class AuthorizationManager implements IAuthorizationManager {
     this.template = template;
   }
 
+  /**
+   * @param securityManager the security manager whose cached authorizations should be invalidated on changes
+   */
+  public void setSecurityManager(SecurityManager securityManager) {
+    this.securityManager = securityManager;
+  }
+
   /**
    * @see IAuthorizationManager#add(Authorization)
    */
@@ -96,6 +109,8 @@ public class AuthorizationManager implements IAuthorizationManager {
     if (result != 1) {
       throw new DataIntegrityViolationException("Could not update authorization request="+auth.getConnectionUUID());
     }
+    // the node name might have been changed as well so everything is invalidated
+    invalidateAfterCommit(null);
   }
 
   /**
@@ -106,6 +121,7 @@ public class AuthorizationManager implements IAuthorizationManager {
     int result = template.update(
         "DELETE from beast_authorization WHERE connectionuuid=?", new Object[] {uuid});
     logger.info("delete = " + result);
+    invalidateAfterCommit(null);
   }
   
   /**
@@ -135,6 +151,7 @@ public class AuthorizationManager implements IAuthorizationManager {
     if (result != 1) {
       throw new DataIntegrityViolationException("Could not update authorization request="+auth.getNodeName());
     }
+    invalidateAfterCommit(auth.getNodeName());
   }
   
   /**
@@ -187,6 +204,17 @@ public class AuthorizationManager implements IAuthorizationManager {
         getMapper());
   }
   
+  /**
+   * Invalidates the security managers cached information after the current transaction has been committed
+   * @param nodeName the node name, null for all nodes
+   */
+  protected void invalidateAfterCommit(String nodeName) {
+    SecurityManager sm = securityManager;
+    if (sm != null) {
+      sm.invalidateAfterCommit(nodeName);
+    }
+  }
+
   /**
    * @return the Authorization mapper
    */
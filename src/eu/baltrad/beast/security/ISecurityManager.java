@@ -88,4 +88,11 @@ public interface ISecurityManager {
    * @return the signature message
    */
   public String createSignatureMessage(HttpUriRequest request);
+  
+  /**
+   * Forgets any cached authorization, signer and verifier for the node. Should be called
+   * whenever the authorization or the keys of a node has been changed.
+   * @param nodeName the node name
+   */
+  public void invalidate(String nodeName);
 }
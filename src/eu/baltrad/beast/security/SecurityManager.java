@@ -13,8 +13,10 @@ import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -33,6 +35,8 @@ import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import eu.baltrad.beast.admin.Command;
 import eu.baltrad.beast.security.crypto.CryptoFactory;
@@ -43,6 +47,52 @@ import eu.baltrad.beast.security.keyczar.KeyCompressor;
 import eu.baltrad.beast.security.mail.IAdminMailer;
 
 public class SecurityManager implements ISecurityManager {
+  /**
+   * Bounded cache of values keyed by node name. Entries expire after a while so that
+   * changes made to the authorizations by other means eventually are picked up.
+   */
+  private class NodeCache<V> {
+    private class Entry {
+      final V value;
+      final long created;
+      Entry(V value, long created) {
+        this.value = value;
+        this.created = created;
+      }
+    }
+    
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    
+    synchronized V get(String nodeName) {
+      Entry e = entries.get(nodeName);
+      if (e != null && currentTimeMillis() - e.created > cacheTimeout) {
+        entries.remove(nodeName);
+        e = null;
+      }
+      return e != null ? e.value : null;
+    }
+    
+    synchronized void put(String nodeName, V value, long generation) {
+      if (generation == cacheGeneration.get()) {
+        entries.put(nodeName, new Entry(value, currentTimeMillis()));
+      }
+    }
+    
+    synchronized void remove(String nodeName) {
+      entries.remove(nodeName);
+    }
+    
+    synchronized void clear() {
+      entries.clear();
+    }
+  }
+  
   /**
    * The authorization manager
    */
@@ -73,6 +123,42 @@ public class SecurityManager implements ISecurityManager {
    */
   private Object localNodeNameLock = new Object();
   
+  /**
+   * Max number of nodes to cache authorizations, signers and verifiers for
+   */
+  private int cacheSize = 100;
+  
+  /**
+   * Time in ms a cached entry is used before it is looked up again
+   */
+  private long cacheTimeout = 60000;
+  
+  /**
+   * Incremented on each invalidation so that a lookup that was started before the
+   * invalidation doesn't put stale values in the caches
+   */
+  private final AtomicLong cacheGeneration = new AtomicLong();
+  
+  /**
+   * If set, validations are done by the pipeline
+   */
+  private VerificationPipeline verificationPipeline = null;
+  
+  /**
+   * Cached authorizations
+   */
+  private final NodeCache<Authorization> authorizations = new NodeCache<Authorization>();
+  
+  /**
+   * Cached signers
+   */
+  private final NodeCache<Signer> signers = new NodeCache<Signer>();
+  
+  /**
+   * Cached verifiers
+   */
+  private final NodeCache<Verifier> verifiers = new NodeCache<Verifier>();
+  
   /**
    * The logger
    */
@@ -90,6 +176,9 @@ public class SecurityManager implements ISecurityManager {
   @Autowired
   public void setAuthorizationManager(IAuthorizationManager authorizationManager) {
     this.authorizationManager = authorizationManager;
+    if (authorizationManager instanceof AuthorizationManager) {
+      ((AuthorizationManager)authorizationManager).setSecurityManager(this);
+    }
   }
 
   /**
@@ -98,6 +187,7 @@ public class SecurityManager implements ISecurityManager {
   @Autowired
   public void setCryptoFactory(CryptoFactory factory) {
     this.cryptoFactory = factory;
+    invalidateAll();
   }
   
   /**
@@ -106,6 +196,7 @@ public class SecurityManager implements ISecurityManager {
   public void setKeyczarKeyPath(String path) {
     this.keyczarKeyPath = path;
     this.cryptoFactory = new KeyczarCryptoFactory(new File(path));
+    invalidateAll();
   }
   
   /**
@@ -129,6 +220,8 @@ public class SecurityManager implements ISecurityManager {
       new KeyCompressor().unzip(keypath, keyContent);
     } catch (IOException e) {
       throw new SecurityStorageException(e);
+    } finally {
+      invalidate(authorization.getNodeName());
     }
     return authorization.getNodeName() + ".pub";
   }
@@ -149,6 +242,8 @@ public class SecurityManager implements ISecurityManager {
         new KeyCompressor().unzip(keypath, keyContent);
       } catch (IOException e) {
         throw new SecurityStorageException(e);
+      } finally {
+        invalidate(authorization.getNodeName());
       }
       result = authorization.getNodeName() + ".priv"; 
     }
@@ -160,11 +255,17 @@ public class SecurityManager implements ISecurityManager {
    */
   @Override
   public Signer getSigner(String nodeName) {
-    try {
-      return cryptoFactory.createSigner(nodeName);
-    } catch (Exception e) {
-      throw new SecurityStorageException(e);
+    Signer result = signers.get(nodeName);
+    if (result == null) {
+      long generation = cacheGeneration.get();
+      try {
+        result = cryptoFactory.createSigner(nodeName);
+      } catch (Exception e) {
+        throw new SecurityStorageException(e);
+      }
+      signers.put(nodeName, result, generation);
     }
+    return result;
   }
 
   /**
@@ -172,15 +273,86 @@ public class SecurityManager implements ISecurityManager {
    */
   @Override
   public Verifier getVerifier(String nodeName) {
-    Authorization key = authorizationManager.getByNodeName(nodeName);
-    logger.info("getVerifier for node=" + nodeName + ", key=" + key);
+    long generation = cacheGeneration.get();
+    Authorization key = getAuthorization(nodeName);
     if (key == null || key.isAuthorized() == false) {
+      logger.info("getVerifier for node=" + nodeName + ", key=" + key);
       throw new SecurityStorageException("Not authorized");
     }
-    try {
-      return cryptoFactory.createVerifier(key.getNodeName());
-    } catch (Exception e) {
-      throw new SecurityStorageException(e);
+    Verifier result = verifiers.get(nodeName);
+    if (result == null) {
+      try {
+        result = cryptoFactory.createVerifier(key.getNodeName());
+      } catch (Exception e) {
+        throw new SecurityStorageException(e);
+      }
+      verifiers.put(nodeName, result, generation);
+    }
+    return result;
+  }
+  
+  /**
+   * Returns the authorization for the node, cached
+   * @param nodeName the node name
+   * @return the authorization or null if there is none
+   */
+  protected Authorization getAuthorization(String nodeName) {
+    Authorization result = authorizations.get(nodeName);
+    if (result == null) {
+      long generation = cacheGeneration.get();
+      result = authorizationManager.getByNodeName(nodeName);
+      if (result != null) {
+        authorizations.put(nodeName, result, generation);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * @see ISecurityManager#invalidate(String)
+   */
+  @Override
+  public void invalidate(String nodeName) {
+    cacheGeneration.incrementAndGet();
+    authorizations.remove(nodeName);
+    signers.remove(nodeName);
+    verifiers.remove(nodeName);
+  }
+  
+  /**
+   * Forgets all cached authorizations, signers and verifiers
+   */
+  public void invalidateAll() {
+    cacheGeneration.incrementAndGet();
+    authorizations.clear();
+    signers.clear();
+    verifiers.clear();
+  }
+  
+  /**
+   * Forgets the cached information about a node when the current transaction has been committed
+   * so that no concurrent reader can cache the old state again. If there is no active transaction
+   * the information is forgotten immediately.
+   * @param nodeName the node name, null to forget everything
+   */
+  public void invalidateAfterCommit(final String nodeName) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          invalidateNow(nodeName);
+        }
+      });
+    } else {
+      invalidateNow(nodeName);
+    }
+  }
+  
+  private void invalidateNow(String nodeName) {
+    if (nodeName != null) {
+      invalidate(nodeName);
+    } else {
+      invalidateAll();
     }
   }
   
@@ -189,6 +361,9 @@ public class SecurityManager implements ISecurityManager {
    */
   @Override
   public boolean validate(String nodeName, String signature, String message) {
+    if (verificationPipeline != null) {
+      return verificationPipeline.validate(nodeName, signature, message);
+    }
     try {
       return getVerifier(nodeName).verify(message, signature);
     } catch (KeyczarException e) {
@@ -198,6 +373,9 @@ public class SecurityManager implements ISecurityManager {
 
   @Override
   public boolean validate(String nodeName, String messageDate, String signature, Command command) {
+    if (verificationPipeline != null) {
+      return verificationPipeline.validate(nodeName, messageDate, signature, command);
+    }
     try {
       return getVerifier(nodeName).verify(messageDate + ":" + command.getRawMessage(), signature);
     } catch (KeyczarException e) {
@@ -248,6 +426,7 @@ public class SecurityManager implements ISecurityManager {
       authorizationManager.updateByNodeName(auth);
     }
     setLocalNodeName(auth.getNodeName());
+    invalidateAfterCommit(null);
   }
 
   /**
@@ -284,7 +463,7 @@ public class SecurityManager implements ISecurityManager {
   @Override
   public boolean isInjector(String nodeName) {
     try {
-      Authorization auth = authorizationManager.getByNodeName(nodeName);
+      Authorization auth = getAuthorization(nodeName);
       if (auth != null) {
         return auth.isAuthorized() && auth.isInjector();
       }
@@ -294,6 +473,61 @@ public class SecurityManager implements ISecurityManager {
     return false;
   }
 
+  /**
+   * Lets the pipeline do the validations so that the outcome of retransmitted messages are
+   * cached. The pipeline will get its verifiers from this security manager.
+   * @param verificationPipeline the pipeline, null to verify each message directly
+   */
+  @Autowired(required=false)
+  public void setVerificationPipeline(VerificationPipeline verificationPipeline) {
+    this.verificationPipeline = verificationPipeline;
+    if (verificationPipeline != null) {
+      verificationPipeline.setSecurityManager(this);
+    }
+  }
+
+  /**
+   * @return the verification pipeline, null if not used
+   */
+  public VerificationPipeline getVerificationPipeline() {
+    return verificationPipeline;
+  }
+
+  /**
+   * @param cacheSize max number of nodes to cache authorizations, signers and verifiers for
+   */
+  public void setCacheSize(int cacheSize) {
+    this.cacheSize = cacheSize;
+  }
+
+  /**
+   * @return max number of nodes to cache authorizations, signers and verifiers for
+   */
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * @param cacheTimeout time in ms a cached entry is used before it is looked up again
+   */
+  public void setCacheTimeout(long cacheTimeout) {
+    this.cacheTimeout = cacheTimeout;
+  }
+
+  /**
+   * @return time in ms a cached entry is used before it is looked up again
+   */
+  public long getCacheTimeout() {
+    return cacheTimeout;
+  }
+
+  /**
+   * @return current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
   /**
    * Creates specific message to be used for signing
    * @see ISecurityManager#createSignatureMessage(HttpUriRequest)
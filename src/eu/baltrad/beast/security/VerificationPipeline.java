@@ -0,0 +1,481 @@
+/**
+ *
+ */
+package eu.baltrad.beast.security;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.keyczar.exceptions.KeyczarException;
+import org.springframework.beans.factory.DisposableBean;
+
+import eu.baltrad.beast.admin.Command;
+import eu.baltrad.beast.security.crypto.Verifier;
+
+/**
+ * Verification of the signatures of inbound messages. Signatures can be verified in parallel
+ * on a dedicated pool by using {@link #validateAsync(String, String, String)} or
+ * {@link #validateAll(List)}.
+ *
+ * The outcome of each verification is kept for a short while keyed on node name, message hash
+ * and signature so that retransmissions of the same message isn't verified twice. A cached
+ * outcome is only used as long as the security manager returns the same verifier for the node,
+ * which means that when the authorization or key of a node is changed (or denied) the cached
+ * outcomes for that node are ignored. Expired outcomes are purged periodically by a daemon thread
+ * that is started when the first outcome is cached.
+ *
+ * The pipeline is used by the {@link SecurityManager} when it has been set with
+ * {@link SecurityManager#setVerificationPipeline(VerificationPipeline)}, which also provides the
+ * pipeline with the security manager. When annotation based wiring is used it is enough to
+ * define the pipeline as a bean.
+ *
+ * The time spent verifying is kept in a histogram.
+ * @author anders
+ */
+public class VerificationPipeline implements DisposableBean {
+  /**
+   * A message to be verified
+   */
+  public static class SignedMessage {
+    private final String nodeName;
+    private final String signature;
+    private final String message;
+
+    /**
+     * Constructor
+     * @param nodeName the node that signed the message
+     * @param signature the signature
+     * @param message the message
+     */
+    public SignedMessage(String nodeName, String signature, String message) {
+      this.nodeName = nodeName;
+      this.signature = signature;
+      this.message = message;
+    }
+
+    /**
+     * @return the node that signed the message
+     */
+    public String getNodeName() {
+      return nodeName;
+    }
+
+    /**
+     * @return the signature
+     */
+    public String getSignature() {
+      return signature;
+    }
+
+    /**
+     * @return the message
+     */
+    public String getMessage() {
+      return message;
+    }
+  }
+
+  /**
+   * Histogram of verification times
+   */
+  public static class Histogram {
+    /**
+     * Upper bounds of the buckets in microseconds, the last bucket is unbounded
+     */
+    private static final long[] BOUNDS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+
+    private final long[] counts = new long[BOUNDS.length + 1];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    synchronized void add(long micros) {
+      int i = 0;
+      while (i < BOUNDS.length && micros > BOUNDS[i]) {
+        i++;
+      }
+      counts[i]++;
+      count++;
+      total += micros;
+      max = Math.max(max, micros);
+    }
+
+    /**
+     * @return upper bounds of the buckets in microseconds, the last bucket counted by
+     * {@link #getCounts()} has no upper bound
+     */
+    public long[] getBounds() {
+      return BOUNDS.clone();
+    }
+
+    /**
+     * @return number of verifications in each bucket
+     */
+    public synchronized long[] getCounts() {
+      return counts.clone();
+    }
+
+    /**
+     * @return total number of verifications
+     */
+    public synchronized long getCount() {
+      return count;
+    }
+
+    /**
+     * @return the average verification time in microseconds
+     */
+    public synchronized long getMean() {
+      return count > 0 ? total / count : 0;
+    }
+
+    /**
+     * @return the longest verification time in microseconds
+     */
+    public synchronized long getMax() {
+      return max;
+    }
+  }
+
+  /**
+   * A cached outcome
+   */
+  private static class Entry {
+    final Verifier verifier;
+    final boolean valid;
+    final long created;
+
+    Entry(Verifier verifier, boolean valid, long created) {
+      this.verifier = verifier;
+      this.valid = valid;
+      this.created = created;
+    }
+  }
+
+  /**
+   * The security manager providing the verifiers
+   */
+  private ISecurityManager securityManager = null;
+
+  /**
+   * Number of threads verifying signatures
+   */
+  private int poolSize = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The pool, created on first use
+   */
+  private ExecutorService executor = null;
+
+  /**
+   * Purges expired outcomes periodically, created when the first outcome is cached
+   */
+  private volatile ScheduledExecutorService purger = null;
+
+  /**
+   * Max number of cached outcomes
+   */
+  private int cacheSize = 10000;
+
+  /**
+   * Time in ms an outcome is cached
+   */
+  private long cacheTimeout = 30000;
+
+  /**
+   * The cached outcomes, least recently used first
+   */
+  private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > cacheSize;
+    }
+  };
+
+  /**
+   * Number of outcomes found in cache
+   */
+  private final AtomicLong cacheHits = new AtomicLong();
+
+  /**
+   * The verification times
+   */
+  private final Histogram histogram = new Histogram();
+
+  /**
+   * The logger
+   */
+  private static Logger logger = LogManager.getLogger(VerificationPipeline.class);
+
+  /**
+   * @param securityManager the security manager providing the verifiers
+   */
+  public void setSecurityManager(ISecurityManager securityManager) {
+    this.securityManager = securityManager;
+  }
+
+  /**
+   * Validates the message
+   * @param nodeName the node name
+   * @param signature the signature
+   * @param message the message
+   * @return if the message is signed properly
+   * @throws SecurityStorageException if the node isn't authorized
+   * @see ISecurityManager#validate(String, String, String)
+   */
+  public boolean validate(String nodeName, String signature, String message) {
+    Verifier verifier = securityManager.getVerifier(nodeName);
+    String key = nodeName + "\n" + DigestUtils.sha256Hex(message) + "\n" + signature;
+    synchronized (cache) {
+      Entry e = cache.get(key);
+      if (e != null && e.verifier == verifier && currentTimeMillis() - e.created <= cacheTimeout) {
+        cacheHits.incrementAndGet();
+        return e.valid;
+      }
+    }
+
+    boolean result = false;
+    long start = System.nanoTime();
+    try {
+      result = verifier.verify(message, signature);
+    } catch (KeyczarException e) {
+      result = false;
+    }
+    histogram.add((System.nanoTime() - start) / 1000);
+
+    synchronized (cache) {
+      cache.put(key, new Entry(verifier, result, currentTimeMillis()));
+    }
+    if (purger == null) {
+      startPurger();
+    }
+    return result;
+  }
+
+  /**
+   * Validates a command
+   * @param nodeName the node name
+   * @param messageDate the date when sending message
+   * @param signature the signature in the message
+   * @param command the command to be verified
+   * @return if command should be accepted or not
+   * @see ISecurityManager#validate(String, String, String, Command)
+   */
+  public boolean validate(String nodeName, String messageDate, String signature, Command command) {
+    return validate(nodeName, signature, messageDate + ":" + command.getRawMessage());
+  }
+
+  /**
+   * Validates the message on the verification pool
+   * @param nodeName the node name
+   * @param signature the signature
+   * @param message the message
+   * @return the outcome, the future will throw an ExecutionException if the node isn't authorized
+   */
+  public Future<Boolean> validateAsync(final String nodeName, final String signature, final String message) {
+    return getExecutor().submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return validate(nodeName, signature, message);
+      }
+    });
+  }
+
+  /**
+   * Validates a command on the verification pool
+   * @param nodeName the node name
+   * @param messageDate the date when sending message
+   * @param signature the signature in the message
+   * @param command the command to be verified
+   * @return the outcome
+   */
+  public Future<Boolean> validateAsync(String nodeName, String messageDate, String signature, Command command) {
+    return validateAsync(nodeName, signature, messageDate + ":" + command.getRawMessage());
+  }
+
+  /**
+   * Validates a batch of messages in parallel and waits for all of them
+   * @param messages the messages
+   * @return the outcome of each message in the same order, a message from a node
+   * that isn't authorized is not valid
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public List<Boolean> validateAll(List<SignedMessage> messages) throws InterruptedException {
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (SignedMessage m : messages) {
+      futures.add(validateAsync(m.getNodeName(), m.getSignature(), m.getMessage()));
+    }
+    List<Boolean> result = new ArrayList<Boolean>();
+    for (Future<Boolean> f : futures) {
+      try {
+        result.add(f.get());
+      } catch (ExecutionException e) {
+        logger.info("Failed to validate message: " + e.getCause().getMessage());
+        result.add(Boolean.FALSE);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes all cached outcomes that have expired
+   */
+  public void purge() {
+    long now = currentTimeMillis();
+    synchronized (cache) {
+      Iterator<Entry> it = cache.values().iterator();
+      while (it.hasNext()) {
+        if (now - it.next().created > cacheTimeout) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts the periodic purging of expired outcomes unless it already has been started
+   */
+  protected synchronized void startPurger() {
+    if (purger == null) {
+      long interval = Math.max(cacheTimeout, 1000);
+      ScheduledExecutorService p = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "beast-verifier-purge");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      p.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          purge();
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+      purger = p;
+    }
+  }
+
+  /**
+   * @return if expired outcomes are purged periodically
+   */
+  public boolean isPurging() {
+    return purger != null;
+  }
+
+  /**
+   * @return the pool, created on first use
+   */
+  protected synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "beast-verifier");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * @see org.springframework.beans.factory.DisposableBean#destroy()
+   */
+  @Override
+  public synchronized void destroy() throws Exception {
+    if (purger != null) {
+      purger.shutdownNow();
+      purger = null;
+    }
+    if (executor != null) {
+      executor.shutdown();
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        executor.shutdownNow();
+      }
+      executor = null;
+    }
+  }
+
+  /**
+   * @return the verification times
+   */
+  public Histogram getHistogram() {
+    return histogram;
+  }
+
+  /**
+   * @return number of outcomes found in cache
+   */
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  /**
+   * @param poolSize number of threads verifying signatures
+   */
+  public void setPoolSize(int poolSize) {
+    this.poolSize = poolSize;
+  }
+
+  /**
+   * @return number of threads verifying signatures
+   */
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * @param cacheSize max number of cached outcomes
+   */
+  public void setCacheSize(int cacheSize) {
+    synchronized (cache) {
+      this.cacheSize = cacheSize;
+    }
+  }
+
+  /**
+   * @return max number of cached outcomes
+   */
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * @param cacheTimeout time in ms an outcome is cached
+   */
+  public void setCacheTimeout(long cacheTimeout) {
+    this.cacheTimeout = cacheTimeout;
+  }
+
+  /**
+   * @return time in ms an outcome is cached
+   */
+  public long getCacheTimeout() {
+    return cacheTimeout;
+  }
+
+  /**
+   * @return current time in ms
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+}
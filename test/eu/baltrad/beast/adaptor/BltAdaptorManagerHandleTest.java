@@ -25,7 +25,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.After;
@@ -33,7 +36,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcPoolAdaptor;
 import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltGenerateMessage;
 import eu.baltrad.beast.router.IMultiRoutedMessage;
 import eu.baltrad.beast.router.IRoutedMessage;
 
@@ -82,6 +87,141 @@ public class BltAdaptorManagerHandleTest extends EasyMockSupport {
     verifyAll();
   }
 
+  @Test
+  public void testHandle_MultiRouted_withDispatchExecutor() throws Exception {
+    IMultiRoutedMessage message = createMock(IMultiRoutedMessage.class);
+    ExecutorService executor = createMock(ExecutorService.class);
+    List<String> destinations = new ArrayList<String>();
+    destinations.add("A1");
+    destinations.add("A2");
+    IBltMessage msg = new IBltMessage() {};
+    Capture<Runnable> r1 = EasyMock.newCapture();
+    Capture<Runnable> r2 = EasyMock.newCapture();
+    
+    // Mock setup
+    expect(message.getDestinations()).andReturn(destinations);
+    expect(message.getMessage()).andReturn(msg);
+    executor.execute(EasyMock.capture(r1));
+    executor.execute(EasyMock.capture(r2));
+    EasyMock.expectLastCall().andThrow(new RejectedExecutionException());
+    adaptor2.handle(msg);
+
+    replayAll();
+    
+    classUnderTest.setDispatchExecutor(executor);
+    classUnderTest.handle(message);
+    
+    verifyAll();
+    
+    resetAll();
+    adaptor1.handle(msg);
+    replayAll();
+    
+    r1.getValue().run();
+    
+    verifyAll();
+  }
+
+  @Test
+  public void testHandle_MultiRouted_duplicate() throws Exception {
+    IMultiRoutedMessage message = createMock(IMultiRoutedMessage.class);
+    List<String> destinations = new ArrayList<String>();
+    destinations.add("A1");
+    destinations.add("A2");
+    BltGenerateMessage msg = new BltGenerateMessage();
+    msg.setAlgorithm("eu.baltrad.beast.GenerateComposite");
+    msg.setFiles(new String[]{"a.h5", "b.h5"});
+    
+    // Mock setup
+    expect(message.getDestinations()).andReturn(destinations).times(2);
+    expect(message.getMessage()).andReturn(msg).times(2);
+    adaptor1.handle(msg);
+    adaptor2.handle(msg);
+    
+    replayAll();
+    
+    GenerateRequestDeduplicator deduplicator = new GenerateRequestDeduplicator();
+    deduplicator.setWindow(60000);
+    classUnderTest.setDeduplicator(deduplicator);
+    classUnderTest.handle(message);
+    classUnderTest.handle(message);
+    
+    verifyAll();
+    assertEquals(2, classUnderTest.getDeduplicator().getDropped());
+  }
+  
+  @Test
+  public void testHandle_MultiRouted_failedIsNotDuplicate() throws Exception {
+    IMultiRoutedMessage message = createMock(IMultiRoutedMessage.class);
+    List<String> destinations = new ArrayList<String>();
+    destinations.add("A1");
+    BltGenerateMessage msg = new BltGenerateMessage();
+    msg.setAlgorithm("eu.baltrad.beast.GenerateComposite");
+    msg.setFiles(new String[]{"a.h5", "b.h5"});
+    
+    // Mock setup
+    expect(message.getDestinations()).andReturn(destinations).times(2);
+    expect(message.getMessage()).andReturn(msg).times(2);
+    adaptor1.handle(msg);
+    EasyMock.expectLastCall().andThrow(new AdaptorException("failed"));
+    adaptor1.handle(msg);
+    
+    replayAll();
+    
+    GenerateRequestDeduplicator deduplicator = new GenerateRequestDeduplicator();
+    deduplicator.setWindow(60000);
+    classUnderTest.setDeduplicator(deduplicator);
+    classUnderTest.handle(message);
+    classUnderTest.handle(message);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getDeduplicator().getDropped());
+  }
+  
+  @Test
+  public void testHandle_MultiRouted_timedOutIsNotDuplicate() throws Exception {
+    IMultiRoutedMessage message = createMock(IMultiRoutedMessage.class);
+    IAdaptor endpoint = createMock(IAdaptor.class);
+    IAdaptorCallback defaultCallback = createMock(IAdaptorCallback.class);
+    List<String> destinations = new ArrayList<String>();
+    destinations.add("P1");
+    BltGenerateMessage msg = new BltGenerateMessage();
+    msg.setAlgorithm("eu.baltrad.beast.GenerateComposite");
+    msg.setFiles(new String[]{"a.h5", "b.h5"});
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    
+    XmlRpcPoolAdaptor pool = new XmlRpcPoolAdaptor();
+    pool.setName("P1");
+    pool.setMaxRetries(0);
+    pool.setCallback(defaultCallback);
+    List<IAdaptor> endpoints = new ArrayList<IAdaptor>();
+    endpoints.add(endpoint);
+    pool.setAdaptors(endpoints);
+    Map<String, IAdaptor> adaptors = new HashMap<String, IAdaptor>();
+    adaptors.put("P1", pool);
+    classUnderTest.setAdaptors(adaptors);
+    
+    // Mock setup
+    expect(message.getDestinations()).andReturn(destinations).times(2);
+    expect(message.getMessage()).andReturn(msg).times(2);
+    endpoint.handle(EasyMock.same(msg), EasyMock.capture(cb1));
+    defaultCallback.timeout(msg);
+    endpoint.handle(EasyMock.same(msg), EasyMock.capture(cb2));
+    
+    replayAll();
+    
+    GenerateRequestDeduplicator deduplicator = new GenerateRequestDeduplicator();
+    deduplicator.setWindow(60000);
+    classUnderTest.setDeduplicator(deduplicator);
+    classUnderTest.handle(message);
+    cb1.getValue().timeout(msg);
+    classUnderTest.handle(message);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getDeduplicator().getDropped());
+  }
+  
   @Test
   public void testHandle_MultiRouted_nullMessage() {
     IMultiRoutedMessage message = createMock(IMultiRoutedMessage.class);
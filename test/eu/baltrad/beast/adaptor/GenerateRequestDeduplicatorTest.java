@@ -0,0 +1,149 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltGenerateMessage;
+
+/**
+ * @author Anders Henja
+ */
+public class GenerateRequestDeduplicatorTest {
+  private GenerateRequestDeduplicator classUnderTest = null;
+  private long now = 0;
+  
+  @Before
+  public void setUp() throws Exception {
+    now = 0;
+    classUnderTest = new GenerateRequestDeduplicator() {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+    classUnderTest.setWindow(1000);
+  }
+  
+  private BltGenerateMessage createMessage(String algorithm, String[] files, String[] arguments) {
+    BltGenerateMessage result = new BltGenerateMessage();
+    result.setAlgorithm(algorithm);
+    result.setFiles(files);
+    result.setArguments(arguments);
+    return result;
+  }
+  
+  @Test
+  public void testAccept_duplicate() {
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1", "f2"}, new String[]{"--x=1"});
+    BltGenerateMessage m2 = createMessage("a.b", new String[]{"f2", "f1"}, new String[]{"--x=1"});
+    
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertFalse(classUnderTest.accept(m2, "A1"));
+    assertFalse(classUnderTest.accept(m1, "A1"));
+    
+    assertEquals(1, classUnderTest.getStatistics("a.b").getForwarded());
+    assertEquals(2, classUnderTest.getStatistics("a.b").getDropped());
+    assertEquals(2, classUnderTest.getDropped());
+    assertEquals(4, classUnderTest.getDroppedFiles());
+  }
+  
+  @Test
+  public void testAccept_different() {
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1", "f2"}, new String[]{"--x=1"});
+    
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertTrue(classUnderTest.accept(m1, "A2"));
+    assertTrue(classUnderTest.accept(createMessage("a.c", new String[]{"f1", "f2"}, new String[]{"--x=1"}), "A1"));
+    assertTrue(classUnderTest.accept(createMessage("a.b", new String[]{"f1"}, new String[]{"--x=1"}), "A1"));
+    assertTrue(classUnderTest.accept(createMessage("a.b", new String[]{"f1", "f2"}, new String[]{"--x=2"}), "A1"));
+    assertEquals(0, classUnderTest.getDropped());
+  }
+  
+  @Test
+  public void testAccept_windowExpired() {
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1"}, new String[]{});
+    
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    now = 999;
+    assertFalse(classUnderTest.accept(m1, "A1"));
+    now = 1000;
+    assertEquals(0, classUnderTest.size());
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertEquals(1, classUnderTest.size());
+  }
+  
+  @Test
+  public void testAccept_maxSize() {
+    classUnderTest.setMaxSize(2);
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1"}, new String[]{});
+    
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertTrue(classUnderTest.accept(m1, "A2"));
+    assertTrue(classUnderTest.accept(m1, "A3"));
+    assertEquals(2, classUnderTest.size());
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertFalse(classUnderTest.accept(m1, "A3"));
+  }
+  
+  @Test
+  public void testAccept_notGenerateMessage() {
+    IBltMessage msg = new IBltMessage() {};
+    
+    assertTrue(classUnderTest.accept(msg, "A1"));
+    assertTrue(classUnderTest.accept(msg, "A1"));
+  }
+  
+  @Test
+  public void testAccept_disabled() {
+    classUnderTest.setWindow(0);
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1"}, new String[]{});
+    
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertTrue(classUnderTest.accept(m1, "A1"));
+  }
+  
+  @Test
+  public void testAccept_disabledByDefault() {
+    GenerateRequestDeduplicator classUnderTest = new GenerateRequestDeduplicator();
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1"}, new String[]{});
+    
+    assertEquals(0, classUnderTest.getWindow());
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertTrue(classUnderTest.accept(m1, "A1"));
+  }
+  
+  @Test
+  public void testForget() {
+    BltGenerateMessage m1 = createMessage("a.b", new String[]{"f1", "f2"}, new String[]{"--x=1"});
+    BltGenerateMessage m2 = createMessage("a.b", new String[]{"f2", "f1"}, new String[]{"--x=1"});
+    
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    classUnderTest.forget(m2, "A1");
+    assertEquals(0, classUnderTest.size());
+    assertTrue(classUnderTest.accept(m1, "A1"));
+    assertFalse(classUnderTest.accept(m1, "A1"));
+  }
+}
@@ -22,11 +22,17 @@ import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.AsyncCallback;
 import org.apache.xmlrpc.client.TimingOutCallback;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
@@ -49,6 +55,24 @@ public class XmlRpcAdaptorTest extends EasyMockSupport {
     public void handle(IBltMessage message, IAdaptorCallback callback);
   };
   
+  /**
+   * Client that keeps the callbacks of the asynchronous requests without sending anything
+   */
+  private static class AsyncClient extends XmlRpcClient {
+    final List<String> methods = new ArrayList<String>();
+    final List<AsyncCallback> callbacks = new ArrayList<AsyncCallback>();
+    XmlRpcException exception = null;
+    
+    @Override
+    public synchronized void executeAsync(String method, Object[] params, AsyncCallback callback) throws XmlRpcException {
+      if (exception != null) {
+        throw exception;
+      }
+      methods.add(method);
+      callbacks.add(callback);
+    }
+  }
+  
   private IXmlRpcCommandGenerator generator = null;
   private XmlRpcClient rpcClient = null;
   private TimingOutCallback timeoutCB = null;
@@ -295,6 +319,232 @@ public class XmlRpcAdaptorTest extends EasyMockSupport {
     verifyAll();
   }  
   
+  private XmlRpcAdaptor createAsyncAdaptor(AsyncClient client) {
+    XmlRpcAdaptor result = new XmlRpcAdaptor();
+    result.setGenerator(generator);
+    result.setRpcClient(client);
+    result.setAsynchronous(true);
+    return result;
+  }
+  
+  private XmlRpcCommand createCommand(String method) {
+    XmlRpcCommand result = new XmlRpcCommand();
+    result.setMethod(method);
+    result.setObjects(new Object[]{});
+    return result;
+  }
+  
+  @Test
+  public void testHandleAsync_success() throws Exception {
+    AsyncClient client = new AsyncClient();
+    IBltMessage message = new IBltMessage(){};
+    IAdaptorCallback callback = createMock(IAdaptorCallback.class);
+    Integer cbReturnCode = new Integer(0);
+    
+    expect(generator.generate(message)).andReturn(createCommand("command"));
+    callback.success(message, cbReturnCode);
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.handle(message, callback);
+    assertEquals(1, classUnderTest.getOutstanding());
+    client.callbacks.get(0).handleResult(null, cbReturnCode);
+    client.callbacks.get(0).handleResult(null, cbReturnCode);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
+  @Test
+  public void testHandleAsync_error() throws Exception {
+    AsyncClient client = new AsyncClient();
+    IBltMessage message = new IBltMessage(){};
+    IAdaptorCallback callback = createMock(IAdaptorCallback.class);
+    Throwable t = new NullPointerException();
+    
+    expect(generator.generate(message)).andReturn(createCommand("command"));
+    callback.error(message, t);
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.handle(message, callback);
+    client.callbacks.get(0).handleError(null, t);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
+  @Test
+  public void testHandleAsync_queued() throws Exception {
+    AsyncClient client = new AsyncClient();
+    IBltMessage message1 = new IBltMessage(){};
+    IBltMessage message2 = new IBltMessage(){};
+    IAdaptorCallback callback = createMock(IAdaptorCallback.class);
+    
+    expect(generator.generate(message1)).andReturn(createCommand("first"));
+    expect(generator.generate(message2)).andReturn(createCommand("second"));
+    callback.success(message1, "1");
+    callback.success(message2, "2");
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.setMaxOutstanding(1);
+    classUnderTest.handle(message1, callback);
+    classUnderTest.handle(message2, callback);
+    
+    assertEquals(1, client.methods.size());
+    assertEquals(1, classUnderTest.getQueued());
+    
+    client.callbacks.get(0).handleResult(null, "1");
+    
+    assertEquals(2, client.methods.size());
+    assertEquals("second", client.methods.get(1));
+    assertEquals(0, classUnderTest.getQueued());
+    assertEquals(1, classUnderTest.getOutstanding());
+    
+    client.callbacks.get(1).handleResult(null, "2");
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
+  @Test
+  public void testHandleAsync_timeout() throws Exception {
+    AsyncClient client = new AsyncClient();
+    IBltMessage message = new IBltMessage(){};
+    final CountDownLatch latch = new CountDownLatch(1);
+    IAdaptorCallback callback = new IAdaptorCallback() {
+      public void success(IBltMessage message, Object result) {}
+      public void timeout(IBltMessage message) {
+        latch.countDown();
+      }
+      public void error(IBltMessage message, Throwable t) {}
+    };
+    
+    expect(generator.generate(message)).andReturn(createCommand("command"));
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.setTimeout(50);
+    classUnderTest.handle(message, callback);
+    
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    // the client is still waiting for the response
+    assertEquals(1, classUnderTest.getOutstanding());
+    // a late response is ignored but releases the slot
+    client.callbacks.get(0).handleResult(null, "late");
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
+  @Test
+  public void testHandleAsync_timeoutKeepsSlot() throws Exception {
+    AsyncClient client = new AsyncClient();
+    IBltMessage message1 = new IBltMessage(){};
+    IBltMessage message2 = new IBltMessage(){};
+    final CountDownLatch latch = new CountDownLatch(1);
+    final List<Object> results = new ArrayList<Object>();
+    IAdaptorCallback callback = new IAdaptorCallback() {
+      public void success(IBltMessage message, Object result) {
+        results.add(result);
+      }
+      public void timeout(IBltMessage message) {
+        latch.countDown();
+      }
+      public void error(IBltMessage message, Throwable t) {}
+    };
+    
+    expect(generator.generate(message1)).andReturn(createCommand("first"));
+    expect(generator.generate(message2)).andReturn(createCommand("second"));
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.setMaxOutstanding(1);
+    classUnderTest.setTimeout(50);
+    classUnderTest.handle(message1, callback);
+    classUnderTest.handle(message2, callback);
+    
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(1, client.methods.size());
+    assertEquals(1, classUnderTest.getQueued());
+    
+    client.callbacks.get(0).handleError(null, new XmlRpcException("late"));
+    
+    assertEquals(2, client.methods.size());
+    assertEquals(0, classUnderTest.getQueued());
+    client.callbacks.get(1).handleResult(null, "2");
+    
+    verifyAll();
+    assertEquals(1, results.size());
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
+  @Test
+  public void testHandleAsync_executeThrowsXmlRpcException() throws Exception {
+    AsyncClient client = new AsyncClient();
+    XmlRpcException exception = new XmlRpcException("xys");
+    client.exception = exception;
+    IBltMessage message = new IBltMessage(){};
+    IAdaptorCallback callback = createMock(IAdaptorCallback.class);
+    
+    expect(generator.generate(message)).andReturn(createCommand("command"));
+    callback.error(message, exception);
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.handle(message, callback);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
+  @Test
+  public void testHandleAsync_queuedExecuteThrows() throws Exception {
+    AsyncClient client = new AsyncClient();
+    XmlRpcException exception = new XmlRpcException("xys");
+    IBltMessage message1 = new IBltMessage(){};
+    IBltMessage message2 = new IBltMessage(){};
+    IBltMessage message3 = new IBltMessage(){};
+    IAdaptorCallback callback = createMock(IAdaptorCallback.class);
+    
+    expect(generator.generate(message1)).andReturn(createCommand("first"));
+    expect(generator.generate(message2)).andReturn(createCommand("second"));
+    expect(generator.generate(message3)).andReturn(createCommand("third"));
+    callback.success(message1, "1");
+    callback.error(message2, exception);
+    callback.success(message3, "3");
+    
+    replayAll();
+    
+    classUnderTest = createAsyncAdaptor(client);
+    classUnderTest.setMaxOutstanding(1);
+    classUnderTest.handle(message1, callback);
+    classUnderTest.handle(message2, callback);
+    assertEquals(1, classUnderTest.getQueued());
+    
+    client.exception = exception;
+    client.callbacks.get(0).handleResult(null, "1");
+    
+    // the failed send released the slot
+    assertEquals(0, classUnderTest.getOutstanding());
+    assertEquals(0, classUnderTest.getQueued());
+    
+    client.exception = null;
+    classUnderTest.handle(message3, callback);
+    assertEquals(1, classUnderTest.getOutstanding());
+    client.callbacks.get(1).handleResult(null, "3");
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getOutstanding());
+  }
+  
   @Test
   public void testSetUrl() throws Exception {
     final XmlRpcClientConfigImpl xmlRpcConfig = createMock(XmlRpcClientConfigImpl.class);
@@ -303,6 +553,8 @@ public class XmlRpcAdaptorTest extends EasyMockSupport {
     XmlRpcClient client = new XmlRpcClient();
     
     xmlRpcConfig.setServerURL(url);
+    xmlRpcConfig.setConnectionTimeout(5000);
+    xmlRpcConfig.setReplyTimeout(5000);
     
     replayAll();
     
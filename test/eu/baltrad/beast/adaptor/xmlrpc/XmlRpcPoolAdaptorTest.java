@@ -0,0 +1,303 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor.xmlrpc;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.same;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.beast.adaptor.AdaptorException;
+import eu.baltrad.beast.adaptor.IAdaptor;
+import eu.baltrad.beast.adaptor.IAdaptorCallback;
+import eu.baltrad.beast.message.IBltMessage;
+
+/**
+ * @author Anders Henja
+ */
+public class XmlRpcPoolAdaptorTest extends EasyMockSupport {
+  private XmlRpcPoolAdaptor classUnderTest = null;
+  private IAdaptor adaptor1 = null;
+  private IAdaptor adaptor2 = null;
+  private IAdaptorCallback callback = null;
+  private IBltMessage message = null;
+  private long now = 0;
+  
+  @Before
+  public void setUp() throws Exception {
+    adaptor1 = createMock(IAdaptor.class);
+    adaptor2 = createMock(IAdaptor.class);
+    callback = createMock(IAdaptorCallback.class);
+    message = new IBltMessage(){};
+    classUnderTest = new XmlRpcPoolAdaptor() {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+    classUnderTest.setName("pool");
+    List<IAdaptor> adaptors = new ArrayList<IAdaptor>();
+    adaptors.add(adaptor1);
+    adaptors.add(adaptor2);
+    classUnderTest.setAdaptors(adaptors);
+  }
+  
+  @Test
+  public void testGetType() {
+    assertEquals("XMLRPC_POOL", classUnderTest.getType());
+  }
+  
+  @Test
+  public void testHandle_leastOutstanding() throws Exception {
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb3 = EasyMock.newCapture();
+    
+    adaptor1.handle(same(message), capture(cb1));
+    adaptor2.handle(same(message), capture(cb2));
+    adaptor1.handle(same(message), capture(cb3));
+    callback.success(message, "1");
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    classUnderTest.handle(message, callback);
+    cb1.getValue().success(message, "1");
+    classUnderTest.handle(message, callback);
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getEndpoints().get(0).getOutstanding());
+    assertEquals(1, classUnderTest.getEndpoints().get(1).getOutstanding());
+  }
+  
+  @Test
+  public void testHandle_latencyWeighted() throws Exception {
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb3 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb4 = EasyMock.newCapture();
+    
+    adaptor1.handle(same(message), capture(cb1));
+    adaptor2.handle(same(message), capture(cb2));
+    adaptor2.handle(same(message), capture(cb3));
+    adaptor2.handle(same(message), capture(cb4));
+    callback.success(message, "1");
+    expectLastCall().times(2);
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    classUnderTest.handle(message, callback);
+    now = 10;
+    cb2.getValue().success(message, "1");
+    now = 1000;
+    cb1.getValue().success(message, "1");
+    
+    // adaptor2 is 100 times faster so it gets both even if one is outstanding
+    classUnderTest.handle(message, callback);
+    classUnderTest.handle(message, callback);
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testHandle_timeoutRetried() throws Exception {
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    
+    adaptor1.handle(same(message), capture(cb1));
+    adaptor2.handle(same(message), capture(cb2));
+    callback.success(message, "ok");
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    cb1.getValue().timeout(message);
+    cb2.getValue().success(message, "ok");
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getEndpoints().get(0).getFailures());
+  }
+  
+  @Test
+  public void testHandle_timeoutNoMoreRetries() throws Exception {
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    
+    adaptor1.handle(same(message), capture(cb1));
+    adaptor2.handle(same(message), capture(cb2));
+    callback.timeout(message);
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    cb1.getValue().timeout(message);
+    cb2.getValue().timeout(message);
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testHandle_errorRetried() throws Exception {
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    Throwable t = new XmlRpcException("Failed to read server's response", new ConnectException("Connection refused"));
+    
+    adaptor1.handle(same(message), capture(cb1));
+    adaptor2.handle(same(message), capture(cb2));
+    callback.error(message, t);
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    cb1.getValue().error(message, t);
+    cb2.getValue().error(message, t);
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getEndpoints().get(0).getFailures());
+    assertEquals(1, classUnderTest.getEndpoints().get(1).getFailures());
+  }
+  
+  @Test
+  public void testHandle_messageErrorNotRetried() throws Exception {
+    Capture<IAdaptorCallback> cb1 = EasyMock.newCapture();
+    Throwable t = new XmlRpcException(1, "bad arguments");
+    
+    adaptor1.handle(same(message), capture(cb1));
+    callback.error(message, t);
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    cb1.getValue().error(message, t);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getEndpoints().get(0).getFailures());
+    assertEquals(0, classUnderTest.getEndpoints().get(0).getOutstanding());
+  }
+  
+  @Test
+  public void testHandle_adaptorThrows() throws Exception {
+    Capture<IAdaptorCallback> cb2 = EasyMock.newCapture();
+    adaptor1.handle(same(message), capture(EasyMock.newCapture()));
+    expectLastCall().andThrow(new AdaptorException("x", new ConnectException("Connection refused")));
+    adaptor1.getName();
+    expectLastCall().andReturn("a1").anyTimes();
+    adaptor2.handle(same(message), capture(cb2));
+    
+    replayAll();
+    
+    classUnderTest.handle(message, callback);
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testHandle_adaptorThrowsMessageError() throws Exception {
+    AdaptorException e = new AdaptorException("x", new IllegalArgumentException("bad message"));
+    adaptor1.handle(same(message), capture(EasyMock.newCapture()));
+    expectLastCall().andThrow(e);
+    
+    replayAll();
+    
+    try {
+      classUnderTest.handle(message, callback);
+      fail("Expected AdaptorException");
+    } catch (AdaptorException ex) {
+      assertSame(e, ex);
+    }
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getEndpoints().get(0).getFailures());
+    assertEquals(0, classUnderTest.getEndpoints().get(0).getOutstanding());
+  }
+  
+  @Test
+  public void testHandle_allThrows() throws Exception {
+    AdaptorException e = new AdaptorException("x", new ConnectException("Connection refused"));
+    adaptor1.handle(same(message), capture(EasyMock.newCapture()));
+    expectLastCall().andThrow(new AdaptorException("y", new ConnectException("Connection refused")));
+    adaptor1.getName();
+    expectLastCall().andReturn("a1").anyTimes();
+    adaptor2.handle(same(message), capture(EasyMock.newCapture()));
+    expectLastCall().andThrow(e);
+    
+    replayAll();
+    
+    try {
+      classUnderTest.handle(message, callback);
+      fail("Expected AdaptorException");
+    } catch (AdaptorException ex) {
+      assertSame(e, ex);
+    }
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testHandle_unhealthySkipped() throws Exception {
+    List<Capture<IAdaptorCallback>> captures = new ArrayList<Capture<IAdaptorCallback>>();
+    for (int i = 0; i < 4; i++) {
+      captures.add(EasyMock.newCapture());
+    }
+    classUnderTest.setMaxRetries(0);
+    classUnderTest.setFailureThreshold(2);
+    classUnderTest.setRetryInterval(1000);
+    adaptor1.getName();
+    expectLastCall().andReturn("a1").anyTimes();
+    
+    adaptor1.handle(same(message), capture(captures.get(0)));
+    adaptor1.handle(same(message), capture(captures.get(1)));
+    adaptor2.handle(same(message), capture(captures.get(2)));
+    adaptor1.handle(same(message), capture(captures.get(3)));
+    callback.timeout(message);
+    expectLastCall().times(2);
+    
+    replayAll();
+    
+    // two timeouts makes adaptor1 unhealthy
+    classUnderTest.handle(message, callback);
+    captures.get(0).getValue().timeout(message);
+    classUnderTest.handle(message, callback);
+    captures.get(1).getValue().timeout(message);
+    
+    // only adaptor2 is used while adaptor1 is unhealthy
+    now = 500;
+    classUnderTest.handle(message, callback);
+    
+    // after retry interval adaptor1 is tried again
+    now = 2001;
+    classUnderTest.handle(message, callback);
+    
+    verifyAll();
+  }
+}
@@ -0,0 +1,200 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.adaptor.xmlrpc;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMockSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import eu.baltrad.beast.adaptor.AdaptorException;
+import eu.baltrad.beast.adaptor.IAdaptor;
+import eu.baltrad.beast.adaptor.IAdaptorConfiguration;
+
+/**
+ * @author Anders Henja
+ */
+public class XmlRpcPoolConfigurationManagerTest extends EasyMockSupport {
+  private XmlRpcPoolConfigurationManager classUnderTest = null;
+  private JdbcOperations jdbc = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    jdbc = createMock(JdbcOperations.class);
+    classUnderTest = new XmlRpcPoolConfigurationManager();
+    classUnderTest.setJdbcTemplate(jdbc);
+  }
+  
+  @Test
+  public void testGetType() {
+    assertEquals("XMLRPC_POOL", classUnderTest.getType());
+  }
+  
+  @Test
+  public void testCreateConfiguration() {
+    IAdaptorConfiguration result = classUnderTest.createConfiguration("ABC");
+    assertTrue(result.getClass() == XmlRpcPoolAdaptorConfiguration.class);
+    assertEquals("ABC", result.getName());
+    assertEquals("XMLRPC_POOL", result.getType());
+  }
+  
+  @Test
+  public void testStore() throws Exception {
+    XmlRpcPoolAdaptorConfiguration conf = (XmlRpcPoolAdaptorConfiguration)classUnderTest.createConfiguration("ABC");
+    conf.addURL("http://host1/RAVE");
+    conf.addURL("http://host2/RAVE");
+    conf.setTimeout(6000);
+    
+    expect(jdbc.update("insert into beast_adaptors_xmlrpc_pool (adaptor_id, uri, timeout) values (?,?,?)",
+        new Object[]{2, "http://host1/RAVE", (long)6000})).andReturn(1);
+    expect(jdbc.update("insert into beast_adaptors_xmlrpc_pool (adaptor_id, uri, timeout) values (?,?,?)",
+        new Object[]{2, "http://host2/RAVE", (long)6000})).andReturn(1);
+    
+    replayAll();
+    
+    IAdaptor result = classUnderTest.store(2, conf);
+    
+    verifyAll();
+    assertTrue(result.getClass() == XmlRpcPoolAdaptor.class);
+    assertEquals("ABC", result.getName());
+    List<XmlRpcPoolAdaptor.Endpoint> endpoints = ((XmlRpcPoolAdaptor)result).getEndpoints();
+    assertEquals(2, endpoints.size());
+    assertEquals("http://host1/RAVE", ((XmlRpcAdaptor)endpoints.get(0).getAdaptor()).getUrl());
+    assertEquals(6000, ((XmlRpcAdaptor)endpoints.get(1).getAdaptor()).getTimeout());
+  }
+  
+  @Test
+  public void testStore_noUrls() throws Exception {
+    XmlRpcPoolAdaptorConfiguration conf = (XmlRpcPoolAdaptorConfiguration)classUnderTest.createConfiguration("ABC");
+    
+    replayAll();
+    
+    try {
+      classUnderTest.store(2, conf);
+      fail("Expected AdaptorException");
+    } catch (AdaptorException e) {
+      // pass
+    }
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testStore_badUrl() throws Exception {
+    XmlRpcPoolAdaptorConfiguration conf = (XmlRpcPoolAdaptorConfiguration)classUnderTest.createConfiguration("ABC");
+    conf.addURL("http://host1/RAVE");
+    conf.addURL("httpsomebadurl");
+    
+    replayAll();
+    
+    try {
+      classUnderTest.store(2, conf);
+      fail("Expected AdaptorException");
+    } catch (AdaptorException e) {
+      // pass
+    }
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testStore_cannotStore() throws Exception {
+    XmlRpcPoolAdaptorConfiguration conf = (XmlRpcPoolAdaptorConfiguration)classUnderTest.createConfiguration("ABC");
+    conf.addURL("http://host1/RAVE");
+    
+    expect(jdbc.update("insert into beast_adaptors_xmlrpc_pool (adaptor_id, uri, timeout) values (?,?,?)",
+        new Object[]{2, "http://host1/RAVE", (long)5000})).andThrow(new DataRetrievalFailureException("x"));
+    
+    replayAll();
+    
+    try {
+      classUnderTest.store(2, conf);
+      fail("Expected AdaptorException");
+    } catch (AdaptorException e) {
+      // pass
+    }
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testUpdate() throws Exception {
+    XmlRpcPoolAdaptorConfiguration conf = (XmlRpcPoolAdaptorConfiguration)classUnderTest.createConfiguration("ABC");
+    conf.addURL("http://host1/RAVE");
+    
+    expect(jdbc.update("delete from beast_adaptors_xmlrpc_pool where adaptor_id=?", new Object[]{2})).andReturn(2);
+    expect(jdbc.update("insert into beast_adaptors_xmlrpc_pool (adaptor_id, uri, timeout) values (?,?,?)",
+        new Object[]{2, "http://host1/RAVE", (long)5000})).andReturn(1);
+    
+    replayAll();
+    
+    IAdaptor result = classUnderTest.update(2, conf);
+    
+    verifyAll();
+    assertEquals(1, ((XmlRpcPoolAdaptor)result).getEndpoints().size());
+  }
+  
+  @Test
+  public void testRemove() throws Exception {
+    expect(jdbc.update("delete from beast_adaptors_xmlrpc_pool where adaptor_id=?", new Object[]{2})).andReturn(2);
+    
+    replayAll();
+    
+    classUnderTest.remove(2);
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testRead() throws Exception {
+    List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+    Map<String, Object> row1 = new HashMap<String, Object>();
+    row1.put("uri", "http://host1/RAVE");
+    row1.put("timeout", new Integer(7000));
+    Map<String, Object> row2 = new HashMap<String, Object>();
+    row2.put("uri", "http://host2/RAVE");
+    row2.put("timeout", new Integer(7000));
+    rows.add(row1);
+    rows.add(row2);
+    
+    expect(jdbc.queryForList("select uri, timeout from beast_adaptors_xmlrpc_pool where adaptor_id=? order by uri",
+        new Object[]{2})).andReturn(rows);
+    
+    replayAll();
+    
+    XmlRpcPoolAdaptor result = (XmlRpcPoolAdaptor)classUnderTest.read(2, "ABC");
+    
+    verifyAll();
+    assertEquals("ABC", result.getName());
+    assertEquals(2, result.getEndpoints().size());
+    assertEquals("http://host2/RAVE", ((XmlRpcAdaptor)result.getEndpoints().get(1).getAdaptor()).getUrl());
+    assertEquals(7000, ((XmlRpcAdaptor)result.getEndpoints().get(1).getAdaptor()).getTimeout());
+  }
+}
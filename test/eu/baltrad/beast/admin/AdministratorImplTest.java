@@ -21,6 +21,7 @@ import org.junit.Test;
 import eu.baltrad.beast.adaptor.IAdaptor;
 import eu.baltrad.beast.adaptor.IBltAdaptorManager;
 import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcAdaptorConfiguration;
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcPoolAdaptorConfiguration;
 import eu.baltrad.beast.admin.command.AdaptorCommand;
 import eu.baltrad.beast.admin.command.AnomalyDetectorCommand;
 import eu.baltrad.beast.admin.command.HelpCommand;
@@ -425,6 +426,52 @@ public class AdministratorImplTest extends EasyMockSupport {
     assertEquals(true, result.wasSuccessful());
   }
 
+  @Test
+  public void handleAdaptorCommand_ADD_pool() {
+    AdaptorCommand command = new AdaptorCommand(AdaptorCommand.ADD);
+    XmlRpcPoolAdaptorConfiguration conf = new XmlRpcPoolAdaptorConfiguration("nisse");
+    IAdaptor adaptor = createMock(IAdaptor.class);
+    Adaptor adaptorDef = new Adaptor("nisse", "XMLRPC_POOL");
+    adaptorDef.setUris(Arrays.asList("http://host1", "http://host2"));
+    adaptorDef.setTimeout(11);
+    command.setAdaptor(adaptorDef);
+    
+    expect(adaptorManager.getAdaptor("nisse")).andReturn(null);
+    expect(adaptorManager.createConfiguration("XMLRPC_POOL", "nisse")).andReturn(conf);
+    expect(adaptorManager.register(conf)).andReturn(adaptor);
+    
+    replayAll();
+    
+    CommandResponse result = classUnderTest.handleCommand(command);
+    
+    verifyAll();
+    assertEquals(true, result.wasSuccessful());
+    assertEquals(Arrays.asList("http://host1", "http://host2"), conf.getURLs());
+    assertEquals(11, conf.getTimeout());
+  }
+
+  @Test
+  public void handleAdaptorCommand_UPDATE_poolWithUri() {
+    AdaptorCommand command = new AdaptorCommand(AdaptorCommand.UPDATE);
+    XmlRpcPoolAdaptorConfiguration conf = new XmlRpcPoolAdaptorConfiguration("nisse");
+    IAdaptor adaptor = createMock(IAdaptor.class);
+    IAdaptor newadaptor = createMock(IAdaptor.class);
+    command.setAdaptor(new Adaptor("nisse", "XMLRPC_POOL", "http://localhost", 11));
+    
+    expect(adaptorManager.getAdaptor("nisse")).andReturn(adaptor);
+    expect(adaptorManager.createConfiguration("XMLRPC_POOL", "nisse")).andReturn(conf);
+    expect(adaptorManager.reregister(conf)).andReturn(newadaptor);
+    
+    replayAll();
+    
+    CommandResponse result = classUnderTest.handleCommand(command);
+    
+    verifyAll();
+    assertEquals(true, result.wasSuccessful());
+    assertEquals(Arrays.asList("http://localhost"), conf.getURLs());
+    assertEquals(11, conf.getTimeout());
+  }
+
   @Test
   public void handleAdaptorCommand_UPDATE() {
     AdaptorCommand command = new AdaptorCommand(AdaptorCommand.UPDATE);
@@ -363,6 +363,19 @@ public class JsonCommandParserImplTest  extends EasyMockSupport {
     assertEquals(5000, result.getAdaptor().getTimeout());
   }
 
+  @Test
+  public void parseAdaptorCommand_ADD_pool() throws Exception {
+    String json = "{\"adaptor\": {\"name\":\"RAVE\", \"type\":\"XMLRPC_POOL\", \"uris\":[\"http://host1:8085/RAVE\",\"http://host2:8085/RAVE\"], \"timeout\":5000}}";
+    
+    AdaptorCommand result = (AdaptorCommand)classUnderTest.parseAdaptorCommand(AdaptorCommand.ADD, jsonMapper.readTree(json));
+    
+    assertEquals("add_adaptor", result.getOperation());
+    assertEquals("RAVE", result.getAdaptor().getName());
+    assertEquals("XMLRPC_POOL", result.getAdaptor().getType());
+    assertEquals(Arrays.asList("http://host1:8085/RAVE", "http://host2:8085/RAVE"), result.getAdaptor().getUris());
+    assertEquals(5000, result.getAdaptor().getTimeout());
+  }
+
   @Test
   public void parseAdaptorCommand_UPDATE() throws Exception {
     JsonNode arguments = createMock(JsonNode.class);
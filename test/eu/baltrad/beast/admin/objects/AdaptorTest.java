@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package eu.baltrad.beast.admin.objects;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcAdaptor;
+import eu.baltrad.beast.adaptor.xmlrpc.XmlRpcPoolAdaptor;
+
+/**
+ * @author anders
+ */
+public class AdaptorTest {
+  private XmlRpcAdaptor createXmlRpcAdaptor(String name, String url, long timeout) {
+    XmlRpcAdaptor result = new XmlRpcAdaptor();
+    result.setName(name);
+    result.setUrl(url);
+    result.setTimeout(timeout);
+    return result;
+  }
+  
+  @Test
+  public void fromAdaptor_xmlrpc() {
+    Adaptor classUnderTest = new Adaptor();
+    classUnderTest.fromAdaptor(createXmlRpcAdaptor("nisse", "http://localhost", 11));
+    
+    assertEquals("nisse", classUnderTest.getName());
+    assertEquals("XMLRPC", classUnderTest.getType());
+    assertEquals("http://localhost", classUnderTest.getUri());
+    assertEquals(11, classUnderTest.getTimeout());
+  }
+
+  @Test
+  public void fromAdaptor_pool() {
+    XmlRpcPoolAdaptor pool = new XmlRpcPoolAdaptor();
+    pool.setName("nisse");
+    pool.setAdaptors(Arrays.asList(createXmlRpcAdaptor("nisse[0]", "http://host1", 11),
+                                   createXmlRpcAdaptor("nisse[1]", "http://host2", 11)));
+    
+    Adaptor classUnderTest = new Adaptor();
+    classUnderTest.fromAdaptor(pool);
+    
+    assertEquals("nisse", classUnderTest.getName());
+    assertEquals("XMLRPC_POOL", classUnderTest.getType());
+    assertEquals(null, classUnderTest.getUri());
+    assertEquals(Arrays.asList("http://host1", "http://host2"), classUnderTest.getUris());
+    assertEquals(11, classUnderTest.getTimeout());
+  }
+}
@@ -0,0 +1,258 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.db;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * @author Anders Henja
+ */
+public class CatalogCacheTest extends EasyMockSupport {
+  private CatalogCache classUnderTest = null;
+  private long now = 0;
+  private List<CatalogEntry> created = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    now = millis(new DateTime(2024,1,1,12,0,0));
+    created = new ArrayList<CatalogEntry>();
+    classUnderTest = new CatalogCache() {
+      @Override
+      protected CatalogEntry createEntry(FileEntry file) {
+        return created.remove(0);
+      }
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest = null;
+  }
+  
+  private static long millis(DateTime dt) {
+    return CatalogCache.toMillis(dt.getDate(), dt.getTime());
+  }
+  
+  private CatalogEntry add(final String uuid, final String object, final DateTime dt) {
+    CatalogEntry entry = new CatalogEntry() {
+      @Override
+      public String getUuid() {
+        return uuid;
+      }
+      @Override
+      public String getObject() {
+        return object;
+      }
+      @Override
+      public DateTime getDateTime() {
+        return dt;
+      }
+    };
+    created.add(entry);
+    classUnderTest.add(null);
+    return entry;
+  }
+  
+  private ICacheableCatalogFilter createFilter(String object, DateTime start, DateTime stop) {
+    ICacheableCatalogFilter filter = createMock(ICacheableCatalogFilter.class);
+    expect(filter.getObject()).andReturn(object).anyTimes();
+    expect(filter.getStartDateTime()).andReturn(start).anyTimes();
+    expect(filter.getStopDateTime()).andReturn(stop).anyTimes();
+    return filter;
+  }
+  
+  @Test
+  public void testFetch() throws Exception {
+    CatalogEntry e1 = add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    CatalogEntry e2 = add("b", "PVOL", new DateTime(2024,1,1,12,10,0));
+    add("c", "PVOL", new DateTime(2024,1,1,12,15,0));
+    add("d", "SCAN", new DateTime(2024,1,1,12,5,0));
+    
+    ICacheableCatalogFilter filter = createFilter("PVOL", new DateTime(2024,1,1,12,0,0), new DateTime(2024,1,1,12,15,0));
+    List<CatalogEntry> ordered = new ArrayList<CatalogEntry>();
+    expect(filter.matches(null)).andReturn(true).times(2);
+    expect(filter.order(isA(List.class))).andReturn(ordered);
+    
+    replayAll();
+    
+    List<CatalogEntry> result = classUnderTest.fetch(filter);
+    
+    verifyAll();
+    assertSame(ordered, result);
+    assertEquals(1, classUnderTest.getHits());
+    assertEquals(0, classUnderTest.getMisses());
+    assertEquals(4, classUnderTest.size());
+    assertNull(e1.getFileEntry());
+    assertNull(e2.getFileEntry());
+  }
+  
+  @Test
+  public void testFetch_notMatching() throws Exception {
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    add("b", "PVOL", new DateTime(2024,1,1,12,5,0));
+    
+    ICacheableCatalogFilter filter = createFilter("PVOL", new DateTime(2024,1,1,12,0,0), null);
+    expect(filter.matches(null)).andReturn(false);
+    expect(filter.matches(null)).andReturn(true);
+    final List<CatalogEntry> captured = new ArrayList<CatalogEntry>();
+    expect(filter.order(isA(List.class))).andAnswer(new org.easymock.IAnswer<List<CatalogEntry>>() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public List<CatalogEntry> answer() throws Throwable {
+        captured.addAll((List<CatalogEntry>)EasyMock.getCurrentArguments()[0]);
+        return captured;
+      }
+    });
+    
+    replayAll();
+    
+    List<CatalogEntry> result = classUnderTest.fetch(filter);
+    
+    verifyAll();
+    assertEquals(1, result.size());
+    assertEquals("b", result.get(0).getUuid());
+  }
+  
+  @Test
+  public void testFetch_beforeCoverage() throws Exception {
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    ICacheableCatalogFilter filter = createFilter("PVOL", new DateTime(2024,1,1,11,55,0), null);
+    
+    replayAll();
+    
+    List<CatalogEntry> result = classUnderTest.fetch(filter);
+    
+    verifyAll();
+    assertNull(result);
+    assertEquals(0, classUnderTest.getHits());
+    assertEquals(1, classUnderTest.getMisses());
+  }
+  
+  @Test
+  public void testFetch_noStart() throws Exception {
+    ICacheableCatalogFilter filter = createFilter("PVOL", null, null);
+    
+    replayAll();
+    
+    List<CatalogEntry> result = classUnderTest.fetch(filter);
+    
+    verifyAll();
+    assertNull(result);
+    assertEquals(1, classUnderTest.getMisses());
+  }
+  
+  @Test
+  public void testAdd_duplicate() throws Exception {
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    assertEquals(1, classUnderTest.size());
+  }
+  
+  @Test
+  public void testAdd_beforeCoverage() throws Exception {
+    add("a", "PVOL", new DateTime(2024,1,1,11,59,0));
+    assertEquals(0, classUnderTest.size());
+  }
+  
+  @Test
+  public void testEvict_retention() throws Exception {
+    classUnderTest.setRetention(3600);
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    add("b", "PVOL", new DateTime(2024,1,1,12,30,0));
+    now = millis(new DateTime(2024,1,1,13,10,0));
+    add("c", "PVOL", new DateTime(2024,1,1,13,10,0));
+    
+    assertEquals(2, classUnderTest.size());
+    assertEquals(1, classUnderTest.getEvictions());
+    
+    ICacheableCatalogFilter filter = createFilter("PVOL", new DateTime(2024,1,1,12,0,0), null);
+    replayAll();
+    assertNull(classUnderTest.fetch(filter));
+    verifyAll();
+  }
+  
+  @Test
+  public void testEvict_maxSize() throws Exception {
+    classUnderTest.setMaxSize(2);
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    add("b", "SCAN", new DateTime(2024,1,1,12,5,0));
+    add("c", "PVOL", new DateTime(2024,1,1,12,10,0));
+    
+    assertEquals(2, classUnderTest.size());
+    assertEquals(1, classUnderTest.getEvictions());
+    
+    ICacheableCatalogFilter f1 = createFilter("PVOL", new DateTime(2024,1,1,12,0,0), null);
+    ICacheableCatalogFilter f2 = createFilter("PVOL", new DateTime(2024,1,1,12,5,0), null);
+    List<CatalogEntry> ordered = new ArrayList<CatalogEntry>();
+    expect(f2.matches(null)).andReturn(true);
+    expect(f2.order(isA(List.class))).andReturn(ordered);
+    
+    replayAll();
+    
+    assertNull(classUnderTest.fetch(f1));
+    assertSame(ordered, classUnderTest.fetch(f2));
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testClear() throws Exception {
+    add("a", "PVOL", new DateTime(2024,1,1,12,0,0));
+    now = millis(new DateTime(2024,1,1,12,5,0));
+    classUnderTest.clear();
+    
+    assertEquals(0, classUnderTest.size());
+    ICacheableCatalogFilter filter = createFilter("PVOL", new DateTime(2024,1,1,12,0,0), null);
+    replayAll();
+    assertNull(classUnderTest.fetch(filter));
+    verifyAll();
+  }
+  
+  @Test
+  public void testIsWithin() throws Exception {
+    DateTime start = new DateTime(2024,1,1,12,0,0);
+    DateTime stop = new DateTime(2024,1,1,12,15,0);
+    assertEquals(true, CatalogCache.isWithin(new DateTime(2024,1,1,12,0,0), start, stop));
+    assertEquals(true, CatalogCache.isWithin(new DateTime(2024,1,1,12,14,59), start, stop));
+    assertEquals(false, CatalogCache.isWithin(new DateTime(2024,1,1,12,15,0), start, stop));
+    assertEquals(false, CatalogCache.isWithin(new DateTime(2024,1,1,11,59,59), start, stop));
+    assertEquals(true, CatalogCache.isWithin(new DateTime(2024,1,1,11,59,59), null, stop));
+    assertEquals(true, CatalogCache.isWithin(new DateTime(2024,1,1,12,15,0), start, null));
+  }
+}
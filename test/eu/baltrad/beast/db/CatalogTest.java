@@ -22,6 +22,8 @@ import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import org.easymock.EasyMockSupport;
@@ -85,5 +87,35 @@ public class CatalogTest extends EasyMockSupport {
       // pass
     }
   }
-
+  
+  @Test
+  public void testFetch_cached() throws Exception {
+    FileCatalog fc = createMock(FileCatalog.class);
+    CatalogCache cache = createMock(CatalogCache.class);
+    ICacheableCatalogFilter filter = createMock(ICacheableCatalogFilter.class);
+    List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+    
+    expect(cache.fetch(filter)).andReturn(entries);
+    
+    classUnderTest.setCatalog(fc);
+    classUnderTest.setCache(cache);
+    
+    replayAll();
+    
+    List<CatalogEntry> result = classUnderTest.fetch(filter);
+    
+    verifyAll();
+    assertSame(entries, result);
+  }
+  
+  @Test
+  public void testSetMaxConcurrentQueries() throws Exception {
+    assertEquals(0, classUnderTest.getMaxConcurrentQueries());
+    classUnderTest.setMaxConcurrentQueries(5);
+    assertEquals(5, classUnderTest.getMaxConcurrentQueries());
+    classUnderTest.setMaxConcurrentQueries(0);
+    assertEquals(0, classUnderTest.getMaxConcurrentQueries());
+    classUnderTest.setMaxConcurrentQueries(-1);
+    assertEquals(0, classUnderTest.getMaxConcurrentQueries());
+  }
 }
@@ -20,9 +20,12 @@ package eu.baltrad.beast.db.filters;
 
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -35,9 +38,12 @@ import eu.baltrad.bdb.db.FileQuery;
 import eu.baltrad.bdb.expr.Expression;
 import eu.baltrad.bdb.expr.ExpressionFactory;
 import eu.baltrad.bdb.expr.StringExpression;
+import eu.baltrad.bdb.oh5.Attribute;
+import eu.baltrad.bdb.oh5.Group;
 import eu.baltrad.bdb.oh5.Metadata;
 import eu.baltrad.bdb.oh5.MetadataMatcher;
 import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.beast.db.CatalogEntry;
 import eu.baltrad.beast.db.IFilter;
 
 
@@ -118,6 +124,81 @@ public class CompositingRuleFilterTest extends EasyMockSupport{
     testFileMatches(false, true, true);
   }
   
+  @Test
+  public void testOrder_scanBased() {
+    CatalogEntry e1 = createEntry("SCAN", "101800", 1.0);
+    CatalogEntry e2 = createEntry("SCAN", "102500", 0.5);
+    CatalogEntry e3 = createEntry("SCAN", "101600", 0.5);
+    List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+    entries.add(e1);
+    entries.add(e2);
+    entries.add(e3);
+    
+    replayAll();
+    
+    List<CatalogEntry> result = createDefaultFilter(true).order(entries);
+    
+    verifyAll();
+    assertSame(e3, result.get(0));
+    assertSame(e2, result.get(1));
+    assertSame(e1, result.get(2));
+  }
+  
+  @Test
+  public void testOrder_volumeBased() {
+    CatalogEntry e1 = createEntry("PVOL", "101800", 1.0);
+    CatalogEntry e2 = createEntry("PVOL", "102500", 0.5);
+    CatalogEntry e3 = createEntry("PVOL", "101600", 0.5);
+    List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+    entries.add(e1);
+    entries.add(e2);
+    entries.add(e3);
+    
+    replayAll();
+    
+    List<CatalogEntry> result = createDefaultFilter(false).order(entries);
+    
+    verifyAll();
+    assertSame(e3, result.get(0));
+    assertSame(e1, result.get(1));
+    assertSame(e2, result.get(2));
+  }
+  
+  @Test
+  public void testMatches() {
+    sources = null;
+    CatalogEntry e1 = createEntry("SCAN", "101800", 0.5);
+    CatalogEntry e2 = createEntry("SCAN", "103000", 0.5);
+    CatalogEntry e3 = createEntry("PVOL", "101800", 0.5);
+    
+    replayAll();
+    
+    CompositingRuleFilter classUnderTest = createDefaultFilter(true);
+    assertTrue(classUnderTest.matches(e1.getFileEntry()));
+    assertFalse(classUnderTest.matches(e2.getFileEntry()));
+    assertFalse(classUnderTest.matches(e3.getFileEntry()));
+    
+    verifyAll();
+  }
+  
+  private CatalogEntry createEntry(String object, String time, double elangle) {
+    Metadata metadata = new Metadata();
+    metadata.addNode("/", new Group("what"));
+    metadata.addNode("/what", new Attribute("object", object));
+    metadata.addNode("/what", new Attribute("date", "20160415"));
+    metadata.addNode("/what", new Attribute("time", time));
+    metadata.addNode("/", new Group("dataset1"));
+    metadata.addNode("/dataset1", new Group("where"));
+    metadata.addNode("/dataset1/where", new Attribute("elangle", elangle));
+    metadata.addNode("/dataset1", new Group("data1"));
+    metadata.addNode("/dataset1/data1", new Group("what"));
+    metadata.addNode("/dataset1/data1/what", new Attribute("quantity", "DBZH"));
+    
+    FileEntry entry = createMock(FileEntry.class);
+    expect(entry.getMetadata()).andReturn(metadata).anyTimes();
+    return new CatalogEntry(entry);
+  }
+  
   private void testConstructor(boolean isScanBased) {
     CompositingRuleFilter filter = createDefaultFilter(isScanBased);
     
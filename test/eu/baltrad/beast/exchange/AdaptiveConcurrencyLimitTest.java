@@ -0,0 +1,74 @@
+package eu.baltrad.beast.exchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class AdaptiveConcurrencyLimitTest {
+  private AdaptiveConcurrencyLimit classUnderTest = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    classUnderTest = new AdaptiveConcurrencyLimit(1, 4);
+  }
+  
+  @Test
+  public void testAcquire() throws Exception {
+    assertTrue(classUnderTest.acquire(10));
+    assertFalse(classUnderTest.acquire(10));
+    assertEquals(1, classUnderTest.getInFlight());
+    classUnderTest.release();
+    assertTrue(classUnderTest.acquire(10));
+  }
+  
+  @Test
+  public void testOnSuccess_increases() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      classUnderTest.onSuccess(100);
+    }
+    assertEquals(4, classUnderTest.getLimit());
+    assertEquals(100, classUnderTest.getAverageLatency());
+    assertTrue(classUnderTest.acquire(10));
+    assertTrue(classUnderTest.acquire(10));
+    assertTrue(classUnderTest.acquire(10));
+    assertTrue(classUnderTest.acquire(10));
+    assertFalse(classUnderTest.acquire(10));
+  }
+  
+  @Test
+  public void testOnFailure_halves() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      classUnderTest.onSuccess(100);
+    }
+    classUnderTest.onFailure();
+    assertEquals(2, classUnderTest.getLimit());
+    classUnderTest.onFailure();
+    classUnderTest.onFailure();
+    assertEquals(1, classUnderTest.getLimit());
+  }
+  
+  @Test
+  public void testOnSuccess_slow() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      classUnderTest.onSuccess(1000);
+    }
+    assertEquals(4, classUnderTest.getLimit());
+    classUnderTest.onSuccess(5000);
+    assertEquals(2, classUnderTest.getLimit());
+  }
+  
+  @Test
+  public void testOnSuccess_fastNeverSlow() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      classUnderTest.onSuccess(10);
+    }
+    classUnderTest.onSuccess(500);
+    assertEquals(4, classUnderTest.getLimit());
+  }
+}
@@ -0,0 +1,120 @@
+package eu.baltrad.beast.exchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class CircuitBreakerTest {
+  private CircuitBreaker classUnderTest = null;
+  private long now = 0;
+  
+  @Before
+  public void setUp() throws Exception {
+    now = 100000;
+    classUnderTest = new CircuitBreaker("se.node") {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+    classUnderTest.setFailureThreshold(2);
+    classUnderTest.setOpenTimeout(1000);
+    classUnderTest.setMaxOpenTimeout(3000);
+  }
+  
+  private void fail() {
+    assertTrue(classUnderTest.allowRequest());
+    classUnderTest.onFailure();
+    classUnderTest.release();
+  }
+  
+  @Test
+  public void testOpen() throws Exception {
+    fail();
+    assertEquals(CircuitBreaker.State.CLOSED, classUnderTest.getState());
+    fail();
+    assertEquals(CircuitBreaker.State.OPEN, classUnderTest.getState());
+    assertFalse(classUnderTest.allowRequest());
+    assertEquals(1000, classUnderTest.getRemainingOpenTime());
+  }
+  
+  @Test
+  public void testSuccess_resetsFailures() throws Exception {
+    fail();
+    classUnderTest.onSuccess();
+    fail();
+    assertEquals(CircuitBreaker.State.CLOSED, classUnderTest.getState());
+    assertEquals(1, classUnderTest.getConsecutiveFailures());
+  }
+  
+  @Test
+  public void testHalfOpen_singleProbe() throws Exception {
+    fail();
+    fail();
+    now += 1000;
+    assertEquals(CircuitBreaker.State.HALF_OPEN, classUnderTest.getState());
+    assertTrue(classUnderTest.allowRequest());
+    assertFalse(classUnderTest.allowRequest());
+    classUnderTest.onSuccess();
+    classUnderTest.release();
+    assertEquals(CircuitBreaker.State.CLOSED, classUnderTest.getState());
+    assertTrue(classUnderTest.allowRequest());
+    assertTrue(classUnderTest.allowRequest());
+  }
+  
+  @Test
+  public void testHalfOpen_failedProbe() throws Exception {
+    fail();
+    fail();
+    now += 1000;
+    fail();
+    assertEquals(CircuitBreaker.State.OPEN, classUnderTest.getState());
+    assertEquals(2000, classUnderTest.getRemainingOpenTime());
+    now += 2000;
+    fail();
+    assertEquals(3000, classUnderTest.getRemainingOpenTime());
+  }
+  
+  @Test
+  public void testHalfOpen_probeWithoutOutcome() throws Exception {
+    fail();
+    fail();
+    now += 1000;
+    assertTrue(classUnderTest.allowRequest());
+    classUnderTest.release();
+    assertTrue(classUnderTest.allowRequest());
+  }
+  
+  private void runInOtherThread(Runnable runnable) throws Exception {
+    Thread thread = new Thread(runnable);
+    thread.start();
+    thread.join();
+  }
+  
+  @Test
+  public void testHalfOpen_otherThreadCantEndProbe() throws Exception {
+    fail();
+    fail();
+    now += 1000;
+    assertTrue(classUnderTest.allowRequest());
+    runInOtherThread(new Runnable() {
+      @Override
+      public void run() {
+        // a request allowed before the circuit opened completes and releases
+        classUnderTest.onFailure();
+        classUnderTest.release();
+      }
+    });
+    assertEquals(CircuitBreaker.State.HALF_OPEN, classUnderTest.getState());
+    assertFalse(classUnderTest.allowRequest());
+    classUnderTest.onSuccess();
+    classUnderTest.release();
+    assertEquals(CircuitBreaker.State.CLOSED, classUnderTest.getState());
+  }
+}
@@ -4,13 +4,20 @@
 package eu.baltrad.beast.exchange;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.same;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 //import static org.junit.Assert.assertSame;
@@ -20,10 +27,14 @@ import static org.junit.Assert.fail;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import eu.baltrad.beast.security.Authorization;
 import eu.baltrad.beast.security.AuthorizationException;
@@ -39,7 +50,7 @@ import eu.baltrad.beast.security.ISecurityManager;
 public class ExchangeManagerTest extends EasyMockSupport {
   public interface Methods {
     public ExchangeResponse send(SendFileRequest request, SendFileRequestCallback callback);
-    public IPooledFileRequestPublisher createPooledFileRequestPublisher();
+    public IPooledFileRequestPublisher createPooledFileRequestPublisher(String nodeName);
     public SendFileRequest createNewRequest(SendFileRequest request, String address);
   };
   
@@ -60,8 +71,8 @@ public class ExchangeManagerTest extends EasyMockSupport {
     
     classUnderTest = new ExchangeManager() {
       @Override
-      protected IPooledFileRequestPublisher createPooledFileRequestPublisher() {
-        return methods.createPooledFileRequestPublisher();
+      protected IPooledFileRequestPublisher createPooledFileRequestPublisher(String nodeName) {
+        return methods.createPooledFileRequestPublisher(nodeName);
       }
       @Override
       protected SendFileRequest createNewRequest(SendFileRequest request, String address) {
@@ -296,6 +307,7 @@ public class ExchangeManagerTest extends EasyMockSupport {
     expect(authorizationManager.getByNodeName("nodename")).andReturn(null);
     expect(securityManager.expandPublicKey(authorization)).andReturn("publickey.pub");
     authorizationManager.add(authorization);
+    securityManager.invalidate("nodename");
     authorizationRequestManager.remove("abc");
     expect(authorizationManager.createAuthorizationRequest("Autogenerated request for approval of key.")).andReturn(outgoingRequest);
     expect(connector.send("http://somewhere.se/BaltradDex/exchangeManager.htm", outgoingRequest)).andReturn(new ExchangeResponse(HttpStatus.SC_OK));
@@ -331,6 +343,7 @@ public class ExchangeManagerTest extends EasyMockSupport {
     expect(authorizationManager.getByNodeName("nodename")).andReturn(null);
     expect(securityManager.expandPublicKey(authorization)).andReturn("publickey.pub");
     authorizationManager.add(authorization);
+    securityManager.invalidate("nodename");
     authorizationRequestManager.remove("abc");
     expect(authorizationManager.createAuthorizationRequest("Autogenerated request for approval of key.")).andReturn(outgoingRequest);
     expect(connector.send("http://somewhere.se/BaltradDex/exchangeManager.htm", outgoingRequest)).andReturn(new ExchangeResponse(HttpStatus.SC_NOT_FOUND));
@@ -367,6 +380,7 @@ public class ExchangeManagerTest extends EasyMockSupport {
     expect(authorizationManager.getByNodeName("nodename")).andReturn(null);
     expect(securityManager.expandPublicKey(authorization)).andReturn("publickey.pub");
     authorizationManager.add(authorization);
+    securityManager.invalidate("nodename");
     authorizationRequestManager.remove("abc");
     expect(authorizationManager.createAuthorizationRequest("Autogenerated request for approval of key.")).andReturn(outgoingRequest);
     ExchangeResponse resp = new ExchangeResponse(HttpStatus.SC_TEMPORARY_REDIRECT);
@@ -434,6 +448,7 @@ public class ExchangeManagerTest extends EasyMockSupport {
     expect(authorizationManager.getByNodeName("nodename")).andReturn(null);
     expect(securityManager.expandPublicKey(authorization)).andReturn("publickey.pub");
     authorizationManager.add(authorization);
+    securityManager.invalidate("nodename");
     authorizationRequestManager.remove("abc");
     
     replayAll();
@@ -679,7 +694,7 @@ public class ExchangeManagerTest extends EasyMockSupport {
     request.setNodeName("nisse");
     SendFileRequestCallback callback = createMock(SendFileRequestCallback.class);
     
-    expect(methods.createPooledFileRequestPublisher()).andReturn(publisher);
+    expect(methods.createPooledFileRequestPublisher("nisse")).andReturn(publisher);
     publisher.publish(request, callback);
     
     replayAll();
@@ -713,4 +728,124 @@ public class ExchangeManagerTest extends EasyMockSupport {
     verifyAll();
   }
 
+  @Test
+  public void test_sendAsync_fanOut() {
+    IPooledFileRequestPublisher p1 = createMock(IPooledFileRequestPublisher.class);
+    IPooledFileRequestPublisher p2 = createMock(IPooledFileRequestPublisher.class);
+    classUnderTest.getPooledPublishers().put("n1", p1);
+    classUnderTest.getPooledPublishers().put("n2", p2);
+    
+    SendFileRequest request = new SendFileRequest();
+    SendFileRequest r1 = new SendFileRequest();
+    SendFileRequest r2 = new SendFileRequest();
+    SendFileRequestCallback callback = createMock(SendFileRequestCallback.class);
+    Map<String, String> subscribers = new LinkedHashMap<String, String>();
+    subscribers.put("n1", "http://n1");
+    subscribers.put("n2", "http://n2");
+    Capture<SendFileRequestCallback> c1 = EasyMock.newCapture();
+    Capture<SendFileRequestCallback> c2 = EasyMock.newCapture();
+    
+    connector.prepare(request);
+    expect(methods.createNewRequest(request, "http://n1")).andReturn(r1);
+    p1.publish(same(r1), capture(c1));
+    expect(methods.createNewRequest(request, "http://n2")).andReturn(r2);
+    p2.publish(same(r2), capture(c2));
+    callback.filePublished(r1);
+    callback.filePublicationFailed(r2, null);
+    
+    replayAll();
+    
+    FanOutResult result = classUnderTest.sendAsync(request, subscribers, callback);
+    assertEquals(2, result.getPending());
+    c1.getValue().filePublished(r1);
+    c2.getValue().filePublicationFailed(r2, null);
+    
+    verifyAll();
+    assertNotNull(request.getDate());
+    assertEquals("n1", r1.getNodeName());
+    assertEquals("n2", r2.getNodeName());
+    assertTrue(result.isDone());
+    assertEquals(Arrays.asList("n1"), result.getPublished());
+    assertEquals(Arrays.asList("n2"), result.getFailed());
+  }
+
+  @Test
+  public void test_destroy() {
+    IPooledFileRequestPublisher publisher = createMock(IPooledFileRequestPublisher.class);
+    classUnderTest.getPooledPublishers().put("nisse", publisher);
+    publisher.shutdown();
+    
+    replayAll();
+    
+    classUnderTest.destroy();
+    
+    verifyAll();
+    assertTrue(classUnderTest.getPooledPublishers().isEmpty());
+  }
+  
+  @Test
+  public void test_afterPropertiesSet_resumesQueues() throws Exception {
+    File dir = File.createTempFile("beast_queue", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      new File(dir, "nisse" + OutboundQueue.JOURNAL_SUFFIX).createNewFile();
+      IPooledFileRequestPublisher publisher = createMock(IPooledFileRequestPublisher.class);
+      expect(methods.createPooledFileRequestPublisher("nisse")).andReturn(publisher);
+      classUnderTest.setQueueDirectory(dir.getAbsolutePath());
+      
+      replayAll();
+      
+      classUnderTest.afterPropertiesSet();
+      
+      verifyAll();
+      assertSame(publisher, classUnderTest.getPooledPublishers().get("nisse"));
+    } finally {
+      new File(dir, "nisse" + OutboundQueue.JOURNAL_SUFFIX).delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testGetQueueSize() {
+    ExchangeManager classUnderTest = new ExchangeManager();
+    assertEquals(ExchangeManager.DEFAULT_MEMORY_QUEUE_SIZE, classUnderTest.getQueueSize());
+    classUnderTest.setQueueDirectory("/tmp/queue");
+    assertEquals(ExchangeManager.DEFAULT_PERSISTENT_QUEUE_SIZE, classUnderTest.getQueueSize());
+    classUnderTest.setQueueSize(10);
+    assertEquals(10, classUnderTest.getQueueSize());
+  }
+  
+  @Test
+  public void testInvalidateAfterCommit() {
+    replayAll();
+    
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      classUnderTest.invalidateAfterCommit("nodename");
+      verifyAll();
+      
+      resetAll();
+      securityManager.invalidate("nodename");
+      replayAll();
+      
+      for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+        sync.afterCommit();
+      }
+      verifyAll();
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+  
+  @Test
+  public void testInvalidateAfterCommit_noTransaction() {
+    securityManager.invalidate("nodename");
+    
+    replayAll();
+    
+    classUnderTest.invalidateAfterCommit("nodename");
+    
+    verifyAll();
+  }
 }
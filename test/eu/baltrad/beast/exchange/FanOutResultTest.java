@@ -0,0 +1,65 @@
+package eu.baltrad.beast.exchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMockSupport;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class FanOutResultTest extends EasyMockSupport {
+  private SendFileRequest createRequest(String nodeName) {
+    SendFileRequest result = new SendFileRequest();
+    result.setNodeName(nodeName);
+    return result;
+  }
+  
+  @Test
+  public void testCallbacks() throws Exception {
+    SendFileRequestErrorCallback delegate = createMock(SendFileRequestErrorCallback.class);
+    SendFileRequest r1 = createRequest("n1");
+    SendFileRequest r2 = createRequest("n2");
+    SendFileRequest r3 = createRequest("n3");
+    Exception e = new RuntimeException();
+    
+    delegate.filePublished(r1, "http://else", 200);
+    delegate.filePublicationError(r2, e);
+    
+    replayAll();
+    
+    FanOutResult classUnderTest = new FanOutResult(3);
+    classUnderTest.createCallback(delegate).filePublished(r1, "http://else", 200);
+    classUnderTest.createCallback(delegate).filePublicationError(r2, e);
+    
+    assertFalse(classUnderTest.isDone());
+    assertFalse(classUnderTest.await(1, TimeUnit.MILLISECONDS));
+    assertEquals(1, classUnderTest.getPending());
+    
+    classUnderTest.createCallback(null).filePublicationError(r3, null);
+    
+    verifyAll();
+    assertTrue(classUnderTest.await(1, TimeUnit.MILLISECONDS));
+    assertEquals(3, classUnderTest.getTotal());
+    assertEquals(Arrays.asList("n1"), classUnderTest.getPublished());
+    assertEquals(Arrays.asList("n2", "n3"), classUnderTest.getFailed());
+  }
+  
+  @Test
+  public void testCallback_onlyCountedOnce() throws Exception {
+    FanOutResult classUnderTest = new FanOutResult(2);
+    SendFileRequestErrorCallback callback = classUnderTest.createCallback(null);
+    SendFileRequest r1 = createRequest("n1");
+    
+    callback.filePublicationFailed(r1, null);
+    callback.filePublicationError(r1, null);
+    
+    assertEquals(1, classUnderTest.getPending());
+    assertEquals(Arrays.asList("n1"), classUnderTest.getFailed());
+  }
+}
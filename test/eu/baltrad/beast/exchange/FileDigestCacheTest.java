@@ -0,0 +1,83 @@
+package eu.baltrad.beast.exchange;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class FileDigestCacheTest {
+  private FileDigestCache classUnderTest = null;
+  private File file = null;
+  private int calculations = 0;
+  
+  @Before
+  public void setUp() throws Exception {
+    calculations = 0;
+    classUnderTest = new FileDigestCache() {
+      @Override
+      protected String calculateMd5Hex(File file) throws IOException {
+        calculations++;
+        return super.calculateMd5Hex(file);
+      }
+    };
+    file = File.createTempFile("beast_digest", ".h5");
+    write(file, "abc");
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+    classUnderTest = null;
+  }
+  
+  private void write(File f, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes());
+    } finally {
+      out.close();
+    }
+  }
+  
+  @Test
+  public void testMd5Hex() throws Exception {
+    assertEquals(DigestUtils.md5Hex("abc".getBytes()), classUnderTest.md5Hex(file));
+    assertEquals(DigestUtils.md5Hex("abc".getBytes()), classUnderTest.md5Hex(file));
+    assertEquals(1, calculations);
+    assertEquals(1, classUnderTest.size());
+  }
+  
+  @Test
+  public void testMd5Hex_modified() throws Exception {
+    classUnderTest.md5Hex(file);
+    write(file, "abcdef");
+    
+    assertEquals(DigestUtils.md5Hex("abcdef".getBytes()), classUnderTest.md5Hex(file));
+    assertEquals(2, calculations);
+  }
+  
+  @Test
+  public void testMaxSize() throws Exception {
+    File other = File.createTempFile("beast_digest", ".h5");
+    try {
+      classUnderTest.setMaxSize(1);
+      classUnderTest.md5Hex(file);
+      classUnderTest.md5Hex(other);
+      classUnderTest.md5Hex(file);
+      
+      assertEquals(1, classUnderTest.size());
+      assertEquals(3, calculations);
+    } finally {
+      other.delete();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+package eu.baltrad.beast.exchange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class OutboundQueueTest {
+  private File dir = null;
+  private OutboundQueue classUnderTest = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("beast_queue", "");
+    dir.delete();
+    dir.mkdirs();
+    classUnderTest = new OutboundQueue(dir, "se.node");
+    classUnderTest.open();
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest.close();
+    FileUtils.deleteDirectory(dir);
+  }
+  
+  private SendFileRequest createRequest(byte[] data, File file) {
+    SendFileRequest result = new SendFileRequest();
+    result.setAddress("http://somewhere/post");
+    result.setNodeName("se.node");
+    result.setContentType("application/x-hdf5");
+    result.setDate(new Date(1000L));
+    result.setData(data);
+    result.setFile(file);
+    return result;
+  }
+  
+  @Test
+  public void testAddAndTake() throws Exception {
+    SendFileRequest request = createRequest("abc".getBytes(), null);
+    Object metadata = new Object();
+    request.setMetadata(metadata);
+    
+    OutboundQueue.Entry added = classUnderTest.add(request, null);
+    OutboundQueue.Entry taken = classUnderTest.take(10);
+    
+    assertSame(added, taken);
+    assertNull(classUnderTest.take(10));
+    assertEquals(1, classUnderTest.size());
+    // The spooled data should not be kept in memory
+    assertSame(metadata, taken.getRequest().getMetadata());
+    assertNull(taken.getRequest().getData());
+    assertNull(taken.getPayload().getData());
+    byte[] spooled = IOUtils.toByteArray(new FileInputStream(taken.getPayload().getFile()));
+    assertArrayEquals("abc".getBytes(), spooled);
+    
+    classUnderTest.completed(taken);
+    
+    assertEquals(0, classUnderTest.size());
+    assertFalse(taken.getPayload().getFile().exists());
+  }
+  
+  @Test
+  public void testConcurrentAddAndTake() throws Exception {
+    final int count = 200;
+    final Set<Long> taken = Collections.synchronizedSet(new HashSet<Long>());
+    final AtomicInteger duplicates = new AtomicInteger();
+    classUnderTest.setSyncBatchSize(1);
+    
+    Thread[] senders = new Thread[4];
+    for (int i = 0; i < senders.length; i++) {
+      senders[i] = new Thread() {
+        public void run() {
+          try {
+            OutboundQueue.Entry e = null;
+            while ((e = classUnderTest.take(500)) != null) {
+              if (!taken.add(e.getId())) {
+                duplicates.incrementAndGet();
+              }
+              classUnderTest.completed(e);
+            }
+          } catch (InterruptedException e) {
+            // stop
+          }
+        }
+      };
+      senders[i].start();
+    }
+    for (int i = 0; i < count; i++) {
+      classUnderTest.add(createRequest(("data" + i).getBytes(), null), null);
+    }
+    for (Thread t : senders) {
+      t.join(10000);
+    }
+    
+    assertEquals(count, taken.size());
+    assertEquals(0, duplicates.get());
+    assertEquals(0, classUnderTest.size());
+  }
+  
+  @Test
+  public void testRetry() throws Exception {
+    OutboundQueue.Entry added = classUnderTest.add(createRequest("abc".getBytes(), null), null);
+    classUnderTest.take(10);
+    
+    classUnderTest.retry(added, 60000);
+    
+    assertNull(classUnderTest.take(10));
+    assertEquals(1, added.getAttempts());
+    assertEquals(1, classUnderTest.getRetryCount());
+  }
+  
+  @Test
+  public void testResume() throws Exception {
+    File stored = new File(dir, "stored.h5");
+    FileUtils.writeByteArrayToFile(stored, "xyz".getBytes());
+    OutboundQueue.Entry e1 = classUnderTest.add(createRequest("abc".getBytes(), null), null);
+    OutboundQueue.Entry e2 = classUnderTest.add(createRequest(null, stored), null);
+    OutboundQueue.Entry e3 = classUnderTest.add(createRequest(null, stored), null);
+    classUnderTest.take(10);
+    classUnderTest.retry(e1, 0);
+    classUnderTest.take(10);
+    classUnderTest.completed(e2);
+    classUnderTest.close();
+    
+    classUnderTest = new OutboundQueue(dir, "se.node");
+    classUnderTest.open();
+    
+    assertEquals(2, classUnderTest.size());
+    OutboundQueue.Entry r1 = classUnderTest.take(10);
+    OutboundQueue.Entry r3 = classUnderTest.take(10);
+    assertEquals(e1.getId(), r1.getId());
+    assertEquals(1, r1.getAttempts());
+    assertEquals(e1.getPayload().getFile(), r1.getPayload().getFile());
+    assertEquals("http://somewhere/post", r1.getPayload().getAddress());
+    assertEquals("application/x-hdf5", r1.getPayload().getContentType());
+    assertEquals(new Date(1000L), r1.getPayload().getDate());
+    assertNull(r1.getCallback());
+    assertEquals(e3.getId(), r3.getId());
+    assertEquals(stored.getAbsoluteFile(), r3.getPayload().getFile());
+    
+    OutboundQueue.Entry e4 = classUnderTest.add(createRequest("abc".getBytes(), null), null);
+    assertTrue(e4.getId() > e3.getId());
+  }
+  
+  @Test
+  public void testDeadLetter() throws Exception {
+    OutboundQueue.Entry added = classUnderTest.add(createRequest("abc".getBytes(), null), null);
+    File spool = added.getPayload().getFile();
+    
+    classUnderTest.deadLetter(classUnderTest.removeOldest());
+    
+    assertEquals(0, classUnderTest.size());
+    assertEquals(1, classUnderTest.getDeadLetterCount());
+    assertFalse(spool.exists());
+    File[] deadletters = new File(dir, OutboundQueue.DEAD_LETTER_DIRECTORY).listFiles();
+    Arrays.sort(deadletters);
+    assertEquals(2, deadletters.length);
+    assertTrue(deadletters[0].getName().endsWith(".dat"));
+    assertTrue(deadletters[1].getName().endsWith(".properties"));
+    
+    classUnderTest.close();
+    classUnderTest = new OutboundQueue(dir, "se.node");
+    classUnderTest.open();
+    assertEquals(0, classUnderTest.size());
+  }
+  
+  @Test
+  public void testCompact() throws Exception {
+    classUnderTest.setCompactThreshold(10);
+    classUnderTest.setSyncBatchSize(1);
+    
+    OutboundQueue.Entry kept = classUnderTest.add(createRequest("keep".getBytes(), null), null);
+    for (int i = 0; i < 20; i++) {
+      classUnderTest.add(createRequest(("data" + i).getBytes(), null), null);
+    }
+    OutboundQueue.Entry e = classUnderTest.take(10);
+    assertSame(kept, e);
+    classUnderTest.retry(e, 100000);
+    while ((e = classUnderTest.take(10)) != null) {
+      classUnderTest.completed(e);
+    }
+    
+    assertEquals(1, classUnderTest.size());
+    assertTrue(classUnderTest.getJournalRecords() <= 10);
+    
+    classUnderTest.close();
+    classUnderTest = new OutboundQueue(dir, "se.node");
+    classUnderTest.open();
+    assertEquals(1, classUnderTest.size());
+    OutboundQueue.Entry resumed = classUnderTest.removeOldest();
+    assertEquals(kept.getId(), resumed.getId());
+    assertEquals(1, resumed.getAttempts());
+    assertArrayEquals("keep".getBytes(), IOUtils.toByteArray(new FileInputStream(resumed.getPayload().getFile())));
+  }
+  
+  @Test
+  public void testList() throws Exception {
+    assertEquals(Arrays.asList("se.node"), OutboundQueue.list(dir));
+  }
+  
+  @Test
+  public void testMemoryOnly() throws Exception {
+    OutboundQueue queue = new OutboundQueue(null, "se.node");
+    queue.open();
+    SendFileRequest request = createRequest("abc".getBytes(), null);
+    
+    queue.add(request, null);
+    OutboundQueue.Entry entry = queue.take(10);
+    
+    assertNotNull(entry);
+    assertArrayEquals("abc".getBytes(), entry.getPayload().getData());
+    queue.deadLetter(entry);
+    assertEquals(1, queue.getDeadLetterCount());
+    queue.close();
+  }
+}
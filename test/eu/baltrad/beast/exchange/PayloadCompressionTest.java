@@ -0,0 +1,112 @@
+package eu.baltrad.beast.exchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class PayloadCompressionTest {
+  private PayloadCompression classUnderTest = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    classUnderTest = new PayloadCompression();
+    classUnderTest.setMinSize(10);
+  }
+  
+  private ExchangeResponse createResponse(int status, String acceptEncoding) {
+    ExchangeResponse result = new ExchangeResponse(status);
+    result.setAcceptEncoding(acceptEncoding);
+    return result;
+  }
+  
+  @Test
+  public void testShouldCompress_unknown() {
+    assertFalse(classUnderTest.shouldCompress("se.node", 1000));
+    assertNull(classUnderTest.getStatistics("se.node").isSupported());
+  }
+  
+  @Test
+  public void testNegotiate_advertised() {
+    classUnderTest.negotiate("se.node", createResponse(200, "gzip, deflate"), false);
+    assertTrue(classUnderTest.shouldCompress("se.node", 1000));
+    assertFalse(classUnderTest.shouldCompress("se.node", 5));
+    assertFalse(classUnderTest.shouldCompress("dk.node", 1000));
+  }
+  
+  @Test
+  public void testNegotiate_notAccepted() {
+    classUnderTest.negotiate("se.node", createResponse(200, "gzip, deflate;q=0"), false);
+    assertFalse(classUnderTest.shouldCompress("se.node", 1000));
+    classUnderTest.negotiate("se.node", createResponse(200, "gzip"), false);
+    assertFalse(classUnderTest.shouldCompress("se.node", 1000));
+  }
+  
+  @Test
+  public void testNegotiate_unsupportedMediaType() {
+    classUnderTest.negotiate("se.node", createResponse(200, "deflate"), false);
+    classUnderTest.negotiate("se.node", createResponse(415, null), true);
+    assertFalse(classUnderTest.shouldCompress("se.node", 1000));
+    assertEquals(Boolean.FALSE, classUnderTest.getStatistics("se.node").isSupported());
+  }
+  
+  @Test
+  public void testShouldCompress_disabled() {
+    classUnderTest.negotiate("se.node", createResponse(200, "deflate"), false);
+    classUnderTest.setEnabled(false);
+    assertFalse(classUnderTest.shouldCompress("se.node", 1000));
+  }
+  
+  @Test
+  public void testCompress() throws Exception {
+    StringBuffer buf = new StringBuffer();
+    for (int i = 0; i < 1000; i++) {
+      buf.append("dBZ 0.5 ");
+    }
+    byte[] data = buf.toString().getBytes();
+    
+    InputStream in = classUnderTest.compress("se.node", new ByteArrayInputStream(data));
+    byte[] compressed = IOUtils.toByteArray(in);
+    in.close();
+    
+    assertTrue(compressed.length < data.length / 10);
+    byte[] decoded = IOUtils.toByteArray(PayloadCompression.decode("deflate", new ByteArrayInputStream(compressed)));
+    assertEquals(buf.toString(), new String(decoded));
+    
+    PayloadCompression.Statistics stats = classUnderTest.getStatistics("se.node");
+    assertEquals(1, stats.getCount());
+    assertEquals(data.length, stats.getUncompressedBytes());
+    assertEquals(compressed.length, stats.getCompressedBytes());
+    assertTrue(stats.getRatio() > 10.0);
+  }
+  
+  @Test
+  public void testDecode_identity() throws Exception {
+    InputStream in = new ByteArrayInputStream(new byte[0]);
+    assertSame(in, PayloadCompression.decode(null, in));
+    assertSame(in, PayloadCompression.decode("identity", in));
+  }
+  
+  @Test
+  public void testDecode_unsupported() throws Exception {
+    try {
+      PayloadCompression.decode("zstd", new ByteArrayInputStream(new byte[0]));
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // pass
+    }
+  }
+}
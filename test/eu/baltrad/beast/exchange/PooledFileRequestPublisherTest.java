@@ -0,0 +1,182 @@
+package eu.baltrad.beast.exchange;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpStatus;
+import org.easymock.EasyMockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author anders
+ */
+public class PooledFileRequestPublisherTest extends EasyMockSupport {
+  private PooledFileRequestPublisher classUnderTest = null;
+  private IExchangeManager exchangeManager = null;
+  private SendFileRequestErrorCallback callback = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    exchangeManager = createMock(IExchangeManager.class);
+    callback = createMock(SendFileRequestErrorCallback.class);
+    classUnderTest = new PooledFileRequestPublisher(2, 1, 1) {
+      @Override
+      protected long getBackoff(int attempt) {
+        return 1000;
+      }
+      @Override
+      protected void work() {
+        // Entries are processed by the tests
+      }
+    };
+    classUnderTest.setNodeName("se.node");
+    classUnderTest.setExchangeManager(exchangeManager);
+    classUnderTest.afterPropertiesSet();
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest.shutdown();
+  }
+  
+  private SendFileRequest createRequest() {
+    SendFileRequest result = new SendFileRequest();
+    result.setNodeName("se.node");
+    result.setData("abc".getBytes());
+    return result;
+  }
+  
+  @Test
+  public void testProcess_published() throws Exception {
+    SendFileRequest request = createRequest();
+    expect(exchangeManager.send(isA(SendFileRequest.class), isA(SendFileRequestCallback.class))).andReturn(new ExchangeResponse(HttpStatus.SC_OK));
+    callback.filePublished(request);
+    
+    replayAll();
+    
+    OutboundQueue.Entry entry = publishAndTake(request);
+    classUnderTest.process(entry);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getQueueDepth());
+  }
+  
+  @Test
+  public void testProcess_retry() throws Exception {
+    SendFileRequest request = createRequest();
+    expect(exchangeManager.send(isA(SendFileRequest.class), isA(SendFileRequestCallback.class))).andReturn(new ExchangeResponse(HttpStatus.SC_SERVICE_UNAVAILABLE));
+    
+    replayAll();
+    
+    OutboundQueue.Entry entry = publishAndTake(request);
+    classUnderTest.process(entry);
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getQueueDepth());
+    assertEquals(1, classUnderTest.getRetryCount());
+    assertEquals(1, entry.getAttempts());
+  }
+  
+  @Test
+  public void testProcess_retry_opensCircuit() throws Exception {
+    SendFileRequest request = createRequest();
+    classUnderTest.getCircuitBreaker().setFailureThreshold(1);
+    expect(exchangeManager.send(isA(SendFileRequest.class), isA(SendFileRequestCallback.class))).andReturn(new ExchangeResponse(HttpStatus.SC_SERVICE_UNAVAILABLE));
+    
+    replayAll();
+    
+    OutboundQueue.Entry entry = publishAndTake(request);
+    classUnderTest.process(entry);
+    
+    verifyAll();
+    assertEquals(CircuitBreaker.State.OPEN, classUnderTest.getCircuitState());
+    assertEquals(1, classUnderTest.getConcurrency());
+  }
+  
+  @Test
+  public void testProcess_exception_retry() throws Exception {
+    SendFileRequest request = createRequest();
+    expect(exchangeManager.send(isA(SendFileRequest.class), isA(SendFileRequestCallback.class))).andThrow(new RuntimeException());
+    
+    replayAll();
+    
+    OutboundQueue.Entry entry = publishAndTake(request);
+    classUnderTest.process(entry);
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getRetryCount());
+  }
+  
+  @Test
+  public void testProcess_notRetryable() throws Exception {
+    SendFileRequest request = createRequest();
+    ExchangeResponse response = new ExchangeResponse(HttpStatus.SC_UNAUTHORIZED);
+    expect(exchangeManager.send(isA(SendFileRequest.class), isA(SendFileRequestCallback.class))).andReturn(response);
+    callback.filePublicationFailed(request, response);
+    
+    replayAll();
+    
+    OutboundQueue.Entry entry = publishAndTake(request);
+    classUnderTest.process(entry);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getQueueDepth());
+    assertEquals(1, classUnderTest.getDeadLetterCount());
+  }
+  
+  @Test
+  public void testProcess_tooOld() throws Exception {
+    SendFileRequest request = createRequest();
+    classUnderTest.setMaxAge(500);
+    expect(exchangeManager.send(isA(SendFileRequest.class), isA(SendFileRequestCallback.class))).andReturn(new ExchangeResponse(HttpStatus.SC_SERVICE_UNAVAILABLE));
+    callback.filePublicationFailed(isA(SendFileRequest.class), isA(ExchangeResponse.class));
+    
+    replayAll();
+    
+    OutboundQueue.Entry entry = publishAndTake(request);
+    classUnderTest.process(entry);
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getDeadLetterCount());
+  }
+  
+  @Test
+  public void testPublish_queueFull() throws Exception {
+    SendFileRequest r1 = createRequest();
+    callback.filePublicationError(r1, null);
+    
+    replayAll();
+    
+    classUnderTest.publish(r1, callback);
+    classUnderTest.publish(createRequest(), callback);
+    classUnderTest.publish(createRequest(), callback);
+    
+    verifyAll();
+    assertEquals(2, classUnderTest.getQueueDepth());
+    assertEquals(1, classUnderTest.getDeadLetterCount());
+  }
+  
+  @Test
+  public void testGetBackoff() throws Exception {
+    PooledFileRequestPublisher publisher = new PooledFileRequestPublisher();
+    publisher.setInitialBackoff(1000);
+    publisher.setMaxBackoff(5000);
+    for (int i = 0; i < 20; i++) {
+      long b1 = publisher.getBackoff(1);
+      long b3 = publisher.getBackoff(3);
+      long b10 = publisher.getBackoff(10);
+      assertTrue(b1 >= 500 && b1 <= 1000);
+      assertTrue(b3 >= 2000 && b3 <= 4000);
+      assertTrue(b10 >= 2500 && b10 <= 5000);
+    }
+  }
+  
+  private OutboundQueue.Entry publishAndTake(SendFileRequest request) throws Exception {
+    classUnderTest.publish(request, callback);
+    return classUnderTest.getQueue().take(10);
+  }
+}
@@ -0,0 +1,185 @@
+package eu.baltrad.beast.exchange.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.baltrad.beast.exchange.ExchangeResponse;
+import eu.baltrad.beast.exchange.PayloadCompression;
+import eu.baltrad.beast.exchange.SendFileRequest;
+
+/**
+ * @author anders
+ */
+public class Http2FileTransportTest {
+  private Http2FileTransport classUnderTest = null;
+  private HttpServer server = null;
+  private Map<String, String> receivedHeaders = null;
+  private String receivedBody = null;
+  private int status = 200;
+  private long delay = 0;
+  
+  @Before
+  public void setUp() throws Exception {
+    receivedHeaders = new HashMap<String, String>();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        sleep(delay);
+        for (String name : exchange.getRequestHeaders().keySet()) {
+          receivedHeaders.put(name.toLowerCase(), exchange.getRequestHeaders().getFirst(name));
+        }
+        receivedBody = IOUtils.toString(PayloadCompression.decode(exchange.getRequestHeaders().getFirst("Content-Encoding"), exchange.getRequestBody()), "UTF-8");
+        if (status == 302) {
+          exchange.getResponseHeaders().add("Location", "http://other.node/BaltradDex");
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+    classUnderTest = new Http2FileTransport();
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest.shutdown();
+    server.stop(0);
+  }
+  
+  private static void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  private HttpPost createSignedPost() {
+    HttpPost post = new HttpPost("http://127.0.0.1:" + server.getAddress().getPort() + "/BaltradDex/post_file.htm");
+    post.addHeader("Content-Type", "application/x-hdf5");
+    post.addHeader("Node-Name", "se.node");
+    post.addHeader("Date", "Tue, 07 Jan 2020 10:00:00 GMT");
+    post.addHeader("Content-MD5", "900150983cd24fb0d6963f7d28e17f72");
+    post.addHeader("Authorization", "se.node:signature");
+    return post;
+  }
+  
+  @Test
+  public void testSend_data() throws Exception {
+    SendFileRequest request = new SendFileRequest();
+    request.setData("abc".getBytes());
+    
+    ExchangeResponse result = classUnderTest.send(createSignedPost(), request, null);
+    
+    assertEquals(200, result.statusCode());
+    assertFalse(result.isRedirected());
+    assertEquals("abc", receivedBody);
+    assertEquals("se.node", receivedHeaders.get("node-name"));
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", receivedHeaders.get("content-md5"));
+    assertEquals("se.node:signature", receivedHeaders.get("authorization"));
+    assertEquals("Tue, 07 Jan 2020 10:00:00 GMT", receivedHeaders.get("date"));
+    assertEquals("application/x-hdf5", receivedHeaders.get("content-type"));
+    assertEquals(1, classUnderTest.getHttp1Responses() + classUnderTest.getHttp2Responses());
+  }
+  
+  @Test
+  public void testSend_file() throws Exception {
+    File file = File.createTempFile("beast_http2", ".h5");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write("abcdef".getBytes());
+      out.close();
+      SendFileRequest request = new SendFileRequest();
+      request.setFile(file);
+      
+      ExchangeResponse result = classUnderTest.send(createSignedPost(), request, null);
+      
+      assertEquals(200, result.statusCode());
+      assertEquals("abcdef", receivedBody);
+    } finally {
+      file.delete();
+    }
+  }
+  
+  @Test
+  public void testSend_compressed() throws Exception {
+    PayloadCompression compression = new PayloadCompression();
+    SendFileRequest request = new SendFileRequest();
+    request.setNodeName("se.node");
+    request.setData("abcabcabcabcabcabcabc".getBytes());
+    HttpPost post = createSignedPost();
+    post.addHeader("Content-Encoding", PayloadCompression.ENCODING);
+    
+    ExchangeResponse result = classUnderTest.send(post, request, compression);
+    
+    assertEquals(200, result.statusCode());
+    assertEquals("abcabcabcabcabcabcabc", receivedBody);
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", receivedHeaders.get("content-md5"));
+    assertEquals(1, compression.getStatistics("se.node").getCount());
+    assertEquals(21, compression.getStatistics("se.node").getUncompressedBytes());
+  }
+  
+  @Test
+  public void testSend_redirected() throws Exception {
+    status = 302;
+    SendFileRequest request = new SendFileRequest();
+    request.setData("abc".getBytes());
+    
+    ExchangeResponse result = classUnderTest.send(createSignedPost(), request, null);
+    
+    assertEquals(302, result.statusCode());
+    assertTrue(result.isRedirected());
+    assertEquals("http://other.node/BaltradDex", result.getRedirectAddress());
+  }
+  
+  @Test
+  public void testSend_responseTimeout() throws Exception {
+    delay = 1000;
+    classUnderTest.setRequestTimeout(100);
+    SendFileRequest request = new SendFileRequest();
+    request.setData("abc".getBytes());
+    
+    long st = System.currentTimeMillis();
+    try {
+      classUnderTest.send(createSignedPost(), request, null);
+      fail("Expected HttpTimeoutException");
+    } catch (HttpTimeoutException e) {
+      // pass
+    }
+    assertTrue(System.currentTimeMillis() - st < 1000);
+  }
+  
+  @Test
+  public void testMonitoredBody_getDeadline() throws Exception {
+    Http2FileTransport.MonitoredBody body = new Http2FileTransport.MonitoredBody(HttpRequest.BodyPublishers.ofByteArray("abc".getBytes()));
+    long st = System.currentTimeMillis();
+    
+    long deadline = body.getDeadline(1000, 5000);
+    
+    assertFalse(body.isSent());
+    assertTrue(deadline >= st + 1000 - 100 && deadline <= st + 1000 + 100);
+    assertEquals(3, body.contentLength());
+  }
+}
@@ -6,6 +6,8 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -15,6 +17,8 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
 import org.easymock.EasyMockSupport;
 import org.junit.After;
 import org.junit.Before;
@@ -40,6 +44,7 @@ public class HttpExchangeConnectorTest extends EasyMockSupport {
     public HttpClient createClient();
     public void shutdownClient(HttpClient httpClient);
     public ExchangeResponse createResponse(HttpResponse response);
+    public ExchangeResponse sendHttp2(HttpPost signed, SendFileRequest request, boolean compress);
     
   }
   private MethodMock methods;
@@ -69,6 +74,10 @@ public class HttpExchangeConnectorTest extends EasyMockSupport {
       protected ExchangeResponse createResponse(HttpResponse response) {
         return methods.createResponse(response);
       }
+      @Override
+      protected ExchangeResponse sendHttp2(HttpPost signed, SendFileRequest request, boolean compress) {
+        return methods.sendHttp2(signed, request, compress);
+      }
     };
     classUnderTest.setRequestMapper(requestMapper);
     classUnderTest.setSecurityManager(securityManager);
@@ -114,7 +123,6 @@ public class HttpExchangeConnectorTest extends EasyMockSupport {
     expect(client.execute(post)).andReturn(httpResponse);
     expect(httpResponse.getEntity()).andReturn(null);
     expect(methods.createResponse(httpResponse)).andReturn(exchangeResponse);
-    methods.shutdownClient(client);
     
     replayAll();
     
@@ -147,7 +155,6 @@ public class HttpExchangeConnectorTest extends EasyMockSupport {
     expect(client.execute(post)).andReturn(response);
     expect(response.getEntity()).andReturn(null);
     expect(methods.createResponse(response)).andReturn(exchangeResponse);
-    methods.shutdownClient(client);
     replayAll();
     
     ExchangeResponse result = classUnderTest.send(request);
@@ -156,6 +163,226 @@ public class HttpExchangeConnectorTest extends EasyMockSupport {
     assertSame(exchangeResponse, result);
   }
   
+  @Test
+  public void test_send_FileRequest_compressed() throws Exception {
+    HttpResponse response = createMock(HttpResponse.class);
+    ExchangeResponse exchangeResponse = new ExchangeResponse(HttpStatus.SC_OK);
+    exchangeResponse.setAcceptEncoding("deflate");
+
+    SendFileRequest request = new SendFileRequest();
+    request.setAddress("http://somewhere.se");
+    request.setNodeName("nisse");
+    request.setData(new byte[10000]);
+    request.setDate(dateFormat.parse("2020-01-07T10:00:00Z"));
+    classUnderTest.getCompression().negotiate("nisse", exchangeResponse, false);
+    
+    expect(methods.createClient()).andReturn(client);
+    expect(methods.createPost("http://somewhere.se")).andReturn(post);
+    expect(securityManager.getLocalNodeName()).andReturn("localname").anyTimes();
+    expect(securityManager.createSignatureMessage(post)).andReturn("xyz");
+    expect(securityManager.createSignature("xyz")).andReturn("abc");
+    expect(client.execute(post)).andReturn(response);
+    expect(response.getEntity()).andReturn(null);
+    expect(methods.createResponse(response)).andReturn(exchangeResponse);
+    replayAll();
+    
+    ExchangeResponse result = classUnderTest.send(request);
+    
+    verifyAll();
+    assertSame(exchangeResponse, result);
+    assertTrue(post.getEntity() instanceof CompressingEntity);
+    assertEquals("deflate", post.getFirstHeader("Content-Encoding").getValue());
+    assertEquals("b85d6fb9ef4260dcf1ce0a1b0bff80d3", post.getFirstHeader("Content-MD5").getValue());
+  }
+  
+  @Test
+  public void test_send_FileRequest_compressed_unsupported() throws Exception {
+    HttpResponse response = createMock(HttpResponse.class);
+    ExchangeResponse advertised = new ExchangeResponse(HttpStatus.SC_OK);
+    advertised.setAcceptEncoding("deflate");
+    ExchangeResponse unsupported = new ExchangeResponse(HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE);
+    ExchangeResponse exchangeResponse = new ExchangeResponse(HttpStatus.SC_OK);
+
+    SendFileRequest request = new SendFileRequest();
+    request.setAddress("http://somewhere.se");
+    request.setNodeName("nisse");
+    request.setData(new byte[10000]);
+    request.setDate(dateFormat.parse("2020-01-07T10:00:00Z"));
+    classUnderTest.getCompression().negotiate("nisse", advertised, false);
+    
+    expect(methods.createClient()).andReturn(client);
+    expect(methods.createPost("http://somewhere.se")).andReturn(post);
+    expect(securityManager.getLocalNodeName()).andReturn("localname").anyTimes();
+    expect(securityManager.createSignatureMessage(post)).andReturn("xyz");
+    expect(securityManager.createSignature("xyz")).andReturn("abc");
+    expect(client.execute(post)).andReturn(response).times(2);
+    expect(response.getEntity()).andReturn(null).times(2);
+    expect(methods.createResponse(response)).andReturn(unsupported);
+    expect(methods.createResponse(response)).andReturn(exchangeResponse);
+    replayAll();
+    
+    ExchangeResponse result = classUnderTest.send(request);
+    
+    verifyAll();
+    assertSame(exchangeResponse, result);
+    assertTrue(post.getEntity() instanceof ByteArrayEntity);
+    assertEquals(0, post.getHeaders("Content-Encoding").length);
+    assertEquals(Boolean.FALSE, classUnderTest.getCompression().getStatistics("nisse").isSupported());
+  }
+  
+  @Test
+  public void test_send_FileRequest_http2() throws Exception {
+    ExchangeResponse exchangeResponse = new ExchangeResponse(HttpStatus.SC_OK);
+
+    SendFileRequest request = new SendFileRequest();
+    request.setAddress("http://somewhere.se");
+    request.setContentType("application/x-hdf5");
+    request.setData("abc".getBytes());
+    request.setDate(dateFormat.parse("2020-01-07T10:00:00Z"));
+    
+    expect(methods.createPost("http://somewhere.se")).andReturn(post);
+    expect(securityManager.getLocalNodeName()).andReturn("localname").anyTimes();
+    expect(securityManager.createSignatureMessage(post)).andReturn("xyz");
+    expect(securityManager.createSignature("xyz")).andReturn("abc");
+    expect(methods.sendHttp2(post, request, false)).andReturn(exchangeResponse);
+    replayAll();
+    
+    classUnderTest.setHttp2Enabled(true);
+    ExchangeResponse result = classUnderTest.send(request);
+    
+    verifyAll();
+    assertSame(exchangeResponse, result);
+    assertEquals("localname:abc", post.getFirstHeader("Authorization").getValue());
+    assertEquals("localname", post.getFirstHeader("Node-Name").getValue());
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", post.getFirstHeader("Content-MD5").getValue());
+  }
+  
+  @Test
+  public void test_send_FileRequest_file() throws Exception {
+    HttpResponse response = createMock(HttpResponse.class);
+    ExchangeResponse exchangeResponse = new ExchangeResponse(HttpStatus.SC_OK);
+    File file = File.createTempFile("beast_send", ".h5");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write("abc".getBytes());
+      out.close();
+      
+      SendFileRequest request = new SendFileRequest();
+      request.setAddress("http://somewhere.se");
+      request.setContentType("application/x-hdf5");
+      request.setFile(file);
+      request.setDate(dateFormat.parse("2020-01-07T10:00:00Z"));
+      
+      expect(methods.createClient()).andReturn(client);
+      expect(methods.createPost("http://somewhere.se")).andReturn(post);
+      expect(securityManager.getLocalNodeName()).andReturn("localname").anyTimes();
+      expect(securityManager.createSignatureMessage(post)).andReturn("xyz");
+      expect(securityManager.createSignature("xyz")).andReturn("abc");
+      expect(client.execute(post)).andReturn(response);
+      expect(response.getEntity()).andReturn(null);
+      expect(methods.createResponse(response)).andReturn(exchangeResponse);
+      replayAll();
+      
+      ExchangeResponse result = classUnderTest.send(request);
+      
+      verifyAll();
+      assertSame(exchangeResponse, result);
+      assertTrue(post.getEntity() instanceof FileEntity);
+      assertEquals(3, post.getEntity().getContentLength());
+      assertEquals("900150983cd24fb0d6963f7d28e17f72", post.getFirstHeader("Content-MD5").getValue());
+      assertEquals("900150983cd24fb0d6963f7d28e17f72", request.getContentMD5());
+    } finally {
+      file.delete();
+    }
+  }
+  
+  @Test
+  public void test_prepare() throws Exception {
+    SendFileRequest request = new SendFileRequest();
+    request.setData("abc".getBytes());
+    
+    replayAll();
+    
+    classUnderTest.prepare(request);
+    
+    verifyAll();
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", request.getContentMD5());
+  }
+  
+  @Test
+  public void test_send_reusesClient() throws Exception {
+    HttpPost post2 = new HttpPost();
+    HttpResponse response1 = createMock(HttpResponse.class);
+    HttpResponse response2 = createMock(HttpResponse.class);
+    ExchangeResponse exchangeResponse = new ExchangeResponse(HttpStatus.SC_OK);
+    
+    expect(methods.createClient()).andReturn(client).once();
+    expect(methods.createPost("http://localhost")).andReturn(post);
+    expect(client.execute(post)).andReturn(response1);
+    expect(response1.getEntity()).andReturn(null);
+    expect(methods.createResponse(response1)).andReturn(exchangeResponse);
+    expect(methods.createPost("http://localhost")).andReturn(post2);
+    expect(client.execute(post2)).andReturn(response2);
+    expect(response2.getEntity()).andReturn(null);
+    expect(methods.createResponse(response2)).andReturn(exchangeResponse);
+    
+    replayAll();
+    
+    classUnderTest.send("http://localhost", "{}");
+    classUnderTest.send("http://localhost", "{}");
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void test_destroy() throws Exception {
+    HttpResponse response = createMock(HttpResponse.class);
+    expect(methods.createClient()).andReturn(client);
+    expect(methods.createPost("http://localhost")).andReturn(post);
+    expect(client.execute(post)).andReturn(response);
+    expect(response.getEntity()).andReturn(null);
+    expect(methods.createResponse(response)).andReturn(new ExchangeResponse(HttpStatus.SC_OK));
+    methods.shutdownClient(client);
+    
+    replayAll();
+    
+    classUnderTest.send("http://localhost", "{}");
+    classUnderTest.destroy();
+    classUnderTest.destroy();
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void test_destroy_notCreated() throws Exception {
+    replayAll();
+    
+    classUnderTest.destroy();
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.getLeasedConnections());
+    assertEquals(0, classUnderTest.getHandshakeCount());
+  }
+  
+  @Test
+  public void test_createClient() throws Exception {
+    classUnderTest = new HttpExchangeConnector();
+    classUnderTest.setMaxConnections(10);
+    classUnderTest.setMaxConnectionsPerPeer(3);
+    
+    HttpClient result = classUnderTest.createClient();
+    try {
+      PooledClientConnectionManager mgr = (PooledClientConnectionManager)result.getConnectionManager();
+      assertEquals(10, mgr.getMaxTotal());
+      assertEquals(3, mgr.getDefaultMaxPerRoute());
+      assertEquals(0, classUnderTest.getLeasedConnections());
+      assertEquals(0, classUnderTest.getAvailableConnections());
+      assertEquals(0, classUnderTest.getPendingConnections());
+    } finally {
+      result.getConnectionManager().shutdown();
+    }
+  }
+  
   @Test
   public void test_parse_AuthorizationRequest() throws Exception {
     InputStream json = new ByteArrayInputStream(new byte[0]);
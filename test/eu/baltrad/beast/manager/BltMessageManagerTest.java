@@ -19,10 +19,16 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.manager;
 
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import org.easymock.EasyMockSupport;
 import org.junit.After;
@@ -117,6 +123,62 @@ public class BltMessageManagerTest extends EasyMockSupport {
     verifyAll();
   }
   
+  @Test
+  public void testManage_queueFull() {
+    IBltMessage message = new IBltMessage() {};
+    final Runnable r = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    
+    expect(executor.isShutdown()).andReturn(false);
+    executor.execute(r);
+    expectLastCall().andThrow(new RejectedExecutionException());
+    expect(executor.isShutdown()).andReturn(false);
+
+    classUnderTest = new BltMessageManager() {
+      protected Runnable createRunnable(IBltMessage message) {
+        return r;
+      }
+    };
+    classUnderTest.setExecutor(executor);
+    
+    replayAll();
+    
+    classUnderTest.manage(message);
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testManage_shutdownWhileExecuting() {
+    IBltMessage message = new IBltMessage() {};
+    final Runnable r = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    
+    expect(executor.isShutdown()).andReturn(false);
+    executor.execute(r);
+    expectLastCall().andThrow(new RejectedExecutionException());
+    expect(executor.isShutdown()).andReturn(true);
+
+    classUnderTest = new BltMessageManager() {
+      protected Runnable createRunnable(IBltMessage message) {
+        return r;
+      }
+    };
+    classUnderTest.setExecutor(executor);
+    
+    replayAll();
+    
+    classUnderTest.manage(message);
+    
+    verifyAll();
+  }
+  
   @Test
   public void testCreateRunnable() throws Exception {
     IBltMessage message = new IBltMessage() {};
@@ -137,4 +199,63 @@ public class BltMessageManagerTest extends EasyMockSupport {
     
     verifyAll();
   }
+
+  @Test
+  public void testAfterPropertiesSet_defaultExecutor() throws Exception {
+    classUnderTest = new BltMessageManager(2);
+    classUnderTest.setDataQueueSize(5);
+    classUnderTest.setPriorityQueueSize(3);
+    classUnderTest.setOverflowPolicy(PrioritizedMessageQueue.OverflowPolicy.REJECT);
+    
+    classUnderTest.afterPropertiesSet();
+    try {
+      assertNotNull(classUnderTest.getQueue());
+      assertEquals(8, classUnderTest.getQueue().remainingCapacity());
+      assertEquals(PrioritizedMessageQueue.OverflowPolicy.REJECT, classUnderTest.getQueue().getOverflowPolicy());
+    } finally {
+      classUnderTest.shutdown();
+    }
+  }
+  
+  @Test
+  public void testAfterPropertiesSet_defaultPolicyDoesNotBlock() throws Exception {
+    classUnderTest = new BltMessageManager(2);
+    
+    classUnderTest.afterPropertiesSet();
+    try {
+      assertEquals(PrioritizedMessageQueue.OverflowPolicy.DISCARD_OLDEST, classUnderTest.getQueue().getOverflowPolicy());
+    } finally {
+      classUnderTest.shutdown();
+    }
+  }
+  
+  @Test
+  public void testAfterPropertiesSet_virtualThreads() throws Exception {
+    classUnderTest = new BltMessageManager(4);
+    classUnderTest.setDataQueueSize(5);
+    classUnderTest.setPriorityQueueSize(3);
+    classUnderTest.setUseVirtualThreads(true);
+    
+    classUnderTest.afterPropertiesSet();
+    try {
+      assertNotNull(classUnderTest.getQueue());
+      assertEquals(8, classUnderTest.getQueue().remainingCapacity());
+    } finally {
+      classUnderTest.shutdown();
+    }
+  }
+  
+  @Test
+  public void testVirtualThreadFactory() throws Exception {
+    ThreadFactory factory = VirtualThreadSupport.newVirtualThreadFactory("test-");
+    if (VirtualThreadSupport.isSupported()) {
+      assertNotNull(factory);
+      assertEquals("test-0", factory.newThread(new Runnable() {
+        public void run() {
+        }
+      }).getName());
+    } else {
+      assertNull(factory);
+    }
+  }
 }
@@ -0,0 +1,159 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import eu.baltrad.beast.manager.PrioritizedMessageQueue.MessageClass;
+import eu.baltrad.beast.manager.PrioritizedMessageQueue.MessageTask;
+import eu.baltrad.beast.manager.PrioritizedMessageQueue.OverflowPolicy;
+import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltAlertMessage;
+import eu.baltrad.beast.message.mo.BltDataMessage;
+import eu.baltrad.beast.message.mo.BltTriggerJobMessage;
+
+/**
+ * @author Anders Henja
+ */
+public class PrioritizedMessageQueueTest {
+  private MessageTask createTask(IBltMessage message) {
+    return new MessageTask(message) {
+      @Override
+      public void run() {
+      }
+    };
+  }
+  
+  @Test
+  public void testPriorityServedFirst() throws Exception {
+    PrioritizedMessageQueue classUnderTest = new PrioritizedMessageQueue(10, 10, OverflowPolicy.REJECT);
+    MessageTask d1 = createTask(new BltDataMessage());
+    MessageTask d2 = createTask(new BltDataMessage());
+    MessageTask a1 = createTask(new BltAlertMessage());
+    MessageTask t1 = createTask(new BltTriggerJobMessage());
+    
+    assertTrue(classUnderTest.offer(d1));
+    assertTrue(classUnderTest.offer(d2));
+    assertTrue(classUnderTest.offer(a1));
+    assertTrue(classUnderTest.offer(t1));
+    
+    assertEquals(2, classUnderTest.size(MessageClass.PRIORITY));
+    assertEquals(2, classUnderTest.size(MessageClass.DATA));
+    assertEquals(4, classUnderTest.size());
+    
+    assertSame(a1, classUnderTest.take());
+    assertSame(t1, classUnderTest.poll());
+    assertSame(d1, classUnderTest.poll(10, TimeUnit.MILLISECONDS));
+    assertSame(d2, classUnderTest.take());
+    assertNull(classUnderTest.poll());
+    assertNull(classUnderTest.poll(10, TimeUnit.MILLISECONDS));
+    assertEquals(0, classUnderTest.size());
+  }
+
+  @Test
+  public void testReject() throws Exception {
+    PrioritizedMessageQueue classUnderTest = new PrioritizedMessageQueue(1, 1, OverflowPolicy.REJECT);
+    MessageTask d1 = createTask(new BltDataMessage());
+    MessageTask a1 = createTask(new BltAlertMessage());
+
+    assertTrue(classUnderTest.offer(d1));
+    assertFalse(classUnderTest.offer(createTask(new BltDataMessage())));
+    assertTrue(classUnderTest.offer(a1));
+    assertFalse(classUnderTest.offer(createTask(new BltAlertMessage())));
+    
+    assertEquals(1, classUnderTest.getRejectedCount(MessageClass.DATA));
+    assertEquals(1, classUnderTest.getRejectedCount(MessageClass.PRIORITY));
+    assertSame(a1, classUnderTest.poll());
+    assertSame(d1, classUnderTest.poll());
+  }
+
+  @Test
+  public void testDiscardOldest() throws Exception {
+    PrioritizedMessageQueue classUnderTest = new PrioritizedMessageQueue(1, 2, OverflowPolicy.DISCARD_OLDEST);
+    MessageTask d1 = createTask(new BltDataMessage());
+    MessageTask d2 = createTask(new BltDataMessage());
+    MessageTask d3 = createTask(new BltDataMessage());
+
+    assertTrue(classUnderTest.offer(d1));
+    assertTrue(classUnderTest.offer(d2));
+    assertTrue(classUnderTest.offer(d3));
+    
+    assertEquals(2, classUnderTest.size(MessageClass.DATA));
+    assertEquals(1, classUnderTest.getDiscardedCount(MessageClass.DATA));
+    assertEquals(0, classUnderTest.getRejectedCount(MessageClass.DATA));
+    assertSame(d2, classUnderTest.poll());
+    assertSame(d3, classUnderTest.poll());
+    assertNull(classUnderTest.poll());
+  }
+
+  @Test
+  public void testBlock() throws Exception {
+    final PrioritizedMessageQueue classUnderTest = new PrioritizedMessageQueue(1, 1, OverflowPolicy.BLOCK);
+    MessageTask d1 = createTask(new BltDataMessage());
+    final MessageTask d2 = createTask(new BltDataMessage());
+    
+    assertTrue(classUnderTest.offer(d1));
+    assertFalse(classUnderTest.offer(d2, 10, TimeUnit.MILLISECONDS));
+    
+    Thread th = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        classUnderTest.offer(d2);
+      }
+    });
+    th.start();
+    Thread.sleep(50);
+    assertEquals(1, classUnderTest.size());
+    
+    assertSame(d1, classUnderTest.take());
+    th.join(1000);
+    assertFalse(th.isAlive());
+    assertSame(d2, classUnderTest.take());
+  }
+  
+  @Test
+  public void testRemoveAndDrain() throws Exception {
+    PrioritizedMessageQueue classUnderTest = new PrioritizedMessageQueue(5, 5, OverflowPolicy.REJECT);
+    MessageTask d1 = createTask(new BltDataMessage());
+    MessageTask d2 = createTask(new BltDataMessage());
+    MessageTask a1 = createTask(new BltAlertMessage());
+    classUnderTest.offer(d1);
+    classUnderTest.offer(d2);
+    classUnderTest.offer(a1);
+    
+    assertTrue(classUnderTest.remove(d1));
+    assertFalse(classUnderTest.remove(d1));
+    
+    List<Runnable> drained = new ArrayList<Runnable>();
+    assertEquals(2, classUnderTest.drainTo(drained));
+    assertSame(a1, drained.get(0));
+    assertSame(d2, drained.get(1));
+    assertEquals(10, classUnderTest.remainingCapacity());
+  }
+}
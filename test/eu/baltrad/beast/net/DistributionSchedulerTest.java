@@ -0,0 +1,241 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2026 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.beast.net.FileDistribution.FileDistributionStateContainer;
+
+/**
+ * @author Anders Henja
+ */
+public class DistributionSchedulerTest {
+  private DistributionScheduler classUnderTest = null;
+  private GatedUploadHandler handler = null;
+
+  /**
+   * Upload handler that blocks until released and keeps track of the uploads
+   */
+  private static class GatedUploadHandler implements FileUploadHandler {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final List<String> uploaded = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void upload(File src, URI dst) throws IOException {
+      int n = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), n));
+      }
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+      uploaded.add(src.getName() + "->" + dst.toString());
+    }
+
+    @Override
+    public URI appendPath(URI uri, String path) {
+      return URI.create(uri.toString() + "/" + path);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    handler = new GatedUploadHandler();
+    classUnderTest = new DistributionScheduler(Executors.newFixedThreadPool(5));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    handler.gate.countDown();
+    classUnderTest.shutdownNow();
+  }
+
+  private FileDistribution create(String src, String dst, String entryName) throws Exception {
+    FileDistribution result = new FileDistribution(new File(src), new URI(dst), entryName, new FileDistributionStateContainer());
+    result.setUploadHandler(handler);
+    return result;
+  }
+
+  private void waitForRunning(int n) throws InterruptedException {
+    for (int i = 0; i < 500 && handler.running.get() < n; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(n, handler.running.get());
+  }
+
+  @Test
+  public void testExecute() throws Exception {
+    FileDistribution d = create("/tmp/a.h5", "ftp://u:p@host/d", "a.h5");
+
+    classUnderTest.execute(d);
+    waitForRunning(1);
+    handler.gate.countDown();
+
+    assertTrue(d.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertEquals("a.h5->ftp://u:p@host/d/a.h5", handler.uploaded.get(0));
+  }
+
+  @Test
+  public void testExecute_sameDestinationQueued() throws Exception {
+    classUnderTest.setMaxPerHost(2);
+    FileDistribution d1 = create("/tmp/a1.h5", "ftp://u:p@host/d", "a.h5");
+    FileDistribution d2 = create("/tmp/a2.h5", "ftp://u:p@host/d", "a.h5");
+
+    classUnderTest.execute(d1);
+    waitForRunning(1);
+    classUnderTest.execute(d2);
+    Thread.sleep(50);
+
+    // second upload to the same destination must wait and not be aborted
+    assertEquals(1, handler.running.get());
+    assertFalse(d2.getDistributionState().isDone());
+
+    handler.gate.countDown();
+    assertTrue(d1.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertTrue(d2.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertEquals(1, handler.maxRunning.get());
+  }
+
+  @Test
+  public void testExecute_coalesced() throws Exception {
+    classUnderTest.setMaxPerHost(1);
+    FileDistribution d1 = create("/tmp/a.h5", "ftp://u:p@host/d", "a.h5");
+    FileDistribution d2 = create("/tmp/b1.h5", "ftp://u:p@host/d", "b.h5");
+    FileDistribution d3 = create("/tmp/b2.h5", "ftp://u:p@host/d", "b.h5");
+
+    classUnderTest.execute(d1);
+    waitForRunning(1);
+    classUnderTest.execute(d2);
+    classUnderTest.execute(d3);
+
+    assertTrue(d2.getDistributionState().isSuperseded());
+    assertFalse(d2.getDistributionState().get(5, TimeUnit.SECONDS));
+
+    handler.gate.countDown();
+    assertTrue(d1.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertTrue(d3.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertEquals(2, handler.uploaded.size());
+    assertEquals("b2.h5->ftp://u:p@host/d/b.h5", handler.uploaded.get(1));
+
+    DistributionScheduler.Statistics stats = classUnderTest.getStatistics(new URI("ftp://host/x"));
+    assertEquals(3, stats.getSubmitted());
+    assertEquals(1, stats.getCoalesced());
+    waitForCompleted(stats, 2);
+    assertEquals(0, stats.getFailed());
+    assertEquals(0, stats.getQueued());
+  }
+
+  @Test
+  public void testExecute_maxPerHost() throws Exception {
+    classUnderTest.setMaxPerHost(2);
+    FileDistribution d1 = create("/tmp/a.h5", "ftp://u:p@host/d", "a.h5");
+    FileDistribution d2 = create("/tmp/b.h5", "ftp://u:p@host/d", "b.h5");
+    FileDistribution d3 = create("/tmp/c.h5", "ftp://u:p@host/d", "c.h5");
+    FileDistribution d4 = create("/tmp/d.h5", "ftp://u:p@otherhost/d", "d.h5");
+
+    classUnderTest.execute(d1);
+    classUnderTest.execute(d2);
+    classUnderTest.execute(d3);
+    classUnderTest.execute(d4);
+
+    // two to host and one to otherhost
+    waitForRunning(3);
+    assertEquals(1, classUnderTest.getStatistics(new URI("ftp://host")).getQueued());
+    assertEquals(2, classUnderTest.getStatistics(new URI("ftp://host")).getRunning());
+    assertEquals(1, classUnderTest.getStatistics(new URI("ftp://otherhost")).getRunning());
+
+    handler.gate.countDown();
+    assertTrue(d3.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertTrue(d4.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertEquals(3, handler.maxRunning.get());
+  }
+
+  @Test
+  public void testShutdown_drainsQueue() throws Exception {
+    classUnderTest.setMaxPerHost(1);
+    FileDistribution d1 = create("/tmp/a.h5", "ftp://u:p@host/d", "a.h5");
+    FileDistribution d2 = create("/tmp/b.h5", "ftp://u:p@host/d", "b.h5");
+
+    classUnderTest.execute(d1);
+    classUnderTest.execute(d2);
+    classUnderTest.shutdown();
+
+    try {
+      classUnderTest.execute(create("/tmp/c.h5", "ftp://u:p@host/d", "c.h5"));
+      fail("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // pass
+    }
+
+    handler.gate.countDown();
+    assertTrue(classUnderTest.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(d1.getDistributionState().isSuccessful());
+    assertTrue(d2.getDistributionState().isSuccessful());
+  }
+
+  @Test
+  public void testShutdownNow() throws Exception {
+    classUnderTest.setMaxPerHost(1);
+    FileDistribution d1 = create("/tmp/a.h5", "ftp://u:p@host/d", "a.h5");
+    FileDistribution d2 = create("/tmp/b.h5", "ftp://u:p@host/d", "b.h5");
+
+    classUnderTest.execute(d1);
+    waitForRunning(1);
+    classUnderTest.execute(d2);
+
+    List<Runnable> result = classUnderTest.shutdownNow();
+
+    assertEquals(1, result.size());
+    assertTrue(result.get(0) == d2);
+    assertFalse(d2.getDistributionState().get(5, TimeUnit.SECONDS));
+    assertFalse(d1.getDistributionState().get(5, TimeUnit.SECONDS));
+  }
+
+  private void waitForCompleted(DistributionScheduler.Statistics stats, int n) throws InterruptedException {
+    for (int i = 0; i < 500 && stats.getCompleted() < n; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(n, stats.getCompleted());
+  }
+}
@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.easymock.EasyMockSupport;
 import org.junit.After;
@@ -142,6 +144,43 @@ public class BltRouterTest extends EasyMockSupport {
     assertSame(m3, result.get(2));
   }
 
+  @Test
+  public void testGetMultiRoutedMessages_parallel() throws Exception {
+    IBltMessage message = new IBltMessage() {};
+    final Map<RouteDefinition, BltMultiRoutedMessage> results = new HashMap<RouteDefinition, BltMultiRoutedMessage>();
+    results.put(definitions.get(0), new BltMultiRoutedMessage());
+    results.put(definitions.get(2), new BltMultiRoutedMessage());
+    
+    BltRouter classUnderTest = new BltRouter() {
+      protected List<IMultiRoutedMessage> getMultiRoutedMessages(IBltMessage msg, RouteDefinition def) {
+        List<IMultiRoutedMessage> result = new ArrayList<IMultiRoutedMessage>();
+        if (def == definitions.get(0)) {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            // pass
+          }
+        } else if (def == definitions.get(1)) {
+          throw new RuntimeException("failing route");
+        }
+        result.add(results.get(def));
+        return result;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    classUnderTest.setDefinitions(definitions);
+    classUnderTest.setEvaluationExecutor(executor);
+    
+    try {
+      List<IMultiRoutedMessage> result = classUnderTest.getMultiRoutedMessages(message);
+      assertEquals(2, result.size());
+      assertSame(results.get(definitions.get(0)), result.get(0));
+      assertSame(results.get(definitions.get(2)), result.get(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testGetMultiRoutedMessage_triggerJob() throws Exception {
     final MockMethods methods = createMock(MockMethods.class);
@@ -769,6 +808,24 @@ public class BltRouterTest extends EasyMockSupport {
     assertSame(d2, result);
   }
   
+  @Test
+  public void testGetDefinitions_isCopy() throws Exception {
+    List<RouteDefinition> defs = new ArrayList<RouteDefinition>();
+    RouteDefinition d1 = new RouteDefinition();
+    d1.setName("D1");
+    defs.add(d1);
+    
+    BltRouter classUnderTest = new BltRouter();
+    classUnderTest.setDefinitions(defs);
+    defs.clear();
+    
+    List<RouteDefinition> result = classUnderTest.getDefinitions();
+    result.clear();
+    
+    assertEquals(1, classUnderTest.getDefinitions().size());
+    assertSame(d1, classUnderTest.getDefinition("D1"));
+  }
+  
   @Test
   public void testCreate() throws Exception {
     String name = "MyName";
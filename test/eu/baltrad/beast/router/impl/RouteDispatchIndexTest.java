@@ -0,0 +1,190 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.router.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.easymock.EasyMockSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.bdb.oh5.Metadata;
+import eu.baltrad.bdb.oh5.Source;
+import eu.baltrad.beast.message.IBltMessage;
+import eu.baltrad.beast.message.mo.BltDataMessage;
+import eu.baltrad.beast.router.RouteDefinition;
+import eu.baltrad.beast.rules.IIndexableRule;
+import eu.baltrad.beast.rules.IRule;
+
+/**
+ * @author Anders Henja
+ */
+public class RouteDispatchIndexTest extends EasyMockSupport {
+  private static interface IndexableRule extends IRule, IIndexableRule {
+  };
+  
+  private List<RouteDefinition> definitions = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    definitions = new ArrayList<RouteDefinition>();
+  }
+  
+  private RouteDefinition addDefinition(String name, IRule rule) {
+    RouteDefinition def = new RouteDefinition();
+    def.setName(name);
+    def.setRule(rule);
+    definitions.add(def);
+    return def;
+  }
+  
+  private IRule createIndexableRule(List<String> objects, List<String> sources) {
+    IndexableRule rule = createMock(IndexableRule.class);
+    expect(rule.getIndexedObjectTypes()).andReturn(objects).anyTimes();
+    expect(rule.getIndexedSources()).andReturn(sources).anyTimes();
+    return rule;
+  }
+  
+  @Test
+  public void testGetCandidates() throws Exception {
+    RouteDefinition d1 = addDefinition("R1", createMock(IRule.class));
+    RouteDefinition d2 = addDefinition("R2", createIndexableRule(Arrays.asList("PVOL"), Arrays.asList("seang", "sekkr")));
+    RouteDefinition d3 = addDefinition("R3", createIndexableRule(Arrays.asList("SCAN"), null));
+    RouteDefinition d4 = addDefinition("R4", createIndexableRule(null, Arrays.asList("seang")));
+    RouteDefinition d5 = addDefinition("R5", createIndexableRule(Arrays.asList("PVOL"), new ArrayList<String>()));
+    
+    replayAll();
+    
+    RouteDispatchIndex classUnderTest = new RouteDispatchIndex(definitions);
+    
+    verifyAll();
+    assertEquals(Arrays.asList(d1, d2, d4), classUnderTest.getCandidates("PVOL", "seang"));
+    assertEquals(Arrays.asList(d1, d2), classUnderTest.getCandidates("PVOL", "sekkr"));
+    assertEquals(Arrays.asList(d1, d3, d4), classUnderTest.getCandidates("SCAN", "seang"));
+    assertEquals(Arrays.asList(d1, d3), classUnderTest.getCandidates("SCAN", "sehud"));
+    assertEquals(Arrays.asList(d1), classUnderTest.getCandidates("COMP", "sehud"));
+    assertEquals(Arrays.asList(d1, d4), classUnderTest.getCandidates(null, "seang"));
+    assertEquals(Arrays.asList(d1), classUnderTest.getCandidates(null, null));
+    assertEquals(5, classUnderTest.getDefinitions().size());
+    assertSame(d5, classUnderTest.getDefinitions().get(4));
+  }
+
+  @Test
+  public void testGetCandidates_dataMessage() throws Exception {
+    FileEntry fe = createMock(FileEntry.class);
+    Metadata md = createMock(Metadata.class);
+    Source source = createMock(Source.class);
+    BltDataMessage msg = new BltDataMessage();
+    msg.setFileEntry(fe);
+    
+    RouteDefinition d1 = addDefinition("R1", createIndexableRule(Arrays.asList("SCAN"), Arrays.asList("seang")));
+    addDefinition("R2", createIndexableRule(Arrays.asList("PVOL"), Arrays.asList("seang")));
+    
+    expect(fe.getMetadata()).andReturn(md).anyTimes();
+    expect(md.getWhatObject()).andReturn("SCAN");
+    expect(fe.getSource()).andReturn(source).anyTimes();
+    expect(source.getName()).andReturn("seang");
+    
+    replayAll();
+    
+    RouteDispatchIndex classUnderTest = new RouteDispatchIndex(definitions);
+    List<RouteDefinition> result = classUnderTest.getCandidates(msg);
+    
+    verifyAll();
+    assertEquals(1, result.size());
+    assertSame(d1, result.get(0));
+  }
+
+  @Test
+  public void testGetCandidates_otherMessage() throws Exception {
+    addDefinition("R1", createIndexableRule(Arrays.asList("SCAN"), Arrays.asList("seang")));
+    addDefinition("R2", createMock(IRule.class));
+    IBltMessage msg = new IBltMessage() {};
+    
+    replayAll();
+    
+    RouteDispatchIndex classUnderTest = new RouteDispatchIndex(definitions);
+    List<RouteDefinition> result = classUnderTest.getCandidates(msg);
+    
+    verifyAll();
+    assertEquals(definitions, result);
+  }
+  
+  @Test
+  public void testIndexIsSnapshot() throws Exception {
+    RouteDefinition d1 = addDefinition("R1", createMock(IRule.class));
+    
+    replayAll();
+    
+    RouteDispatchIndex classUnderTest = new RouteDispatchIndex(definitions);
+    definitions.clear();
+    
+    verifyAll();
+    assertEquals(1, classUnderTest.getCandidates("PVOL", "seang").size());
+    assertSame(d1, classUnderTest.getCandidates("PVOL", "seang").get(0));
+  }
+
+  @Test
+  public void testGetDefinition() throws Exception {
+    RouteDefinition d1 = addDefinition("R1", createMock(IRule.class));
+    RouteDefinition d2 = addDefinition("R2", createMock(IRule.class));
+    addDefinition("R1", createMock(IRule.class));
+    
+    replayAll();
+    
+    RouteDispatchIndex classUnderTest = new RouteDispatchIndex(definitions);
+    
+    verifyAll();
+    assertSame(d1, classUnderTest.getDefinition("R1"));
+    assertSame(d2, classUnderTest.getDefinition("R2"));
+    assertNull(classUnderTest.getDefinition("R3"));
+    assertEquals(Arrays.asList("R1", "R2", "R1"), classUnderTest.getNames());
+  }
+  
+  @Test
+  public void testReplace() throws Exception {
+    RouteDefinition d1 = addDefinition("R1", createMock(IRule.class));
+    RouteDefinition d2 = addDefinition("R2", createMock(IRule.class));
+    RouteDefinition d3 = new RouteDefinition();
+    d3.setName("R1");
+    
+    replayAll();
+    
+    RouteDispatchIndex original = new RouteDispatchIndex(definitions);
+    RouteDispatchIndex replaced = original.replace("R1", d3);
+    RouteDispatchIndex removed = replaced.replace("R2", null);
+    RouteDispatchIndex added = removed.replace(null, d2);
+    
+    verifyAll();
+    assertEquals(Arrays.asList(d1, d2), original.getDefinitions());
+    assertEquals(Arrays.asList(d2, d3), replaced.getDefinitions());
+    assertSame(d3, replaced.getDefinition("R1"));
+    assertEquals(Arrays.asList(d3), removed.getDefinitions());
+    assertNull(removed.getDefinition("R2"));
+    assertEquals(Arrays.asList(d3, d2), added.getDefinitions());
+  }
+}
@@ -0,0 +1,192 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.composite;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.easymock.EasyMockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.bdb.db.FileEntry;
+import eu.baltrad.bdb.util.DateTime;
+import eu.baltrad.beast.db.CatalogEntry;
+
+/**
+ * @author Anders Henja
+ */
+public class CompositeArrivalTrackerTest extends EasyMockSupport {
+  private CatalogEntry nextEntry = null;
+  private CompositeArrivalTracker classUnderTest = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    classUnderTest = new CompositeArrivalTracker(2) {
+      @Override
+      protected CatalogEntry createEntry(FileEntry file) {
+        return nextEntry;
+      }
+    };
+    classUnderTest.configure(false, Arrays.asList("seang", "sekkr"));
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest = null;
+    nextEntry = null;
+  }
+  
+  @Test
+  public void testGet_notSeeded() throws Exception {
+    assertNull(classUnderTest.get(new DateTime(2010,1,1,10,0,0)));
+    assertEquals(0, classUnderTest.getHits());
+    assertEquals(1, classUnderTest.getMisses());
+  }
+  
+  @Test
+  public void testSeedAndGet() throws Exception {
+    CatalogEntry e1 = createMock(CatalogEntry.class);
+    Map<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+    entries.put("seang", e1);
+    
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), entries);
+    Map<String, CatalogEntry> result = classUnderTest.get(new DateTime(2010,1,1,10,0,0));
+    
+    assertEquals(1, result.size());
+    assertSame(e1, result.get("seang"));
+    assertEquals(1, classUnderTest.getHits());
+  }
+  
+  @Test
+  public void testUpdate_notSeeded() throws Exception {
+    FileEntry file = createMock(FileEntry.class);
+    
+    replayAll();
+    
+    classUnderTest.update(new DateTime(2010,1,1,10,0,0), file);
+    
+    verifyAll();
+    assertNull(classUnderTest.get(new DateTime(2010,1,1,10,0,0)));
+  }
+  
+  @Test
+  public void testUpdate_newSource() throws Exception {
+    FileEntry file = createMock(FileEntry.class);
+    nextEntry = createMock(CatalogEntry.class);
+    expect(nextEntry.getSource()).andReturn("sekkr");
+    
+    replayAll();
+    
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), new HashMap<String, CatalogEntry>());
+    classUnderTest.update(new DateTime(2010,1,1,10,0,0), file);
+    
+    verifyAll();
+    assertSame(nextEntry, classUnderTest.get(new DateTime(2010,1,1,10,0,0)).get("sekkr"));
+  }
+
+  @Test
+  public void testUpdate_sourceNotInRule() throws Exception {
+    FileEntry file = createMock(FileEntry.class);
+    nextEntry = createMock(CatalogEntry.class);
+    expect(nextEntry.getSource()).andReturn("sella");
+    
+    replayAll();
+    
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), new HashMap<String, CatalogEntry>());
+    classUnderTest.update(new DateTime(2010,1,1,10,0,0), file);
+    
+    verifyAll();
+    assertEquals(0, classUnderTest.get(new DateTime(2010,1,1,10,0,0)).size());
+  }
+  
+  @Test
+  public void testUpdate_lowerElevationReplaces() throws Exception {
+    FileEntry file = createMock(FileEntry.class);
+    CatalogEntry current = createMock(CatalogEntry.class);
+    nextEntry = createMock(CatalogEntry.class);
+    Map<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+    entries.put("seang", current);
+    
+    expect(nextEntry.getSource()).andReturn("seang");
+    expect(nextEntry.getUuid()).andReturn("u2").anyTimes();
+    expect(current.getUuid()).andReturn("u1").anyTimes();
+    expect(nextEntry.getAttribute("/dataset1/where/elangle")).andReturn(new Double(0.5));
+    expect(current.getAttribute("/dataset1/where/elangle")).andReturn(new Double(1.0));
+    
+    replayAll();
+    
+    classUnderTest.configure(true, Arrays.asList("seang", "sekkr"));
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), entries);
+    classUnderTest.update(new DateTime(2010,1,1,10,0,0), file);
+    
+    verifyAll();
+    assertSame(nextEntry, classUnderTest.get(new DateTime(2010,1,1,10,0,0)).get("seang"));
+  }
+  
+  @Test
+  public void testUpdate_laterFileIgnored() throws Exception {
+    FileEntry file = createMock(FileEntry.class);
+    CatalogEntry current = createMock(CatalogEntry.class);
+    nextEntry = createMock(CatalogEntry.class);
+    Map<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+    entries.put("seang", current);
+    
+    expect(nextEntry.getSource()).andReturn("seang");
+    expect(nextEntry.getUuid()).andReturn("u2").anyTimes();
+    expect(current.getUuid()).andReturn("u1").anyTimes();
+    expect(nextEntry.getDateTime()).andReturn(new DateTime(2010,1,1,10,5,0));
+    expect(current.getDateTime()).andReturn(new DateTime(2010,1,1,10,0,0));
+    
+    replayAll();
+    
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), entries);
+    classUnderTest.update(new DateTime(2010,1,1,10,0,0), file);
+    
+    verifyAll();
+    assertSame(current, classUnderTest.get(new DateTime(2010,1,1,10,0,0)).get("seang"));
+  }
+  
+  @Test
+  public void testSeed_evictsOldest() throws Exception {
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), new HashMap<String, CatalogEntry>());
+    classUnderTest.seed(new DateTime(2010,1,1,10,5,0), new HashMap<String, CatalogEntry>());
+    classUnderTest.seed(new DateTime(2010,1,1,10,10,0), new HashMap<String, CatalogEntry>());
+    
+    assertNull(classUnderTest.get(new DateTime(2010,1,1,10,0,0)));
+    assertEquals(0, classUnderTest.get(new DateTime(2010,1,1,10,5,0)).size());
+    assertEquals(0, classUnderTest.get(new DateTime(2010,1,1,10,10,0)).size());
+  }
+  
+  @Test
+  public void testConfigure_clearsOnChange() throws Exception {
+    classUnderTest.seed(new DateTime(2010,1,1,10,0,0), new HashMap<String, CatalogEntry>());
+    classUnderTest.configure(false, Arrays.asList("seang", "sekkr"));
+    assertEquals(0, classUnderTest.get(new DateTime(2010,1,1,10,0,0)).size());
+    classUnderTest.configure(false, Arrays.asList("seang"));
+    assertNull(classUnderTest.get(new DateTime(2010,1,1,10,0,0)));
+  }
+}
@@ -78,4 +78,11 @@ public class CompositeTimerDataTest {
     CompositeTimerData o1 = new CompositeTimerData(1, new DateTime(2010,1,1,1,10,10));
     assertFalse(o1.equals(null));
   }
+
+  @Test
+  public void testHashCode() throws Exception {
+    CompositeTimerData o1 = new CompositeTimerData(1, new DateTime(2010,1,1,1,10,10));
+    CompositeTimerData o2 = new CompositeTimerData(1, new DateTime(2010,1,1,1,10,10));
+    assertEquals(o1.hashCode(), o2.hashCode());
+  }
 }
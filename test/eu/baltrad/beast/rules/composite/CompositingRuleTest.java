@@ -72,6 +72,7 @@ public class CompositingRuleTest extends EasyMockSupport {
   private static interface ICompositingMethods {
     public CompositeTimerData createTimerData(IBltMessage message);
     public Map<String, CatalogEntry> fetchEntriesMap(CompositingRuleFilter filter);
+    public Map<String, CatalogEntry> fetchPreviousEntriesMap(CompositingRuleFilter filter);
     public CompositingRuleFilter createFilter(DateTime nominalTime);
     public IBltMessage createMessage(DateTime nominalTime, Map<String, CatalogEntry> entries);
     public IBltMessage createComposite(IBltMessage message, CompositingRuleFilter ruleFilter);
@@ -290,6 +291,58 @@ public class CompositingRuleTest extends EasyMockSupport {
     assertNull(result);
   }
 
+  @Test
+  public void testRecoverTimerData() throws Exception {
+    final ICompositingMethods methods = createMock(ICompositingMethods.class);
+    DateTime dt = new DateTime(2010, 4, 15, 10, 15, 0);
+    CompositingRuleFilter filter = createMock(CompositingRuleFilter.class);
+    Map<String,CatalogEntry> previous = new HashMap<String,CatalogEntry>();
+    previous.put("seang", new CatalogEntry() {
+      public Object getAttribute(String name) {
+        return "/dataset1/where/elangle".equals(name) ? new Double(0.5) : null;
+      }
+    });
+    
+    expect(ruleUtil.isTriggered(25, dt)).andReturn(false);
+    expect(methods.createFilter(dt)).andReturn(filter);
+    expect(methods.fetchPreviousEntriesMap(filter)).andReturn(previous);
+    
+    classUnderTest = new CompositingRule() {
+      protected Map<String,CatalogEntry> fetchPreviousEntriesMap(CompositingRuleFilter filter) {
+        return methods.fetchPreviousEntriesMap(filter);
+      }
+      protected CompositingRuleFilter createFilter(DateTime nominalTime) {
+        return methods.createFilter(nominalTime);
+      }
+    };
+    classUnderTest.setRuleUtilities(ruleUtil);
+    classUnderTest.setRuleId(25);
+    classUnderTest.setScanBased(true);
+    
+    replayAll();
+    
+    CompositeTimerData result = (CompositeTimerData)classUnderTest.recoverTimerData(dt, null);
+    
+    verifyAll();
+    assertEquals(dt, result.getDateTime());
+    assertEquals(1, result.getPreviousSources().size());
+    assertEquals("seang", result.getPreviousSources().get(0));
+    assertEquals(0.5, result.getPreviousAngles().get("seang"), 0.0001);
+  }
+  
+  @Test
+  public void testRecoverTimerData_alreadyTriggered() throws Exception {
+    DateTime dt = new DateTime(2010, 4, 15, 10, 15, 0);
+    
+    expect(ruleUtil.isTriggered(10, dt)).andReturn(true);
+    
+    replayAll();
+    
+    assertNull(classUnderTest.recoverTimerData(dt, null));
+    
+    verifyAll();
+  }
+  
   @Test
   public void testAfterPropertiesSet() throws Exception {
     CompositingRule classUnderTest = new CompositingRule();
@@ -1301,6 +1354,7 @@ public class CompositingRuleTest extends EasyMockSupport {
     
     long ttId = 987;
 
+    expect(filter.getStartDateTime()).andReturn(dateTime).anyTimes();
     expect(methods.createTimerData(msg)).andReturn(timerData);
     expect(timeoutManager.getRegisteredTask(timerData)).andReturn(timeoutTask);
     expect(timeoutTask.getData()).andReturn(timerData);
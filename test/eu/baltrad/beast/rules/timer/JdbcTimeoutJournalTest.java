@@ -0,0 +1,278 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.timer;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * @author Anders Henja
+ */
+public class JdbcTimeoutJournalTest extends EasyMockSupport {
+  private JdbcOperations jdbc = null;
+  private JdbcTimeoutJournal classUnderTest = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    jdbc = createMock(JdbcOperations.class);
+    classUnderTest = new JdbcTimeoutJournal();
+    classUnderTest.setJdbcTemplate(jdbc);
+    classUnderTest.setFlushInterval(60000);
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    jdbc = null;
+    classUnderTest = null;
+  }
+  
+  @Test
+  public void testAddTimeout() throws Exception {
+    Capture<List<Object[]>> deletes = EasyMock.newCapture();
+    Capture<List<Object[]>> inserts = EasyMock.newCapture();
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?"),
+        EasyMock.capture(deletes))).andReturn(new int[]{0});
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_timeout_journal (rule_id, nominal_time, source, deadline) values (?,?,?,?)"),
+        EasyMock.capture(inserts))).andReturn(new int[]{1});
+    
+    replayAll();
+    
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), "seang", 1000L);
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), "seang", 2000L);
+    classUnderTest.flush();
+    
+    verifyAll();
+    assertEquals(1, deletes.getValue().size());
+    assertArrayEquals(new Object[]{3, "20100102030405", "seang"}, deletes.getValue().get(0));
+    assertEquals(1, inserts.getValue().size());
+    assertArrayEquals(new Object[]{3, "20100102030405", "seang", 2000L}, inserts.getValue().get(0));
+  }
+
+  @Test
+  public void testRemoveTimeout() throws Exception {
+    Capture<List<Object[]>> deletes = EasyMock.newCapture();
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?"),
+        EasyMock.capture(deletes))).andReturn(new int[]{1, 1});
+    
+    replayAll();
+    
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), null, 1000L);
+    classUnderTest.removeTimeout(3, new DateTime(2010,1,2,3,4,5), null);
+    classUnderTest.removeTimeout(4, new DateTime(2010,1,2,3,4,5), "seang");
+    classUnderTest.flush();
+    
+    verifyAll();
+    assertEquals(2, deletes.getValue().size());
+    assertArrayEquals(new Object[]{3, "20100102030405", ""}, deletes.getValue().get(0));
+    assertArrayEquals(new Object[]{4, "20100102030405", "seang"}, deletes.getValue().get(1));
+  }
+  
+  @Test
+  public void testAddTrigger() throws Exception {
+    classUnderTest = new JdbcTimeoutJournal() {
+      protected long currentTimeMillis() {
+        return 500L;
+      }
+    };
+    classUnderTest.setJdbcTemplate(jdbc);
+    Capture<List<Object[]>> deletes = EasyMock.newCapture();
+    Capture<List<Object[]>> inserts = EasyMock.newCapture();
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_trigger_journal where rule_id=? and nominal_time=?"),
+        EasyMock.capture(deletes))).andReturn(new int[]{0});
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_trigger_journal (rule_id, nominal_time, triggered) values (?,?,?)"),
+        EasyMock.capture(inserts))).andReturn(new int[]{1});
+    
+    replayAll();
+    
+    classUnderTest.addTrigger(3, new DateTime(2010,1,2,3,4,5));
+    classUnderTest.flush();
+    // nothing more to write
+    classUnderTest.flush();
+    
+    verifyAll();
+    assertArrayEquals(new Object[]{3, "20100102030405"}, deletes.getValue().get(0));
+    assertArrayEquals(new Object[]{3, "20100102030405", 500L}, inserts.getValue().get(0));
+  }
+  
+  @Test
+  public void testAddTrigger_purgesOldTriggers() throws Exception {
+    final long[] now = new long[]{10000000L};
+    classUnderTest = new JdbcTimeoutJournal() {
+      protected long currentTimeMillis() {
+        return now[0];
+      }
+    };
+    classUnderTest.setJdbcTemplate(jdbc);
+    classUnderTest.setTriggerRetention(1000L);
+    classUnderTest.setTriggerPurgeInterval(5000L);
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_trigger_journal where rule_id=? and nominal_time=?"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{0}).times(3);
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_trigger_journal (rule_id, nominal_time, triggered) values (?,?,?)"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{1}).times(3);
+    expect(jdbc.update("delete from beast_trigger_journal where triggered < ?", new Object[]{9999000L})).andReturn(10);
+    expect(jdbc.update("delete from beast_trigger_journal where triggered < ?", new Object[]{10005000L})).andReturn(10);
+    
+    replayAll();
+    
+    classUnderTest.addTrigger(3, new DateTime(2010,1,2,3,4,5));
+    classUnderTest.flush();
+    // within the purge interval
+    now[0] += 4000L;
+    classUnderTest.addTrigger(3, new DateTime(2010,1,2,3,5,5));
+    classUnderTest.flush();
+    now[0] += 2000L;
+    classUnderTest.addTrigger(3, new DateTime(2010,1,2,3,6,5));
+    classUnderTest.flush();
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testFlush_inTransaction() throws Exception {
+    PlatformTransactionManager txManager = createMock(PlatformTransactionManager.class);
+    TransactionStatus status = new SimpleTransactionStatus();
+    classUnderTest.setTransactionManager(txManager);
+    
+    expect(txManager.getTransaction(EasyMock.<TransactionDefinition>anyObject())).andReturn(status);
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{0});
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_timeout_journal (rule_id, nominal_time, source, deadline) values (?,?,?,?)"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{1});
+    txManager.commit(status);
+    
+    replayAll();
+    
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), null, 1000L);
+    classUnderTest.flush();
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testFlush_rolledBackOnFailure() throws Exception {
+    PlatformTransactionManager txManager = createMock(PlatformTransactionManager.class);
+    TransactionStatus status = new SimpleTransactionStatus();
+    classUnderTest.setTransactionManager(txManager);
+    
+    expect(txManager.getTransaction(EasyMock.<TransactionDefinition>anyObject())).andReturn(status);
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{1});
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_timeout_journal (rule_id, nominal_time, source, deadline) values (?,?,?,?)"),
+        EasyMock.<List<Object[]>>anyObject())).andThrow(new DataRetrievalFailureException("x"));
+    txManager.rollback(status);
+    
+    replayAll();
+    
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), null, 1000L);
+    classUnderTest.flush();
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testFlush_failed() throws Exception {
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?"),
+        EasyMock.<List<Object[]>>anyObject())).andThrow(new DataRetrievalFailureException("x"));
+    
+    replayAll();
+    
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), null, 1000L);
+    classUnderTest.flush();
+    // the failed changes are dropped
+    classUnderTest.flush();
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testGetTimeouts_flushesFirst() throws Exception {
+    List<TimeoutJournalEntry> entries = new ArrayList<TimeoutJournalEntry>();
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_timeout_journal where rule_id=? and nominal_time=? and source=?"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{0});
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_timeout_journal (rule_id, nominal_time, source, deadline) values (?,?,?,?)"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{1});
+    expect(jdbc.query(EasyMock.eq("select rule_id, nominal_time, source, deadline as time from beast_timeout_journal order by deadline"),
+        EasyMock.<RowMapper<TimeoutJournalEntry>>anyObject())).andReturn(entries);
+    
+    replayAll();
+    
+    classUnderTest.addTimeout(3, new DateTime(2010,1,2,3,4,5), null, 1000L);
+    List<TimeoutJournalEntry> result = classUnderTest.getTimeouts();
+    
+    verifyAll();
+    assertSame(entries, result);
+  }
+  
+  @Test
+  public void testScheduledFlush() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    classUnderTest.setFlushInterval(10);
+    classUnderTest.setTriggerPurgeInterval(Long.MAX_VALUE);
+    expect(jdbc.batchUpdate(EasyMock.eq("delete from beast_trigger_journal where rule_id=? and nominal_time=?"),
+        EasyMock.<List<Object[]>>anyObject())).andReturn(new int[]{0});
+    expect(jdbc.batchUpdate(EasyMock.eq("insert into beast_trigger_journal (rule_id, nominal_time, triggered) values (?,?,?)"),
+        EasyMock.<List<Object[]>>anyObject())).andAnswer(new IAnswer<int[]>() {
+          public int[] answer() throws Throwable {
+            latch.countDown();
+            return new int[]{1};
+          }
+        });
+    
+    replayAll();
+    
+    classUnderTest.addTrigger(3, new DateTime(2010,1,2,3,4,5));
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    classUnderTest.destroy();
+    
+    verifyAll();
+  }
+  
+  @Test
+  public void testFormatAndParseDateTime() throws Exception {
+    DateTime dt = new DateTime(2010,11,2,13,4,59);
+    String s = classUnderTest.formatDateTime(dt);
+    assertEquals("20101102130459", s);
+    assertEquals(dt, classUnderTest.parseDateTime(s));
+  }
+}
@@ -19,28 +19,39 @@ along with the Beast library library.  If not, see <http://www.gnu.org/licenses/
 package eu.baltrad.beast.rules.timer;
 
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import org.easymock.Capture;
+import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import eu.baltrad.bdb.util.DateTime;
 import eu.baltrad.beast.manager.IBltMessageManager;
 import eu.baltrad.beast.message.IBltMessage;
 import eu.baltrad.beast.rules.IRule;
+import eu.baltrad.beast.rules.volume.VolumeTimerData;
 
 /**
  * @author Anders Henja
  */
 public class TimeoutManagerTest extends EasyMockSupport {
   private ITimeoutTaskFactory factory = null;
-  private Timer timer = null;
+  private ScheduledExecutorService scheduler = null;
+  private ExecutorService callbackExecutor = null;
   private IBltMessageManager manager = null;
   
   private TimeoutManager classUnderTest = null;
@@ -48,7 +59,8 @@ public class TimeoutManagerTest extends EasyMockSupport {
   @Before
   public void setUp() throws Exception {
     factory = createMock(ITimeoutTaskFactory.class);
-    timer = createMock(Timer.class);
+    scheduler = createMock(ScheduledExecutorService.class);
+    callbackExecutor = createMock(ExecutorService.class);
     manager = createMock(IBltMessageManager.class);
     
     classUnderTest = new TimeoutManager() {
@@ -56,7 +68,8 @@ public class TimeoutManagerTest extends EasyMockSupport {
         return 0;
       }
     };
-    classUnderTest.setTimer(timer);
+    classUnderTest.setScheduler(scheduler);
+    classUnderTest.setCallbackExecutor(callbackExecutor);
     classUnderTest.setFactory(factory);
     classUnderTest.setMessageManager(manager);
   }
@@ -180,16 +193,63 @@ public class TimeoutManagerTest extends EasyMockSupport {
       public void setRecipients(List<String> recipients) {}
     };
     TimeoutTask task = new TimeoutTask();
+    ScheduledFuture<?> future = createMock(ScheduledFuture.class);
+    Capture<Runnable> runnable = EasyMock.newCapture();
     
     expect(factory.create(rule, 0, null, classUnderTest)).andReturn(task);
-    timer.schedule(task, 1000);
+    scheduler.schedule(EasyMock.capture(runnable), EasyMock.eq(1000L), EasyMock.eq(TimeUnit.MILLISECONDS));
+    EasyMock.expectLastCall().andReturn(future);
+    callbackExecutor.execute(task);
     
     replayAll();
     
     long result = classUnderTest.register(rule, 1000, null);
+    runnable.getValue().run();
     
     verifyAll();
     assertSame(task, classUnderTest.tasks.get(result));
+    assertSame(future, task.getFuture());
+  }
+  
+  @Test
+  public void testRegister_indexedOnData() throws Exception {
+    ITimeoutRule rule = new ITimeoutRule() {
+      public IBltMessage timeout(long id, int why, Object data) {return null;}
+      public void setRecipients(List<String> recipients) {}
+    };
+    TimeoutTask task = new TimeoutTask();
+    task.setData(new String("ABC"));
+    
+    expect(factory.create(rule, 0, "ABC", classUnderTest)).andReturn(task);
+    expect(scheduler.schedule(isA(Runnable.class), EasyMock.eq(1000L), EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(null);
+    
+    replayAll();
+    
+    long result = classUnderTest.register(rule, 1000, "ABC");
+    TimeoutTask registered = classUnderTest.getRegisteredTask(new String("ABC"));
+    classUnderTest.unregister(result);
+    
+    verifyAll();
+    assertSame(task, registered);
+    assertFalse(classUnderTest.isRegistered(new String("ABC")));
+  }
+  
+  @Test
+  public void testExpire_callbackExecutorRejects() throws Exception {
+    ITimeoutTaskListener listener = createMock(ITimeoutTaskListener.class);
+    TimeoutTask task = new TimeoutTask();
+    task.setId(1);
+    task.setListener(listener);
+    
+    callbackExecutor.execute(task);
+    EasyMock.expectLastCall().andThrow(new RejectedExecutionException());
+    listener.timeoutNotification(1, null, null);
+    
+    replayAll();
+    
+    classUnderTest.expire(task);
+    
+    verifyAll();
   }
   
   @Test
@@ -289,6 +349,81 @@ public class TimeoutManagerTest extends EasyMockSupport {
     assertEquals(null, classUnderTest.tasks.get((long)1));
   }
   
+  @Test
+  public void testTimeoutNotification_journaled() {
+    ITimeoutRule rule = createMock(ITimeoutRule.class);
+    ITimeoutJournal journal = createMock(ITimeoutJournal.class);
+    DateTime nt = new DateTime(2010,1,1,1,0,0);
+    VolumeTimerData data = new VolumeTimerData(3, nt, "seang");
+    
+    TimeoutTask task = new TimeoutTask();
+    task.setData(data);
+    classUnderTest.tasks.put((long)1, task);
+    classUnderTest.setJournal(journal);
+    
+    expect(rule.timeout(1, ITimeoutRule.TIMEOUT, data)).andReturn(null);
+    journal.removeTimeout(3, nt, "seang");
+    
+    replayAll();
+    
+    classUnderTest.timeoutNotification(1, rule, data);
+   
+    verifyAll();
+    assertFalse(classUnderTest.isRegistered(data));
+  }
+  
+  @Test
+  public void testRecover() {
+    IRecoverableTimeoutRule rule = createMock(IRecoverableTimeoutRule.class);
+    ITimeoutJournal journal = createMock(ITimeoutJournal.class);
+    DateTime nt = new DateTime(2010,1,1,1,0,0);
+    VolumeTimerData data = new VolumeTimerData(3, nt, "seang");
+    TimeoutTask task = new TimeoutTask();
+    task.setData(data);
+    List<TimeoutJournalEntry> entries = new ArrayList<TimeoutJournalEntry>();
+    entries.add(new TimeoutJournalEntry(3, nt, "seang", System.currentTimeMillis() + 60000));
+    entries.add(new TimeoutJournalEntry(4, nt, null, System.currentTimeMillis() + 60000));
+    classUnderTest.setJournal(journal);
+    
+    journal.purgeTimeouts(EasyMock.anyLong());
+    expect(journal.getTimeouts()).andReturn(entries);
+    expect(rule.getRuleId()).andReturn(3).anyTimes();
+    expect(rule.recoverTimerData(nt, "seang")).andReturn(data);
+    journal.addTimeout(EasyMock.eq(3), EasyMock.eq(nt), EasyMock.eq("seang"), EasyMock.anyLong());
+    expect(factory.create(rule, 0, data, classUnderTest)).andReturn(task);
+    expect(scheduler.schedule(isA(Runnable.class), EasyMock.anyLong(), EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(null);
+    
+    replayAll();
+    
+    classUnderTest.recover(rule);
+    classUnderTest.recover(rule); // Only recovered once
+    
+    verifyAll();
+    assertSame(task, classUnderTest.getRegisteredTask(data));
+  }
+
+  @Test
+  public void testRecover_notRecoverable() {
+    IRecoverableTimeoutRule rule = createMock(IRecoverableTimeoutRule.class);
+    ITimeoutJournal journal = createMock(ITimeoutJournal.class);
+    DateTime nt = new DateTime(2010,1,1,1,0,0);
+    List<TimeoutJournalEntry> entries = new ArrayList<TimeoutJournalEntry>();
+    entries.add(new TimeoutJournalEntry(3, nt, null, System.currentTimeMillis()));
+    classUnderTest.setJournal(journal);
+    
+    journal.purgeTimeouts(EasyMock.anyLong());
+    expect(journal.getTimeouts()).andReturn(entries);
+    expect(rule.getRuleId()).andReturn(3).anyTimes();
+    expect(rule.recoverTimerData(nt, null)).andReturn(null);
+    journal.removeTimeout(3, nt, null);
+    
+    replayAll();
+    
+    classUnderTest.recover(rule);
+    
+    verifyAll();
+  }
+  
   public static class SimpleRule implements IRule, ITimeoutRule {
     private TimeoutManager mgr = null;
     private Object timerdata = new Object();
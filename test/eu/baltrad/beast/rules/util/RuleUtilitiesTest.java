@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.After;
 import org.junit.Before;
@@ -44,6 +45,8 @@ import eu.baltrad.bdb.util.TimeDelta;
 import eu.baltrad.beast.db.Catalog;
 import eu.baltrad.beast.db.CatalogEntry;
 import eu.baltrad.beast.rules.composite.CompositingRule;
+import eu.baltrad.beast.rules.timer.ITimeoutJournal;
+import eu.baltrad.beast.rules.timer.TimeoutJournalEntry;
 import eu.baltrad.beast.system.RadarConnectionStatusReporter;
 import eu.baltrad.beast.system.SystemStatus;
 
@@ -453,6 +456,29 @@ public class RuleUtilitiesTest extends EasyMockSupport {
     assertEquals(true, classUnderTest.isTriggered(21, d2));
   }
   
+  @Test
+  public void testTrigger_journaled() throws Exception {
+    ITimeoutJournal journal = createMock(ITimeoutJournal.class);
+    DateTime d1 = new DateTime(2010,1,1,1,1,1);
+    DateTime d2 = new DateTime(2010,1,1,1,2,1);
+    List<TimeoutJournalEntry> triggers = new ArrayList<TimeoutJournalEntry>();
+    triggers.add(new TimeoutJournalEntry(21, new DateTime(2010,1,1,1,1,1), null, 0));
+    
+    journal.purgeTriggers(EasyMock.anyLong());
+    expect(journal.getTriggers()).andReturn(triggers);
+    journal.addTrigger(21, d2);
+    
+    replayAll();
+    
+    classUnderTest.setTimeoutJournal(journal);
+    assertEquals(true, classUnderTest.isTriggered(21, d1));
+    assertEquals(false, classUnderTest.isTriggered(21, d2));
+    classUnderTest.trigger(21, d2);
+    assertEquals(true, classUnderTest.isTriggered(21, d2));
+    
+    verifyAll();
+  }
+  
   @Test
   public void testTrigger_differentTime() throws Exception {
     DateTime d1 = new DateTime(2010,1,1,1,1,1);
@@ -484,12 +510,15 @@ public class RuleUtilitiesTest extends EasyMockSupport {
     
     classUnderTest.trigger(21, d1);
     
-    for (int i = 0; i < 199; i++) {
+    // The backlog is time based, so many other rules triggering does not affect it
+    for (int i = 0; i < 1000; i++) {
       classUnderTest.trigger(22 + i, d2);
     }
     assertEquals(true, classUnderTest.isTriggered(21, d1));
-    classUnderTest.trigger(222, d2);
+    classUnderTest.setTriggerRetention(3600);
+    classUnderTest.trigger(21, new DateTime(2010,1,1,3,1,1));
     assertEquals(false, classUnderTest.isTriggered(21, d1));
+    assertEquals(true, classUnderTest.isTriggered(22, d2));
   }
 
   @Test
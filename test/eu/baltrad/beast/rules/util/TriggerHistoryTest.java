@@ -0,0 +1,99 @@
+/* --------------------------------------------------------------------
+Copyright (C) 2009-2021 Swedish Meteorological and Hydrological Institute, SMHI,
+
+This file is part of the Beast library.
+
+Beast library is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Beast library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the Beast library library.  If not, see <http://www.gnu.org/licenses/>.
+------------------------------------------------------------------------*/
+package eu.baltrad.beast.rules.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.bdb.util.DateTime;
+
+/**
+ * @author Anders Henja
+ */
+public class TriggerHistoryTest {
+  private TriggerHistory classUnderTest = null;
+  
+  @Before
+  public void setUp() throws Exception {
+    classUnderTest = new TriggerHistory();
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest = null;
+  }
+  
+  @Test
+  public void testTrigger() throws Exception {
+    classUnderTest.trigger(1, new DateTime(2010,1,1,10,0,0));
+    assertTrue(classUnderTest.isTriggered(1, new DateTime(2010,1,1,10,0,0)));
+    assertFalse(classUnderTest.isTriggered(1, new DateTime(2010,1,1,10,5,0)));
+    assertFalse(classUnderTest.isTriggered(2, new DateTime(2010,1,1,10,0,0)));
+  }
+  
+  @Test
+  public void testTrigger_expiry() throws Exception {
+    classUnderTest.setRetention(2 * 3600);
+    classUnderTest.trigger(1, new DateTime(2010,1,1,10,0,0));
+    classUnderTest.trigger(1, new DateTime(2010,1,1,11,0,0));
+    classUnderTest.trigger(2, new DateTime(2010,1,1,10,0,0));
+    classUnderTest.trigger(1, new DateTime(2010,1,1,13,0,0));
+    
+    assertFalse(classUnderTest.isTriggered(1, new DateTime(2010,1,1,10,0,0)));
+    assertTrue(classUnderTest.isTriggered(1, new DateTime(2010,1,1,11,0,0)));
+    assertTrue(classUnderTest.isTriggered(1, new DateTime(2010,1,1,13,0,0)));
+    assertTrue(classUnderTest.isTriggered(2, new DateTime(2010,1,1,10,0,0)));
+    assertEquals(3, classUnderTest.size());
+  }
+
+  @Test
+  public void testTrigger_olderTimeDoesNotExpireNewer() throws Exception {
+    classUnderTest.setRetention(3600);
+    classUnderTest.trigger(1, new DateTime(2010,1,1,10,0,0));
+    classUnderTest.trigger(1, new DateTime(2010,1,1,10,30,0));
+    classUnderTest.trigger(1, new DateTime(2010,1,1,8,0,0));
+    
+    assertTrue(classUnderTest.isTriggered(1, new DateTime(2010,1,1,10,0,0)));
+    assertTrue(classUnderTest.isTriggered(1, new DateTime(2010,1,1,10,30,0)));
+    assertFalse(classUnderTest.isTriggered(1, new DateTime(2010,1,1,8,0,0)));
+  }
+  
+  @Test
+  public void testRemove() throws Exception {
+    classUnderTest.trigger(1, new DateTime(2010,1,1,10,0,0));
+    classUnderTest.remove(1);
+    assertFalse(classUnderTest.isTriggered(1, new DateTime(2010,1,1,10,0,0)));
+  }
+  
+  @Test
+  public void testSetRetention_invalid() throws Exception {
+    try {
+      classUnderTest.setRetention(0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+}
@@ -97,4 +97,11 @@ public class VolumeTimerDataTest {
     VolumeTimerData o1 = new VolumeTimerData(1, new DateTime(2010,1,1,1,10,10), "seang");
     assertFalse(o1.equals(null));
   }
+
+  @Test
+  public void testHashCode() throws Exception {
+    VolumeTimerData o1 = new VolumeTimerData(1, new DateTime(2010,1,1,1,10,10), "seang");
+    VolumeTimerData o2 = new VolumeTimerData(1, new DateTime(2010,1,1,1,10,10), "seang");
+    assertEquals(o1.hashCode(), o2.hashCode());
+  }
 }
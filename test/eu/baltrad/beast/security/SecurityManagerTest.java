@@ -4,16 +4,30 @@
 package eu.baltrad.beast.security;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
 import org.easymock.EasyMockSupport;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.keyczar.exceptions.KeyczarException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import eu.baltrad.beast.security.crypto.CryptoFactory;
 import eu.baltrad.beast.security.crypto.Signer;
+import eu.baltrad.beast.security.crypto.Verifier;
 
 /**
  * @author anders
@@ -24,10 +38,16 @@ public class SecurityManagerTest extends EasyMockSupport {
   private IAuthorizationRequestManager authorizationRequestManager;
   private SecurityManager classUnderTest;
   private CryptoFactory cryptoFactory;
+  private long now = 0;
   
   @Before
   public void setUp() throws Exception {
-    classUnderTest = new SecurityManager();
+    classUnderTest = new SecurityManager() {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
     authorizationManager = createMock(IAuthorizationManager.class);
     authorizationRequestManager = createMock(IAuthorizationRequestManager.class);
     cryptoFactory = createMock(CryptoFactory.class);
@@ -68,6 +88,201 @@ public class SecurityManagerTest extends EasyMockSupport {
     verifyAll();
   }
   
+  @Test
+  public void getSigner_cached() throws Exception {
+    Signer signer = createMock(Signer.class);
+    expect(cryptoFactory.createSigner("nodename")).andReturn(signer).once();
+    replayAll();
+    Signer result1 = classUnderTest.getSigner("nodename");
+    Signer result2 = classUnderTest.getSigner("nodename");
+    verifyAll();
+    assertSame(signer, result1);
+    assertSame(signer, result2);
+  }
+  
+  @Test
+  public void getVerifier_cached() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    Verifier verifier = createMock(Verifier.class);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth).once();
+    expect(cryptoFactory.createVerifier("nodename")).andReturn(verifier).once();
+    replayAll();
+    Verifier result1 = classUnderTest.getVerifier("nodename");
+    Verifier result2 = classUnderTest.getVerifier("nodename");
+    verifyAll();
+    assertSame(verifier, result1);
+    assertSame(verifier, result2);
+  }
+  
+  @Test
+  public void getVerifier_notAuthorized() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(false);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth);
+    replayAll();
+    try {
+      classUnderTest.getVerifier("nodename");
+      fail("Expected SecurityStorageException");
+    } catch (SecurityStorageException e) {
+      // pass
+    }
+    verifyAll();
+  }
+  
+  @Test
+  public void getVerifier_invalidated() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    Authorization denied = new Authorization();
+    denied.setNodeName("nodename");
+    denied.setAuthorized(false);
+    Verifier verifier = createMock(Verifier.class);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth);
+    expect(cryptoFactory.createVerifier("nodename")).andReturn(verifier);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(denied);
+    replayAll();
+    classUnderTest.getVerifier("nodename");
+    classUnderTest.invalidate("nodename");
+    try {
+      classUnderTest.getVerifier("nodename");
+      fail("Expected SecurityStorageException");
+    } catch (SecurityStorageException e) {
+      // pass
+    }
+    verifyAll();
+  }
+  
+  @Test
+  public void getVerifier_expired() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    Verifier verifier = createMock(Verifier.class);
+    Verifier verifier2 = createMock(Verifier.class);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth).times(2);
+    expect(cryptoFactory.createVerifier("nodename")).andReturn(verifier);
+    expect(cryptoFactory.createVerifier("nodename")).andReturn(verifier2);
+    replayAll();
+    classUnderTest.setCacheTimeout(1000);
+    assertSame(verifier, classUnderTest.getVerifier("nodename"));
+    now = 1001;
+    assertSame(verifier2, classUnderTest.getVerifier("nodename"));
+    verifyAll();
+  }
+  
+  @Test
+  public void isInjector_cached() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    auth.setInjector(true);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth).once();
+    expect(authorizationManager.getByNodeName("othernode")).andReturn(null).times(2);
+    replayAll();
+    assertTrue(classUnderTest.isInjector("nodename"));
+    assertTrue(classUnderTest.isInjector("nodename"));
+    assertFalse(classUnderTest.isInjector("othernode"));
+    assertFalse(classUnderTest.isInjector("othernode"));
+    verifyAll();
+  }
+  
+  @Test
+  public void invalidateAfterCommit() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    auth.setInjector(true);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth).times(2);
+    replayAll();
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      assertTrue(classUnderTest.isInjector("nodename"));
+      classUnderTest.invalidateAfterCommit("nodename");
+      // still cached until committed
+      assertTrue(classUnderTest.isInjector("nodename"));
+      for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+        sync.afterCommit();
+      }
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    assertTrue(classUnderTest.isInjector("nodename"));
+    verifyAll();
+  }
+  
+  @Test
+  public void invalidateAfterCommit_noTransaction() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    auth.setInjector(true);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth).times(2);
+    replayAll();
+    assertTrue(classUnderTest.isInjector("nodename"));
+    classUnderTest.invalidateAfterCommit(null);
+    assertTrue(classUnderTest.isInjector("nodename"));
+    verifyAll();
+  }
+  
+  @Test
+  public void setAuthorizationManager_registersForInvalidation() throws Exception {
+    final List<String> invalidated = new ArrayList<String>();
+    SecurityManager securityManager = new SecurityManager() {
+      @Override
+      public void invalidateAfterCommit(String nodeName) {
+        invalidated.add(nodeName);
+      }
+    };
+    JdbcOperations template = createMock(JdbcOperations.class);
+    AuthorizationManager manager = new AuthorizationManager();
+    manager.setJdbcTemplate(template);
+    securityManager.setAuthorizationManager(manager);
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setConnectionUUID("uuid");
+    auth.setLastUpdated(new Date(1000L));
+    Timestamp lastUpdated = new Timestamp(1000L);
+    expect(template.update(
+        "UPDATE beast_authorization " +
+        "SET nodeemail=?, nodeaddress=?, redirected_address=?, publickey=?, publickeypath=?, privatekey=?, privatekeypath=?, lastupdated=?, authorized=?, injector=?, local=?, connectionuuid=? " +
+        "WHERE nodename=?",
+        new Object[]{null, null, null, null, null, null, null, lastUpdated, false, false, false, "uuid", "nodename"})).andReturn(1);
+    expect(template.update(
+        "UPDATE beast_authorization " +
+        "SET nodename=?, nodeemail=?, nodeaddress=?, redirected_address=?, publickey=?, publickeypath=?, privatekey=?, privatekeypath=?, lastupdated=?, authorized=?, injector=?, local=? " +
+        "WHERE connectionuuid=?",
+        new Object[]{"nodename", null, null, null, null, null, null, null, lastUpdated, false, false, false, "uuid"})).andReturn(1);
+    expect(template.update("DELETE from beast_authorization WHERE connectionuuid=?", new Object[]{"uuid"})).andReturn(1);
+    replayAll();
+    manager.updateByNodeName(auth);
+    manager.update(auth);
+    manager.delete("uuid");
+    verifyAll();
+    assertEquals(Arrays.asList("nodename", null, null), invalidated);
+  }
+  
+  @Test
+  public void validate_pipeline() throws Exception {
+    Authorization auth = new Authorization();
+    auth.setNodeName("nodename");
+    auth.setAuthorized(true);
+    Verifier verifier = createMock(Verifier.class);
+    expect(authorizationManager.getByNodeName("nodename")).andReturn(auth);
+    expect(cryptoFactory.createVerifier("nodename")).andReturn(verifier);
+    expect(verifier.verify("message", "signature")).andReturn(true).once();
+    replayAll();
+    VerificationPipeline pipeline = new VerificationPipeline();
+    classUnderTest.setVerificationPipeline(pipeline);
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+    verifyAll();
+    assertSame(pipeline, classUnderTest.getVerificationPipeline());
+  }
+  
 //  @Test
 //  public void add_request() {
 //    AuthorizationRequest request = new AuthorizationRequest();
@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package eu.baltrad.beast.security;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.baltrad.beast.security.VerificationPipeline.SignedMessage;
+import eu.baltrad.beast.security.crypto.Verifier;
+
+/**
+ * @author anders
+ */
+public class VerificationPipelineTest extends EasyMockSupport {
+  private VerificationPipeline classUnderTest;
+  private ISecurityManager securityManager;
+  private long now = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    securityManager = createMock(ISecurityManager.class);
+    classUnderTest = new VerificationPipeline() {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+    classUnderTest.setSecurityManager(securityManager);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    classUnderTest.destroy();
+  }
+
+  @Test
+  public void validate() throws Exception {
+    Verifier verifier = createMock(Verifier.class);
+    expect(securityManager.getVerifier("nodename")).andReturn(verifier);
+    expect(verifier.verify("message", "signature")).andReturn(true);
+    replayAll();
+
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+
+    verifyAll();
+    assertEquals(1, classUnderTest.getHistogram().getCount());
+    assertEquals(0, classUnderTest.getCacheHits());
+  }
+
+  @Test
+  public void validate_retransmission() throws Exception {
+    Verifier verifier = createMock(Verifier.class);
+    expect(securityManager.getVerifier("nodename")).andReturn(verifier).times(3);
+    expect(verifier.verify("message", "signature")).andReturn(true).once();
+    expect(verifier.verify("message", "other")).andReturn(false).once();
+    replayAll();
+
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+    assertFalse(classUnderTest.validate("nodename", "other", "message"));
+
+    verifyAll();
+    assertEquals(1, classUnderTest.getCacheHits());
+    assertEquals(2, classUnderTest.getHistogram().getCount());
+  }
+
+  @Test
+  public void validate_expired() throws Exception {
+    Verifier verifier = createMock(Verifier.class);
+    expect(securityManager.getVerifier("nodename")).andReturn(verifier).times(2);
+    expect(verifier.verify("message", "signature")).andReturn(true).times(2);
+    replayAll();
+
+    classUnderTest.setCacheTimeout(1000);
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+    now = 1001;
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+
+    verifyAll();
+    assertEquals(0, classUnderTest.getCacheHits());
+  }
+
+  @Test
+  public void validate_newVerifier() throws Exception {
+    Verifier verifier = createMock(Verifier.class);
+    Verifier verifier2 = createMock(Verifier.class);
+    expect(securityManager.getVerifier("nodename")).andReturn(verifier);
+    expect(verifier.verify("message", "signature")).andReturn(true);
+    expect(securityManager.getVerifier("nodename")).andReturn(verifier2);
+    expect(verifier2.verify("message", "signature")).andReturn(false);
+    replayAll();
+
+    assertTrue(classUnderTest.validate("nodename", "signature", "message"));
+    assertFalse(classUnderTest.validate("nodename", "signature", "message"));
+
+    verifyAll();
+  }
+
+  @Test
+  public void validate_notAuthorized() throws Exception {
+    expect(securityManager.getVerifier("nodename")).andThrow(new SecurityStorageException("Not authorized"));
+    replayAll();
+
+    try {
+      classUnderTest.validate("nodename", "signature", "message");
+      fail("Expected SecurityStorageException");
+    } catch (SecurityStorageException e) {
+      // pass
+    }
+
+    verifyAll();
+  }
+
+  @Test
+  public void validateAsync_notAuthorized() throws Exception {
+    expect(securityManager.getVerifier("nodename")).andThrow(new SecurityStorageException("Not authorized"));
+    replayAll();
+
+    try {
+      classUnderTest.validateAsync("nodename", "signature", "message").get(5, TimeUnit.SECONDS);
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof SecurityStorageException);
+    }
+
+    verifyAll();
+  }
+
+  @Test
+  public void validateAll() throws Exception {
+    Verifier verifier = createMock(Verifier.class);
+    expect(securityManager.getVerifier("n1")).andReturn(verifier).times(2);
+    expect(securityManager.getVerifier("n2")).andThrow(new SecurityStorageException("Not authorized"));
+    expect(verifier.verify("m1", "s1")).andReturn(true);
+    expect(verifier.verify("m2", "s2")).andReturn(false);
+    replayAll();
+
+    classUnderTest.setPoolSize(2);
+    List<SignedMessage> messages = new ArrayList<SignedMessage>();
+    messages.add(new SignedMessage("n1", "s1", "m1"));
+    messages.add(new SignedMessage("n2", "s1", "m1"));
+    messages.add(new SignedMessage("n1", "s2", "m2"));
+
+    List<Boolean> result = classUnderTest.validateAll(messages);
+
+    verifyAll();
+    assertEquals(3, result.size());
+    assertTrue(result.get(0));
+    assertFalse(result.get(1));
+    assertFalse(result.get(2));
+  }
+
+  @Test
+  public void purgeScheduled() throws Exception {
+    Verifier verifier = createMock(Verifier.class);
+    expect(securityManager.getVerifier("nodename")).andReturn(verifier);
+    expect(verifier.verify("message", "signature")).andReturn(true);
+    replayAll();
+
+    assertFalse(classUnderTest.isPurging());
+    classUnderTest.validate("nodename", "signature", "message");
+    assertTrue(classUnderTest.isPurging());
+    classUnderTest.destroy();
+
+    verifyAll();
+    assertFalse(classUnderTest.isPurging());
+  }
+
+  @Test
+  public void histogram() throws Exception {
+    VerificationPipeline.Histogram histogram = new VerificationPipeline.Histogram();
+    histogram.add(50);
+    histogram.add(100);
+    histogram.add(300);
+    histogram.add(1000000);
+
+    long[] counts = histogram.getCounts();
+    assertEquals(histogram.getBounds().length + 1, counts.length);
+    assertEquals(2, counts[0]);
+    assertEquals(1, counts[2]);
+    assertEquals(1, counts[counts.length - 1]);
+    assertEquals(4, histogram.getCount());
+    assertEquals(1000000, histogram.getMax());
+  }
+}